@@ -15,6 +15,9 @@
 
 package com.vmware.vhadoop.api.vhm;
 
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -28,6 +31,7 @@ import com.vmware.vhadoop.api.vhm.events.ClusterStateChangeEvent.SerengetiCluste
 import com.vmware.vhadoop.api.vhm.events.ClusterStateChangeEvent.VMConstantData;
 import com.vmware.vhadoop.api.vhm.events.ClusterStateChangeEvent.VMVariableData;
 import com.vmware.vhadoop.api.vhm.events.ClusterStateChangeEvent.VmType;
+import com.vmware.vhadoop.util.StringDictionary;
 
 /* Represents read-only and idempotent methods for ClusterMap
  * Everything returned by this interface should be a deep and immutable copy of the ClusterMap data */
@@ -56,6 +60,9 @@ public interface ClusterMap {
 
    Set<String> listHostsWithComputeVMsForCluster(String clusterId);
 
+   /* Returns null if the cluster is not known. Constant time, as the summary is maintained as the cluster changes. */
+   ClusterSummary getClusterSummary(String clusterId);
+
    String getClusterIdForName(String clusterFolderName);
 
    Map<String, String> getHostIdsForVMs(Set<String> vmsToED);
@@ -98,6 +105,25 @@ public interface ClusterMap {
 
    /* Returns NIC name as key and IpAddresses for NIC as value */
    Map<String, Set<String>> getNicAndIpAddressesForVm(String vmId);
+
+   /* The names of the VM fields passed to a VMFieldWatcher */
+   String VM_FIELD_HOST_MOREF = "hostMoRef";
+   String VM_FIELD_MY_NAME = "myName";
+   String VM_FIELD_POWER_STATE = "powerState";
+   String VM_FIELD_DNS_NAME = "dnsName";
+   String VM_FIELD_NIC_AND_IPADDRESS_MAP = "nicAndIpAddressMap";
+   String VM_FIELD_VCPUS = "vCPUs";
+
+   /* Watchers are called by the thread updating ClusterMap while it holds the write lock, so must not block or access ClusterMap */
+   interface VMFieldWatcher {
+      void vmFieldChanged(String vmId, String fieldName, Object newValue);
+   }
+
+   /* Allows a reader to be told as soon as the state of particular VMs changes, rather than polling for it
+    * Watchers can be added and removed while holding the read lock and must be removed when no longer needed */
+   void addVMFieldWatcher(Set<String> vmIds, VMFieldWatcher watcher);
+
+   void removeVMFieldWatcher(Set<String> vmIds, VMFieldWatcher watcher);
    
    interface VMUpdateListener {
       void updatingVM(String moRef);
@@ -107,71 +133,149 @@ public interface ClusterMap {
       void updatingVMCollection();
    }
 
-   /* This data type is here to prevent direct access to internal members in any of the implementation classes */
+   /* This data type is here to prevent direct access to internal members in any of the implementation classes
+    * There is one VMInfo per VM, so its representation is kept compact for large inventories:
+    *  - host and cluster ids, which are shared by many VMs, are dictionary-encoded as ints
+    *  - the VM type, power state and vCPUs are primitives rather than an enum reference and boxed values
+    *  - the NICs and their IP addresses are packed into arrays, with the NIC names dictionary-encoded
+    * The getters decode on each call, so callers that need a value repeatedly should keep the result */
    class VMInfo {
+      private static final StringDictionary _hostIds = new StringDictionary();
+      private static final StringDictionary _clusterIds = new StringDictionary();
+      private static final StringDictionary _nicNames = new StringDictionary();
+      private static final VmType[] VM_TYPES = VmType.values();
+
+      private static final byte UNKNOWN = -1;
+      private static final byte POWERED_OFF = 0;
+      private static final byte POWERED_ON = 1;
+
       private final String _moRef;
-      private final VMConstantData _constantData;
-      private final VMVariableData _variableData;
-      private final String _clusterId;
+      private final String _myUUID;
+      private final int _clusterIdCode;
+      private final byte _vmType;
+      private byte _powerState;
+      private short _vCPUs;
+      private int _hostMoRefCode;
+      private String _myName;
+      private String _dnsName;
+      /* NIC name codes, each followed by the number of IP addresses of the NIC */
+      private int[] _nicCodesAndCounts;
+      /* The IP addresses of all of the NICs, in NIC order */
+      private String[] _ipAddresses;
       private long _powerOnTime; // most recent timestamp when VHM learned VM is on
       private long _powerOffTime; // most recent timestamp when VHM learned VM is off
       private VMUpdateListener _updateListener;
 
       /* VMInfo is created with a completed VMConstantData and a potentially incomplete or even null variableData
-       * moRef and clusterId must not be null */
+       * moRef and clusterId must not be null. Neither data object is retained. */
       public VMInfo(String moRef, VMConstantData constantData,
             VMVariableData variableData, String clusterId) {
          _moRef = moRef;
-         _constantData = constantData;
+         _myUUID = constantData._myUUID;
+         _vmType = (constantData._vmType == null) ? UNKNOWN : (byte)constantData._vmType.ordinal();
+         _clusterIdCode = _clusterIds.encode(clusterId);
          /* Provide an empty variableData if a null one is passed in */
-         _variableData = (variableData != null) ? variableData : new VMVariableData();
-         _clusterId = clusterId;
-         if (_variableData._powerState != null) {
-            if (_variableData._powerState) {
+         if (variableData == null) {
+            variableData = new VMVariableData();
+         }
+         _powerState = encodePowerState(variableData._powerState);
+         _vCPUs = encodeVCPUs(variableData._vCPUs);
+         _hostMoRefCode = _hostIds.encode(variableData._hostMoRef);
+         _myName = variableData._myName;
+         _dnsName = variableData._dnsName;
+         setNicAndIpAddresses(variableData._nicAndIpAddressMap);
+         if (variableData._powerState != null) {
+            if (variableData._powerState) {
                _powerOnTime = System.currentTimeMillis();      /* Initialize to a reasonable value, even if this isn't the actual power-on time */
             } else {
-               _variableData._dnsName = null;         /* VC may give us stale values for a powered-off VM on init */
+               _dnsName = null;         /* VC may give us stale values for a powered-off VM on init */
             }
          }
       }
       
+      /* For subclasses that keep the state of the VM elsewhere, which must override all of the getters and setters other than getMoRef */
+      protected VMInfo(String moRef) {
+         _moRef = moRef;
+         _myUUID = null;
+         _clusterIdCode = StringDictionary.NULL_CODE;
+         _vmType = UNKNOWN;
+      }
+
       public void setUpdateListener(VMUpdateListener listener) {
          _updateListener = listener;
       }
       
-      private VMVariableData assignVariableData() {
+      /* Must be called by each setter before the state is changed */
+      protected void notifyUpdate() {
          if (_updateListener != null) {
             _updateListener.updatingVM(_moRef);
          }
-         return _variableData;
+      }
+
+      private static byte encodePowerState(Boolean powerState) {
+         return (powerState == null) ? UNKNOWN : (powerState ? POWERED_ON : POWERED_OFF);
+      }
+
+      /* No VM has anywhere near Short.MAX_VALUE vCPUs */
+      private static short encodeVCPUs(Integer vCPUs) {
+         return (vCPUs == null) ? UNKNOWN : (short)Math.min(vCPUs, Short.MAX_VALUE);
+      }
+
+      private void setNicAndIpAddresses(Map<String, Set<String>> nicAndIpAddressMap) {
+         if (nicAndIpAddressMap == null) {
+            _nicCodesAndCounts = null;
+            _ipAddresses = null;
+            return;
+         }
+         int[] nicCodesAndCounts = new int[nicAndIpAddressMap.size() * 2];
+         int numIpAddresses = 0;
+         for (Set<String> ipAddresses : nicAndIpAddressMap.values()) {
+            numIpAddresses += (ipAddresses == null) ? 0 : ipAddresses.size();
+         }
+         String[] allIpAddresses = new String[numIpAddresses];
+         int nic = 0;
+         int ip = 0;
+         for (Entry<String, Set<String>> entry : nicAndIpAddressMap.entrySet()) {
+            nicCodesAndCounts[nic++] = _nicNames.encode(entry.getKey());
+            int count = 0;
+            if (entry.getValue() != null) {
+               for (String ipAddress : entry.getValue()) {
+                  allIpAddresses[ip++] = ipAddress;
+                  count++;
+               }
+            }
+            nicCodesAndCounts[nic++] = count;
+         }
+         _nicCodesAndCounts = nicCodesAndCounts;
+         _ipAddresses = allIpAddresses;
       }
 
       public String getClusterId() {
-         return _clusterId;
+         return _clusterIds.decode(_clusterIdCode);
       }
 
       public VmType getVmType() {
-         return _constantData._vmType;
+         return (_vmType == UNKNOWN) ? null : VM_TYPES[_vmType];
       }
 
       public String getHostMoRef() {
-         return _variableData._hostMoRef;
+         return _hostIds.decode(_hostMoRefCode);
       }
 
       public String getMyName() {
-         return _variableData._myName;
+         return _myName;
       }
 
       public Boolean getPowerState() {
-         return _variableData._powerState;
+         return (_powerState == UNKNOWN) ? null : Boolean.valueOf(_powerState == POWERED_ON);
       }
 
       public String getDnsName() {
-         return _variableData._dnsName;
+         return _dnsName;
       }
 
       public Integer getvCPUs() {
-         return _variableData._vCPUs;
+         return (_vCPUs == UNKNOWN) ? null : Integer.valueOf(_vCPUs);
       }
       
       public String getMoRef() {
@@ -187,44 +291,72 @@ public interface ClusterMap {
       }
 
       public String getMyUUID() {
-         return _constantData._myUUID;
+         return _myUUID;
       }
 
+      /* Returns a new map each time, so the result can be modified by the caller */
       public Map<String, Set<String>> getNicAndIpAddressMap() {
-         return _variableData._nicAndIpAddressMap;
+         int[] nicCodesAndCounts = _nicCodesAndCounts;
+         String[] ipAddresses = _ipAddresses;
+         if (nicCodesAndCounts == null) {
+            return null;
+         }
+         Map<String, Set<String>> result = new LinkedHashMap<String, Set<String>>();
+         int ip = 0;
+         for (int nic = 0; nic < nicCodesAndCounts.length; nic += 2) {
+            int count = nicCodesAndCounts[nic + 1];
+            Set<String> nicIpAddresses = new LinkedHashSet<String>();
+            for (int i = 0; i < count; i++) {
+               nicIpAddresses.add(ipAddresses[ip++]);
+            }
+            result.put(_nicNames.decode(nicCodesAndCounts[nic]), nicIpAddresses);
+         }
+         return result;
+      }
+
+      /* For checking whether an update changes the NICs, which subclasses can override to avoid building a copy of them */
+      public boolean nicAndIpAddressMapEquals(Map<String, Set<String>> nicAndIpAddressMap) {
+         Map<String, Set<String>> current = getNicAndIpAddressMap();
+         return (current == null) ? (nicAndIpAddressMap == null) : current.equals(nicAndIpAddressMap);
       }
 
       public void setMyName(String myName) {
-         assignVariableData()._myName = myName;
+         notifyUpdate();
+         _myName = myName;
       }
 
       public void setHostMoRef(String hostMoRef) {
-         assignVariableData()._hostMoRef = hostMoRef;
+         notifyUpdate();
+         _hostMoRefCode = _hostIds.encode(hostMoRef);
       }
 
       public void setPowerState(Boolean powerState) {
-         assignVariableData()._powerState = powerState;
+         notifyUpdate();
+         _powerState = encodePowerState(powerState);
       }
 
       public void setDnsName(String dnsName) {
-         assignVariableData()._dnsName = dnsName;
+         notifyUpdate();
+         _dnsName = dnsName;
       }
 
       public void setNicAndIpAddressMap(Map<String, Set<String>> nicAndIpAddressMap) {
-         assignVariableData()._nicAndIpAddressMap = nicAndIpAddressMap;
+         notifyUpdate();
+         setNicAndIpAddresses(nicAndIpAddressMap);
       }
 
       public void setvCPUs(Integer vCPUs) {
-         assignVariableData()._vCPUs = vCPUs;
+         notifyUpdate();
+         _vCPUs = encodeVCPUs(vCPUs);
       }
 
       public void setPowerOnTime(long currentTimeMillis) {
-         assignVariableData();
+         notifyUpdate();
          _powerOnTime = currentTimeMillis;
       }
 
       public void setPowerOffTime(long currentTimeMillis) {
-         assignVariableData();
+         notifyUpdate();
          _powerOffTime = currentTimeMillis;
       }
    }
@@ -289,6 +421,14 @@ public interface ClusterMap {
          return _masterUUID;
       }
 
+      /* Returns a copy, or null if there is no extra info */
+      public Map<String, String> getExtraInfoMap() {
+         if (_extraInfo != null) {
+            return new HashMap<String, String>(_extraInfo);
+         }
+         return null;
+      }
+
       public String getExtraInfoMapAsString() {
          if (_extraInfo != null) {
             return _extraInfo.toString();
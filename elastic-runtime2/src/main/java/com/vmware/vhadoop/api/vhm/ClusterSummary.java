@@ -0,0 +1,83 @@
+/***************************************************************************
+* Copyright (c) 2013 VMware, Inc. All Rights Reserved.
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+***************************************************************************/
+
+
+package com.vmware.vhadoop.api.vhm;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An immutable summary of the compute VMs of a cluster, which ClusterMap maintains as the cluster changes, so getting it is constant time
+ * The version is larger each time anything about the cluster or its VMs has changed. A caller that keeps a result derived from the
+ *   cluster can compare versions to tell whether it needs to derive the result again.
+ * Compute VMs whose power state is not yet known are only included in the number of compute VMs
+ */
+public class ClusterSummary {
+   private final String _clusterId;
+   private final long _version;
+   private final int _numComputeVMs;
+   private final int _numPoweredOn;
+   private final int _numPoweredOff;
+   private final int _numPoweredOnWithDnsName;
+   private final Map<String, Integer> _poweredOnCountsByHost;
+   private final Map<String, Integer> _poweredOffCountsByHost;
+
+   /* The maps are copied */
+   public ClusterSummary(String clusterId, long version, int numComputeVMs, int numPoweredOn, int numPoweredOff, int numPoweredOnWithDnsName,
+         Map<String, Integer> poweredOnCountsByHost, Map<String, Integer> poweredOffCountsByHost) {
+      _clusterId = clusterId;
+      _version = version;
+      _numComputeVMs = numComputeVMs;
+      _numPoweredOn = numPoweredOn;
+      _numPoweredOff = numPoweredOff;
+      _numPoweredOnWithDnsName = numPoweredOnWithDnsName;
+      _poweredOnCountsByHost = Collections.unmodifiableMap(new HashMap<String, Integer>(poweredOnCountsByHost));
+      _poweredOffCountsByHost = Collections.unmodifiableMap(new HashMap<String, Integer>(poweredOffCountsByHost));
+   }
+
+   public String getClusterId() {
+      return _clusterId;
+   }
+
+   public long getVersion() {
+      return _version;
+   }
+
+   public int getNumComputeVMs() {
+      return _numComputeVMs;
+   }
+
+   public int getNumComputeVMsForPowerState(boolean powerState) {
+      return powerState ? _numPoweredOn : _numPoweredOff;
+   }
+
+   /* Powered on compute VMs which have reported a DNS name, so their TaskTrackers could be reached */
+   public int getNumPoweredOnWithDnsName() {
+      return _numPoweredOnWithDnsName;
+   }
+
+   /* Returns host id as key and the number of compute VMs in the power state on that host as value. Hosts with none are not included. */
+   public Map<String, Integer> getComputeVMCountsByHostForPowerState(boolean powerState) {
+      return powerState ? _poweredOnCountsByHost : _poweredOffCountsByHost;
+   }
+
+   @Override
+   public String toString() {
+      return "ClusterSummary{clusterId="+_clusterId+", version="+_version+", compute="+_numComputeVMs+", on="+_numPoweredOn+
+            ", off="+_numPoweredOff+", onWithDnsName="+_numPoweredOnWithDnsName+"}";
+   }
+}
@@ -80,6 +80,32 @@ public interface HadoopActions {
       }
    }
 
+   /* Receives the set of active TTs each time it is read from the job tracker while checking for de/recommission.
+    * Called on the thread doing the check, so the check does not progress until this returns */
+   public interface ActiveTTsListener {
+      public void activeTTsChanged(Set<String> activeTTDnsNames);
+   }
+
+   /* A sample of the load on a job tracker, as reported by its JobTrackerMetrics MBean */
+   public class JobTrackerMetrics {
+      public int _mapSlots;
+      public int _occupiedMapSlots;
+      public int _reduceSlots;
+      public int _occupiedReduceSlots;
+      /* Tasks of running jobs that are waiting for a slot */
+      public int _waitingMaps;
+      public int _waitingReduces;
+      /* All of the task trackers known to the job tracker, including those that are blacklisted */
+      public int _trackers;
+      public int _blacklistedTrackers;
+
+      @Override
+      public String toString() {
+         return "maps="+_occupiedMapSlots+"/"+_mapSlots+", reduces="+_occupiedReduceSlots+"/"+_reduceSlots+", waitingMaps="+_waitingMaps+
+               ", waitingReduces="+_waitingReduces+", trackers="+_trackers+", blacklistedTrackers="+_blacklistedTrackers;
+      }
+   }
+
    public class JTConfigInfo {
       String _hadoopHomePath;
       String _excludeTTPath;
@@ -103,8 +129,16 @@ public interface HadoopActions {
    public void recommissionTTs(Set<String> ttDnsNames, HadoopClusterInfo cluster);
 	
    public Set<String> checkTargetTTsSuccess(String opType, Set<String> ttDnsNames, int totalTargetEnabled, HadoopClusterInfo cluster);
+
+   public Set<String> checkTargetTTsSuccess(String opType, Set<String> ttDnsNames, int totalTargetEnabled, HadoopClusterInfo cluster, ActiveTTsListener listener);
 	
    public Set<String> getActiveTTs(HadoopClusterInfo cluster, int totalTargetEnabled);
 
    public boolean validateTtHostNames(Set<String> dnsNames);
+
+   /* Called once the job tracker of a cluster is known, so that any setup can be done ahead of the first scale operation */
+   public void prepareJobTracker(HadoopClusterInfo cluster);
+
+   /* Reads the current load on the job tracker. Returns null if the metrics could not be read. Can be called concurrently with the other methods. */
+   public JobTrackerMetrics getJobTrackerMetrics(HadoopClusterInfo cluster);
 }
@@ -0,0 +1,43 @@
+/***************************************************************************
+* Copyright (c) 2013 VMware, Inc. All Rights Reserved.
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+***************************************************************************/
+
+package com.vmware.vhadoop.api.vhm;
+
+/**
+ * Read access to recently sampled performance metrics of hosts and VMs, aggregated over a sliding window of samples
+ * All of the methods are constant time and can be called by multiple threads
+ * Each method returns null if there are no samples for the entity and metric, or if the most recent sample is stale
+ */
+public interface PerformanceStats {
+
+   public enum Metric {
+      HOST_CPU_READY_PERCENT,
+      HOST_MEM_USAGE_PERCENT,
+      HOST_DISK_LATENCY_MILLIS,
+      VM_CPU_USAGE_PERCENT,
+      VM_CPU_READY_PERCENT,
+      VM_MEM_USAGE_PERCENT
+   }
+
+   /* Entity id is a host id for HOST_ metrics and a VM id for VM_ metrics */
+   Double getLatest(String entityId, Metric metric);
+
+   Double getMean(String entityId, Metric metric);
+
+   Double getMax(String entityId, Metric metric);
+
+   /* The number of samples currently in the window */
+   int getSampleCount(String entityId, Metric metric);
+}
@@ -0,0 +1,25 @@
+/***************************************************************************
+* Copyright (c) 2013 VMware, Inc. All Rights Reserved.
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+***************************************************************************/
+
+package com.vmware.vhadoop.api.vhm;
+
+/**
+ * A VHMCollaborator that holds threads, sockets or other resources which must be released when VHM stops
+ * stop() is called on the VHM thread once it has stopped processing events. It is also called if VHM stops because of an unexpected exception.
+ */
+public interface StoppableCollaborator extends VHMCollaborator {
+
+   public void stop();
+}
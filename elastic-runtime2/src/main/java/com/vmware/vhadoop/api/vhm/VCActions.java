@@ -35,10 +35,13 @@ public interface VCActions {
       public Integer _minInstances;
       public Integer _maxInstances;
       public Integer _jobTrackerPort;
+      public Integer _prewarmLeadTimeMinutes;
+      public Double _prewarmConfidence;
 
       @Override
       public String toString() {
-         return "clusterName="+_clusterName+", enableAutomation="+_enableAutomation+", minInstances="+_minInstances+", maxInstances="+_maxInstances+", jobTrackerPort="+_jobTrackerPort;
+         return "clusterName="+_clusterName+", enableAutomation="+_enableAutomation+", minInstances="+_minInstances+", maxInstances="+_maxInstances+", jobTrackerPort="+_jobTrackerPort+
+               ", prewarmLeadTimeMinutes="+_prewarmLeadTimeMinutes+", prewarmConfidence="+_prewarmConfidence;
       }
    }
 
@@ -72,11 +75,47 @@ public interface VCActions {
       }
    }
 
+   /* A real-time performance sample for a host. Any field may be null if VC has no value for the corresponding counter */
+   public class HostStats {
+      public Long _timestampMillis;
+      /* Time that runnable vCPUs on the host spent waiting for a physical CPU as a percentage of the sample interval, summed over all vCPUs */
+      public Double _cpuReadyPercent;
+      public Double _memUsagePercent;
+      /* The highest latency of any disk or datastore used by the host */
+      public Long _diskLatencyMillis;
+
+      @Override
+      public String toString() {
+         return "cpuReadyPercent="+_cpuReadyPercent+", memUsagePercent="+_memUsagePercent+", diskLatencyMillis="+_diskLatencyMillis+", timestampMillis="+_timestampMillis;
+      }
+   }
+
+   /* A real-time performance sample for a VM. Any field may be null if VC has no value for the corresponding counter */
+   public class VMStats {
+      public Long _timestampMillis;
+      public Double _cpuUsagePercent;
+      /* Time that runnable vCPUs of the VM spent waiting for a physical CPU as a percentage of the sample interval, summed over all vCPUs */
+      public Double _cpuReadyPercent;
+      /* Active memory as a percentage of configured memory */
+      public Double _memUsagePercent;
+
+      @Override
+      public String toString() {
+         return "cpuUsagePercent="+_cpuUsagePercent+", cpuReadyPercent="+_cpuReadyPercent+", memUsagePercent="+_memUsagePercent+", timestampMillis="+_timestampMillis;
+      }
+   }
+
    public Map<String, Future<Boolean>> changeVMPowerState(Set<String> vmMoRefs, boolean b);
 
    public void interruptWait();
 
    public PerformanceManager getPerformanceManager();
+
+   /* Returns the latest host stats keyed by host moRef, omitting any host for which there are no stats. Null if stats cannot be retrieved */
+   public Map<String, HostStats> getHostStats(Set<String> hostMoRefs);
+
+   /* Returns the latest VM stats keyed by VM moRef, omitting any VM for which there are no stats. Null if stats cannot be retrieved */
+   public Map<String, VMStats> getVMStats(Set<String> vmMoRefs);
    
    /* Should only ever be called by the ClusterStateChangeListener Thread */
    public List<VMEventData> waitForPropertyChange(String folderName) throws InterruptedException;
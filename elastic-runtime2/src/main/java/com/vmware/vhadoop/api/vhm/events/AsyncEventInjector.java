@@ -0,0 +1,25 @@
+/***************************************************************************
+* Copyright (c) 2013 VMware, Inc. All Rights Reserved.
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+***************************************************************************/
+
+package com.vmware.vhadoop.api.vhm.events;
+
+/**
+ * An EventInjector that VHM does not wait for
+ * Its processEvent is called with each batch of events as usual, but the events it injects are placed on the VHM event queue
+ *   once it has returned, so they are processed with a later batch rather than the one that caused them
+ */
+public interface AsyncEventInjector extends EventInjector {
+
+}
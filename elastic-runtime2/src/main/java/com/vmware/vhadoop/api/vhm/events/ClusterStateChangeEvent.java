@@ -83,6 +83,9 @@ public interface ClusterStateChangeEvent extends NotificationEvent {
       public Integer _minInstances;
       public Integer _maxInstances;
       public Integer _jobTrackerPort;
+      /* Optional, so not part of completeness */
+      public Integer _prewarmLeadTimeMinutes;
+      public Double _prewarmConfidence;
 
       public boolean isComplete() {
          return ((_enableAutomation != null) && (_minInstances != null) && (_maxInstances != null) && (_jobTrackerPort != null));
@@ -90,7 +93,8 @@ public interface ClusterStateChangeEvent extends NotificationEvent {
 
       @Override
       public String toString() {
-         return "SerengetiClusterVariableData{auto="+_enableAutomation+", minInstances="+_minInstances+", maxInstances="+_maxInstances+", jobTrackerPort="+_jobTrackerPort+"}";
+         return "SerengetiClusterVariableData{auto="+_enableAutomation+", minInstances="+_minInstances+", maxInstances="+_maxInstances+", jobTrackerPort="+_jobTrackerPort+
+               ", prewarmLeadTimeMinutes="+_prewarmLeadTimeMinutes+", prewarmConfidence="+_prewarmConfidence+"}";
       }
    }
 
@@ -24,8 +24,16 @@ import com.vmware.vhadoop.api.vhm.VHMCollaborator;
  * VHM can have any number of event injectors registered and the ordering in which they are registered is irrelevant
  *   since they do not get to see each others injected events
  * Events are passed to the EventInjectors after ClusterStateChangeEvents have been processed in ClusterMap but before
- *   any other events have been processed. Any EventInjectors that are also ClusterMapReaders therefore get to see the
- *   net effect the event(s) have had on ClusterMap by the time they are being processed.
+ *   any other events have been processed.
+ * 
+ * The injectors run in parallel with each other, each on its own thread, and VHM waits for each of them for a limited time budget
+ *   per batch of events. processEvent is never called concurrently for the same injector and sees the events in order.
+ *   Events injected by an injector that overruns its budget are placed on the VHM event queue when it finishes. VHM doesn't
+ *   wait for an injector that is still working on a batch it overran, and drops batches for it once too many are waiting.
+ * 
+ * An EventInjector that is also a ClusterMapReader sees ClusterMap as it is when processEvent is called. This includes the effect
+ *   of the event if VHM is waiting for the injector. If VHM isn't waiting, because the injector is an AsyncEventInjector or has
+ *   fallen behind, ClusterMap may also already reflect later events, or the VM or cluster the event refers to may have gone.
  * 
  * @author bcorrie
  *
@@ -0,0 +1,33 @@
+/***************************************************************************
+* Copyright (c) 2013 VMware, Inc. All Rights Reserved.
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+***************************************************************************/
+
+package com.vmware.vhadoop.api.vhm.events;
+
+import com.vmware.vhadoop.api.vhm.VHMCollaborator;
+
+/**
+ * An EventObserver is a VHM collaborator that is told about each new event but, unlike an EventInjector, cannot respond with events of its own
+ * 
+ * Events are passed to the EventObservers on the VHM thread once ClusterStateChangeEvents have been processed in ClusterMap
+ *   and before the EventInjectors are run, so any EventObservers that are also ClusterMapReaders see the net effect of the events on ClusterMap.
+ * eventObserved holds up event processing, so any significant work must be handed off to another thread.
+ *
+ */
+public interface EventObserver extends VHMCollaborator {
+
+   public void eventObserved(NotificationEvent event);
+
+   public String getName();
+}
@@ -27,6 +27,19 @@ import com.vmware.vhadoop.api.vhm.ClusterMapReader;
  */
 public interface EDPolicy extends ClusterMapReader {
 
+   /**
+    * Receives notification as VMs complete enabling or disabling, before the whole operation has completed
+    * This is called on the thread performing the operation, so it should not block
+    */
+   public interface EDProgressListener {
+      /**
+       * @param completedVmIds The VM ids that have just completed
+       * @param totalCompleted The number of VMs that have completed so far in this operation, including completedVmIds
+       * @param totalRequested The number of VMs that the operation was asked to enable or disable
+       */
+      void ttsCompleted(Set<String> completedVmIds, int totalCompleted, int totalRequested);
+   }
+
    /**
     * Enable a candidate set of VMs for a target cluster
     * 
@@ -50,6 +63,18 @@ public interface EDPolicy extends ClusterMapReader {
     */
    Set<String> enableTTs(Map<String, Object> toEnable, int totalTargetEnabled, String clusterId) throws Exception;
 
+   /**
+    * Enable a candidate set of VMs for a target cluster, reporting VMs as they are enabled
+    * 
+    * @param toEnable A set of VM ids that must belong to the same cluster
+    * @param totalTargetEnabled The total target number of Task Tracker VMs that should be enabled for the cluster on completion
+    * @param clusterId The cluster that the VM ids belong to
+    * @param progressListener Notified as VMs are enabled, may be null
+    * @return The Set of VM ids that was actually enabled, or null
+    * @throws Exception
+    */
+   Set<String> enableTTs(Set<String> toEnable, int totalTargetEnabled, String clusterId, EDProgressListener progressListener) throws Exception;
+
    /**
     * Disable a candidate set of VMs for a target cluster
     * 
@@ -73,6 +98,18 @@ public interface EDPolicy extends ClusterMapReader {
     */
    Set<String> disableTTs(Map<String, Object> toDisable, int totalTargetEnabled, String clusterId) throws Exception;
 
+   /**
+    * Disable a candidate set of VMs for a target cluster, reporting VMs as they are disabled
+    * 
+    * @param toDisable A set of VM ids that must belong to the same cluster
+    * @param totalTargetEnabled The total target number of Task Tracker VMs that should be enabled for the cluster on completion
+    * @param clusterId The cluster that the VM ids belong to
+    * @param progressListener Notified as VMs are disabled, may be null
+    * @return The Set of VM ids that was actually disabled, or null
+    * @throws Exception
+    */
+   Set<String> disableTTs(Set<String> toDisable, int totalTargetEnabled, String clusterId, EDProgressListener progressListener) throws Exception;
+
    /**
     * Returns VM ids of active Task Trackers for a given cluster Id
     * 
@@ -23,6 +23,7 @@ import java.util.logging.Logger;
 import com.vmware.vhadoop.api.vhm.ClusterMapReader;
 import com.vmware.vhadoop.api.vhm.events.ClusterScaleCompletionEvent;
 import com.vmware.vhadoop.api.vhm.events.ClusterScaleEvent;
+import com.vmware.vhadoop.util.ScaleTrace;
 import com.vmware.vhadoop.vhm.AbstractClusterMapReader;
 
 /**
@@ -96,12 +97,16 @@ public interface ScaleStrategy extends ClusterMapReader {
          ClusterScaleCompletionEvent result = null;
          /* It is critical that this initialize call is matched by the remove() call below in order to avoid memory leaks */
          getThreadLocalCompoundStatus().initialize();
+         boolean succeeded = false;
          try {
             result = localCall();
+            succeeded = (getCompoundStatus().getFailedTaskCount() == 0);
          } catch (Throwable t) {
             _log.log(Level.SEVERE, "VHM: unexpected exception while scaling - "+ t.getMessage());
             _log.log(Level.INFO, "VHM: unexpected exception while scaling", t);
          }
+         /* Ends the trace of the operation, if the strategy began one */
+         ScaleTrace.endOperation(succeeded);
          getThreadLocalCompoundStatus().remove();
          return result;
       }
@@ -15,8 +15,11 @@
 
 package com.vmware.vhadoop.api.vhm.strategy;
 
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
+import java.util.Map;
 import java.util.PriorityQueue;
 import java.util.Set;
 
@@ -41,11 +44,56 @@ public interface VMChooser extends VHMCollaborator {
       String _vmId;
       Double _rank;
 
+      /**
+       * Sums the ranks of any number of sets of RankedVMs, keyed by VM id, so that each set is combined in time proportional to its size
+       * Use this in preference to repeated calls to combine() when there are more than two sets to combine
+       */
+      public static class Accumulator {
+         private final Map<String, Double> _ranks = new HashMap<String, Double>();
+         private boolean _added;
+
+         /* A null set is ignored, consistent with combine() */
+         public void add(Set<RankedVM> rankedVMs) {
+            if (rankedVMs == null) {
+               return;
+            }
+            _added = true;
+            for (RankedVM rankedVM : rankedVMs) {
+               Double current = _ranks.get(rankedVM._vmId);
+               _ranks.put(rankedVM._vmId, (current == null) ? rankedVM._rank : current + rankedVM._rank);
+            }
+         }
+
+         /* Returns the combined ranks or null if no non-null set has been added */
+         public Set<RankedVM> getResult() {
+            if (!_added) {
+               return null;
+            }
+            Set<RankedVM> result = new HashSet<RankedVM>();
+            for (Map.Entry<String, Double> entry : _ranks.entrySet()) {
+               result.add(new RankedVM(entry.getKey(), entry.getValue()));
+            }
+            return result;
+         }
+
+         /* Equivalent to selectLowestRankedIds(getResult(), numToChoose) */
+         public Set<String> selectLowestRankedIds(int numToChoose) {
+            if (!_added) {
+               return null;
+            }
+            if (numToChoose >= _ranks.size()) {
+               return new HashSet<String>(_ranks.keySet());
+            }
+            return RankedVM.selectLowestRankedIds(getResult(), numToChoose);
+         }
+      }
+
       /**
        * Utility method that sums the ranks of the two input sets into a single set
        * The result should contain the superset of both input1 and input2
        * If input1 is null, input2 is returned and vice versa
        * If both are null, null is returned
+       * The input sets are not modified
        */
       public static Set<RankedVM> combine(Set<RankedVM> input1, Set<RankedVM> input2) {
          if (input1 == null) {
@@ -57,16 +105,10 @@ public interface VMChooser extends VHMCollaborator {
          } else if (input2 == null) {
             return input1;
          }
-         Set<RankedVM> copyInput1 = new HashSet<RankedVM>(input1);
-         for (RankedVM fromInput2 : input2) {
-            for (RankedVM fromInput1 : copyInput1) {
-               if (fromInput1.combine(fromInput2)) {
-                  break;
-               }
-            }
-         }
-         copyInput1.addAll(input2);
-         return copyInput1;
+         Accumulator accumulator = new Accumulator();
+         accumulator.add(input1);
+         accumulator.add(input2);
+         return accumulator.getResult();
       }
 
       /**
@@ -98,16 +140,34 @@ public interface VMChooser extends VHMCollaborator {
       /**
        * Utility method that orders the candidates passed in by rank value and selects the lowest ranked candidates
        * Returns a Set of size numToChoose or candidates.size(), whichever is the smaller. Returns null if input set is null
+       * Only the numToChoose lowest ranked candidates are kept ordered, so this takes O(n log numToChoose) time
        */
       public static Set<String> selectLowestRankedIds(Set<RankedVM> candidates, int numToChoose) {
          if (candidates == null) {
             return null;
          }
-         PriorityQueue<RankedVM> orderedQueue = new PriorityQueue<RankedVM>(candidates);
          Set<String> result = new HashSet<String>();
-         RankedVM current = null;
-         for (int i=0; (i < numToChoose) && ((current = orderedQueue.poll()) != null); i++) {
-            result.add(current.getVmId());
+         if (numToChoose <= 0) {
+            return result;
+         }
+         if (numToChoose >= candidates.size()) {
+            for (RankedVM candidate : candidates) {
+               result.add(candidate.getVmId());
+            }
+            return result;
+         }
+         /* Max-heap of the lowest ranked candidates seen so far, so the highest of them is the one to replace */
+         PriorityQueue<RankedVM> lowest = new PriorityQueue<RankedVM>(numToChoose, Collections.reverseOrder());
+         for (RankedVM candidate : candidates) {
+            if (lowest.size() < numToChoose) {
+               lowest.add(candidate);
+            } else if (candidate.compareTo(lowest.peek()) < 0) {
+               lowest.poll();
+               lowest.add(candidate);
+            }
+         }
+         for (RankedVM chosen : lowest) {
+            result.add(chosen.getVmId());
          }
          return result;
       }
@@ -134,12 +194,9 @@ public interface VMChooser extends VHMCollaborator {
          _rank = Double.valueOf(rank);
       }
 
-      private boolean combine(RankedVM combineWith) {
-         if (!combineWith._vmId.equals(_vmId)) {
-            return false;
-         }
-         _rank += combineWith._rank;
-         return true;
+      private RankedVM(String vmId, Double rank) {
+         _vmId = vmId;
+         _rank = rank;
       }
 
       public String getVmId() {
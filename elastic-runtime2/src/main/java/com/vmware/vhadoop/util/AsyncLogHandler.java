@@ -0,0 +1,237 @@
+/***************************************************************************
+* Copyright (c) 2013 VMware, Inc. All Rights Reserved.
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+***************************************************************************/
+
+package com.vmware.vhadoop.util;
+
+import java.util.logging.ErrorManager;
+import java.util.logging.Formatter;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogManager;
+import java.util.logging.LogRecord;
+
+/**
+ * Hands log records over to a target handler on a dedicated thread, so that the threads doing the logging never wait on formatting or I/O
+ * The records are held in a bounded ring. If the ring is full, further records are dropped rather than blocking the caller, and the number
+ *   dropped is logged to the target once there is room again.
+ * Records are formatted on the writer thread, so the name of the logging thread is captured when the record is published and passed to
+ *   LogFormatter, and the source method of fine records is inferred before the record is queued, while it is still on the caller's stack.
+ *   Parameters of a record are formatted later, so they should not be mutated after logging.
+ * Can be configured in logging.properties, where the target is the class name of a handler with a no-argument constructor:
+ *   com.vmware.vhadoop.util.AsyncLogHandler.target=java.util.logging.FileHandler
+ *   com.vmware.vhadoop.util.AsyncLogHandler.capacity=8192
+ */
+public class AsyncLogHandler extends Handler {
+   private static final int DEFAULT_CAPACITY = 8192;
+
+   private final Handler _target;
+   private final LogRecord[] _records;
+   private final String[] _threadNames;
+   private final Object _lock = new Object();
+   private final Thread _writerThread;
+
+   /* Guarded by _lock */
+   private int _head;
+   private int _size;
+   private long _dropped;
+   private boolean _closed;
+
+   /* Only accessed by the writer thread */
+   private long _droppedReported;
+
+   public AsyncLogHandler() {
+      this(createConfiguredTarget(), getConfiguredCapacity());
+   }
+
+   public AsyncLogHandler(Handler target) {
+      this(target, DEFAULT_CAPACITY);
+   }
+
+   public AsyncLogHandler(Handler target, int capacity) {
+      _target = target;
+      _records = new LogRecord[Math.max(1, capacity)];
+      _threadNames = new String[_records.length];
+      String level = LogManager.getLogManager().getProperty(AsyncLogHandler.class.getName()+".level");
+      if (level != null) {
+         try {
+            setLevel(Level.parse(level.trim()));
+         } catch (IllegalArgumentException e) {
+            reportError("Invalid level "+level, e, ErrorManager.GENERIC_FAILURE);
+         }
+      }
+      _writerThread = new Thread(new Runnable() {
+         @Override
+         public void run() {
+            drain();
+         }}, "Log_Writer_Thread");
+      _writerThread.setDaemon(true);
+      _writerThread.start();
+   }
+
+   private static Handler createConfiguredTarget() {
+      String className = LogManager.getLogManager().getProperty(AsyncLogHandler.class.getName()+".target");
+      if (className == null) {
+         className = "java.util.logging.ConsoleHandler";
+      }
+      try {
+         return (Handler)ClassLoader.getSystemClassLoader().loadClass(className.trim()).newInstance();
+      } catch (Exception e) {
+         throw new IllegalArgumentException("Unable to create target log handler "+className, e);
+      }
+   }
+
+   private static int getConfiguredCapacity() {
+      String capacity = LogManager.getLogManager().getProperty(AsyncLogHandler.class.getName()+".capacity");
+      if (capacity != null) {
+         try {
+            return Integer.parseInt(capacity.trim());
+         } catch (NumberFormatException e) {
+         }
+      }
+      return DEFAULT_CAPACITY;
+   }
+
+   public Handler getTarget() {
+      return _target;
+   }
+
+   /* The number of records dropped since the handler was created because the ring was full */
+   public long getDroppedCount() {
+      synchronized(_lock) {
+         return _dropped;
+      }
+   }
+
+   @Override
+   public void setFormatter(Formatter newFormatter) {
+      _target.setFormatter(newFormatter);
+   }
+
+   @Override
+   public Formatter getFormatter() {
+      return _target.getFormatter();
+   }
+
+   @Override
+   public void publish(LogRecord record) {
+      if ((record == null) || !isLoggable(record) || !_target.isLoggable(record)) {
+         return;
+      }
+      if (record.getLevel().intValue() <= Level.FINE.intValue()) {
+         record.getSourceMethodName();
+      }
+      String threadName = Thread.currentThread().getName();
+      synchronized(_lock) {
+         if (_closed || (_size == _records.length)) {
+            _dropped++;
+            return;
+         }
+         int tail = (_head + _size) % _records.length;
+         _records[tail] = record;
+         _threadNames[tail] = threadName;
+         _size++;
+         if (_size == 1) {
+            _lock.notify();
+         }
+      }
+   }
+
+   /* Publishes a batch of records to the target, returning false once closed and empty */
+   private boolean publishBatch(LogRecord[] batch, String[] batchThreadNames) throws InterruptedException {
+      int count = 0;
+      long dropped = 0;
+      boolean closed;
+      synchronized(_lock) {
+         while ((_size == 0) && !_closed) {
+            _lock.wait();
+         }
+         while ((_size > 0) && (count < batch.length)) {
+            batch[count] = _records[_head];
+            batchThreadNames[count] = _threadNames[_head];
+            _records[_head] = null;
+            _threadNames[_head] = null;
+            _head = (_head + 1) % _records.length;
+            _size--;
+            count++;
+         }
+         closed = _closed && (_size == 0);
+         dropped = _dropped;
+      }
+      for (int i = 0; i < count; i++) {
+         try {
+            LogFormatter.setSourceThreadName(batchThreadNames[i]);
+            _target.publish(batch[i]);
+         } catch (RuntimeException e) {
+            reportError(null, e, ErrorManager.WRITE_FAILURE);
+         } finally {
+            LogFormatter.setSourceThreadName(null);
+         }
+         batch[i] = null;
+      }
+      reportDropped(dropped);
+      if (count > 0) {
+         _target.flush();
+      }
+      return !closed;
+   }
+
+   private void reportDropped(long dropped) {
+      if (dropped > _droppedReported) {
+         LogRecord record = new LogRecord(Level.WARNING, "Dropped "+(dropped - _droppedReported)+" log records because the log writer could not keep up");
+         record.setLoggerName(AsyncLogHandler.class.getName());
+         _target.publish(record);
+         _droppedReported = dropped;
+      }
+   }
+
+   private void drain() {
+      LogRecord[] batch = new LogRecord[Math.min(_records.length, 256)];
+      String[] batchThreadNames = new String[batch.length];
+      try {
+         while (publishBatch(batch, batchThreadNames)) {
+         }
+      } catch (InterruptedException e) {
+         /* Only interrupted by close, if the target is stuck */
+      }
+   }
+
+   @Override
+   public void flush() {
+      _target.flush();
+   }
+
+   /* Lets the writer thread publish anything still in the ring and then closes the target */
+   @Override
+   public void close() {
+      synchronized(_lock) {
+         if (_closed) {
+            return;
+         }
+         _closed = true;
+         _lock.notifyAll();
+      }
+      try {
+         /* If the target is stuck, give up on what remains rather than hanging shutdown */
+         _writerThread.join(5000);
+         if (_writerThread.isAlive()) {
+            _writerThread.interrupt();
+            _writerThread.join(1000);
+         }
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      }
+      _target.close();
+   }
+}
@@ -85,6 +85,10 @@ public class ExternalizedParameters
       return Double.valueOf(getProperty(key));
    }
 
+   public boolean getBoolean(final String key) {
+      return Boolean.valueOf(getProperty(key).trim());
+   }
+
    public String getString(final String key) {
       return getProperty(key);
    }
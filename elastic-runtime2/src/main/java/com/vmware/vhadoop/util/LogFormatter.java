@@ -30,21 +30,25 @@
 
 package com.vmware.vhadoop.util;
 
-import java.io.ByteArrayOutputStream;
 import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.text.SimpleDateFormat;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.IllegalFormatConversionException;
+import java.util.IllegalFormatException;
 import java.util.Map;
 import java.util.Set;
-import java.util.UnknownFormatConversionException;
 import java.util.logging.Formatter;
 import java.util.logging.Level;
 import java.util.logging.LogRecord;
 import java.util.logging.Logger;
 
+/**
+ * Formats log records with a timestamp and severity marker and substitutes VM and cluster names for the ids embedded in the message
+ * Formatting is on the logging path of every thread, so it avoids allocation where it can: each thread reuses its own buffer and date
+ *   formatter, the date is only reformatted when the second changes, and the ids are substituted in a single pass as the message is appended.
+ */
 public class LogFormatter extends Formatter {
    public static final Map<String, String> _vmIdToNameMapper = Collections.synchronizedMap(new HashMap<String, String>());
    public static final Map<String, String> _clusterIdToNameMapper = Collections.synchronizedMap(new HashMap<String, String>());
@@ -57,6 +61,59 @@ public class LogFormatter extends Formatter {
    public static final String NEWLINE = System.getProperty("line.separator");
    private static final int NEWLINE_LENGTH = NEWLINE == null ? 0 : NEWLINE.length();
 
+   private static final String BADLY_FORMATTED = "FOUND BADLY FORMATTED LOG MSG: ";
+   private static final int INITIAL_BUFFER_SIZE = 256;
+   /* Buffers grown beyond this by a large record, such as a long stack trace, are not kept */
+   private static final int MAX_RETAINED_BUFFER_SIZE = 16 * 1024;
+
+   /* timestamp prefix (e.g. 2012 Sep 17 17:20:20.852) - the millis are appended separately */
+   private static class TimestampCache {
+      private final SimpleDateFormat _format = new SimpleDateFormat("yyyy MMM dd HH:mm:ss");
+      private final Date _date = new Date();
+      private long _second = Long.MIN_VALUE;
+      private String _secondText;
+
+      void append(StringBuilder sb, long millis) {
+         long second = millis / 1000;
+         int remainder = (int)(millis % 1000);
+         if (remainder < 0) {
+            second--;
+            remainder += 1000;
+         }
+         if (second != _second) {
+            _date.setTime(second * 1000);
+            _secondText = _format.format(_date);
+            _second = second;
+         }
+         sb.append(_secondText).append('.');
+         if (remainder < 100) {
+            sb.append('0');
+         }
+         if (remainder < 10) {
+            sb.append('0');
+         }
+         sb.append(remainder);
+      }
+   }
+
+   /* SimpleDateFormat is not thread-safe, so each formatting thread has its own */
+   private static final ThreadLocal<TimestampCache> _timestampCache = new ThreadLocal<TimestampCache>() {
+      @Override
+      protected TimestampCache initialValue() {
+         return new TimestampCache();
+      }
+   };
+
+   private static final ThreadLocal<StringBuilder> _buffer = new ThreadLocal<StringBuilder>() {
+      @Override
+      protected StringBuilder initialValue() {
+         return new StringBuilder(INITIAL_BUFFER_SIZE);
+      }
+   };
+
+   /* Set by handlers which format on a different thread from the one that logged the record, such as AsyncLogHandler */
+   private static final ThreadLocal<String> _sourceThreadName = new ThreadLocal<String>();
+
    private boolean decorated;
 
    protected LogFormatter(boolean decorated) {
@@ -66,22 +123,17 @@ public class LogFormatter extends Formatter {
    public LogFormatter() {
    }
 
+   /* Records formatted by this thread until it is cleared with null are decorated with the given thread name rather than the current one */
+   static void setSourceThreadName(String threadName) {
+      _sourceThreadName.set(threadName);
+   }
+
    @Override
    public String format(LogRecord record) {
-      String name = record.getLoggerName();
-      if (name == null) {
-         name = "root";
-      } else {
-         int ix = name.lastIndexOf('.');
-         if (ix != -1) {
-            name = name.substring(ix + 1);
-         }
-      }
-      StringBuilder result = new StringBuilder();
+      StringBuilder result = _buffer.get();
+      result.setLength(0);
 
-      // timestamp prefix (e.g. 2012 Sep 17 17:20:20.852)
-      SimpleDateFormat sdf = new SimpleDateFormat("yyyy MMM dd HH:mm:ss.SSS");
-      result.append(sdf.format(new Date(record.getMillis())));
+      _timestampCache.get().append(result, record.getMillis());
 
       if (record.getLevel().intValue() >= Level.WARNING.intValue()) {
          result.append(" **");
@@ -90,7 +142,14 @@ public class LogFormatter extends Formatter {
       }
 
       if (decorated) {
-         result.append(" [").append(Thread.currentThread().getName()).append("-").append(name);
+         String threadName = _sourceThreadName.get();
+         result.append(" [").append((threadName == null) ? Thread.currentThread().getName() : threadName).append("-");
+         String name = record.getLoggerName();
+         if (name == null) {
+            result.append("root");
+         } else {
+            result.append(name, name.lastIndexOf('.') + 1, name.length());
+         }
          /* Fine logging is for method entry/exit so we add the method name */
          if (record.getLevel().equals(Level.FINE) || record.getLevel().equals(Level.FINER)
                || record.getLevel().equals(Level.FINEST)) {
@@ -101,81 +160,68 @@ public class LogFormatter extends Formatter {
          result.append(" ");
       }
 
+      String message = record.getMessage();
       Object[] params = record.getParameters();
-      String rawMessage = null;
-      if ((params != null) && (params.length > 0)) {
+      if ((message != null) && (params != null) && (params.length > 0)) {
          try {
-            rawMessage = String.format(record.getMessage(), params);
-            result.append(rawMessage);
-         } catch (IllegalFormatConversionException e) {
-         } catch (UnknownFormatConversionException e) {
-            result.append("FOUND BADLY FORMATTED LOG MSG: ").append(record.getMessage());
+            message = String.format(message, params);
+         } catch (IllegalFormatException e) {
+            result.append(BADLY_FORMATTED);
          }
+      }
+      if (message == null) {
+         result.append("null");
       } else {
-         result.append((rawMessage = record.getMessage()));
+         appendSwappingIdsForNames(result, message);
       }
       result.append(NEWLINE);
       if (record.getThrown() != null) {
-         ByteArrayOutputStream baos = new ByteArrayOutputStream();
-         PrintWriter pw = new PrintWriter(baos);
+         StringWriter sw = new StringWriter();
+         PrintWriter pw = new PrintWriter(sw);
          record.getThrown().printStackTrace(pw);
          pw.close();
-         result.append(baos.toString());
+         appendSwappingIdsForNames(result, sw.getBuffer());
          result.append(NEWLINE);
       }
-      try {
-         result = swapIdsForNames(result);
-      } catch (Exception e) {
-         result.insert(0, "FOUND BADLY FORMATTED LOG MSG: ");
-      }
 
 //      if (record.getLevel().equals(Level.SEVERE) || record.getLevel().equals(Level.WARNING)) {
 //         throw new RuntimeException("Severe or warning log message received: "+result);
 //      }
 
-      return result.toString();
-   }
-
-   private static class IntWrapper {
-      int _nextKey;
+      String formatted = result.toString();
+      if (result.capacity() > MAX_RETAINED_BUFFER_SIZE) {
+         _buffer.set(new StringBuilder(INITIAL_BUFFER_SIZE));
+      }
+      return formatted;
    }
 
-   private static int substituteIdForName(StringBuilder hasIds, StringBuilder result, Map<String, String> mapper,
-         IntWrapper state, String prefixStr, String postfixStr, int nextInbetweenText) {
-      int postfixLength = postfixStr.length();
-      int prefixLength = prefixStr.length();
-      int hasIdsLength = hasIds.length();
-      int startCurrentKey = state._nextKey;
-      int endCurrentKey = hasIds.indexOf(postfixStr, startCurrentKey);
-      int newInbetweenText = nextInbetweenText;
-
-      /* If the current key has no postfix, it is either the end of the string or is badly formatted */
-      if (endCurrentKey < 0) {
-         int nextSpace = hasIds.indexOf(" ", state._nextKey);     /* Is it the end of the String? */
-         postfixLength = 0;
-         if (nextSpace < 0) {                                     /* Yes, it is the end of the String */
-            endCurrentKey = hasIdsLength;
-            if (hasIds.substring(hasIdsLength - NEWLINE_LENGTH).equals(NEWLINE)) {
-               endCurrentKey-= NEWLINE_LENGTH;
+   /* Returns the index of the next VM or cluster id prefix at or after the given index, or -1 */
+   private static int indexOfPrefix(CharSequence text, int fromIndex) {
+      int last = text.length() - VMID_PREFIX.length();
+      for (int i = fromIndex; i <= last; i++) {
+         if ((text.charAt(i) == '<') && (text.charAt(i + 1) == '%')) {
+            char type = text.charAt(i + 2);
+            if ((type == 'V') || (type == 'C')) {
+               return i;
             }
          }
       }
+      return -1;
+   }
 
-      /* If this is well formatted */
-      if (endCurrentKey > 0) {
-         String id = hasIds.substring(startCurrentKey + prefixLength, endCurrentKey);
-         String name = mapper.get(id);
-         result.append(hasIds.substring(nextInbetweenText, state._nextKey));  /* Append the bit before the substitution */
-         result.append((name == null) ? id : name);                     /* Append the substitution */
-         state._nextKey = endCurrentKey;
-         newInbetweenText = endCurrentKey + postfixLength;
-      } else {
-         /* Badly formatted - skip on */
-         state._nextKey = state._nextKey + prefixLength;
+   /* Returns the index of the string if it occurs entirely between the two indexes, or -1 */
+   private static int indexOf(CharSequence text, String str, int fromIndex, int toIndex) {
+      int last = toIndex - str.length();
+      outer:
+      for (int i = fromIndex; i <= last; i++) {
+         for (int j = 0; j < str.length(); j++) {
+            if (text.charAt(i + j) != str.charAt(j)) {
+               continue outer;
+            }
+         }
+         return i;
       }
-
-      /* Return the index of the text immediately after the substitution */
-      return newInbetweenText;
+      return -1;
    }
 
    /* Formatter substitution for VM and Cluster Ids:
@@ -184,44 +230,49 @@ public class LogFormatter extends Formatter {
     * Eg. "This is a vm <%V"+vmid+"%V> that I'm printing"
     * Eg. "This is the last word on vm <%V"+vmId
     * If a VM or ClusterId is unrecognized, the formatting is stripped out and the Id is used
+    * An id is only terminated by a postfix found before the next prefix, so a badly formatted id is left as it is rather than swallowing the text up to a later one
     */
-   static StringBuilder swapIdsForNames(StringBuilder hasIds) {
-      StringBuilder result = hasIds;
-      boolean hasVMKey = false;
-      boolean hasClusterKey = false;
-      IntWrapper vmKeyState = new IntWrapper();
-      IntWrapper clusterKeyState = new IntWrapper();
-      int nextInbetweenText = -1;
-      do {
-         if (vmKeyState._nextKey >= 0) {
-            vmKeyState._nextKey = hasIds.indexOf(VMID_PREFIX, vmKeyState._nextKey);
-         }
-         if (clusterKeyState._nextKey >= 0) {
-            clusterKeyState._nextKey = hasIds.indexOf(CLUSTERID_PREFIX, clusterKeyState._nextKey);
-         }
-         hasVMKey = vmKeyState._nextKey >= 0;
-         hasClusterKey = clusterKeyState._nextKey >= 0;
-         if (hasVMKey || hasClusterKey) {
-            if (result == hasIds) {
-               /* We're going to transform the string, so don't return the original, build a new one */
-               result = new StringBuilder();
-            }
-            if (nextInbetweenText == -1) {
-               nextInbetweenText = 0;
-            }
-            if (hasVMKey && (!hasClusterKey || (vmKeyState._nextKey < clusterKeyState._nextKey))) {
-               nextInbetweenText = substituteIdForName(hasIds, result, _vmIdToNameMapper, vmKeyState,
-                     VMID_PREFIX, VMID_POSTFIX, nextInbetweenText);
-            } else
-            if (hasClusterKey && (!hasVMKey || (clusterKeyState._nextKey < vmKeyState._nextKey))) {
-               nextInbetweenText = substituteIdForName(hasIds, result, _clusterIdToNameMapper, clusterKeyState,
-                     CLUSTERID_PREFIX, CLUSTERID_POSTFIX, nextInbetweenText);
+   static void appendSwappingIdsForNames(StringBuilder result, CharSequence hasIds) {
+      int length = hasIds.length();
+      int copyFrom = 0;
+      int prefixIndex = indexOfPrefix(hasIds, 0);
+      while (prefixIndex >= 0) {
+         boolean isVM = (hasIds.charAt(prefixIndex + 2) == 'V');
+         String postfix = isVM ? VMID_POSTFIX : CLUSTERID_POSTFIX;
+         int idStart = prefixIndex + VMID_PREFIX.length();
+         int nextPrefixIndex = indexOfPrefix(hasIds, idStart);
+         int idEnd = indexOf(hasIds, postfix, idStart, (nextPrefixIndex < 0) ? length : nextPrefixIndex);
+         int resumeFrom;
+         if (idEnd >= 0) {
+            resumeFrom = idEnd + postfix.length();
+         } else if ((nextPrefixIndex < 0) && (indexOf(hasIds, " ", idStart, length) < 0)) {
+            /* The last part of the String, which may be followed by a newline */
+            idEnd = length;
+            if ((NEWLINE_LENGTH > 0) && ((idEnd - NEWLINE_LENGTH) >= idStart) && (indexOf(hasIds, NEWLINE, idEnd - NEWLINE_LENGTH, idEnd) >= 0)) {
+               idEnd -= NEWLINE_LENGTH;
             }
+            resumeFrom = idEnd;
+         } else {
+            /* Badly formatted - skip on */
+            prefixIndex = nextPrefixIndex;
+            continue;
          }
-      } while (hasVMKey || hasClusterKey);
-      if (result != hasIds) {
-         result.append(hasIds.substring(nextInbetweenText));
+         String id = hasIds.subSequence(idStart, idEnd).toString();
+         String name = (isVM ? _vmIdToNameMapper : _clusterIdToNameMapper).get(id);
+         result.append(hasIds, copyFrom, prefixIndex);
+         result.append((name == null) ? id : name);
+         copyFrom = resumeFrom;
+         prefixIndex = nextPrefixIndex;
+      }
+      result.append(hasIds, copyFrom, length);
+   }
+
+   static StringBuilder swapIdsForNames(StringBuilder hasIds) {
+      if (indexOfPrefix(hasIds, 0) < 0) {
+         return hasIds;
       }
+      StringBuilder result = new StringBuilder(hasIds.length());
+      appendSwappingIdsForNames(result, hasIds);
       return result;
    }
 
@@ -0,0 +1,380 @@
+/***************************************************************************
+* Copyright (c) 2013 VMware, Inc. All Rights Reserved.
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+***************************************************************************/
+
+
+package com.vmware.vhadoop.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Records the timing of each phase of a scale operation as spans in a binary ring file, so that latency can be analyzed
+ *   across many operations with ScaleTraceDump rather than by reading TIMING lines out of the log
+ * A scale operation is begun by the scale strategy once it has decided to scale a cluster and is ended by ClusterScaleOperation
+ *   when the strategy returns. Spans recorded on the same thread in between, such as those of the EDPolicy, belong to that operation.
+ *   Spans recorded on any other thread have an operation id of 0.
+ * The file is a header followed by a ring of fixed size records, memory mapped so that recording a span is a copy into the page cache.
+ *   Each record has a sequence number, which is written last, so that the order can be recovered and a restart carries on where the
+ *   previous run stopped. Cluster and VM ids longer than the space for them in the record are truncated.
+ * Tracing is a no-op until open is called.
+ */
+public class ScaleTrace {
+   private static final Logger _log = Logger.getLogger(ScaleTrace.class.getName());
+
+   public enum Phase {
+      OPERATION,
+      CHOOSE_VMS,
+      RECOMMISSION,
+      POWER_ON,
+      DNS_WAIT,
+      TT_VERIFICATION,
+      DECOMMISSION,
+      POWER_OFF
+   }
+
+   static final int MAGIC = 0x56484D54;         /* "VHMT" */
+   static final int VERSION = 1;
+   static final int RECORD_SIZE = 128;
+
+   /* Record layout */
+   private static final int SEQ_OFFSET = 0;
+   private static final int OPERATION_ID_OFFSET = 8;
+   private static final int START_MILLIS_OFFSET = 16;
+   private static final int DURATION_MICROS_OFFSET = 24;
+   private static final int PHASE_OFFSET = 32;
+   private static final int FLAGS_OFFSET = 33;
+   private static final int VM_COUNT_OFFSET = 34;
+   private static final int CLUSTER_ID_OFFSET = 40;
+   private static final int CLUSTER_ID_MAX_BYTES = 55;
+   private static final int VM_ID_OFFSET = 96;
+   private static final int VM_ID_MAX_BYTES = 31;
+
+   /* Records are addressed with int positions in the mapped buffer */
+   private static final int MAX_CAPACITY = (Integer.MAX_VALUE / RECORD_SIZE) - 1;
+
+   private static final int FLAG_FAILED = 0x1;
+   private static final int FLAG_SCALE_IN = 0x2;
+
+   private static final Charset UTF8 = Charset.forName("UTF-8");
+
+   private static volatile RingFile _ringFile;
+   private static final AtomicLong _nextOperationId = new AtomicLong(1);
+   private static final ThreadLocal<Operation> _currentOperation = new ThreadLocal<Operation>();
+
+   private static class Operation {
+      final long _id;
+      final String _clusterId;
+      final boolean _scaleIn;
+      final long _startNanos;
+
+      Operation(long id, String clusterId, boolean scaleIn, long startNanos) {
+         _id = id;
+         _clusterId = clusterId;
+         _scaleIn = scaleIn;
+         _startNanos = startNanos;
+      }
+   }
+
+   /* A decoded record */
+   public static class Span {
+      long _seq;
+      long _operationId;
+      long _startMillis;
+      long _durationMicros;
+      Phase _phase;
+      boolean _failed;
+      boolean _scaleIn;
+      int _vmCount;
+      String _clusterId;
+      String _vmId;
+
+      public long getSeq() {
+         return _seq;
+      }
+
+      public long getOperationId() {
+         return _operationId;
+      }
+
+      public long getStartMillis() {
+         return _startMillis;
+      }
+
+      public long getDurationMicros() {
+         return _durationMicros;
+      }
+
+      public Phase getPhase() {
+         return _phase;
+      }
+
+      public boolean isFailed() {
+         return _failed;
+      }
+
+      public boolean isScaleIn() {
+         return _scaleIn;
+      }
+
+      public int getVmCount() {
+         return _vmCount;
+      }
+
+      public String getClusterId() {
+         return _clusterId;
+      }
+
+      public String getVmId() {
+         return _vmId;
+      }
+
+      @Override
+      public String toString() {
+         return "Span{seq="+_seq+", operation="+_operationId+", phase="+_phase+", start="+_startMillis+", durationMicros="+_durationMicros+
+               ", vmCount="+_vmCount+", cluster="+_clusterId+", vm="+_vmId+(_scaleIn ? ", scaleIn" : "")+(_failed ? ", failed" : "")+"}";
+      }
+   }
+
+   static class RingFile {
+      private final RandomAccessFile _file;
+      private final MappedByteBuffer _buffer;
+      private final int _capacity;
+      private long _lastSeq;
+      private long _lastOperationId;
+
+      /* Carries on from the records already in the file, unless it was written with a different format or capacity */
+      RingFile(File file, int capacity) throws IOException {
+         _capacity = capacity;
+         long length = (long)RECORD_SIZE * (capacity + 1);
+         _file = new RandomAccessFile(file, "rw");
+         boolean reuse = false;
+         if (_file.length() == length) {
+            _file.seek(0);
+            reuse = (_file.readInt() == MAGIC) && (_file.readInt() == VERSION) && (_file.readInt() == RECORD_SIZE) && (_file.readInt() == capacity);
+         }
+         if (!reuse) {
+            _file.setLength(0);
+            _file.setLength(length);
+         }
+         _buffer = _file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+         if (reuse) {
+            for (int slot = 0; slot < capacity; slot++) {
+               int position = RECORD_SIZE * (slot + 1);
+               _lastSeq = Math.max(_lastSeq, _buffer.getLong(position + SEQ_OFFSET));
+               _lastOperationId = Math.max(_lastOperationId, _buffer.getLong(position + OPERATION_ID_OFFSET));
+            }
+         } else {
+            _buffer.putInt(0, MAGIC);
+            _buffer.putInt(4, VERSION);
+            _buffer.putInt(8, RECORD_SIZE);
+            _buffer.putInt(12, capacity);
+         }
+      }
+
+      long getLastOperationId() {
+         return _lastOperationId;
+      }
+
+      synchronized void write(long operationId, Phase phase, long startMillis, long durationMicros, boolean failed, boolean scaleIn,
+            int vmCount, String clusterId, String vmId) {
+         long seq = ++_lastSeq;
+         int position = RECORD_SIZE * (int)(((seq - 1) % _capacity) + 1);
+         /* The sequence number is cleared first and set last so that a concurrent reader skips a partly written record */
+         _buffer.putLong(position + SEQ_OFFSET, 0);
+         _buffer.putLong(position + OPERATION_ID_OFFSET, operationId);
+         _buffer.putLong(position + START_MILLIS_OFFSET, startMillis);
+         _buffer.putLong(position + DURATION_MICROS_OFFSET, durationMicros);
+         _buffer.put(position + PHASE_OFFSET, (byte)phase.ordinal());
+         _buffer.put(position + FLAGS_OFFSET, (byte)((failed ? FLAG_FAILED : 0) | (scaleIn ? FLAG_SCALE_IN : 0)));
+         _buffer.putShort(position + VM_COUNT_OFFSET, (short)Math.min(vmCount, Short.MAX_VALUE));
+         putString(position + CLUSTER_ID_OFFSET, CLUSTER_ID_MAX_BYTES, clusterId);
+         putString(position + VM_ID_OFFSET, VM_ID_MAX_BYTES, vmId);
+         _buffer.putLong(position + SEQ_OFFSET, seq);
+      }
+
+      private void putString(int position, int maxBytes, String value) {
+         byte[] bytes = (value == null) ? new byte[0] : value.getBytes(UTF8);
+         int length = Math.min(bytes.length, maxBytes);
+         /* Don't split a multi-byte character, so the record always decodes as valid UTF-8 */
+         while ((length < bytes.length) && (length > 0) && ((bytes[length] & 0xC0) == 0x80)) {
+            length--;
+         }
+         _buffer.put(position, (byte)length);
+         for (int i = 0; i < length; i++) {
+            _buffer.put(position + 1 + i, bytes[i]);
+         }
+      }
+
+      synchronized void close() throws IOException {
+         _buffer.force();
+         _file.close();
+      }
+   }
+
+   /**
+    * Starts recording spans to the given file, creating it if it doesn't exist
+    * @param capacity The number of spans kept in the file, after which the oldest are overwritten
+    */
+   public static synchronized void open(File file, int capacity) throws IOException {
+      close();
+      RingFile ringFile = new RingFile(file, Math.max(1, Math.min(capacity, MAX_CAPACITY)));
+      _nextOperationId.set(ringFile.getLastOperationId() + 1);
+      _ringFile = ringFile;
+      _log.info("Recording scale operation trace to "+file.getAbsolutePath());
+   }
+
+   public static synchronized void close() {
+      RingFile ringFile = _ringFile;
+      _ringFile = null;
+      if (ringFile != null) {
+         try {
+            ringFile.close();
+         } catch (IOException e) {
+            _log.warning("Error closing scale operation trace: "+e.getMessage());
+         }
+      }
+   }
+
+   public static boolean isEnabled() {
+      return _ringFile != null;
+   }
+
+   /* Called by the scale strategy once it has decided to scale the cluster. Spans recorded by this thread until endOperation belong to it. */
+   public static void beginOperation(String clusterId, boolean scaleIn) {
+      if (_ringFile != null) {
+         _currentOperation.set(new Operation(_nextOperationId.getAndIncrement(), clusterId, scaleIn, System.nanoTime()));
+      }
+   }
+
+   /* Records the span of the whole operation begun on this thread, if there is one */
+   public static void endOperation(boolean succeeded) {
+      Operation operation = _currentOperation.get();
+      if (operation != null) {
+         _currentOperation.remove();
+         write(operation._id, Phase.OPERATION, operation._startNanos, !succeeded, operation._scaleIn, 0, operation._clusterId, null);
+      }
+   }
+
+   /* Returns the start time to pass to endSpan */
+   public static long startSpan() {
+      return System.nanoTime();
+   }
+
+   public static void endSpan(Phase phase, long startNanos, String clusterId, Collection<String> vmIds, boolean succeeded) {
+      if (_ringFile != null) {
+         int vmCount = (vmIds == null) ? 0 : vmIds.size();
+         String vmId = (vmCount == 1) ? vmIds.iterator().next() : null;
+         endSpan(phase, startNanos, clusterId, vmId, vmCount, succeeded);
+      }
+   }
+
+   public static void endSpan(Phase phase, long startNanos, String clusterId, String vmId, int vmCount, boolean succeeded) {
+      if (_ringFile != null) {
+         Operation operation = _currentOperation.get();
+         if (operation != null) {
+            write(operation._id, phase, startNanos, !succeeded, operation._scaleIn, vmCount, (clusterId == null) ? operation._clusterId : clusterId, vmId);
+         } else {
+            write(0, phase, startNanos, !succeeded, false, vmCount, clusterId, vmId);
+         }
+      }
+   }
+
+   private static void write(long operationId, Phase phase, long startNanos, boolean failed, boolean scaleIn, int vmCount, String clusterId, String vmId) {
+      RingFile ringFile = _ringFile;
+      if (ringFile != null) {
+         long durationMicros = (System.nanoTime() - startNanos) / 1000;
+         long startMillis = System.currentTimeMillis() - (durationMicros / 1000);
+         ringFile.write(operationId, phase, startMillis, durationMicros, failed, scaleIn, vmCount, clusterId, vmId);
+      }
+   }
+
+   /**
+    * Reads the spans in a trace file, oldest first
+    * The file can be read while it is being written to
+    */
+   public static List<Span> read(File file) throws IOException {
+      RandomAccessFile raf = new RandomAccessFile(file, "r");
+      try {
+         int headerLength = 4 * 4;
+         if (raf.length() < headerLength) {
+            throw new IOException(file+" is not a scale operation trace");
+         }
+         if ((raf.readInt() != MAGIC) || (raf.readInt() != VERSION) || (raf.readInt() != RECORD_SIZE)) {
+            throw new IOException(file+" is not a scale operation trace, or has an unsupported version");
+         }
+         int capacity = raf.readInt();
+         if (raf.length() < ((long)RECORD_SIZE * (capacity + 1))) {
+            throw new IOException(file+" is truncated");
+         }
+         ByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, (long)RECORD_SIZE * (capacity + 1));
+         Phase[] phases = Phase.values();
+         List<Span> result = new ArrayList<Span>();
+         for (int slot = 0; slot < capacity; slot++) {
+            int position = RECORD_SIZE * (slot + 1);
+            long seq = buffer.getLong(position + SEQ_OFFSET);
+            int phase = buffer.get(position + PHASE_OFFSET);
+            if ((seq == 0) || (phase < 0) || (phase >= phases.length)) {
+               continue;
+            }
+            Span span = new Span();
+            span._seq = seq;
+            span._operationId = buffer.getLong(position + OPERATION_ID_OFFSET);
+            span._startMillis = buffer.getLong(position + START_MILLIS_OFFSET);
+            span._durationMicros = buffer.getLong(position + DURATION_MICROS_OFFSET);
+            span._phase = phases[phase];
+            int flags = buffer.get(position + FLAGS_OFFSET);
+            span._failed = (flags & FLAG_FAILED) != 0;
+            span._scaleIn = (flags & FLAG_SCALE_IN) != 0;
+            span._vmCount = buffer.getShort(position + VM_COUNT_OFFSET);
+            span._clusterId = getString(buffer, position + CLUSTER_ID_OFFSET, CLUSTER_ID_MAX_BYTES);
+            span._vmId = getString(buffer, position + VM_ID_OFFSET, VM_ID_MAX_BYTES);
+            result.add(span);
+         }
+         Collections.sort(result, new Comparator<Span>() {
+            @Override
+            public int compare(Span a, Span b) {
+               return (a._seq < b._seq) ? -1 : ((a._seq == b._seq) ? 0 : 1);
+            }
+         });
+         return result;
+      } finally {
+         raf.close();
+      }
+   }
+
+   private static String getString(ByteBuffer buffer, int position, int maxBytes) {
+      int length = Math.min(buffer.get(position) & 0xFF, maxBytes);
+      if (length == 0) {
+         return null;
+      }
+      byte[] bytes = new byte[length];
+      for (int i = 0; i < length; i++) {
+         bytes[i] = buffer.get(position + 1 + i);
+      }
+      return new String(bytes, UTF8);
+   }
+}
@@ -0,0 +1,236 @@
+/***************************************************************************
+* Copyright (c) 2013 VMware, Inc. All Rights Reserved.
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+***************************************************************************/
+
+
+package com.vmware.vhadoop.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.vmware.vhadoop.util.ScaleTrace.Phase;
+import com.vmware.vhadoop.util.ScaleTrace.Span;
+
+/**
+ * Command line dumper for the binary trace written by ScaleTrace
+ * Prints the latency of each phase across all of the scale operations in the trace, with scale out and scale in reported separately.
+ *   Where a phase occurs more than once in an operation, such as TT verification of each batch of a pipelined enable, the time of
+ *   each occurrence is summed, so that the figures are the time each operation spent in the phase.
+ *
+ * Usage: ScaleTraceDump [-c clusterId] [-v] traceFile
+ *   -c only includes operations on the given cluster
+ *   -v also lists each operation
+ */
+public class ScaleTraceDump {
+   private static final double[] PERCENTILES = {50, 90, 99};
+
+   /* The spans of one operation, or a single span recorded outside of any operation */
+   static class OperationSummary {
+      long _operationId;
+      long _startMillis;
+      String _clusterId;
+      boolean _scaleIn;
+      boolean _failed;
+      int _vmCount;
+      final Map<Phase, Long> _phaseMicros = new EnumMap<Phase, Long>(Phase.class);
+
+      void add(Span span) {
+         if ((_startMillis == 0) || (span.getStartMillis() < _startMillis)) {
+            _startMillis = span.getStartMillis();
+         }
+         if (_clusterId == null) {
+            _clusterId = span.getClusterId();
+         }
+         _scaleIn |= span.isScaleIn();
+         _failed |= (span.getPhase().equals(Phase.OPERATION) && span.isFailed());
+         if (span.getPhase().equals(Phase.CHOOSE_VMS)) {
+            _vmCount = Math.max(_vmCount, span.getVmCount());
+         }
+         Long micros = _phaseMicros.get(span.getPhase());
+         _phaseMicros.put(span.getPhase(), ((micros == null) ? 0 : micros) + span.getDurationMicros());
+      }
+   }
+
+   static List<OperationSummary> summarize(List<Span> spans, String clusterId) {
+      Map<Long, OperationSummary> operations = new LinkedHashMap<Long, OperationSummary>();
+      List<OperationSummary> result = new ArrayList<OperationSummary>();
+      for (Span span : spans) {
+         OperationSummary summary;
+         if (span.getOperationId() == 0) {
+            summary = new OperationSummary();
+            result.add(summary);
+         } else {
+            summary = operations.get(span.getOperationId());
+            if (summary == null) {
+               summary = new OperationSummary();
+               summary._operationId = span.getOperationId();
+               operations.put(span.getOperationId(), summary);
+               result.add(summary);
+            }
+         }
+         summary.add(span);
+      }
+      if (clusterId != null) {
+         List<OperationSummary> filtered = new ArrayList<OperationSummary>();
+         for (OperationSummary summary : result) {
+            if (clusterId.equals(summary._clusterId)) {
+               filtered.add(summary);
+            }
+         }
+         result = filtered;
+      }
+      return result;
+   }
+
+   /* Nearest rank percentile of sorted values */
+   static long percentile(long[] sorted, double percentile) {
+      if (sorted.length == 0) {
+         return 0;
+      }
+      int rank = (int)Math.ceil((percentile / 100) * sorted.length);
+      return sorted[Math.min(sorted.length, Math.max(1, rank)) - 1];
+   }
+
+   private static String millis(long micros) {
+      return String.format("%.1f", micros / 1000.0);
+   }
+
+   static void printPhaseTable(PrintStream out, String title, List<OperationSummary> operations) {
+      if (operations.isEmpty()) {
+         return;
+      }
+      out.println();
+      out.println(title);
+      StringBuilder header = new StringBuilder(String.format("  %-16s %6s %10s", "phase (ms)", "count", "mean"));
+      for (double p : PERCENTILES) {
+         header.append(String.format(" %10s", "p"+(int)p));
+      }
+      header.append(String.format(" %10s", "max"));
+      out.println(header);
+
+      for (Phase phase : Phase.values()) {
+         long[] values = new long[operations.size()];
+         int count = 0;
+         long total = 0;
+         for (OperationSummary operation : operations) {
+            Long micros = operation._phaseMicros.get(phase);
+            if (micros != null) {
+               values[count++] = micros;
+               total += micros;
+            }
+         }
+         if (count == 0) {
+            continue;
+         }
+         values = Arrays.copyOf(values, count);
+         Arrays.sort(values);
+         StringBuilder line = new StringBuilder(String.format("  %-16s %6d %10s", phase, count, millis(total / count)));
+         for (double p : PERCENTILES) {
+            line.append(String.format(" %10s", millis(percentile(values, p))));
+         }
+         line.append(String.format(" %10s", millis(values[count - 1])));
+         out.println(line);
+      }
+   }
+
+   static void dump(PrintStream out, List<Span> spans, String clusterId, boolean verbose) {
+      List<OperationSummary> operations = summarize(spans, clusterId);
+      List<OperationSummary> scaleOut = new ArrayList<OperationSummary>();
+      List<OperationSummary> scaleIn = new ArrayList<OperationSummary>();
+      List<OperationSummary> unattributed = new ArrayList<OperationSummary>();
+      int failed = 0;
+      for (OperationSummary operation : operations) {
+         if (operation._operationId == 0) {
+            unattributed.add(operation);
+         } else {
+            (operation._scaleIn ? scaleIn : scaleOut).add(operation);
+            if (operation._failed) {
+               failed++;
+            }
+         }
+      }
+
+      SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy MMM dd HH:mm:ss.SSS");
+      out.print(spans.size()+" spans, "+(scaleOut.size() + scaleIn.size())+" operations ("+scaleOut.size()+" scale out, "+
+            scaleIn.size()+" scale in, "+failed+" failed)");
+      if (!operations.isEmpty()) {
+         out.print(" from "+dateFormat.format(new Date(operations.get(0)._startMillis))+
+               " to "+dateFormat.format(new Date(operations.get(operations.size() - 1)._startMillis)));
+      }
+      out.println();
+
+      printPhaseTable(out, "Scale out", scaleOut);
+      printPhaseTable(out, "Scale in", scaleIn);
+      printPhaseTable(out, "Outside of any operation", unattributed);
+
+      if (verbose) {
+         out.println();
+         for (OperationSummary operation : operations) {
+            if (operation._operationId == 0) {
+               continue;
+            }
+            StringBuilder line = new StringBuilder();
+            line.append(operation._operationId).append(' ').append(dateFormat.format(new Date(operation._startMillis)))
+                  .append(' ').append(operation._clusterId).append(operation._scaleIn ? " in " : " out ").append(operation._vmCount).append(" VMs");
+            for (Map.Entry<Phase, Long> entry : operation._phaseMicros.entrySet()) {
+               line.append(' ').append(entry.getKey()).append('=').append(millis(entry.getValue()));
+            }
+            if (operation._failed) {
+               line.append(" FAILED");
+            }
+            out.println(line);
+         }
+      }
+   }
+
+   private static void usage() {
+      System.err.println("Usage: ScaleTraceDump [-c clusterId] [-v] traceFile");
+      System.exit(1);
+   }
+
+   public static void main(String[] args) {
+      String clusterId = null;
+      boolean verbose = false;
+      String fileName = null;
+      for (int i = 0; i < args.length; i++) {
+         if (args[i].equals("-c") && (i + 1 < args.length)) {
+            clusterId = args[++i];
+         } else if (args[i].equals("-v")) {
+            verbose = true;
+         } else if ((fileName == null) && !args[i].startsWith("-")) {
+            fileName = args[i];
+         } else {
+            usage();
+         }
+      }
+      if (fileName == null) {
+         usage();
+      }
+      try {
+         dump(System.out, ScaleTrace.read(new File(fileName)), clusterId, verbose);
+      } catch (IOException e) {
+         System.err.println("Unable to read "+fileName+": "+e.getMessage());
+         System.exit(1);
+      }
+   }
+}
@@ -0,0 +1,68 @@
+/***************************************************************************
+* Copyright (c) 2013 VMware, Inc. All Rights Reserved.
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+***************************************************************************/
+
+
+package com.vmware.vhadoop.util;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Maps strings to dense int codes and back, so that a value repeated across many objects, such as the host or cluster of a VM,
+ *   is held once and each object only holds an int
+ * Entries are never removed, so a dictionary is only suitable for values of low cardinality relative to the objects that refer to them
+ * THREADING: encode is synchronized. decode doesn't lock, as a code can only have been obtained from an earlier encode, which
+ *   published the value before the code was returned.
+ */
+public class StringDictionary {
+   public static final int NULL_CODE = -1;
+
+   private final Map<String, Integer> _codes = new HashMap<String, Integer>();
+   private volatile String[] _values = new String[16];
+   private int _size;
+
+   public synchronized int encode(String value) {
+      if (value == null) {
+         return NULL_CODE;
+      }
+      Integer code = _codes.get(value);
+      if (code == null) {
+         String[] values = _values;
+         if (_size == values.length) {
+            String[] grown = new String[values.length * 2];
+            System.arraycopy(values, 0, grown, 0, _size);
+            values = grown;
+         }
+         values[_size] = value;
+         _values = values;
+         code = _size++;
+         _codes.put(value, code);
+      }
+      return code;
+   }
+
+   public String decode(int code) {
+      return (code == NULL_CODE) ? null : _values[code];
+   }
+
+   /* Returns the dictionary's instance of an equal string, adding it if necessary */
+   public String canonicalize(String value) {
+      return decode(encode(value));
+   }
+
+   public synchronized int size() {
+      return _size;
+   }
+}
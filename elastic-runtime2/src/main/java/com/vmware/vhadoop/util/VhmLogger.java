@@ -0,0 +1,198 @@
+/***************************************************************************
+* Copyright (c) 2013 VMware, Inc. All Rights Reserved.
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+***************************************************************************/
+
+
+package com.vmware.vhadoop.util;
+
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * Wraps a Logger so that hot paths don't build their messages unless the level is enabled
+ * Messages are String.format patterns, with ids embedded as <%%V%s%%V> or <%%C%s%%C>. The pattern and its arguments are carried
+ *   in the LogRecord, so both the formatting and the substitution of names for ids are done by LogFormatter when the record is
+ *   written, which is on the log writer thread if the handler is an AsyncLogHandler.
+ * The fixed arity methods avoid allocating a varargs array when the level is disabled. Messages that need more work than
+ *   formatting a few arguments can be built by a MessageSupplier, which is only called if the level is enabled.
+ * Arguments that are not immutable, such as collections or VMInfo, are converted to a String on the calling thread, since they
+ *   could otherwise change, or be concurrently modified, before the record is written.
+ */
+public class VhmLogger {
+   private final Logger _logger;
+
+   public interface MessageSupplier {
+      String get();
+   }
+
+   private VhmLogger(Logger logger) {
+      _logger = logger;
+   }
+
+   public static VhmLogger getLogger(String name) {
+      return new VhmLogger(Logger.getLogger(name));
+   }
+
+   public Logger getLogger() {
+      return _logger;
+   }
+
+   public boolean isLoggable(Level level) {
+      return _logger.isLoggable(level);
+   }
+
+   public void log(Level level, String msg) {
+      if (_logger.isLoggable(level)) {
+         emit(level, msg, null, null);
+      }
+   }
+
+   public void log(Level level, String format, Object arg1) {
+      if (_logger.isLoggable(level)) {
+         emit(level, format, new Object[]{snapshot(arg1)}, null);
+      }
+   }
+
+   public void log(Level level, String format, Object arg1, Object arg2) {
+      if (_logger.isLoggable(level)) {
+         emit(level, format, new Object[]{snapshot(arg1), snapshot(arg2)}, null);
+      }
+   }
+
+   public void log(Level level, String format, Object arg1, Object arg2, Object arg3) {
+      if (_logger.isLoggable(level)) {
+         emit(level, format, new Object[]{snapshot(arg1), snapshot(arg2), snapshot(arg3)}, null);
+      }
+   }
+
+   public void log(Level level, String format, Object arg1, Object arg2, Object arg3, Object arg4) {
+      if (_logger.isLoggable(level)) {
+         emit(level, format, new Object[]{snapshot(arg1), snapshot(arg2), snapshot(arg3), snapshot(arg4)}, null);
+      }
+   }
+
+   /* For more arguments than the fixed arity methods take. Note that the caller allocates the array whether or not the level is enabled */
+   public void log(Level level, String format, Object[] args) {
+      if (_logger.isLoggable(level)) {
+         Object[] snapshot = null;
+         if (args != null) {
+            snapshot = new Object[args.length];
+            for (int i = 0; i < args.length; i++) {
+               snapshot[i] = snapshot(args[i]);
+            }
+         }
+         emit(level, format, snapshot, null);
+      }
+   }
+
+   public void log(Level level, MessageSupplier supplier) {
+      if (_logger.isLoggable(level)) {
+         emit(level, supplier.get(), null, null);
+      }
+   }
+
+   public void log(Level level, String msg, Throwable thrown) {
+      if (_logger.isLoggable(level)) {
+         emit(level, msg, null, thrown);
+      }
+   }
+
+   public void finest(String msg) {
+      log(Level.FINEST, msg);
+   }
+
+   public void finer(String msg) {
+      log(Level.FINER, msg);
+   }
+
+   public void fine(String msg) {
+      log(Level.FINE, msg);
+   }
+
+   public void info(String msg) {
+      log(Level.INFO, msg);
+   }
+
+   public void warning(String msg) {
+      log(Level.WARNING, msg);
+   }
+
+   public void severe(String msg) {
+      log(Level.SEVERE, msg);
+   }
+
+   public void finest(String format, Object arg1) {
+      log(Level.FINEST, format, arg1);
+   }
+
+   public void finest(String format, Object arg1, Object arg2) {
+      log(Level.FINEST, format, arg1, arg2);
+   }
+
+   public void finer(String format, Object arg1) {
+      log(Level.FINER, format, arg1);
+   }
+
+   public void finer(String format, Object arg1, Object arg2) {
+      log(Level.FINER, format, arg1, arg2);
+   }
+
+   public void fine(String format, Object arg1) {
+      log(Level.FINE, format, arg1);
+   }
+
+   public void fine(String format, Object arg1, Object arg2) {
+      log(Level.FINE, format, arg1, arg2);
+   }
+
+   public void info(String format, Object arg1) {
+      log(Level.INFO, format, arg1);
+   }
+
+   public void info(String format, Object arg1, Object arg2) {
+      log(Level.INFO, format, arg1, arg2);
+   }
+
+   /* Immutable values can be formatted later on any thread, anything else is converted now */
+   static Object snapshot(Object arg) {
+      if ((arg == null) || (arg instanceof String) || (arg instanceof Number) || (arg instanceof Boolean)
+            || (arg instanceof Character) || (arg instanceof Enum)) {
+         return arg;
+      }
+      return String.valueOf(arg);
+   }
+
+   private void emit(Level level, String msg, Object[] params, Throwable thrown) {
+      LogRecord record = new LogRecord(level, msg);
+      record.setLoggerName(_logger.getName());
+      record.setParameters(params);
+      record.setThrown(thrown);
+      /* The caller has to be found here, as LogRecord would otherwise report this class as the source */
+      if (level.intValue() <= Level.FINE.intValue()) {
+         StackTraceElement[] stack = new Throwable().getStackTrace();
+         for (StackTraceElement frame : stack) {
+            if (!frame.getClassName().equals(VhmLogger.class.getName())) {
+               record.setSourceClassName(frame.getClassName());
+               record.setSourceMethodName(frame.getMethodName());
+               break;
+            }
+         }
+      } else {
+         record.setSourceClassName(_logger.getName());
+         record.setSourceMethodName(null);
+      }
+      _logger.log(record);
+   }
+}
@@ -0,0 +1,39 @@
+/***************************************************************************
+* Copyright (c) 2013 VMware, Inc. All Rights Reserved.
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+***************************************************************************/
+
+
+package com.vmware.vhadoop.util.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A monotonically increasing count, such as the number of retries of an operation
+ */
+public class Counter implements CounterMBean {
+   private final AtomicLong _count = new AtomicLong();
+
+   public void increment() {
+      _count.incrementAndGet();
+   }
+
+   public void add(long delta) {
+      _count.addAndGet(delta);
+   }
+
+   @Override
+   public long getCount() {
+      return _count.get();
+   }
+}
@@ -0,0 +1,145 @@
+/***************************************************************************
+* Copyright (c) 2013 VMware, Inc. All Rights Reserved.
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+***************************************************************************/
+
+
+package com.vmware.vhadoop.util.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records the distribution of non-negative values, such as latencies in microseconds or batch sizes
+ * The buckets are log-linear in the style of an HDR histogram: values below 64 are counted exactly and each power of two above that
+ *   is split into 32 linear sub-buckets, so a reported percentile is within about 3% of the recorded value across the whole range of a long
+ * Recording is lock-free and allocates nothing. Percentiles are read from the live buckets, so a reader racing with writers may see
+ *   a count that is a few values ahead of the buckets, which is fine for monitoring.
+ */
+public class Histogram implements HistogramMBean {
+   private static final int SUB_BUCKET_BITS = 5;
+   private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+   /* Values below this are their own bucket */
+   private static final int EXACT_LIMIT = SUB_BUCKETS * 2;
+   private static final int EXACT_LIMIT_BITS = SUB_BUCKET_BITS + 1;
+   static final int NUM_BUCKETS = EXACT_LIMIT + ((63 - EXACT_LIMIT_BITS) * SUB_BUCKETS);
+
+   private final AtomicLongArray _buckets = new AtomicLongArray(NUM_BUCKETS);
+   private final AtomicLong _count = new AtomicLong();
+   private final AtomicLong _sum = new AtomicLong();
+   private final AtomicLong _min = new AtomicLong(Long.MAX_VALUE);
+   private final AtomicLong _max = new AtomicLong(Long.MIN_VALUE);
+
+   static int bucketIndex(long value) {
+      if (value < EXACT_LIMIT) {
+         return (int)value;
+      }
+      int exponent = 63 - Long.numberOfLeadingZeros(value);
+      int shift = exponent - SUB_BUCKET_BITS;
+      int subBucket = (int)(value >>> shift) - SUB_BUCKETS;
+      return EXACT_LIMIT + ((exponent - EXACT_LIMIT_BITS) * SUB_BUCKETS) + subBucket;
+   }
+
+   /* The largest value that falls into the bucket */
+   static long bucketUpperBound(int index) {
+      if (index < EXACT_LIMIT) {
+         return index;
+      }
+      int exponent = EXACT_LIMIT_BITS + ((index - EXACT_LIMIT) / SUB_BUCKETS);
+      long top = SUB_BUCKETS + ((index - EXACT_LIMIT) % SUB_BUCKETS);
+      int shift = exponent - SUB_BUCKET_BITS;
+      return ((top + 1) << shift) - 1;
+   }
+
+   /* Negative values are recorded as 0 */
+   public void record(long value) {
+      if (value < 0) {
+         value = 0;
+      }
+      _buckets.incrementAndGet(bucketIndex(value));
+      _sum.addAndGet(value);
+      _count.incrementAndGet();
+      long current;
+      while ((value < (current = _min.get())) && !_min.compareAndSet(current, value));
+      while ((value > (current = _max.get())) && !_max.compareAndSet(current, value));
+   }
+
+   /* Records the time since startNanos, as returned by System.nanoTime(), in microseconds */
+   public void recordSince(long startNanos) {
+      record((System.nanoTime() - startNanos) / 1000);
+   }
+
+   @Override
+   public long getCount() {
+      return _count.get();
+   }
+
+   @Override
+   public double getMean() {
+      long count = _count.get();
+      return (count == 0) ? 0 : (double)_sum.get() / count;
+   }
+
+   @Override
+   public long getMin() {
+      return (_count.get() == 0) ? 0 : _min.get();
+   }
+
+   @Override
+   public long getMax() {
+      return (_count.get() == 0) ? 0 : _max.get();
+   }
+
+   /**
+    * @param fraction between 0 and 1, eg. 0.99 for the 99th percentile
+    * @return the smallest recorded value such that at least the fraction of values are no larger, to within the bucket precision, or 0 if nothing has been recorded
+    */
+   public long getValueAtPercentile(double fraction) {
+      long total = 0;
+      for (int i = 0; i < NUM_BUCKETS; i++) {
+         total += _buckets.get(i);
+      }
+      if (total == 0) {
+         return 0;
+      }
+      long rank = Math.max(1, (long)Math.ceil(fraction * total));
+      long seen = 0;
+      for (int i = 0; i < NUM_BUCKETS; i++) {
+         seen += _buckets.get(i);
+         if (seen >= rank) {
+            return Math.min(bucketUpperBound(i), _max.get());
+         }
+      }
+      return _max.get();
+   }
+
+   @Override
+   public long get50thPercentile() {
+      return getValueAtPercentile(0.5);
+   }
+
+   @Override
+   public long get90thPercentile() {
+      return getValueAtPercentile(0.9);
+   }
+
+   @Override
+   public long get99thPercentile() {
+      return getValueAtPercentile(0.99);
+   }
+
+   @Override
+   public long get999thPercentile() {
+      return getValueAtPercentile(0.999);
+   }
+}
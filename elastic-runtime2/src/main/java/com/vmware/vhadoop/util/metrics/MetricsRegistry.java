@@ -0,0 +1,227 @@
+/***************************************************************************
+* Copyright (c) 2013 VMware, Inc. All Rights Reserved.
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+***************************************************************************/
+
+
+package com.vmware.vhadoop.util.metrics;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.Date;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/**
+ * Process-wide registry of named counters, gauges and histograms
+ * Each metric is published as a JMX MBean named com.vmware.vhadoop:type=Metrics,name=<name> and can be periodically written to a
+ *   snapshot file, so that the distribution of time spent in VHM can be seen in production without attaching a JMX client
+ * Names are dotted, lower-camel paths such as "vcVlsi.powerOn.micros". Latency histograms are in microseconds and say so in their name.
+ * Counters and histograms are created on first use and shared thereafter. Registering a gauge replaces any previous gauge of the same name,
+ *   as gauges are bound to the instance that owns the value.
+ */
+public class MetricsRegistry {
+   private static final Logger _log = Logger.getLogger(MetricsRegistry.class.getName());
+
+   public static final String JMX_DOMAIN = "com.vmware.vhadoop";
+
+   private static final MetricsRegistry _singleton = new MetricsRegistry(ManagementFactory.getPlatformMBeanServer());
+
+   private final MBeanServer _mbeanServer;
+   private final ConcurrentMap<String, Object> _metrics = new ConcurrentHashMap<String, Object>();
+   private Thread _snapshotThread;
+
+   public static MetricsRegistry get() {
+      return _singleton;
+   }
+
+   /* A null MBeanServer means that metrics are not published over JMX. Package-private for testing. */
+   MetricsRegistry(MBeanServer mbeanServer) {
+      _mbeanServer = mbeanServer;
+   }
+
+   public Counter counter(String name) {
+      Object existing = _metrics.get(name);
+      if (existing == null) {
+         Counter counter = new Counter();
+         existing = _metrics.putIfAbsent(name, counter);
+         if (existing == null) {
+            register(name, counter, CounterMBean.class);
+            return counter;
+         }
+      }
+      return (Counter)existing;
+   }
+
+   public Histogram histogram(String name) {
+      Object existing = _metrics.get(name);
+      if (existing == null) {
+         Histogram histogram = new Histogram();
+         existing = _metrics.putIfAbsent(name, histogram);
+         if (existing == null) {
+            register(name, histogram, HistogramMBean.class);
+            return histogram;
+         }
+      }
+      return (Histogram)existing;
+   }
+
+   public synchronized Gauge gauge(String name, Gauge gauge) {
+      if (_metrics.put(name, gauge) != null) {
+         unregister(name);
+      }
+      register(name, gauge, GaugeMBean.class);
+      return gauge;
+   }
+
+   public void remove(String name) {
+      if (_metrics.remove(name) != null) {
+         unregister(name);
+      }
+   }
+
+   static ObjectName getObjectName(String name) throws JMException {
+      return new ObjectName(JMX_DOMAIN+":type=Metrics,name="+name);
+   }
+
+   /* Metrics are still recorded and written to the snapshot if they can't be published over JMX */
+   private <T> void register(String name, T metric, Class<T> mbeanInterface) {
+      if (_mbeanServer == null) {
+         return;
+      }
+      try {
+         ObjectName objectName = getObjectName(name);
+         synchronized(_mbeanServer) {
+            if (_mbeanServer.isRegistered(objectName)) {
+               _mbeanServer.unregisterMBean(objectName);
+            }
+            _mbeanServer.registerMBean(new StandardMBean(metric, mbeanInterface), objectName);
+         }
+      } catch (JMException e) {
+         _log.warning("VHM: unable to publish metric "+name+" over JMX - "+e.getMessage());
+      }
+   }
+
+   private void unregister(String name) {
+      if (_mbeanServer == null) {
+         return;
+      }
+      try {
+         ObjectName objectName = getObjectName(name);
+         synchronized(_mbeanServer) {
+            if (_mbeanServer.isRegistered(objectName)) {
+               _mbeanServer.unregisterMBean(objectName);
+            }
+         }
+      } catch (JMException e) {
+         _log.fine("Unable to unregister metric "+name+" - "+e.getMessage());
+      }
+   }
+
+   /* All of the metrics by name, each of which is a Counter, Gauge or Histogram. The metrics are live, but the map is a copy. */
+   public SortedMap<String, Object> getMetrics() {
+      return new TreeMap<String, Object>(_metrics);
+   }
+
+   /* One line per metric, sorted by name */
+   public String snapshot() {
+      StringBuilder sb = new StringBuilder();
+      sb.append("# VHM metrics at ").append(new Date()).append('\n');
+      for (Map.Entry<String, Object> entry : getMetrics().entrySet()) {
+         Object metric = entry.getValue();
+         if (metric instanceof Counter) {
+            sb.append(String.format("%-48s counter   count=%d%n", entry.getKey(), ((Counter)metric).getCount()));
+         } else if (metric instanceof Gauge) {
+            sb.append(String.format("%-48s gauge     value=%d%n", entry.getKey(), ((Gauge)metric).getValue()));
+         } else if (metric instanceof Histogram) {
+            Histogram h = (Histogram)metric;
+            sb.append(String.format("%-48s histogram count=%d mean=%.1f min=%d p50=%d p90=%d p99=%d p999=%d max=%d%n",
+                  entry.getKey(), h.getCount(), h.getMean(), h.getMin(), h.get50thPercentile(), h.get90thPercentile(),
+                  h.get99thPercentile(), h.get999thPercentile(), h.getMax()));
+         }
+      }
+      return sb.toString();
+   }
+
+   /* The snapshot is written to a temporary file and renamed, so that a reader never sees a partial snapshot */
+   public void writeSnapshot(File file) throws IOException {
+      File tmpFile = new File(file.getPath()+".tmp");
+      Writer writer = new OutputStreamWriter(new FileOutputStream(tmpFile), "UTF-8");
+      try {
+         writer.write(snapshot());
+      } finally {
+         writer.close();
+      }
+      if (!tmpFile.renameTo(file)) {
+         /* Rename doesn't replace an existing file on all platforms */
+         file.delete();
+         if (!tmpFile.renameTo(file)) {
+            throw new IOException("Unable to rename "+tmpFile+" to "+file);
+         }
+      }
+   }
+
+   /**
+    * Starts a daemon thread that writes a snapshot to the file every intervalMillis, replacing any previously started snapshot thread
+    */
+   public synchronized void startSnapshots(final File file, final long intervalMillis) {
+      stopSnapshots();
+      _snapshotThread = new Thread(new Runnable() {
+         @Override
+         public void run() {
+            boolean warned = false;
+            while (!Thread.currentThread().isInterrupted()) {
+               try {
+                  Thread.sleep(intervalMillis);
+               } catch (InterruptedException e) {
+                  break;
+               }
+               try {
+                  writeSnapshot(file);
+                  warned = false;
+               } catch (IOException e) {
+                  /* Only warn once per run of failures, so that a full disk doesn't fill the log too */
+                  if (!warned) {
+                     _log.warning("VHM: unable to write metrics snapshot "+file+" - "+e.getMessage());
+                     warned = true;
+                  }
+               } catch (RuntimeException e) {
+                  _log.log(Level.INFO, "VHM: unexpected exception writing metrics snapshot", e);
+               }
+            }
+         }}, "Metrics_Snapshot_Thread");
+      _snapshotThread.setDaemon(true);
+      _snapshotThread.start();
+   }
+
+   public synchronized void stopSnapshots() {
+      if (_snapshotThread != null) {
+         _snapshotThread.interrupt();
+         _snapshotThread = null;
+      }
+   }
+}
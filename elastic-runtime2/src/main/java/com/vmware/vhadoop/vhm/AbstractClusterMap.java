@@ -15,16 +15,22 @@
 
 package com.vmware.vhadoop.vhm;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.PriorityQueue;
 import java.util.Set;
+import java.util.SortedSet;
 import java.util.logging.Level;
-import java.util.logging.Logger;
 
 import com.vmware.vhadoop.api.vhm.ClusterMap;
+import com.vmware.vhadoop.api.vhm.ClusterSummary;
 import com.vmware.vhadoop.api.vhm.events.ClusterScaleCompletionEvent;
 import com.vmware.vhadoop.api.vhm.events.ClusterScaleEvent;
 import com.vmware.vhadoop.api.vhm.events.ClusterStateChangeEvent;
@@ -34,7 +40,11 @@ import com.vmware.vhadoop.api.vhm.events.ClusterStateChangeEvent.VMConstantData;
 import com.vmware.vhadoop.api.vhm.events.ClusterStateChangeEvent.VMVariableData;
 import com.vmware.vhadoop.api.vhm.events.ClusterStateChangeEvent.VmType;
 import com.vmware.vhadoop.api.vhm.strategy.ScaleStrategy;
+import com.vmware.vhadoop.util.ExternalizedParameters;
 import com.vmware.vhadoop.util.VhmLevel;
+import com.vmware.vhadoop.util.VhmLogger;
+import com.vmware.vhadoop.vhm.ClusterMapRecordStore.StoredCluster;
+import com.vmware.vhadoop.vhm.ClusterMapRecordStore.StoredVM;
 import com.vmware.vhadoop.vhm.events.ClusterUpdateEvent;
 import com.vmware.vhadoop.vhm.events.MasterVmUpdateEvent;
 import com.vmware.vhadoop.vhm.events.NewMasterVMEvent;
@@ -57,9 +67,19 @@ import com.vmware.vhadoop.vhm.events.VmUpdateEvent;
  * 4) Any changes to VMInfo or ClusterInfo that could modify their state must call the appropriate listener
  * 5) It any fields are added beyond _clusters and _vms containing state required for the computation of any public ClusterMap methods,
  *    the design of CachingClusterMapImpl must be revisited.
+ *
+ * The one exception to 5) is the ClusterSummaryTracker, which is kept up to date by the interception of changes to _clusters and _vms
+ *   and by updateVMVariableData and updateClusterVariableData. getClusterSummary is constant time, so it is not cached.
+ *
+ * The state of the VMs can optionally be kept off-heap in a ClusterMapRecordStore, in which case the VMInfo objects are views of its records
+ *   and the cluster records in the store are brought up to date at the end of each call to handleClusterEvent
+ *
+ * The VM field watchers are the exception to the single writer model as they are added and removed by readers, so they have their own lock.
+ *   They are not used in the computation of any ClusterMap methods.
  */
 public abstract class AbstractClusterMap implements ClusterMap {
-   private static final Logger _log = Logger.getLogger(AbstractClusterMap.class.getName());
+   private static final VhmLogger _log = VhmLogger.getLogger(AbstractClusterMap.class.getName());
+   private static final long CLUSTER_MAP_RESTORE_GRACE_TIME_MILLIS = ExternalizedParameters.get().getLong("CLUSTER_MAP_RESTORE_GRACE_TIME_MILLIS");
 
    private final Map<String, ClusterInfo> _clusters;
    private final Map<String, VMInfo> _vms;
@@ -69,6 +89,16 @@ public abstract class AbstractClusterMap implements ClusterMap {
    private final Map<String, ScaleStrategy> _scaleStrategies = new HashMap<String, ScaleStrategy>();
 
    private final ExtraInfoToClusterMapper _extraInfoMapper;
+   private final ClusterSummaryTracker _summaryTracker = new ClusterSummaryTracker();
+
+   private ClusterMapRecordStore _recordStore;
+   /* Records restored from the store that vCenter has not yet reported again */
+   private final Set<String> _restoredVmIds = new HashSet<String>();
+   private final Set<String> _restoredClusterIds = new HashSet<String>();
+   private long _restoredTimeMillis;
+
+   /* VM id -> watchers of the VM. Guarded by itself */
+   private final Map<String, Set<VMFieldWatcher>> _vmFieldWatchers = new HashMap<String, Set<VMFieldWatcher>>();
 //   private final Random _random = new Random();     /* Uncomment to do random failure testing */
 //   private final int FAILURE_FACTOR = 20;
 
@@ -159,12 +189,16 @@ public abstract class AbstractClusterMap implements ClusterMap {
          @Override
          public ClusterInfo put(String clusterId, ClusterInfo clusterInfo) {
             ClusterInfo result = super.put(clusterId, clusterInfo);
+            _summaryTracker.clusterAdded(clusterId);
             notifyClusterCollectionUpdateListener();
             return result;
          }
          @Override
          public ClusterInfo remove(Object key) {
             ClusterInfo result = super.remove(key);
+            if (result != null) {
+               _summaryTracker.clusterRemoved(result.getClusterId());
+            }
             notifyClusterCollectionUpdateListener();
             return result;
          }
@@ -173,12 +207,19 @@ public abstract class AbstractClusterMap implements ClusterMap {
          @Override
          public VMInfo put(String vmId, VMInfo vmInfo) {
             VMInfo result = super.put(vmId, vmInfo);
+            if (result != null) {
+               _summaryTracker.vmRemoved(result);
+            }
+            _summaryTracker.vmAdded(vmInfo);
             notifyVMCollectionUpdateListener();
             return result;
          }
          @Override
          public VMInfo remove(Object key) {
             VMInfo result = super.remove(key);
+            if (result != null) {
+               _summaryTracker.vmRemoved(result);
+            }
             notifyVMCollectionUpdateListener();
             return result;
          }
@@ -187,19 +228,92 @@ public abstract class AbstractClusterMap implements ClusterMap {
 
    VMInfo createVMInfo(String moRef, VMConstantData constantData,
          VMVariableData variableData, String clusterId) {
-      VMInfo vmInfo = new VMInfo(moRef, constantData, variableData, clusterId);
-      _log.log(Level.FINE, "Creating new VMInfo <%%V%s%%V>(%s) for cluster <%%C%s%%C>. %s. %s",
-            new String[]{moRef, moRef, clusterId, constantData.toString(), variableData.toString()});
+      VMInfo vmInfo = (_recordStore != null) ? _recordStore.createVMInfo(moRef, constantData, variableData, clusterId)
+            : new VMInfo(moRef, constantData, variableData, clusterId);
+      _log.log(Level.FINE, "Creating new VMInfo <%%V%1$s%%V>(%1$s) for cluster <%%C%2$s%%C>. %3$s. %4$s",
+            moRef, clusterId, constantData, variableData);
       return vmInfo;
    }
 
    ClusterInfo createClusterInfo(String clusterId, SerengetiClusterConstantData constantData) {
       ClusterInfo clusterInfo = new ClusterInfo(clusterId, constantData);
-      _log.log(Level.FINE, "Creating new ClusterInfo <%%C%s%%C>(%s). %s",
-            new String[]{clusterId, clusterId, constantData.toString()});
+      _log.log(Level.FINE, "Creating new ClusterInfo <%%C%1$s%%C>(%1$s). %2$s", clusterId, constantData);
       return clusterInfo;
    }
 
+   /* Keeps the state of the VMs in the given store from now on and restores any clusters and VMs it holds from a previous run
+    * The restored records stand in until vCenter reports the VMs again. Any that it hasn't reported within
+    *   CLUSTER_MAP_RESTORE_GRACE_TIME_MILLIS are discarded, as they must have gone while VHM was not running.
+    * Must be called before the ClusterMap is shared with any readers */
+   void attachRecordStore(ClusterMapRecordStore store) {
+      List<StoredCluster> storedClusters = store.getStoredClusters();
+      List<StoredVM> storedVMs = store.getStoredVMs();
+      _recordStore = store;
+      for (StoredCluster stored : storedClusters) {
+         ClusterInfo clusterInfo = createClusterInfo(stored._clusterId, stored._constantData);
+         clusterInfo.setScaleStrategyKey(stored._scaleStrategyKey);
+         clusterInfo.setJobTrackerPort(stored._jobTrackerPort);
+         clusterInfo.putAllExtraInfo(stored._extraInfo);
+         updateClusterInfoMap(stored._clusterId, clusterInfo);
+         _restoredClusterIds.add(stored._clusterId);
+      }
+      for (StoredVM stored : storedVMs) {
+         VMInfo vmInfo = createVMInfo(stored._moRef, stored._constantData, stored._variableData, stored._clusterId);
+         vmInfo.setPowerOnTime(stored._powerOnTime);
+         vmInfo.setPowerOffTime(stored._powerOffTime);
+         updateVMInfoMap(stored._moRef, vmInfo);
+         _restoredVmIds.add(stored._moRef);
+      }
+      _restoredTimeMillis = System.currentTimeMillis();
+      if (!storedVMs.isEmpty() || !storedClusters.isEmpty()) {
+         _log.log(VhmLevel.USER, "VHM: restored records of "+storedClusters.size()+" clusters and "+storedVMs.size()+" VMs from the previous run");
+      }
+   }
+
+   /* Drops a restored VM without logging it as removed, since it is either about to be replaced or is being expired */
+   private void discardRestoredVM(String vmId) {
+      _restoredVmIds.remove(vmId);
+      VMInfo vmInfo = null;
+      if (vmInfoMapHasData()) {
+         vmInfo = getVMInfoMap().remove(vmId);
+      }
+      if ((vmInfo != null) && VmType.MASTER.equals(vmInfo.getVmType())) {
+         discardRestoredCluster(vmInfo.getClusterId());
+      }
+      _recordStore.removeVM(vmId);
+   }
+
+   private void discardRestoredCluster(String clusterId) {
+      _restoredClusterIds.remove(clusterId);
+      if (clusterInfoMapHasData()) {
+         getClusterInfoMap().remove(clusterId);
+      }
+      _recordStore.removeCluster(clusterId);
+   }
+
+   private void expireRestoredRecords() {
+      if ((System.currentTimeMillis() - _restoredTimeMillis) < CLUSTER_MAP_RESTORE_GRACE_TIME_MILLIS) {
+         return;
+      }
+      _log.log(VhmLevel.USER, "VHM: discarding restored records of "+_restoredClusterIds.size()+" clusters and "+
+            _restoredVmIds.size()+" VMs that vCenter has not reported since VHM started");
+      for (String vmId : new ArrayList<String>(_restoredVmIds)) {
+         discardRestoredVM(vmId);
+      }
+      for (String clusterId : new ArrayList<String>(_restoredClusterIds)) {
+         discardRestoredCluster(clusterId);
+      }
+   }
+
+   private void updateClusterRecord(String clusterId) {
+      ClusterInfo clusterInfo = getCluster(clusterId);
+      if (clusterInfo != null) {
+         _recordStore.putCluster(clusterInfo);
+      } else {
+         _recordStore.removeCluster(clusterId);
+      }
+   }
+
    void setVMCollectionUpdateListener(VMCollectionUpdateListener listener) {
       _vmCollectionUpdateListener = listener;
    }
@@ -267,6 +381,11 @@ public abstract class AbstractClusterMap implements ClusterMap {
             }
          }
       }
+      /* Only once the VMInfo is no longer needed, as it reads from its record */
+      if (_recordStore != null) {
+         _restoredVmIds.remove(vmMoRef);
+         _recordStore.removeVM(vmMoRef);
+      }
       dumpState(Level.FINEST);
       return clusterId;
    }
@@ -275,14 +394,24 @@ public abstract class AbstractClusterMap implements ClusterMap {
    /* May also return any implied scale events of the cluster state change */
    public String handleClusterEvent(ClusterStateChangeEvent event, Set<ClusterScaleEvent> impliedScaleEventsResultSet) {
       String clusterId = null;
+      if (!_restoredVmIds.isEmpty() || !_restoredClusterIds.isEmpty()) {
+         expireRestoredRecords();
+         /* vCenter reports every VM as new when VHM starts, so replace the restored record rather than rejecting it as a duplicate */
+         if ((event instanceof NewVmEvent) && _restoredVmIds.contains(((NewVmEvent)event).getVmId())) {
+            discardRestoredVM(((NewVmEvent)event).getVmId());
+         }
+      }
       if (event instanceof NewVmEvent) {
-         return addNewVM((NewVmEvent)event, impliedScaleEventsResultSet);
+         clusterId = addNewVM((NewVmEvent)event, impliedScaleEventsResultSet);
       } else if (event instanceof VmUpdateEvent) {
-         return updateVMState((VmUpdateEvent)event, impliedScaleEventsResultSet);
+         clusterId = updateVMState((VmUpdateEvent)event, impliedScaleEventsResultSet);
       } else if (event instanceof ClusterUpdateEvent) {
-         return updateClusterState((ClusterUpdateEvent)event, impliedScaleEventsResultSet, false);
+         clusterId = updateClusterState((ClusterUpdateEvent)event, impliedScaleEventsResultSet, false);
       } else if (event instanceof VmRemovedFromClusterEvent) {
-         return removeVMFromCluster((VmRemovedFromClusterEvent)event);
+         clusterId = removeVMFromCluster((VmRemovedFromClusterEvent)event);
+      }
+      if ((_recordStore != null) && (clusterId != null)) {
+         updateClusterRecord(clusterId);
       }
       return clusterId;
    }
@@ -342,9 +471,60 @@ public abstract class AbstractClusterMap implements ClusterMap {
       return updateVMVariableData(event.getVmId(), variableData);
    }
 
+   @Override
+   public void addVMFieldWatcher(Set<String> vmIds, VMFieldWatcher watcher) {
+      if ((vmIds == null) || (watcher == null)) {
+         return;
+      }
+      synchronized (_vmFieldWatchers) {
+         for (String vmId : vmIds) {
+            Set<VMFieldWatcher> watchers = _vmFieldWatchers.get(vmId);
+            if (watchers == null) {
+               watchers = new HashSet<VMFieldWatcher>();
+               _vmFieldWatchers.put(vmId, watchers);
+            }
+            watchers.add(watcher);
+         }
+      }
+   }
+
+   @Override
+   public void removeVMFieldWatcher(Set<String> vmIds, VMFieldWatcher watcher) {
+      if (vmIds == null) {
+         return;
+      }
+      synchronized (_vmFieldWatchers) {
+         for (String vmId : vmIds) {
+            Set<VMFieldWatcher> watchers = _vmFieldWatchers.get(vmId);
+            if (watchers != null) {
+               watchers.remove(watcher);
+               if (watchers.isEmpty()) {
+                  _vmFieldWatchers.remove(vmId);
+               }
+            }
+         }
+      }
+   }
+
+   private void notifyVMFieldWatchers(String vmId, String fieldName, Object newValue) {
+      Set<VMFieldWatcher> toNotify;
+      synchronized (_vmFieldWatchers) {
+         Set<VMFieldWatcher> watchers = _vmFieldWatchers.get(vmId);
+         if (watchers == null) {
+            return;
+         }
+         toNotify = new HashSet<VMFieldWatcher>(watchers);
+      }
+      for (VMFieldWatcher watcher : toNotify) {
+         watcher.vmFieldChanged(vmId, fieldName, newValue);
+      }
+   }
+
    private boolean testForUpdate(Object toSet, Object newValue, String id, String fieldName, String prefix, String postfix) {
       if ((newValue != null) && ((toSet == null) || !toSet.equals(newValue))) {
-         _log.log(Level.FINE, "Updating %s for %s%s%s to %s", new Object[]{fieldName, prefix, id, postfix, newValue});
+         if (_log.isLoggable(Level.FINE)) {
+            _log.log(Level.FINE, "Updating %s for %s%s%s to %s", new Object[]{fieldName, prefix, id, postfix, newValue});
+         }
          return true;
       }
       return false;
@@ -373,14 +553,18 @@ public abstract class AbstractClusterMap implements ClusterMap {
          Integer vCPUs = variableData._vCPUs;
 
          clusterId = vi.getClusterId();
-         if (testForVMUpdate(vi.getHostMoRef(), hostMoRef, vmId, "hostMoRef")) {
+         _summaryTracker.vmRemoved(vi);
+         if (testForVMUpdate(vi.getHostMoRef(), hostMoRef, vmId, VM_FIELD_HOST_MOREF)) {
             vi.setHostMoRef(hostMoRef);
+            notifyVMFieldWatchers(vmId, VM_FIELD_HOST_MOREF, hostMoRef);
          }
-         if (testForVMUpdate(vi.getMyName(), myName, vmId, "myName")) {
+         if (testForVMUpdate(vi.getMyName(), myName, vmId, VM_FIELD_MY_NAME)) {
             vi.setMyName(myName);
+            notifyVMFieldWatchers(vmId, VM_FIELD_MY_NAME, myName);
          }
-         if (testForVMUpdate(vi.getPowerState(), powerState, vmId, "powerState")) {
+         if (testForVMUpdate(vi.getPowerState(), powerState, vmId, VM_FIELD_POWER_STATE)) {
             vi.setPowerState(powerState);
+            notifyVMFieldWatchers(vmId, VM_FIELD_POWER_STATE, powerState);
             if (powerState) {
                vi.setPowerOffTime(0);
                vi.setPowerOnTime(System.currentTimeMillis());
@@ -397,15 +581,20 @@ public abstract class AbstractClusterMap implements ClusterMap {
          if ((vi.getPowerState() != null) && (!vi.getPowerState())) {
             dnsName = "";        /* Any time we know the VM is powered off, remove stale values */
          }
-         if (testForVMUpdate(vi.getDnsName(), dnsName, vmId, "dnsName")) {
+         if (testForVMUpdate(vi.getDnsName(), dnsName, vmId, VM_FIELD_DNS_NAME)) {
             vi.setDnsName(dnsName);
+            notifyVMFieldWatchers(vmId, VM_FIELD_DNS_NAME, dnsName);
          }
-         if (testForVMUpdate(vi.getNicAndIpAddressMap(), nicAndIpAddressMap, vmId, "nicAndIpAddressMap")) {
+         if ((nicAndIpAddressMap != null) && !vi.nicAndIpAddressMapEquals(nicAndIpAddressMap)
+               && testForVMUpdate(null, nicAndIpAddressMap, vmId, VM_FIELD_NIC_AND_IPADDRESS_MAP)) {
             vi.setNicAndIpAddressMap(nicAndIpAddressMap);
+            notifyVMFieldWatchers(vmId, VM_FIELD_NIC_AND_IPADDRESS_MAP, nicAndIpAddressMap);
          }
-         if (testForVMUpdate(vi.getvCPUs(), vCPUs, vmId, "vCPUs")) {
+         if (testForVMUpdate(vi.getvCPUs(), vCPUs, vmId, VM_FIELD_VCPUS)) {
             vi.setvCPUs(vCPUs);
+            notifyVMFieldWatchers(vmId, VM_FIELD_VCPUS, vCPUs);
          }
+         _summaryTracker.vmAdded(vi);
       }
       return clusterId;
    }
@@ -441,6 +630,7 @@ public abstract class AbstractClusterMap implements ClusterMap {
          }
          /* Don't try to generate implied events for existing clusters that are not viable */
          if (variableDataChanged) {
+            _summaryTracker.clusterChanged(clusterId);
             Set<ClusterScaleEvent> impliedScaleEvents = _extraInfoMapper.getImpliedScaleEventsForUpdate(variableData, clusterId, isNewVm, isClusterViable(clusterId));
             if ((impliedScaleEvents != null) && (impliedScaleEventsResultSet != null)) {
                impliedScaleEventsResultSet.addAll(impliedScaleEvents);
@@ -521,14 +711,14 @@ public abstract class AbstractClusterMap implements ClusterMap {
 
    Set<String> generateComputeVMList(final String clusterId, String hostId, Boolean powerState) {
       if (vmInfoMapHasData()) {
-         Set<String> result = new HashSet<String>();
+         final Set<String> result = new HashSet<String>();
          for (VMInfo vminfo : getVMInfoMap().values()) {
             try {
                boolean hostTest = (hostId == null) ? true : (hostId.equals(vminfo.getHostMoRef()));
                boolean clusterTest = (clusterId == null) ? true : (vminfo.getClusterId().equals(clusterId));
                boolean powerStateTest = (powerState == null) ? true : (vminfo.getPowerState().equals(powerState));
-               _log.finest("Inputs: clusterId: "+clusterId+", hostId: "+hostId+", powerState: "+powerState);
-               _log.finest("Testing "+vminfo.getMyName()+" h="+hostTest+", c="+clusterTest+", p="+powerStateTest);
+               _log.log(Level.FINEST, "Inputs: clusterId: %s, hostId: %s, powerState: %s", clusterId, hostId, powerState);
+               _log.log(Level.FINEST, "Testing %s h=%s, c=%s, p=%s", vminfo.getMyName(), hostTest, clusterTest, powerStateTest);
                if ((vminfo.getVmType().equals(VmType.COMPUTE)) && hostTest && clusterTest && powerStateTest) {
                   result.add(vminfo.getMoRef());
                }
@@ -546,7 +736,12 @@ public abstract class AbstractClusterMap implements ClusterMap {
             }
          }
          if (result.size() > 0) {
-            _log.finest("generateComputeVMList returning set with hashCode: "+result.hashCode()+", and identity hashcode: "+System.identityHashCode(result));
+            _log.log(Level.FINEST, new VhmLogger.MessageSupplier() {
+               @Override
+               public String get() {
+                  return "generateComputeVMList returning set with hashCode: "+result.hashCode()+", and identity hashcode: "+System.identityHashCode(result);
+               }
+            });
          } else if (result.size() == 0) {
             _log.finest("generateComputeVMList returning null");
          }
@@ -579,6 +774,94 @@ public abstract class AbstractClusterMap implements ClusterMap {
       }
    }
 
+   /* The number of VMs, for diagnostic views */
+   int getNumVMs() {
+      if (vmInfoMapHasData()) {
+         return getVMInfoMap().size();
+      }
+      return 0;
+   }
+
+   /* The number of clusters, for diagnostic views */
+   int getNumClusters() {
+      if (clusterInfoMapHasData()) {
+         return getClusterInfoMap().size();
+      }
+      return 0;
+   }
+
+   private static final Comparator<Entry<String, VMInfo>> DESCENDING_VM_ID_ORDER = new Comparator<Entry<String, VMInfo>>() {
+      @Override
+      public int compare(Entry<String, VMInfo> o1, Entry<String, VMInfo> o2) {
+         return o2.getKey().compareTo(o1.getKey());
+      }
+   };
+
+   /* The next page of VMs in id order after afterVmId, or from the start if it is null, optionally only those of one cluster.
+    * This is for diagnostic views that page through ClusterMap rather than copy it all at once. The VMs of a cluster are read from the
+    *   sorted ids kept by the summary tracker, so only the page itself is visited. Otherwise each page is a single pass over the VMs
+    *   that keeps only the lowest pageSize ids seen, so neither time nor memory under the read lock goes on sorting every VM.
+    * The VMInfo must not be used after the read lock is released */
+   List<VMInfo> getVMInfoPage(String afterVmId, String clusterId, int pageSize) {
+      if ((pageSize <= 0) || !vmInfoMapHasData()) {
+         return Collections.emptyList();
+      }
+      if (clusterId != null) {
+         return getVMInfoPageForCluster(afterVmId, clusterId, pageSize);
+      }
+      PriorityQueue<Entry<String, VMInfo>> lowest = new PriorityQueue<Entry<String, VMInfo>>(pageSize + 1, DESCENDING_VM_ID_ORDER);
+      for (Entry<String, VMInfo> entry : getVMInfoMap().entrySet()) {
+         String vmId = entry.getKey();
+         if ((afterVmId != null) && (vmId.compareTo(afterVmId) <= 0)) {
+            continue;
+         }
+         /* Checked before the cluster as the cheaper test, since most VMs are rejected here once the page has filled */
+         if ((lowest.size() == pageSize) && (vmId.compareTo(lowest.peek().getKey()) >= 0)) {
+            continue;
+         }
+         lowest.add(entry);
+         if (lowest.size() > pageSize) {
+            lowest.poll();
+         }
+      }
+      VMInfo[] result = new VMInfo[lowest.size()];
+      for (int i = result.length - 1; i >= 0; i--) {
+         result[i] = lowest.poll().getValue();
+      }
+      return Arrays.asList(result);
+   }
+
+   private List<VMInfo> getVMInfoPageForCluster(String afterVmId, String clusterId, int pageSize) {
+      SortedSet<String> vmIds = _summaryTracker.getVmIds(clusterId);
+      if (afterVmId != null) {
+         /* The tail set is inclusive, so the VM at the end of the last page is skipped below */
+         vmIds = vmIds.tailSet(afterVmId);
+      }
+      Map<String, VMInfo> vmInfoMap = getVMInfoMap();
+      List<VMInfo> result = new ArrayList<VMInfo>(pageSize);
+      for (String vmId : vmIds) {
+         if (vmId.equals(afterVmId)) {
+            continue;
+         }
+         VMInfo vmInfo = vmInfoMap.get(vmId);
+         if (vmInfo != null) {
+            result.add(vmInfo);
+            if (result.size() == pageSize) {
+               break;
+            }
+         }
+      }
+      return result;
+   }
+
+   /* The ClusterInfo of all of the clusters, for diagnostic views. The ClusterInfo must not be used after the read lock is released */
+   List<ClusterInfo> getClusterInfos() {
+      if (clusterInfoMapHasData()) {
+         return new ArrayList<ClusterInfo>(getClusterInfoMap().values());
+      }
+      return Collections.emptyList();
+   }
+
    String getClusterIdFromVMs(List<String> vms) {
       String clusterId = null;
       if (vmInfoMapHasData()) {
@@ -662,6 +945,14 @@ public abstract class AbstractClusterMap implements ClusterMap {
       return null;
    }
 
+   @Override
+   public ClusterSummary getClusterSummary(String clusterId) {
+      if (clusterId == null) {
+         return null;
+      }
+      return _summaryTracker.getSummary(clusterId);
+   }
+
    @Override
    public Set<String> getAllKnownClusterIds() {
       //if ((_random != null) && ((_random.nextInt() % FAILURE_FACTOR) == 0)) {return null;}
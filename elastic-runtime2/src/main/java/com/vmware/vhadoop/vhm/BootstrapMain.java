@@ -21,6 +21,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
@@ -38,18 +39,25 @@ import com.vmware.vhadoop.api.vhm.events.ClusterScaleEvent;
 import com.vmware.vhadoop.api.vhm.events.ClusterStateChangeEvent.SerengetiClusterVariableData;
 import com.vmware.vhadoop.api.vhm.strategy.ScaleStrategy;
 import com.vmware.vhadoop.api.vhm.strategy.VMChooser;
+import com.vmware.vhadoop.util.AsyncLogHandler;
+import com.vmware.vhadoop.util.ExternalizedParameters;
 import com.vmware.vhadoop.util.LogFormatter;
+import com.vmware.vhadoop.util.ScaleTrace;
 import com.vmware.vhadoop.util.ThreadLocalCompoundStatus;
 import com.vmware.vhadoop.util.VhmLevel;
+import com.vmware.vhadoop.util.metrics.MetricsRegistry;
 import com.vmware.vhadoop.vhm.hadoop.HadoopAdaptor;
 import com.vmware.vhadoop.vhm.hadoop.SshUtilities.Credentials;
 import com.vmware.vhadoop.vhm.rabbit.RabbitAdaptor;
 import com.vmware.vhadoop.vhm.rabbit.SimpleRabbitCredentials;
 import com.vmware.vhadoop.vhm.rabbit.VHMJsonReturnMessage;
 import com.vmware.vhadoop.vhm.strategy.BalancedVMChooser;
+import com.vmware.vhadoop.vhm.strategy.HostStatsVMChooser;
 import com.vmware.vhadoop.vhm.strategy.JobTrackerEDPolicy;
+import com.vmware.vhadoop.vhm.strategy.AutoScaleStrategy;
 import com.vmware.vhadoop.vhm.strategy.ManualScaleStrategy;
 import com.vmware.vhadoop.vhm.strategy.PowerTimeVMChooser;
+import com.vmware.vhadoop.vhm.strategy.PredictiveScaleStrategy;
 import com.vmware.vhadoop.vhm.vc.VcAdapter;
 import com.vmware.vhadoop.vhm.vc.VcCredentials;
 
@@ -62,6 +70,8 @@ public class BootstrapMain
    public static final String DEFAULT_VHM_CONFIG_FILENAME = "vhm.properties";
    public static final String DEFAULT_LOG_CONFIG_FILENAME = "logging.properties";
    public static final String DEFAULT_VHM_LOG_FILENAME = "vhm.xml";
+   public static final String DEFAULT_SCALE_TRACE_FILENAME = "vhm-trace.bin";
+   public static final String DEFAULT_METRICS_SNAPSHOT_FILENAME = "vhm-metrics.txt";
    public static final String DEFAULT_VHM_HOME_DIR = "/tmp";
    public static final String DEFAULT_LOGS_SUBDIR = "/logs";
    public static final String DEFAULT_CONF_SUBDIR = "/conf";
@@ -72,6 +82,7 @@ public class BootstrapMain
 
    private VCActions _vcActions;
    private HadoopActions _hadoopActions;
+   private PerformanceStatsSampler _performanceStatsSampler;
    private Properties _properties;
 
    public BootstrapMain() {
@@ -150,7 +161,7 @@ public class BootstrapMain
          try {
             FileHandler handler = new FileHandler(fileName);
             handler.setFormatter(formatter);
-            Logger.getLogger("").addHandler(handler);
+            Logger.getLogger("").addHandler(new AsyncLogHandler(handler));
          } catch (SecurityException f) {
             f.printStackTrace();
          } catch (IOException f) {
@@ -298,25 +309,63 @@ public class BootstrapMain
       return _hadoopActions;
    }
 
+   PerformanceStatsSampler getPerformanceStatsSampler(final ThreadLocalCompoundStatus tlcs) {
+      if (_performanceStatsSampler == null) {
+         _performanceStatsSampler = new PerformanceStatsSampler(getVCInterface(tlcs));
+      }
+      return _performanceStatsSampler;
+   }
+
    public Properties getProperties() {
       return _properties;
    }
 
    ScaleStrategy[] getScaleStrategies(final ThreadLocalCompoundStatus tlcs) {
       ScaleStrategy manualScaleStrategy = new ManualScaleStrategy(new JobTrackerEDPolicy(getHadoopInterface(tlcs), getVCInterface(tlcs)));
-      return new ScaleStrategy[] { manualScaleStrategy };
+      ScaleStrategy autoScaleStrategy = new AutoScaleStrategy(new JobTrackerEDPolicy(getHadoopInterface(tlcs), getVCInterface(tlcs)));
+      ScaleStrategy predictiveScaleStrategy = new PredictiveScaleStrategy(new JobTrackerEDPolicy(getHadoopInterface(tlcs), getVCInterface(tlcs)));
+      return new ScaleStrategy[] { manualScaleStrategy, autoScaleStrategy, predictiveScaleStrategy };
    }
 
    ExtraInfoToClusterMapper getStrategyMapper() {
       return new ExtraInfoToClusterMapper() {
          @Override
          public String getStrategyKey(SerengetiClusterVariableData clusterData, String clusterId) {
+            if (Boolean.TRUE.equals(clusterData._enableAutomation)) {
+               if ((clusterData._prewarmLeadTimeMinutes != null) && (clusterData._prewarmLeadTimeMinutes > 0)) {
+                  return PredictiveScaleStrategy.PREDICTIVE_SCALE_STRATEGY_KEY;
+               }
+               return AutoScaleStrategy.AUTO_SCALE_STRATEGY_KEY;
+            }
             return ManualScaleStrategy.MANUAL_SCALE_STRATEGY_KEY;
          }
 
          @Override
          public Map<String, String> parseExtraInfo(SerengetiClusterVariableData clusterData, String clusterId) {
-            return null;
+            Map<String, String> result = null;
+            if (clusterData._minInstances != null) {
+               result = new HashMap<String, String>();
+               result.put(AutoScaleStrategy.MIN_INSTANCES_EXTRA_INFO_KEY, clusterData._minInstances.toString());
+            }
+            if (clusterData._maxInstances != null) {
+               if (result == null) {
+                  result = new HashMap<String, String>();
+               }
+               result.put(AutoScaleStrategy.MAX_INSTANCES_EXTRA_INFO_KEY, clusterData._maxInstances.toString());
+            }
+            if (clusterData._prewarmLeadTimeMinutes != null) {
+               if (result == null) {
+                  result = new HashMap<String, String>();
+               }
+               result.put(PredictiveScaleStrategy.LEAD_TIME_MINUTES_EXTRA_INFO_KEY, clusterData._prewarmLeadTimeMinutes.toString());
+            }
+            if (clusterData._prewarmConfidence != null) {
+               if (result == null) {
+                  result = new HashMap<String, String>();
+               }
+               result.put(PredictiveScaleStrategy.CONFIDENCE_EXTRA_INFO_KEY, clusterData._prewarmConfidence.toString());
+            }
+            return result;
          }
 
          @Override
@@ -326,16 +375,72 @@ public class BootstrapMain
       };
    }
    
-   VMChooser[] getVMChoosersToRegister() {
-      return new VMChooser[]{new BalancedVMChooser(), new PowerTimeVMChooser()};
+   VMChooser[] getVMChoosersToRegister(final ThreadLocalCompoundStatus tlcs) {
+      return new VMChooser[]{new BalancedVMChooser(), new PowerTimeVMChooser(), new HostStatsVMChooser(getPerformanceStatsSampler(tlcs).getPerformanceStats())};
    }
    
+   /* Tracing is best effort, so VHM carries on without it if the file can't be opened */
+   private void openScaleTrace() {
+      int capacity = ExternalizedParameters.get().getInt("SCALE_TRACE_CAPACITY_SPANS");
+      if (capacity > 0) {
+         String traceFile = buildVHMFilePath(DEFAULT_LOGS_SUBDIR, DEFAULT_SCALE_TRACE_FILENAME);
+         try {
+            ScaleTrace.open(new File(traceFile), capacity);
+         } catch (IOException e) {
+            _log.warning("Unable to open scale operation trace "+traceFile+", so scale operations will not be traced: "+e.getMessage());
+         }
+      }
+   }
+
+   private void startMetricsSnapshots() {
+      long intervalMillis = ExternalizedParameters.get().getLong("METRICS_SNAPSHOT_INTERVAL_MILLIS");
+      if (intervalMillis > 0) {
+         String snapshotFile = buildVHMFilePath(DEFAULT_LOGS_SUBDIR, DEFAULT_METRICS_SNAPSHOT_FILENAME);
+         MetricsRegistry.get().startSnapshots(new File(snapshotFile), intervalMillis);
+      }
+   }
+
+   /* ClusterMap is kept on the heap unless clusterMapStore=offheap. The records are only persisted if clusterMapStoreFile is also set. */
+   private ClusterMapRecordStore openClusterMapRecordStore() {
+      String storeType = _properties.getProperty("clusterMapStore", "heap");
+      if (!storeType.trim().equalsIgnoreCase("offheap")) {
+         return null;
+      }
+      String storeFile = _properties.getProperty("clusterMapStoreFile");
+      if ((storeFile == null) || storeFile.trim().isEmpty()) {
+         return ClusterMapRecordStore.allocateDirect();
+      }
+      try {
+         return ClusterMapRecordStore.openMapped(new File(storeFile.trim()));
+      } catch (IOException e) {
+         _log.warning("Unable to open cluster map record store "+storeFile+", so ClusterMap will be kept on the heap: "+e.getMessage());
+         return null;
+      }
+   }
+
+   private void startStatusServer(VHM vhm) {
+      int port = ExternalizedParameters.get().getInt("STATUS_HTTP_PORT");
+      if (port > 0) {
+         String bindAddress = ExternalizedParameters.get().getString("STATUS_HTTP_BIND_ADDRESS");
+         StatusHttpServer statusServer = new StatusHttpServer(vhm);
+         vhm.registerCollaborator(statusServer);
+         try {
+            statusServer.start(bindAddress, port);
+         } catch (IOException e) {
+            _log.warning("Unable to start status server on "+bindAddress+":"+port+" - "+e.getMessage());
+         }
+      }
+   }
+
    VHM initVHM(final ThreadLocalCompoundStatus tlcs) {
       VHM vhm;
 
+      openScaleTrace();
+      startMetricsSnapshots();
+
       MQClient mqClient = getRabbitInterface();
 
-      vhm = new VHM(getVCInterface(tlcs), getScaleStrategies(tlcs), getStrategyMapper(), tlcs);
+      vhm = new VHM(getVCInterface(tlcs), getScaleStrategies(tlcs), getStrategyMapper(), tlcs, openClusterMapRecordStore());
       ClusterStateChangeListenerImpl cscl = new ClusterStateChangeListenerImpl(getVCInterface(tlcs), _properties.getProperty("uuid"));
 
       if (!vhm.registerEventProducer(cscl)) {
@@ -346,9 +451,19 @@ public class BootstrapMain
          _log.severe("Fatal error registering MQClient as an event producer");
          return null;
       }
-      for (VMChooser vmChooser : getVMChoosersToRegister()) {
+      if (!vhm.registerEventProducer(getPerformanceStatsSampler(tlcs))) {
+         _log.severe("Fatal error registering PerformanceStatsSampler as an event producer");
+         return null;
+      }
+      if (!vhm.registerEventProducer(new JobTrackerMetricsCollector(getHadoopInterface(tlcs)))) {
+         _log.severe("Fatal error registering JobTrackerMetricsCollector as an event producer");
+         return null;
+      }
+      for (VMChooser vmChooser : getVMChoosersToRegister(tlcs)) {
          vhm.registerCollaborator(vmChooser);
       }
+      vhm.registerCollaborator(new JobTrackerPreparer(getHadoopInterface(tlcs)));
+      startStatusServer(vhm);
 
       return vhm;
    }
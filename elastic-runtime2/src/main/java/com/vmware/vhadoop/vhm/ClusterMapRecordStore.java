@@ -0,0 +1,884 @@
+/***************************************************************************
+* Copyright (c) 2013 VMware, Inc. All Rights Reserved.
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+***************************************************************************/
+
+
+package com.vmware.vhadoop.vhm;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import com.vmware.vhadoop.api.vhm.ClusterMap.ClusterInfo;
+import com.vmware.vhadoop.api.vhm.ClusterMap.VMInfo;
+import com.vmware.vhadoop.api.vhm.events.ClusterStateChangeEvent.SerengetiClusterConstantData;
+import com.vmware.vhadoop.api.vhm.events.ClusterStateChangeEvent.VMConstantData;
+import com.vmware.vhadoop.api.vhm.events.ClusterStateChangeEvent.VMVariableData;
+import com.vmware.vhadoop.api.vhm.events.ClusterStateChangeEvent.VmType;
+import com.vmware.vhadoop.util.StringDictionary;
+
+/**
+ * Keeps the state of the VMs and clusters of a ClusterMap as fixed-layout records outside of the Java heap, either in a direct
+ *   ByteBuffer or in a memory-mapped file. The file is also the persistence format for a warm restart, as the records it holds
+ *   when VHM stops are restored into the ClusterMap when VHM next starts.
+ * Each record is RECORD_SIZE bytes and is free, a VM, a cluster or overflow. String fields have a fixed width and hold a length followed by
+ *   the UTF-8 bytes. A value that doesn't fit its field is written to a chain of overflow records instead, which the field refers to.
+ * The only per-VM state on the heap is the index from VM id to record and a RecordVMInfo. This holds the cluster and host ids of the VM
+ *   as strings shared with other VMs, as these are read for every VM when ClusterMap is scanned, and decodes the rest of its record on each call
+ * THREADING: The store follows the ClusterMap model of a single writer and multiple readers, which is enforced by ClusterMapAccess
+ *   Readers only use absolute gets on the buffer, so they don't interfere with each other
+ */
+public class ClusterMapRecordStore {
+   private static final Logger _log = Logger.getLogger(ClusterMapRecordStore.class.getName());
+
+   private static final int MAGIC = 0x56484d43;
+   private static final int FORMAT_VERSION = 2;
+   private static final int HEADER_SIZE = 64;
+   static final int RECORD_SIZE = 1024;
+   static final int DEFAULT_INITIAL_CAPACITY = 1024;
+   private static final Charset UTF8 = Charset.forName("UTF-8");
+   private static final VmType[] VM_TYPES = VmType.values();
+
+   private static final int HEADER_MAGIC = 0;
+   private static final int HEADER_VERSION = 4;
+   private static final int HEADER_RECORD_SIZE = 8;
+   private static final int HEADER_CAPACITY = 12;
+
+   private static final byte KIND_FREE = 0;
+   private static final byte KIND_VM = 1;
+   private static final byte KIND_CLUSTER = 2;
+   private static final byte KIND_OVERFLOW = 3;
+
+   private static final byte UNKNOWN = -1;
+   private static final int NULL_INT = Integer.MIN_VALUE;
+   private static final short NULL_LENGTH = -1;
+   private static final short OVERFLOW_LENGTH = -2;
+   private static final int NO_SLOT = -1;
+
+   /* Fixed-width fields, common to both kinds of record */
+   private static final int KIND = 0;
+   private static final int VM_TYPE = 1;
+   private static final int VM_POWER_STATE = 2;
+   private static final int VM_VCPUS = 4;
+   private static final int VM_POWER_ON_TIME = 8;
+   private static final int VM_POWER_OFF_TIME = 16;
+   private static final int CLUSTER_JOB_TRACKER_PORT = 4;
+
+   /* An overflow record holds the next record of its chain, followed by the next part of the value */
+   private static final int OVERFLOW_NEXT = 4;
+   private static final int OVERFLOW_DATA = 8;
+   private static final int OVERFLOW_DATA_SIZE = RECORD_SIZE - OVERFLOW_DATA;
+
+   /* A field whose value has overflowed holds OVERFLOW_LENGTH, then the length of the value and the first record of its chain */
+   private static final int OVERFLOWED_VALUE_LENGTH = 2;
+   private static final int OVERFLOWED_FIRST_SLOT = 6;
+
+   /* Variable-length fields, each of which has a fixed maximum width including its 2 byte length */
+   private static class Field {
+      final int _offset;
+      final int _width;
+
+      Field(int offset, int width) {
+         _offset = offset;
+         _width = width;
+      }
+   }
+
+   private static final Field VM_MO_REF = new Field(24, 66);
+   private static final Field VM_UUID = new Field(90, 66);
+   private static final Field VM_CLUSTER_ID = new Field(156, 66);
+   private static final Field VM_HOST_MO_REF = new Field(222, 66);
+   private static final Field VM_NAME = new Field(288, 160);
+   private static final Field VM_DNS_NAME = new Field(448, 160);
+   private static final Field VM_NICS = new Field(608, 416);
+   private static final Field[] VM_FIELDS = {VM_MO_REF, VM_UUID, VM_CLUSTER_ID, VM_HOST_MO_REF, VM_NAME, VM_DNS_NAME, VM_NICS};
+
+   private static final Field CLUSTER_ID = new Field(24, 66);
+   private static final Field CLUSTER_MASTER_MO_REF = new Field(90, 66);
+   private static final Field CLUSTER_SERENGETI_FOLDER = new Field(156, 160);
+   private static final Field CLUSTER_NAME = new Field(316, 160);
+   private static final Field CLUSTER_SCALE_STRATEGY_KEY = new Field(476, 66);
+   private static final Field CLUSTER_EXTRA_INFO = new Field(542, 482);
+   private static final Field[] CLUSTER_FIELDS = {CLUSTER_ID, CLUSTER_MASTER_MO_REF, CLUSTER_SERENGETI_FOLDER, CLUSTER_NAME,
+      CLUSTER_SCALE_STRATEGY_KEY, CLUSTER_EXTRA_INFO};
+
+   private final RandomAccessFile _file;
+   private volatile ByteBuffer _buffer;
+   private int _capacity;
+
+   /* The index of the records, which is rebuilt from the buffer when the store is opened */
+   private final Map<String, Integer> _vmSlots = new HashMap<String, Integer>();
+   private final Map<String, Integer> _clusterSlots = new HashMap<String, Integer>();
+   private int[] _freeSlots;
+   private int _numFreeSlots;
+
+   /* The cluster and host ids of the RecordVMInfos, so that each distinct id is decoded once */
+   private final StringDictionary _clusterIds = new StringDictionary();
+   private final StringDictionary _hostIds = new StringDictionary();
+
+   /* The state of a cluster as stored, for restoring into a ClusterMap */
+   static class StoredCluster {
+      String _clusterId;
+      SerengetiClusterConstantData _constantData;
+      String _scaleStrategyKey;
+      Integer _jobTrackerPort;
+      Map<String, String> _extraInfo;
+   }
+
+   /* The state of a VM as stored, for restoring into a ClusterMap */
+   static class StoredVM {
+      String _moRef;
+      String _clusterId;
+      VMConstantData _constantData;
+      VMVariableData _variableData;
+      long _powerOnTime;
+      long _powerOffTime;
+   }
+
+   private ClusterMapRecordStore(RandomAccessFile file, ByteBuffer buffer) {
+      _file = file;
+      _buffer = buffer;
+      _capacity = (buffer.capacity() - HEADER_SIZE) / RECORD_SIZE;
+      /* Overflow records are only kept if a VM or cluster refers to them, so that any left by a write that didn't complete are freed.
+       * A VM or cluster with an overflow chain that is broken or shared with another record is dropped, to be filled in again by vCenter */
+      boolean[] referenced = new boolean[_capacity];
+      for (int slot = 0; slot < _capacity; slot++) {
+         byte kind = buffer.get(recordOffset(slot) + KIND);
+         if ((kind != KIND_VM) && (kind != KIND_CLUSTER)) {
+            continue;
+         }
+         List<Integer> overflowSlots = getOverflowSlots(slot, getFields(kind), referenced);
+         String id = null;
+         if (overflowSlots != null) {
+            id = getString(slot, (kind == KIND_VM) ? VM_MO_REF : CLUSTER_ID);
+         }
+         if (id == null) {
+            _log.warning("VHM: discarding an incomplete cluster map record");
+            buffer.put(recordOffset(slot) + KIND, KIND_FREE);
+         } else {
+            for (Integer overflowSlot : overflowSlots) {
+               referenced[overflowSlot] = true;
+            }
+            ((kind == KIND_VM) ? _vmSlots : _clusterSlots).put(id, slot);
+         }
+      }
+      _freeSlots = new int[_capacity];
+      for (int slot = _capacity - 1; slot >= 0; slot--) {
+         byte kind = buffer.get(recordOffset(slot) + KIND);
+         if ((kind == KIND_OVERFLOW) && !referenced[slot]) {
+            buffer.put(recordOffset(slot) + KIND, KIND_FREE);
+            kind = KIND_FREE;
+         }
+         if ((kind != KIND_VM) && (kind != KIND_CLUSTER) && (kind != KIND_OVERFLOW)) {
+            buffer.put(recordOffset(slot) + KIND, KIND_FREE);
+            _freeSlots[_numFreeSlots++] = slot;
+         }
+      }
+   }
+
+   private static Field[] getFields(byte kind) {
+      return (kind == KIND_VM) ? VM_FIELDS : CLUSTER_FIELDS;
+   }
+
+   /* Returns the overflow records that the fields of a record refer to, or null if any of the chains is broken or
+    *   includes a record that is already referenced */
+   private List<Integer> getOverflowSlots(int slot, Field[] fields, boolean[] referenced) {
+      List<Integer> result = new ArrayList<Integer>();
+      for (Field field : fields) {
+         List<Integer> chain = getOverflowChain(slot, field);
+         if (chain == null) {
+            return null;
+         }
+         for (Integer overflowSlot : chain) {
+            if (referenced[overflowSlot] || result.contains(overflowSlot)) {
+               return null;
+            }
+         }
+         result.addAll(chain);
+      }
+      return result;
+   }
+
+   /* A store that lasts only as long as the process */
+   public static ClusterMapRecordStore allocateDirect() {
+      return allocateDirect(DEFAULT_INITIAL_CAPACITY);
+   }
+
+   static ClusterMapRecordStore allocateDirect(int initialCapacity) {
+      ByteBuffer buffer = ByteBuffer.allocateDirect(HEADER_SIZE + (initialCapacity * RECORD_SIZE));
+      writeHeader(buffer, initialCapacity);
+      return new ClusterMapRecordStore(null, buffer);
+   }
+
+   /* Opens the store in the given file, keeping any records in it if it was written by a compatible version, or creates it */
+   public static ClusterMapRecordStore openMapped(File file) throws IOException {
+      return openMapped(file, DEFAULT_INITIAL_CAPACITY);
+   }
+
+   static ClusterMapRecordStore openMapped(File file, int initialCapacity) throws IOException {
+      RandomAccessFile raf = new RandomAccessFile(file, "rw");
+      try {
+         int capacity = readCapacity(raf);
+         if (capacity < 0) {
+            if (raf.length() > 0) {
+               _log.warning("VHM: discarding cluster map records in "+file+" as they are in an unrecognized format");
+            }
+            raf.setLength(0);
+            capacity = initialCapacity;
+         }
+         MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + ((long)capacity * RECORD_SIZE));
+         writeHeader(buffer, capacity);
+         return new ClusterMapRecordStore(raf, buffer);
+      } catch (IOException e) {
+         raf.close();
+         throw e;
+      }
+   }
+
+   /* Returns the capacity recorded in the header of the file, or -1 if there is no valid header */
+   private static int readCapacity(RandomAccessFile raf) throws IOException {
+      if (raf.length() < HEADER_SIZE) {
+         return -1;
+      }
+      raf.seek(0);
+      if ((raf.readInt() != MAGIC) || (raf.readInt() != FORMAT_VERSION) || (raf.readInt() != RECORD_SIZE)) {
+         return -1;
+      }
+      int capacity = raf.readInt();
+      if ((capacity <= 0) || (raf.length() < HEADER_SIZE + ((long)capacity * RECORD_SIZE))) {
+         return -1;
+      }
+      return capacity;
+   }
+
+   private static void writeHeader(ByteBuffer buffer, int capacity) {
+      buffer.putInt(HEADER_MAGIC, MAGIC);
+      buffer.putInt(HEADER_VERSION, FORMAT_VERSION);
+      buffer.putInt(HEADER_RECORD_SIZE, RECORD_SIZE);
+      buffer.putInt(HEADER_CAPACITY, capacity);
+   }
+
+   private static int recordOffset(int slot) {
+      return HEADER_SIZE + (slot * RECORD_SIZE);
+   }
+
+   /* Doubles the capacity, keeping the records in the same slots */
+   private void grow() {
+      int newCapacity = _capacity * 2;
+      long newSize = HEADER_SIZE + ((long)newCapacity * RECORD_SIZE);
+      if (newSize > Integer.MAX_VALUE) {
+         throw new IllegalStateException("Cluster map record store cannot grow beyond "+_capacity+" records");
+      }
+      ByteBuffer newBuffer;
+      if (_file != null) {
+         try {
+            newBuffer = _file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, newSize);
+         } catch (IOException e) {
+            throw new IllegalStateException("Unable to grow cluster map record store: "+e.getMessage(), e);
+         }
+      } else {
+         newBuffer = ByteBuffer.allocateDirect((int)newSize);
+         ByteBuffer oldBuffer = _buffer.duplicate();
+         oldBuffer.clear();
+         newBuffer.put(oldBuffer);
+      }
+      writeHeader(newBuffer, newCapacity);
+
+      /* Only called when there are no free slots, so the new slots are the only free ones */
+      _freeSlots = new int[newCapacity];
+      _numFreeSlots = 0;
+      for (int slot = newCapacity - 1; slot >= _capacity; slot--) {
+         _freeSlots[_numFreeSlots++] = slot;
+      }
+      _log.info("Grown cluster map record store from "+_capacity+" to "+newCapacity+" records");
+      _capacity = newCapacity;
+      _buffer = newBuffer;
+   }
+
+   private int allocateFreeSlot() {
+      if (_numFreeSlots == 0) {
+         grow();
+      }
+      return _freeSlots[--_numFreeSlots];
+   }
+
+   private int allocateSlot(Map<String, Integer> slots, String id, byte kind) {
+      Integer slot = slots.get(id);
+      if (slot == null) {
+         slot = allocateFreeSlot();
+         slots.put(id, slot);
+         /* The fields of a free record may still refer to overflow records that have since been reused */
+         for (Field field : getFields(kind)) {
+            _buffer.putShort(recordOffset(slot) + field._offset, NULL_LENGTH);
+         }
+      }
+      _buffer.put(recordOffset(slot) + KIND, kind);
+      return slot;
+   }
+
+   private void freeSlot(Map<String, Integer> slots, String id) {
+      Integer slot = slots.remove(id);
+      if (slot != null) {
+         for (Field field : getFields(_buffer.get(recordOffset(slot) + KIND))) {
+            freeOverflowChain(getOverflowChain(slot, field));
+         }
+         _buffer.put(recordOffset(slot) + KIND, KIND_FREE);
+         _freeSlots[_numFreeSlots++] = slot;
+      }
+   }
+
+   /* Returns the overflow records holding the value of a field in chain order, which is empty if the value fits the field,
+    *   or null if the chain is broken */
+   private List<Integer> getOverflowChain(int slot, Field field) {
+      ByteBuffer buffer = _buffer;
+      int offset = recordOffset(slot) + field._offset;
+      if (buffer.getShort(offset) != OVERFLOW_LENGTH) {
+         return Collections.emptyList();
+      }
+      int length = buffer.getInt(offset + OVERFLOWED_VALUE_LENGTH);
+      int overflowSlot = buffer.getInt(offset + OVERFLOWED_FIRST_SLOT);
+      if (length <= 0) {
+         return null;
+      }
+      List<Integer> result = new ArrayList<Integer>();
+      for (int remaining = length; remaining > 0; remaining -= OVERFLOW_DATA_SIZE) {
+         if ((overflowSlot < 0) || (overflowSlot >= _capacity) || (buffer.get(recordOffset(overflowSlot) + KIND) != KIND_OVERFLOW)) {
+            return null;
+         }
+         result.add(overflowSlot);
+         overflowSlot = buffer.getInt(recordOffset(overflowSlot) + OVERFLOW_NEXT);
+      }
+      return result;
+   }
+
+   private void freeOverflowChain(List<Integer> chain) {
+      if (chain != null) {
+         for (Integer overflowSlot : chain) {
+            _buffer.put(recordOffset(overflowSlot) + KIND, KIND_FREE);
+            _freeSlots[_numFreeSlots++] = overflowSlot;
+         }
+      }
+   }
+
+   /* Returns the first record of the chain */
+   private int writeOverflowChain(byte[] value) {
+      int firstSlot = NO_SLOT;
+      int previousSlot = NO_SLOT;
+      for (int start = 0; start < value.length; start += OVERFLOW_DATA_SIZE) {
+         /* Allocating may grow the store, which replaces the buffer */
+         int overflowSlot = allocateFreeSlot();
+         ByteBuffer buffer = _buffer;
+         int offset = recordOffset(overflowSlot);
+         buffer.put(offset + KIND, KIND_OVERFLOW);
+         buffer.putInt(offset + OVERFLOW_NEXT, NO_SLOT);
+         int end = Math.min(value.length, start + OVERFLOW_DATA_SIZE);
+         for (int i = start; i < end; i++) {
+            buffer.put(offset + OVERFLOW_DATA + (i - start), value[i]);
+         }
+         if (previousSlot == NO_SLOT) {
+            firstSlot = overflowSlot;
+         } else {
+            buffer.putInt(recordOffset(previousSlot) + OVERFLOW_NEXT, overflowSlot);
+         }
+         previousSlot = overflowSlot;
+      }
+      return firstSlot;
+   }
+
+   /* A new overflow chain is written before the field refers to it and the old one is only freed after, so the field never
+    *   refers to a partly written value */
+   private void putBytes(int slot, Field field, byte[] value) {
+      if (bytesEqual(slot, field, value)) {
+         return;
+      }
+      List<Integer> oldChain = getOverflowChain(slot, field);
+      if (value == null) {
+         _buffer.putShort(recordOffset(slot) + field._offset, NULL_LENGTH);
+      } else if (value.length > (field._width - 2)) {
+         int firstSlot = writeOverflowChain(value);
+         ByteBuffer buffer = _buffer;
+         int offset = recordOffset(slot) + field._offset;
+         buffer.putInt(offset + OVERFLOWED_VALUE_LENGTH, value.length);
+         buffer.putInt(offset + OVERFLOWED_FIRST_SLOT, firstSlot);
+         buffer.putShort(offset, OVERFLOW_LENGTH);
+      } else {
+         ByteBuffer buffer = _buffer;
+         int offset = recordOffset(slot) + field._offset;
+         buffer.putShort(offset, (short)value.length);
+         for (int i = 0; i < value.length; i++) {
+            buffer.put(offset + 2 + i, value[i]);
+         }
+      }
+      freeOverflowChain(oldChain);
+   }
+
+   private byte[] getBytes(int slot, Field field) {
+      ByteBuffer buffer = _buffer;
+      int offset = recordOffset(slot) + field._offset;
+      short length = buffer.getShort(offset);
+      if (length == NULL_LENGTH) {
+         return null;
+      } else if (length == OVERFLOW_LENGTH) {
+         return getOverflowBytes(buffer, buffer.getInt(offset + OVERFLOWED_VALUE_LENGTH), buffer.getInt(offset + OVERFLOWED_FIRST_SLOT));
+      }
+      byte[] result = new byte[length];
+      for (int i = 0; i < length; i++) {
+         result[i] = buffer.get(offset + 2 + i);
+      }
+      return result;
+   }
+
+   private static byte[] getOverflowBytes(ByteBuffer buffer, int length, int firstSlot) {
+      byte[] result = new byte[length];
+      int overflowSlot = firstSlot;
+      for (int start = 0; start < length; start += OVERFLOW_DATA_SIZE) {
+         int offset = recordOffset(overflowSlot);
+         int end = Math.min(length, start + OVERFLOW_DATA_SIZE);
+         for (int i = start; i < end; i++) {
+            result[i] = buffer.get(offset + OVERFLOW_DATA + (i - start));
+         }
+         overflowSlot = buffer.getInt(offset + OVERFLOW_NEXT);
+      }
+      return result;
+   }
+
+   /* Compares a value with a field in place, without decoding the field */
+   private boolean bytesEqual(int slot, Field field, byte[] value) {
+      ByteBuffer buffer = _buffer;
+      int offset = recordOffset(slot) + field._offset;
+      short length = buffer.getShort(offset);
+      if ((length == NULL_LENGTH) || (value == null)) {
+         return (length == NULL_LENGTH) && (value == null);
+      } else if (length == OVERFLOW_LENGTH) {
+         if (buffer.getInt(offset + OVERFLOWED_VALUE_LENGTH) != value.length) {
+            return false;
+         }
+         int overflowSlot = buffer.getInt(offset + OVERFLOWED_FIRST_SLOT);
+         for (int start = 0; start < value.length; start += OVERFLOW_DATA_SIZE) {
+            int overflowOffset = recordOffset(overflowSlot);
+            int end = Math.min(value.length, start + OVERFLOW_DATA_SIZE);
+            for (int i = start; i < end; i++) {
+               if (buffer.get(overflowOffset + OVERFLOW_DATA + (i - start)) != value[i]) {
+                  return false;
+               }
+            }
+            overflowSlot = buffer.getInt(overflowOffset + OVERFLOW_NEXT);
+         }
+         return true;
+      }
+      if (length != value.length) {
+         return false;
+      }
+      for (int i = 0; i < length; i++) {
+         if (buffer.get(offset + 2 + i) != value[i]) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   private void putString(int slot, Field field, String value) {
+      putBytes(slot, field, (value == null) ? null : value.getBytes(UTF8));
+   }
+
+   private String getString(int slot, Field field) {
+      byte[] bytes = getBytes(slot, field);
+      return (bytes == null) ? null : new String(bytes, UTF8);
+   }
+
+   private void putInt(int slot, int fieldOffset, Integer value) {
+      _buffer.putInt(recordOffset(slot) + fieldOffset, (value == null) ? NULL_INT : value);
+   }
+
+   private Integer getInt(int slot, int fieldOffset) {
+      int value = _buffer.getInt(recordOffset(slot) + fieldOffset);
+      return (value == NULL_INT) ? null : Integer.valueOf(value);
+   }
+
+   private static void writeString(DataOutputStream out, String value) throws IOException {
+      byte[] bytes = value.getBytes(UTF8);
+      out.writeInt(bytes.length);
+      out.write(bytes);
+   }
+
+   private static String readString(DataInputStream in) throws IOException {
+      byte[] bytes = new byte[in.readInt()];
+      in.readFully(bytes);
+      return new String(bytes, UTF8);
+   }
+
+   private static byte[] encodeNicAndIpAddressMap(Map<String, Set<String>> nicAndIpAddressMap) {
+      if (nicAndIpAddressMap == null) {
+         return null;
+      }
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bytes);
+      try {
+         out.writeInt(nicAndIpAddressMap.size());
+         for (Entry<String, Set<String>> entry : nicAndIpAddressMap.entrySet()) {
+            writeString(out, entry.getKey());
+            Set<String> ipAddresses = entry.getValue();
+            out.writeInt((ipAddresses == null) ? 0 : ipAddresses.size());
+            if (ipAddresses != null) {
+               for (String ipAddress : ipAddresses) {
+                  writeString(out, ipAddress);
+               }
+            }
+         }
+      } catch (IOException e) {
+         throw new IllegalStateException("Unexpected exception encoding NICs", e);
+      }
+      return bytes.toByteArray();
+   }
+
+   private static Map<String, Set<String>> decodeNicAndIpAddressMap(byte[] encoded) {
+      if (encoded == null) {
+         return null;
+      }
+      DataInputStream in = new DataInputStream(new ByteArrayInputStream(encoded));
+      Map<String, Set<String>> result = new LinkedHashMap<String, Set<String>>();
+      try {
+         int numNics = in.readInt();
+         for (int nic = 0; nic < numNics; nic++) {
+            String nicName = readString(in);
+            int numIpAddresses = in.readInt();
+            Set<String> ipAddresses = new LinkedHashSet<String>();
+            for (int ip = 0; ip < numIpAddresses; ip++) {
+               ipAddresses.add(readString(in));
+            }
+            result.put(nicName, ipAddresses);
+         }
+      } catch (IOException e) {
+         throw new IllegalStateException("Unexpected exception decoding NICs", e);
+      }
+      return result;
+   }
+
+   private static byte[] encodeExtraInfo(Map<String, String> extraInfo) {
+      if (extraInfo == null) {
+         return null;
+      }
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bytes);
+      try {
+         int numEntries = 0;
+         for (Entry<String, String> entry : extraInfo.entrySet()) {
+            if ((entry.getKey() != null) && (entry.getValue() != null)) {
+               numEntries++;
+            }
+         }
+         out.writeInt(numEntries);
+         for (Entry<String, String> entry : extraInfo.entrySet()) {
+            if ((entry.getKey() != null) && (entry.getValue() != null)) {
+               writeString(out, entry.getKey());
+               writeString(out, entry.getValue());
+            }
+         }
+      } catch (IOException e) {
+         throw new IllegalStateException("Unexpected exception encoding extra info", e);
+      }
+      return bytes.toByteArray();
+   }
+
+   private static Map<String, String> decodeExtraInfo(byte[] encoded) {
+      if (encoded == null) {
+         return null;
+      }
+      DataInputStream in = new DataInputStream(new ByteArrayInputStream(encoded));
+      Map<String, String> result = new HashMap<String, String>();
+      try {
+         int numEntries = in.readInt();
+         for (int i = 0; i < numEntries; i++) {
+            result.put(readString(in), readString(in));
+         }
+      } catch (IOException e) {
+         throw new IllegalStateException("Unexpected exception decoding extra info", e);
+      }
+      return result;
+   }
+
+   private static byte encodePowerState(Boolean powerState) {
+      return (powerState == null) ? UNKNOWN : (byte)(powerState ? 1 : 0);
+   }
+
+   private static Boolean decodePowerState(byte powerState) {
+      return (powerState == UNKNOWN) ? null : Boolean.valueOf(powerState == 1);
+   }
+
+   private VmType getVmType(int slot) {
+      byte vmType = _buffer.get(recordOffset(slot) + VM_TYPE);
+      return (vmType == UNKNOWN) ? null : VM_TYPES[vmType];
+   }
+
+   /* Has the same semantics as the VMInfo constructor. Neither data object is retained. */
+   VMInfo createVMInfo(String moRef, VMConstantData constantData, VMVariableData variableData, String clusterId) {
+      if (variableData == null) {
+         variableData = new VMVariableData();
+      }
+      int slot = allocateSlot(_vmSlots, moRef, KIND_VM);
+      int offset = recordOffset(slot);
+      _buffer.put(offset + VM_TYPE, (constantData._vmType == null) ? UNKNOWN : (byte)constantData._vmType.ordinal());
+      _buffer.put(offset + VM_POWER_STATE, encodePowerState(variableData._powerState));
+      putInt(slot, VM_VCPUS, variableData._vCPUs);
+      _buffer.putLong(offset + VM_POWER_ON_TIME, Boolean.TRUE.equals(variableData._powerState) ? System.currentTimeMillis() : 0);
+      _buffer.putLong(offset + VM_POWER_OFF_TIME, 0);
+      putString(slot, VM_MO_REF, moRef);
+      putString(slot, VM_UUID, constantData._myUUID);
+      putString(slot, VM_CLUSTER_ID, clusterId);
+      putString(slot, VM_HOST_MO_REF, variableData._hostMoRef);
+      putString(slot, VM_NAME, variableData._myName);
+      /* VC may give us stale values for a powered-off VM on init */
+      putString(slot, VM_DNS_NAME, Boolean.FALSE.equals(variableData._powerState) ? null : variableData._dnsName);
+      putBytes(slot, VM_NICS, encodeNicAndIpAddressMap(variableData._nicAndIpAddressMap));
+      return new RecordVMInfo(moRef, slot, _clusterIds.canonicalize(clusterId), _hostIds.encode(variableData._hostMoRef));
+   }
+
+   void removeVM(String moRef) {
+      freeSlot(_vmSlots, moRef);
+   }
+
+   void putCluster(ClusterInfo clusterInfo) {
+      int slot = allocateSlot(_clusterSlots, clusterInfo.getClusterId(), KIND_CLUSTER);
+      putInt(slot, CLUSTER_JOB_TRACKER_PORT, clusterInfo.getJobTrackerPort());
+      putString(slot, CLUSTER_ID, clusterInfo.getClusterId());
+      putString(slot, CLUSTER_MASTER_MO_REF, clusterInfo.getMasterMoRef());
+      putString(slot, CLUSTER_SERENGETI_FOLDER, clusterInfo.getSerengetiFolder());
+      putString(slot, CLUSTER_NAME, clusterInfo.getClusterName());
+      putString(slot, CLUSTER_SCALE_STRATEGY_KEY, clusterInfo.getScaleStrategyKey());
+      putBytes(slot, CLUSTER_EXTRA_INFO, encodeExtraInfo(clusterInfo.getExtraInfoMap()));
+   }
+
+   void removeCluster(String clusterId) {
+      freeSlot(_clusterSlots, clusterId);
+   }
+
+   List<StoredCluster> getStoredClusters() {
+      List<StoredCluster> result = new ArrayList<StoredCluster>();
+      for (Integer slot : _clusterSlots.values()) {
+         StoredCluster cluster = new StoredCluster();
+         cluster._clusterId = getString(slot, CLUSTER_ID);
+         cluster._constantData = new SerengetiClusterConstantData();
+         cluster._constantData._masterMoRef = getString(slot, CLUSTER_MASTER_MO_REF);
+         cluster._constantData._serengetiFolder = getString(slot, CLUSTER_SERENGETI_FOLDER);
+         cluster._constantData._clusterName = getString(slot, CLUSTER_NAME);
+         cluster._scaleStrategyKey = getString(slot, CLUSTER_SCALE_STRATEGY_KEY);
+         cluster._jobTrackerPort = getInt(slot, CLUSTER_JOB_TRACKER_PORT);
+         cluster._extraInfo = decodeExtraInfo(getBytes(slot, CLUSTER_EXTRA_INFO));
+         result.add(cluster);
+      }
+      return result;
+   }
+
+   List<StoredVM> getStoredVMs() {
+      List<StoredVM> result = new ArrayList<StoredVM>();
+      for (Integer slot : _vmSlots.values()) {
+         int offset = recordOffset(slot);
+         StoredVM vm = new StoredVM();
+         vm._moRef = getString(slot, VM_MO_REF);
+         vm._clusterId = getString(slot, VM_CLUSTER_ID);
+         vm._constantData = new VMConstantData();
+         vm._constantData._vmType = getVmType(slot);
+         vm._constantData._myUUID = getString(slot, VM_UUID);
+         vm._variableData = new VMVariableData();
+         vm._variableData._powerState = decodePowerState(_buffer.get(offset + VM_POWER_STATE));
+         vm._variableData._vCPUs = getInt(slot, VM_VCPUS);
+         vm._variableData._hostMoRef = getString(slot, VM_HOST_MO_REF);
+         vm._variableData._myName = getString(slot, VM_NAME);
+         vm._variableData._dnsName = getString(slot, VM_DNS_NAME);
+         vm._variableData._nicAndIpAddressMap = decodeNicAndIpAddressMap(getBytes(slot, VM_NICS));
+         vm._powerOnTime = _buffer.getLong(offset + VM_POWER_ON_TIME);
+         vm._powerOffTime = _buffer.getLong(offset + VM_POWER_OFF_TIME);
+         result.add(vm);
+      }
+      return result;
+   }
+
+   int getVMCount() {
+      return _vmSlots.size();
+   }
+
+   int getClusterCount() {
+      return _clusterSlots.size();
+   }
+
+   int getCapacity() {
+      return _capacity;
+   }
+
+   /* Writes any changes in a memory-mapped store through to the file */
+   public void force() {
+      if (_buffer instanceof MappedByteBuffer) {
+         ((MappedByteBuffer)_buffer).force();
+      }
+   }
+
+   public void close() {
+      force();
+      if (_file != null) {
+         try {
+            _file.close();
+         } catch (IOException e) {
+            _log.warning("VHM: unable to close cluster map record store - "+e.getMessage());
+         }
+      }
+   }
+
+   /* A VMInfo whose state is all in its record. The cluster and host ids are also held as dictionary values, so that the scans
+    *   over all of the VMs don't decode them. The other getters decode the record on each call. */
+   private class RecordVMInfo extends VMInfo {
+      private final int _slot;
+      /* A VM never moves between clusters */
+      private final String _clusterId;
+      private volatile int _hostMoRefCode;
+
+      RecordVMInfo(String moRef, int slot, String clusterId, int hostMoRefCode) {
+         super(moRef);
+         _slot = slot;
+         _clusterId = clusterId;
+         _hostMoRefCode = hostMoRefCode;
+      }
+
+      @Override
+      public String getClusterId() {
+         return _clusterId;
+      }
+
+      @Override
+      public VmType getVmType() {
+         return ClusterMapRecordStore.this.getVmType(_slot);
+      }
+
+      @Override
+      public String getHostMoRef() {
+         return _hostIds.decode(_hostMoRefCode);
+      }
+
+      @Override
+      public String getMyName() {
+         return getString(_slot, VM_NAME);
+      }
+
+      @Override
+      public Boolean getPowerState() {
+         return decodePowerState(_buffer.get(recordOffset(_slot) + VM_POWER_STATE));
+      }
+
+      @Override
+      public String getDnsName() {
+         return getString(_slot, VM_DNS_NAME);
+      }
+
+      @Override
+      public Integer getvCPUs() {
+         return getInt(_slot, VM_VCPUS);
+      }
+
+      @Override
+      public long getPowerOnTime() {
+         return _buffer.getLong(recordOffset(_slot) + VM_POWER_ON_TIME);
+      }
+
+      @Override
+      public long getPowerOffTime() {
+         return _buffer.getLong(recordOffset(_slot) + VM_POWER_OFF_TIME);
+      }
+
+      @Override
+      public String getMyUUID() {
+         return getString(_slot, VM_UUID);
+      }
+
+      @Override
+      public Map<String, Set<String>> getNicAndIpAddressMap() {
+         return decodeNicAndIpAddressMap(getBytes(_slot, VM_NICS));
+      }
+
+      /* The encoding is deterministic, so the same bytes mean the same NICs without decoding them. Different bytes may only
+       *   be a different order, which needs the decoded NICs to tell */
+      @Override
+      public boolean nicAndIpAddressMapEquals(Map<String, Set<String>> nicAndIpAddressMap) {
+         if (bytesEqual(_slot, VM_NICS, encodeNicAndIpAddressMap(nicAndIpAddressMap))) {
+            return true;
+         }
+         return super.nicAndIpAddressMapEquals(nicAndIpAddressMap);
+      }
+
+      @Override
+      public void setMyName(String myName) {
+         notifyUpdate();
+         putString(_slot, VM_NAME, myName);
+      }
+
+      @Override
+      public void setHostMoRef(String hostMoRef) {
+         notifyUpdate();
+         putString(_slot, VM_HOST_MO_REF, hostMoRef);
+         _hostMoRefCode = _hostIds.encode(hostMoRef);
+      }
+
+      @Override
+      public void setPowerState(Boolean powerState) {
+         notifyUpdate();
+         _buffer.put(recordOffset(_slot) + VM_POWER_STATE, encodePowerState(powerState));
+      }
+
+      @Override
+      public void setDnsName(String dnsName) {
+         notifyUpdate();
+         putString(_slot, VM_DNS_NAME, dnsName);
+      }
+
+      @Override
+      public void setNicAndIpAddressMap(Map<String, Set<String>> nicAndIpAddressMap) {
+         notifyUpdate();
+         putBytes(_slot, VM_NICS, encodeNicAndIpAddressMap(nicAndIpAddressMap));
+      }
+
+      @Override
+      public void setvCPUs(Integer vCPUs) {
+         notifyUpdate();
+         putInt(_slot, VM_VCPUS, vCPUs);
+      }
+
+      @Override
+      public void setPowerOnTime(long currentTimeMillis) {
+         notifyUpdate();
+         _buffer.putLong(recordOffset(_slot) + VM_POWER_ON_TIME, currentTimeMillis);
+      }
+
+      @Override
+      public void setPowerOffTime(long currentTimeMillis) {
+         notifyUpdate();
+         _buffer.putLong(recordOffset(_slot) + VM_POWER_OFF_TIME, currentTimeMillis);
+      }
+   }
+}
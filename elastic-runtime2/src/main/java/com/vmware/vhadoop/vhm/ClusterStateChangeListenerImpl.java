@@ -18,7 +18,6 @@ package com.vmware.vhadoop.vhm;
 import java.util.HashMap;
 import java.util.List;
 import java.util.logging.Level;
-import java.util.logging.Logger;
 
 import com.vmware.vhadoop.api.vhm.VCActions;
 import com.vmware.vhadoop.api.vhm.VCActions.MasterVmEventData;
@@ -33,6 +32,7 @@ import com.vmware.vhadoop.api.vhm.events.EventConsumer;
 import com.vmware.vhadoop.api.vhm.events.EventProducer;
 import com.vmware.vhadoop.util.LogFormatter;
 import com.vmware.vhadoop.util.VhmLevel;
+import com.vmware.vhadoop.util.VhmLogger;
 import com.vmware.vhadoop.vhm.events.ClusterUpdateEvent;
 import com.vmware.vhadoop.vhm.events.MasterVmUpdateEvent;
 import com.vmware.vhadoop.vhm.events.NewMasterVMEvent;
@@ -42,7 +42,7 @@ import com.vmware.vhadoop.vhm.events.VmUpdateEvent;
 import com.vmware.vhadoop.vhm.vc.VcVlsi;
 
 public class ClusterStateChangeListenerImpl extends AbstractClusterMapReader implements EventProducer {
-   private static final Logger _log = Logger.getLogger(ClusterStateChangeListenerImpl.class.getName());
+   private static final VhmLogger _log = VhmLogger.getLogger(ClusterStateChangeListenerImpl.class.getName());
 
    private final int backoffPeriodMS = 5000;
 
@@ -156,10 +156,10 @@ public class ClusterStateChangeListenerImpl extends AbstractClusterMapReader imp
          }
       } else {
          for (VMEventData vmData : vmDataList) {
-            _log.log(Level.FINEST, "Detected change in vm <%V" + vmData._vmMoRef + "%V> leaving= " + vmData._isLeaving);
+            _log.log(Level.FINEST, "Detected change in vm <%%V%s%%V> leaving= %s", vmData._vmMoRef, vmData._isLeaving);
             ClusterStateChangeEvent csce = translateVMEventData(vmData);
             if (csce != null) {
-               _log.info("Created new "+csce+" for vm <%V" + vmData._vmMoRef);
+               _log.info("Created new %s for vm <%%V%s%%V>", csce, vmData._vmMoRef);
                _eventConsumer.placeEventOnQueue(csce);
             }
          }
@@ -184,8 +184,7 @@ public class ClusterStateChangeListenerImpl extends AbstractClusterMapReader imp
       if ((result._isElastic != null) && (isMaster != null)) {
          result._vmType = result._isElastic ? VmType.COMPUTE : (isMaster ? VmType.MASTER : VmType.OTHER);
       }
-      _log.finer("Returning "+((cachedConstant == null) ? "new" : "cached")+
-            " VMConstantData: "+result);
+      _log.finer("Returning %s VMConstantData: %s", ((cachedConstant == null) ? "new" : "cached"), result);
       return result;
    }
 
@@ -217,8 +216,7 @@ public class ClusterStateChangeListenerImpl extends AbstractClusterMapReader imp
       if (rawData._vCPUs != null) {
          result._vCPUs = rawData._vCPUs;
       }
-      _log.finer("Returning "+((cachedVariable == null) ? "new" : "cached")+
-            " VMVariableData: "+result);
+      _log.finer("Returning %s VMVariableData: %s", ((cachedVariable == null) ? "new" : "cached"), result);
       return result;
    }
 
@@ -236,11 +234,10 @@ public class ClusterStateChangeListenerImpl extends AbstractClusterMapReader imp
          if ((mved != null) && (mved._clusterName != null)) {
             result._clusterName = mved._clusterName;
          }
-         _log.finer("Returning "+((cachedConstant == null) ? "new" : "cached")+
-               " ClusterConstantData: "+result);
+         _log.finer("Returning %s ClusterConstantData: %s", ((cachedConstant == null) ? "new" : "cached"), result);
          return result;
       }
-      _log.finer("Returning "+((cachedConstant == null) ? "null" : "cached ClusterConstantData: "+cachedConstant));
+      _log.finer("Returning %s ClusterConstantData: %s", ((cachedConstant == null) ? "null" : "cached"), cachedConstant);
       return cachedConstant;
    }
 
@@ -260,11 +257,16 @@ public class ClusterStateChangeListenerImpl extends AbstractClusterMapReader imp
          if (mved._maxInstances != null) {
             result._maxInstances = mved._maxInstances;
          }
-         _log.finer("Returning "+((cachedVariable == null) ? "new" : "cached")+
-               " ClusterVariableData: "+result);
+         if (mved._prewarmLeadTimeMinutes != null) {
+            result._prewarmLeadTimeMinutes = mved._prewarmLeadTimeMinutes;
+         }
+         if (mved._prewarmConfidence != null) {
+            result._prewarmConfidence = mved._prewarmConfidence;
+         }
+         _log.finer("Returning %s ClusterVariableData: %s", ((cachedVariable == null) ? "new" : "cached"), result);
          return result;
       }
-      _log.finer("Returning "+((cachedVariable == null) ? "null" : "cached ClusterVariableData: "+cachedVariable));
+      _log.finer("Returning %s ClusterVariableData: %s", ((cachedVariable == null) ? "null" : "cached"), cachedVariable);
       return cachedVariable;
    }
 
@@ -310,7 +312,7 @@ public class ClusterStateChangeListenerImpl extends AbstractClusterMapReader imp
             _log.log(VhmLevel.USER, "VHM: mapping cluster id "+clusterId+" to cluster name "+clusterName);
          }
       }
-      _log.finer("Processed interim VM data: "+interimVmData);
+      _log.finer("Processed interim VM data: %s", interimVmData);
       return interimVmData;
    }
 
@@ -361,11 +363,11 @@ public class ClusterStateChangeListenerImpl extends AbstractClusterMapReader imp
       String vmId = rawData._vmMoRef;                 /* Should not be null */
       ClusterStateChangeEvent result = null;
 
-      _log.finest("Received rawData: "+rawData);
+      _log.finest("Received rawData: %s", rawData);
 
       if (vmBeingRemoved) {
          /* Replace any interim data or place-holder */
-         _log.finer("Generating VmRemovedFromClusterEvent for VM <%V"+vmId);
+         _log.finer("Generating VmRemovedFromClusterEvent for VM <%%V%s%%V>", vmId);
          _interimVMData.remove(vmId);
          return new VmRemovedFromClusterEvent(vmId);
       }
@@ -388,11 +390,11 @@ public class ClusterStateChangeListenerImpl extends AbstractClusterMapReader imp
                   if (clusterConstantData._clusterName == null) {
                      clusterConstantData._clusterName = interimData._clusterName;
                   }
-                  _log.finer("Generating NewMasterVMEvent for VM <%V"+vmId+"%V> in cluster <%C"+clusterId);
+                  _log.finer("Generating NewMasterVMEvent for VM <%%V%s%%V> in cluster <%%C%s%%C>", vmId, clusterId);
                   result = new NewMasterVMEvent(vmId, clusterId, vmConstantData, vmVariableData, clusterConstantData, clusterVariableData);
                }
             } else {
-               _log.finer("Generating NewVmEvent for VM <%V"+vmId+"%V> in cluster <%C"+clusterId);
+               _log.finer("Generating NewVmEvent for VM <%%V%s%%V> in cluster <%%C%s%%C>", vmId, clusterId);
                result = new NewVmEvent(vmId, clusterId, vmConstantData, vmVariableData);
             }
          }
@@ -408,14 +410,14 @@ public class ClusterStateChangeListenerImpl extends AbstractClusterMapReader imp
 
          if (vmVariableData != null) {
             if (clusterVariableData != null) {
-               _log.finer("Generating MasterVmUpdateEvent for VM <%V"+vmId);
+               _log.finer("Generating MasterVmUpdateEvent for VM <%%V%s%%V>", vmId);
                return new MasterVmUpdateEvent(vmId, vmVariableData, clusterVariableData);
             } else {
-               _log.finer("Generating VmUpdateEvent for VM <%V"+vmId);
+               _log.finer("Generating VmUpdateEvent for VM <%%V%s%%V>", vmId);
                return new VmUpdateEvent(vmId, vmVariableData);
             }
          } else if (clusterVariableData != null) {
-            _log.finer("Generating ClusterUpdateEvent for VM <%V"+vmId);
+            _log.finer("Generating ClusterUpdateEvent for VM <%%V%s%%V>", vmId);
             return new ClusterUpdateEvent(vmId, clusterVariableData);
          }
       }
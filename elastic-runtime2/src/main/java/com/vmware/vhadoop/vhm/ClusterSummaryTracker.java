@@ -0,0 +1,184 @@
+/***************************************************************************
+* Copyright (c) 2013 VMware, Inc. All Rights Reserved.
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+***************************************************************************/
+
+
+package com.vmware.vhadoop.vhm;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import com.vmware.vhadoop.api.vhm.ClusterMap.VMInfo;
+import com.vmware.vhadoop.api.vhm.ClusterSummary;
+import com.vmware.vhadoop.api.vhm.events.ClusterStateChangeEvent.VmType;
+
+/**
+ * Maintains the aggregates of each cluster in AbstractClusterMap as its VMs are added, updated and removed, so that a ClusterSummary
+ *   can be returned without scanning the VMs. A VM is removed from the aggregates before it is updated and added back afterwards.
+ * Versions come from a single counter, so a cluster that is removed and added again never reuses a version
+ * THREADING: Updated by the ClusterMap writer while it holds the write lock. Readers holding the read lock can get summaries concurrently,
+ *   which at worst means that more than one of them builds the same immutable summary.
+ */
+class ClusterSummaryTracker {
+   private final Map<String, Aggregates> _clusters = new HashMap<String, Aggregates>();
+   private long _lastVersion;
+
+   private static class Aggregates {
+      long _version;
+      int _numComputeVMs;
+      int _numPoweredOn;
+      int _numPoweredOff;
+      int _numPoweredOnWithDnsName;
+      /* Host id -> {powered on, powered off} */
+      final Map<String, int[]> _countsByHost = new HashMap<String, int[]>();
+      /* The ids of all of the VMs of the cluster, whatever their type */
+      final TreeSet<String> _vmIds = new TreeSet<String>();
+      boolean _clusterKnown;
+      volatile ClusterSummary _summary;
+
+      /* Aggregates are dropped once neither the cluster nor any of its VMs is known */
+      boolean isDisposable() {
+         return !_clusterKnown && (_numComputeVMs == 0) && _countsByHost.isEmpty() && _vmIds.isEmpty();
+      }
+
+      void changed(long version) {
+         _version = version;
+         _summary = null;
+      }
+   }
+
+   private Aggregates getAggregates(String clusterId) {
+      Aggregates aggregates = _clusters.get(clusterId);
+      if (aggregates == null) {
+         aggregates = new Aggregates();
+         _clusters.put(clusterId, aggregates);
+      }
+      return aggregates;
+   }
+
+   private void apply(VMInfo vmInfo, int sign) {
+      String clusterId = vmInfo.getClusterId();
+      if (clusterId == null) {
+         return;
+      }
+      Aggregates aggregates = getAggregates(clusterId);
+      aggregates.changed(++_lastVersion);
+      if (sign > 0) {
+         aggregates._vmIds.add(vmInfo.getMoRef());
+      } else {
+         aggregates._vmIds.remove(vmInfo.getMoRef());
+      }
+      if (VmType.COMPUTE.equals(vmInfo.getVmType())) {
+         aggregates._numComputeVMs += sign;
+         Boolean powerState = vmInfo.getPowerState();
+         if (powerState != null) {
+            if (powerState) {
+               aggregates._numPoweredOn += sign;
+               String dnsName = vmInfo.getDnsName();
+               if ((dnsName != null) && !dnsName.trim().isEmpty()) {
+                  aggregates._numPoweredOnWithDnsName += sign;
+               }
+            } else {
+               aggregates._numPoweredOff += sign;
+            }
+            String hostId = vmInfo.getHostMoRef();
+            if ((hostId != null) && !hostId.trim().isEmpty()) {
+               int[] counts = aggregates._countsByHost.get(hostId);
+               if (counts == null) {
+                  counts = new int[2];
+                  aggregates._countsByHost.put(hostId, counts);
+               }
+               counts[powerState ? 0 : 1] += sign;
+               if ((counts[0] == 0) && (counts[1] == 0)) {
+                  aggregates._countsByHost.remove(hostId);
+               }
+            }
+         }
+      }
+      if (aggregates.isDisposable()) {
+         _clusters.remove(clusterId);
+      }
+   }
+
+   void vmAdded(VMInfo vmInfo) {
+      apply(vmInfo, 1);
+   }
+
+   void vmRemoved(VMInfo vmInfo) {
+      apply(vmInfo, -1);
+   }
+
+   void clusterAdded(String clusterId) {
+      Aggregates aggregates = getAggregates(clusterId);
+      aggregates._clusterKnown = true;
+      aggregates.changed(++_lastVersion);
+   }
+
+   void clusterRemoved(String clusterId) {
+      Aggregates aggregates = _clusters.get(clusterId);
+      if (aggregates != null) {
+         aggregates._clusterKnown = false;
+         aggregates.changed(++_lastVersion);
+         if (aggregates.isDisposable()) {
+            _clusters.remove(clusterId);
+         }
+      }
+   }
+
+   /* For changes to the state of the cluster itself, rather than its VMs */
+   void clusterChanged(String clusterId) {
+      Aggregates aggregates = _clusters.get(clusterId);
+      if (aggregates != null) {
+         aggregates.changed(++_lastVersion);
+      }
+   }
+
+   /* The ids of the VMs of a cluster in id order. This is a live view, so must only be used while holding the read lock */
+   SortedSet<String> getVmIds(String clusterId) {
+      Aggregates aggregates = _clusters.get(clusterId);
+      if (aggregates == null) {
+         return Collections.unmodifiableSortedSet(new TreeSet<String>());
+      }
+      return Collections.unmodifiableSortedSet(aggregates._vmIds);
+   }
+
+   /* Returns null if the cluster is not known */
+   ClusterSummary getSummary(String clusterId) {
+      Aggregates aggregates = _clusters.get(clusterId);
+      if ((aggregates == null) || !aggregates._clusterKnown) {
+         return null;
+      }
+      ClusterSummary result = aggregates._summary;
+      if (result == null) {
+         Map<String, Integer> poweredOnCountsByHost = new HashMap<String, Integer>();
+         Map<String, Integer> poweredOffCountsByHost = new HashMap<String, Integer>();
+         for (Entry<String, int[]> entry : aggregates._countsByHost.entrySet()) {
+            if (entry.getValue()[0] > 0) {
+               poweredOnCountsByHost.put(entry.getKey(), entry.getValue()[0]);
+            }
+            if (entry.getValue()[1] > 0) {
+               poweredOffCountsByHost.put(entry.getKey(), entry.getValue()[1]);
+            }
+         }
+         result = new ClusterSummary(clusterId, aggregates._version, aggregates._numComputeVMs, aggregates._numPoweredOn,
+               aggregates._numPoweredOff, aggregates._numPoweredOnWithDnsName, poweredOnCountsByHost, poweredOffCountsByHost);
+         aggregates._summary = result;
+      }
+      return result;
+   }
+}
@@ -0,0 +1,273 @@
+/***************************************************************************
+* Copyright (c) 2013 VMware, Inc. All Rights Reserved.
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+***************************************************************************/
+
+package com.vmware.vhadoop.vhm;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.vmware.vhadoop.api.vhm.events.AsyncEventInjector;
+import com.vmware.vhadoop.api.vhm.events.EventConsumer;
+import com.vmware.vhadoop.api.vhm.events.EventInjector;
+import com.vmware.vhadoop.api.vhm.events.NotificationEvent;
+import com.vmware.vhadoop.util.ExternalizedParameters;
+import com.vmware.vhadoop.util.metrics.Counter;
+import com.vmware.vhadoop.util.metrics.Histogram;
+import com.vmware.vhadoop.util.metrics.MetricsRegistry;
+
+/**
+ * Passes each batch of events handled by VHM to the registered EventInjectors
+ * Each injector has its own single thread, so the injectors run in parallel with each other, but each sees the events in order and
+ *   is never called concurrently. The threads exit when idle.
+ * VHM waits for each injector until its time budget for the batch has passed. The budget is EVENT_INJECTOR_TIME_BUDGET_MILLIS unless
+ *   there is an EVENT_INJECTOR_TIME_BUDGET_MILLIS.<injector name> parameter for the injector. The events injected by an injector that
+ *   overruns are placed on the VHM event queue once it has finished, as are all of the events injected by an AsyncEventInjector, which is
+ *   never waited for. Nor is an injector that is still working on a batch that it overran, as it can't start on the new batch until then.
+ * Each injector has at most EVENT_INJECTOR_MAX_QUEUED_BATCHES batches waiting for it. Any more are dropped, so that an injector that
+ *   can't keep up doesn't hold on to an ever growing backlog of events.
+ */
+class EventInjectorRunner {
+   private static final Logger _log = Logger.getLogger(EventInjectorRunner.class.getName());
+
+   private static final String TIME_BUDGET_MILLIS_KEY = "EVENT_INJECTOR_TIME_BUDGET_MILLIS";
+   private static final long TIME_BUDGET_MILLIS = ExternalizedParameters.get().getLong(TIME_BUDGET_MILLIS_KEY);
+   private static final int MAX_QUEUED_BATCHES = ExternalizedParameters.get().getInt("EVENT_INJECTOR_MAX_QUEUED_BATCHES");
+   private static final long IDLE_THREAD_TIMEOUT_MILLIS = 60000;
+
+   private final EventConsumer _eventConsumer;
+   private final long _timeBudgetMillis;
+   private final int _maxQueuedBatches;
+   private final Map<EventInjector, InjectorLane> _lanes = new LinkedHashMap<EventInjector, InjectorLane>();
+
+   private class InjectorLane {
+      final EventInjector _injector;
+      final boolean _async;
+      final long _timeBudgetMillis;
+      final ThreadPoolExecutor _executor;
+      /* The batches that VHM has stopped waiting for and that have not yet finished */
+      final AtomicInteger _abandonedBatches = new AtomicInteger();
+      final Histogram _batchMicros;
+      final Counter _injectedEvents;
+      final Counter _overruns;
+      final Counter _failures;
+      final Counter _droppedBatches;
+
+      InjectorLane(final EventInjector injector, long timeBudgetMillis) {
+         _injector = injector;
+         _async = (injector instanceof AsyncEventInjector);
+         _timeBudgetMillis = timeBudgetMillis;
+         _executor = new ThreadPoolExecutor(1, 1, IDLE_THREAD_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS,
+               new LinkedBlockingQueue<Runnable>(_maxQueuedBatches), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+               Thread result = new Thread(r, "EventInjector_"+injector.getName());
+               result.setDaemon(true);
+               return result;
+            }
+         });
+         _executor.allowCoreThreadTimeOut(true);
+         String prefix = "eventInjector."+injector.getName();
+         _batchMicros = MetricsRegistry.get().histogram(prefix+".batch.micros");
+         _injectedEvents = MetricsRegistry.get().counter(prefix+".injected.count");
+         _overruns = MetricsRegistry.get().counter(prefix+".overrun.count");
+         _failures = MetricsRegistry.get().counter(prefix+".failure.count");
+         _droppedBatches = MetricsRegistry.get().counter(prefix+".dropped.count");
+      }
+   }
+
+   /* One batch of events for one injector. The injected events either go back to VHM with the batch or onto the queue if VHM has stopped waiting. */
+   private class InjectorBatch implements Callable<Set<NotificationEvent>> {
+      private final InjectorLane _lane;
+      private final List<NotificationEvent> _events;
+      private Set<NotificationEvent> _result;
+      private boolean _abandoned;
+
+      /* An abandoned batch is never waited for */
+      InjectorBatch(InjectorLane lane, List<NotificationEvent> events, boolean abandoned) {
+         _lane = lane;
+         _events = events;
+         _abandoned = abandoned;
+      }
+
+      @Override
+      public Set<NotificationEvent> call() {
+         long startNanos = System.nanoTime();
+         Set<NotificationEvent> injected = new LinkedHashSet<NotificationEvent>();
+         for (NotificationEvent event : _events) {
+            try {
+               Set<? extends NotificationEvent> newEvents = _lane._injector.processEvent(event);
+               if (newEvents != null) {
+                  for (NotificationEvent injectedEvent : newEvents) {
+                     _log.info(_lane._injector.getName()+" injecting new event "+injectedEvent+" in response to event "+event);
+                  }
+                  injected.addAll(newEvents);
+               }
+            } catch (Throwable t) {
+               /* One bad event shouldn't stop the injector from seeing the rest */
+               _lane._failures.increment();
+               _log.log(Level.WARNING, "VHM: "+_lane._injector.getName()+" - unexpected exception processing event "+event+" - "+t.getMessage());
+               _log.log(Level.INFO, "VHM: "+_lane._injector.getName()+" - unexpected exception processing event", t);
+            }
+         }
+         _lane._batchMicros.recordSince(startNanos);
+         _lane._injectedEvents.add(injected.size());
+
+         synchronized(this) {
+            _result = injected;
+            if (!_abandoned) {
+               return injected;
+            }
+         }
+         if (!_lane._async) {
+            _lane._abandonedBatches.decrementAndGet();
+         }
+         if (!injected.isEmpty()) {
+            _eventConsumer.placeEventCollectionOnQueue(new ArrayList<NotificationEvent>(injected));
+         }
+         return null;
+      }
+
+      /* Returns the injected events if the batch has completed, otherwise null, in which case they will go onto the queue */
+      synchronized Set<NotificationEvent> abandon() {
+         if (_result != null) {
+            return _result;
+         }
+         if (!_abandoned) {
+            _abandoned = true;
+            _lane._abandonedBatches.incrementAndGet();
+         }
+         return null;
+      }
+   }
+
+   EventInjectorRunner(EventConsumer eventConsumer) {
+      this(eventConsumer, TIME_BUDGET_MILLIS, MAX_QUEUED_BATCHES);
+   }
+
+   /* A time budget of 0 means that VHM waits for the injectors that are not AsyncEventInjectors for as long as they take */
+   EventInjectorRunner(EventConsumer eventConsumer, long timeBudgetMillis, int maxQueuedBatches) {
+      _eventConsumer = eventConsumer;
+      _timeBudgetMillis = timeBudgetMillis;
+      _maxQueuedBatches = maxQueuedBatches;
+   }
+
+   /* The budget of the injector is the default unless there is a parameter for it */
+   synchronized void registerEventInjector(EventInjector injector) {
+      long timeBudgetMillis = _timeBudgetMillis;
+      String budgetKey = TIME_BUDGET_MILLIS_KEY+"."+injector.getName();
+      String budget = ExternalizedParameters.get().getProperty(budgetKey);
+      if (budget != null) {
+         try {
+            timeBudgetMillis = Long.parseLong(budget.trim());
+         } catch (NumberFormatException e) {
+            _log.warning("VHM: ignoring invalid value for "+budgetKey+" - "+budget);
+         }
+      }
+      registerEventInjector(injector, timeBudgetMillis);
+   }
+
+   synchronized void registerEventInjector(EventInjector injector, long timeBudgetMillis) {
+      if (!_lanes.containsKey(injector)) {
+         _lanes.put(injector, new InjectorLane(injector, timeBudgetMillis));
+      }
+   }
+
+   /* Returns the events injected by the injectors that completed within their time budgets */
+   synchronized Set<NotificationEvent> runInjectors(Collection<NotificationEvent> events) {
+      Set<NotificationEvent> result = new LinkedHashSet<NotificationEvent>();
+      if (events.isEmpty() || _lanes.isEmpty()) {
+         return result;
+      }
+      long startMillis = System.currentTimeMillis();
+      List<NotificationEvent> eventList = new ArrayList<NotificationEvent>(events);
+      Map<InjectorBatch, Future<Set<NotificationEvent>>> waitingFor = new LinkedHashMap<InjectorBatch, Future<Set<NotificationEvent>>>();
+      for (InjectorLane lane : _lanes.values()) {
+         /* An injector still working on a batch that it overran can't start on this one in time, so it isn't waited for */
+         boolean behind = !lane._async && (lane._abandonedBatches.get() > 0);
+         if (behind) {
+            lane._abandonedBatches.incrementAndGet();
+            _log.fine(lane._injector.getName()+" is still processing an earlier batch, so its events will be processed later");
+         }
+         InjectorBatch batch = new InjectorBatch(lane, eventList, lane._async || behind);
+         try {
+            Future<Set<NotificationEvent>> future = lane._executor.submit(batch);
+            if (!lane._async && !behind) {
+               waitingFor.put(batch, future);
+            }
+         } catch (RejectedExecutionException e) {
+            if (behind) {
+               lane._abandonedBatches.decrementAndGet();
+            }
+            lane._droppedBatches.increment();
+            _log.warning("VHM: "+lane._injector.getName()+" - event injector has "+lane._executor.getQueue().size()+
+                  " batches of events waiting for it, so it will not see "+eventList.size()+" events");
+         }
+      }
+
+      boolean interrupted = false;
+      for (Map.Entry<InjectorBatch, Future<Set<NotificationEvent>>> entry : waitingFor.entrySet()) {
+         InjectorBatch batch = entry.getKey();
+         long timeBudgetMillis = batch._lane._timeBudgetMillis;
+         Set<NotificationEvent> injected = null;
+         try {
+            if (interrupted) {
+               injected = batch.abandon();
+            } else if (timeBudgetMillis <= 0) {
+               injected = entry.getValue().get();
+            } else {
+               long deadline = startMillis + timeBudgetMillis;
+               injected = entry.getValue().get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+            }
+         } catch (TimeoutException e) {
+            injected = batch.abandon();
+         } catch (InterruptedException e) {
+            interrupted = true;
+            injected = batch.abandon();
+         } catch (ExecutionException e) {
+            /* Not expected as the batch catches everything the injector throws */
+            _log.log(Level.WARNING, "VHM: "+batch._lane._injector.getName()+" - unexpected exception in event injector - "+e.getMessage());
+            continue;
+         }
+         if (injected != null) {
+            result.addAll(injected);
+         } else if (!interrupted) {
+            batch._lane._overruns.increment();
+            _log.warning("VHM: "+batch._lane._injector.getName()+" - event injector overran its budget of "+timeBudgetMillis+
+                  "ms, so its events will be processed later");
+         }
+      }
+      if (interrupted) {
+         Thread.currentThread().interrupt();
+      }
+      return result;
+   }
+}
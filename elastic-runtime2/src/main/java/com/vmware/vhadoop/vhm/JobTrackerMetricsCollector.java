@@ -0,0 +1,216 @@
+/***************************************************************************
+* Copyright (c) 2013 VMware, Inc. All Rights Reserved.
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+***************************************************************************/
+
+package com.vmware.vhadoop.vhm;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.vmware.vhadoop.api.vhm.ClusterMap;
+import com.vmware.vhadoop.api.vhm.HadoopActions;
+import com.vmware.vhadoop.api.vhm.HadoopActions.HadoopClusterInfo;
+import com.vmware.vhadoop.api.vhm.HadoopActions.JobTrackerMetrics;
+import com.vmware.vhadoop.api.vhm.events.EventConsumer;
+import com.vmware.vhadoop.api.vhm.events.EventProducer;
+import com.vmware.vhadoop.util.ExternalizedParameters;
+import com.vmware.vhadoop.vhm.events.JobTrackerMetricsEvent;
+import com.vmware.vhadoop.vhm.strategy.AutoScaleStrategy;
+
+/**
+ * Periodically reads the slot occupancy, pending tasks and task tracker counts from the job tracker of each automatically scaled cluster
+ *   and publishes them as a JobTrackerMetricsEvent per cluster, so that scale strategies and health monitors don't need to contact the job trackers themselves
+ * The job trackers are read concurrently, so that one which is slow to respond doesn't delay the metrics of the others. A job tracker which
+ *   doesn't respond within the interval is skipped for that round.
+ */
+public class JobTrackerMetricsCollector extends AbstractClusterMapReader implements EventProducer {
+   private static final Logger _log = Logger.getLogger(JobTrackerMetricsCollector.class.getName());
+
+   private static final long INTERVAL_MILLIS = ExternalizedParameters.get().getLong("JOB_TRACKER_METRICS_INTERVAL_MILLIS");
+   private static final int NUM_THREADS = ExternalizedParameters.get().getInt("JOB_TRACKER_METRICS_THREADS");
+
+   private final HadoopActions _hadoopActions;
+   /* Shut down when the collector is stopped and recreated if it's started again, as VHM does when resetting the event producers */
+   private volatile ExecutorService _executor;
+   /* Clusters whose job tracker couldn't be read last time, so that failures are only logged when they start and stop. Only accessed by the collecting thread. */
+   private final Set<String> _failingClusterIds = new HashSet<String>();
+   private EventConsumer _eventConsumer;
+   private volatile boolean _started;
+   private Thread _mainThread;
+
+   public JobTrackerMetricsCollector(HadoopActions hadoopActions) {
+      _hadoopActions = hadoopActions;
+      _executor = createExecutor();
+   }
+
+   private static ExecutorService createExecutor() {
+      return Executors.newFixedThreadPool(Math.max(1, NUM_THREADS), new ThreadFactory() {
+         @Override
+         public Thread newThread(Runnable r) {
+            Thread result = new Thread(r, "JobTracker_Metrics_Reader");
+            result.setDaemon(true);
+            return result;
+         }
+      });
+   }
+
+   @Override
+   public void registerEventConsumer(EventConsumer consumer) {
+      _eventConsumer = consumer;
+   }
+
+   @Override
+   public void start(final EventProducerStartStopCallback startStopCallback) {
+      if (_executor.isShutdown()) {
+         _executor = createExecutor();
+      }
+      _started = true;
+      _mainThread = new Thread(new Runnable() {
+         @Override
+         public void run() {
+            try {
+               _log.info("JobTrackerMetricsCollector starting...");
+               startStopCallback.notifyStarted(JobTrackerMetricsCollector.this);
+               while (_started) {
+                  long startTime = System.currentTimeMillis();
+                  List<JobTrackerMetricsEvent> events;
+                  try {
+                     events = collect();
+                  } catch (InterruptedException e) {
+                     /* Almost certainly means that stop has been called */
+                     continue;
+                  } catch (RejectedExecutionException e) {
+                     if (!_started) {
+                        break;      /* The executor was shut down by stop */
+                     }
+                     throw e;
+                  }
+                  if (!events.isEmpty() && (_eventConsumer != null)) {
+                     _eventConsumer.placeEventCollectionOnQueue(events);
+                  }
+                  long sleepMillis = INTERVAL_MILLIS - (System.currentTimeMillis() - startTime);
+                  if (sleepMillis > 0) {
+                     try {
+                        Thread.sleep(sleepMillis);
+                     } catch (InterruptedException e) {
+                        /* Almost certainly means that stop has been called */
+                     }
+                  }
+               }
+            } catch (Throwable t) {
+               _log.log(Level.SEVERE, "VHM: unexpected exception collecting job tracker metrics - " + t.getMessage());
+               _log.log(Level.INFO, "VHM: unexpected exception in JobTrackerMetricsCollector", t);
+               startStopCallback.notifyFailed(JobTrackerMetricsCollector.this);
+            }
+            _log.info("JobTrackerMetricsCollector stopping...");
+            startStopCallback.notifyStopped(JobTrackerMetricsCollector.this);
+         }}, "JobTracker_Metrics_Poll_Thread");
+      _mainThread.start();
+   }
+
+   /* Reads the metrics of each automatically scaled cluster with a known job tracker. Package-private for testing. */
+   List<JobTrackerMetricsEvent> collect() throws InterruptedException {
+      List<HadoopClusterInfo> clusters = new ArrayList<HadoopClusterInfo>();
+      ClusterMap clusterMap = null;
+      try {
+         clusterMap = getAndReadLockClusterMap();
+         Set<String> clusterIds = AutoScaleStrategy.getAutoScaledClusterIds(clusterMap);
+         if (clusterIds != null) {
+            for (String clusterId : clusterIds) {
+               HadoopClusterInfo cluster = clusterMap.getHadoopInfoForCluster(clusterId);
+               if ((cluster != null) && (cluster.getJobTrackerDnsName() != null)) {
+                  clusters.add(cluster);
+               }
+            }
+         }
+      } finally {
+         unlockClusterMap(clusterMap);
+      }
+
+      List<JobTrackerMetricsEvent> result = new ArrayList<JobTrackerMetricsEvent>();
+      if (clusters.isEmpty()) {
+         return result;
+      }
+      List<Callable<JobTrackerMetrics>> tasks = new ArrayList<Callable<JobTrackerMetrics>>();
+      for (final HadoopClusterInfo cluster : clusters) {
+         tasks.add(new Callable<JobTrackerMetrics>() {
+            @Override
+            public JobTrackerMetrics call() {
+               return _hadoopActions.getJobTrackerMetrics(cluster);
+            }
+         });
+      }
+      long sampleTime = System.currentTimeMillis();
+      List<Future<JobTrackerMetrics>> futures = _executor.invokeAll(tasks, INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+
+      for (int i = 0; i < clusters.size(); i++) {
+         String clusterId = clusters.get(i).getClusterId();
+         JobTrackerMetrics metrics = null;
+         try {
+            metrics = futures.get(i).get();
+         } catch (CancellationException e) {
+            /* Timed out */
+         } catch (ExecutionException e) {
+            _log.log(Level.INFO, "<%C"+clusterId+"%C>: unexpected exception reading job tracker metrics", e.getCause());
+         }
+         if (metrics != null) {
+            if (_failingClusterIds.remove(clusterId)) {
+               _log.info("<%C"+clusterId+"%C>: job tracker metrics are available again");
+            }
+            _log.fine("<%C"+clusterId+"%C>: job tracker metrics "+metrics);
+            result.add(new JobTrackerMetricsEvent(clusterId, sampleTime, metrics));
+         } else if (_failingClusterIds.add(clusterId)) {
+            _log.warning("<%C"+clusterId+"%C>: unable to read metrics from job tracker "+clusters.get(i).getJobTrackerDnsName());
+         }
+      }
+      /* Forget the failures of clusters that are no longer collected */
+      Set<String> collectedClusterIds = new HashSet<String>();
+      for (HadoopClusterInfo cluster : clusters) {
+         collectedClusterIds.add(cluster.getClusterId());
+      }
+      _failingClusterIds.retainAll(collectedClusterIds);
+      return result;
+   }
+
+   @Override
+   public void stop() {
+      _started = false;
+      if (_mainThread != null) {
+         _mainThread.interrupt();
+      }
+      /* Interrupts any job tracker reads still in progress */
+      _executor.shutdownNow();
+   }
+
+   @Override
+   public boolean isStopped() {
+      if ((_mainThread == null) || (!_mainThread.isAlive())) {
+         return true;
+      }
+      return false;
+   }
+}
@@ -0,0 +1,126 @@
+/***************************************************************************
+* Copyright (c) 2013 VMware, Inc. All Rights Reserved.
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+***************************************************************************/
+
+package com.vmware.vhadoop.vhm;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.vmware.vhadoop.api.vhm.ClusterMap;
+import com.vmware.vhadoop.api.vhm.HadoopActions;
+import com.vmware.vhadoop.api.vhm.HadoopActions.HadoopClusterInfo;
+import com.vmware.vhadoop.api.vhm.events.EventObserver;
+import com.vmware.vhadoop.api.vhm.events.NotificationEvent;
+import com.vmware.vhadoop.vhm.events.NewMasterVMEvent;
+import com.vmware.vhadoop.vhm.events.VmUpdateEvent;
+
+/**
+ * Prepares the job tracker of each cluster as soon as it is known, so that the work isn't done on the critical path of the first scale operation
+ * Preparation establishes the SSH session to the job tracker, which is then kept alive, and deploys the scripts.
+ * A job tracker can only be prepared once the master VM is powered on and has a DNS name, which may be some time after the NewMasterVMEvent,
+ *   so updates to master VMs are also considered. A cluster is prepared again if its job tracker changes or the master VM is power cycled.
+ * The preparation is done on a separate thread so that event processing is not held up by SSH.
+ *
+ */
+public class JobTrackerPreparer extends AbstractClusterMapReader implements EventObserver {
+   private static final Logger _log = Logger.getLogger(JobTrackerPreparer.class.getName());
+
+   private final HadoopActions _hadoopActions;
+   private final ExecutorService _executor;
+   /* Only accessed on the VHM thread */
+   private final Map<String, HadoopClusterInfo> _preparedClusters;
+
+   public JobTrackerPreparer(HadoopActions hadoopActions) {
+      _hadoopActions = hadoopActions;
+      _preparedClusters = new HashMap<String, HadoopClusterInfo>();
+      _executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+         @Override
+         public Thread newThread(Runnable r) {
+            Thread result = new Thread(r, "JobTracker_Preparer");
+            result.setDaemon(true);
+            return result;
+         }
+      });
+   }
+
+   private String getClusterIdForEvent(NotificationEvent event, ClusterMap clusterMap) {
+      if (event instanceof NewMasterVMEvent) {
+         return ((NewMasterVMEvent)event).getClusterId();
+      }
+      if (event instanceof VmUpdateEvent) {
+         String vmId = ((VmUpdateEvent)event).getVmId();
+         String clusterId = clusterMap.getClusterIdForVm(vmId);
+         if ((clusterId != null) && vmId.equals(clusterMap.getMasterVmIdForCluster(clusterId))) {
+            return clusterId;
+         }
+      }
+      return null;
+   }
+
+   @Override
+   public void eventObserved(NotificationEvent event) {
+      if (!(event instanceof NewMasterVMEvent) && !(event instanceof VmUpdateEvent)) {
+         return;
+      }
+      String clusterId = null;
+      HadoopClusterInfo hadoopCluster = null;
+      ClusterMap clusterMap = null;
+      try {
+         clusterMap = getAndReadLockClusterMap();
+         clusterId = getClusterIdForEvent(event, clusterMap);
+         if (clusterId != null) {
+            hadoopCluster = clusterMap.getHadoopInfoForCluster(clusterId);
+         }
+      } finally {
+         unlockClusterMap(clusterMap);
+      }
+
+      if ((hadoopCluster == null) || (hadoopCluster.getJobTrackerDnsName() == null)) {
+         /* The master is powered off or has no DNS name yet, so it needs preparing again once it's back */
+         if (clusterId != null) {
+            _preparedClusters.remove(clusterId);
+         }
+         return;
+      }
+      if (hadoopCluster.equals(_preparedClusters.get(hadoopCluster.getClusterId()))) {
+         return;
+      }
+      _preparedClusters.put(hadoopCluster.getClusterId(), hadoopCluster);
+
+      final HadoopClusterInfo toPrepare = hadoopCluster;
+      _log.log(Level.INFO, "Preparing job tracker "+toPrepare.getJobTrackerDnsName()+" for cluster <%C"+toPrepare.getClusterId()+"%C>");
+      _executor.execute(new Runnable() {
+         @Override
+         public void run() {
+            try {
+               _hadoopActions.prepareJobTracker(toPrepare);
+            } catch (Throwable t) {
+               _log.log(Level.WARNING, "VHM: <%C"+toPrepare.getClusterId()+"%C> - unexpected exception preparing job tracker - "+t.getMessage());
+               _log.log(Level.INFO, "VHM: <%C"+toPrepare.getClusterId()+"%C> - unexpected exception preparing job tracker", t);
+            }
+         }
+      });
+   }
+
+   @Override
+   public String getName() {
+      return "JobTrackerPreparer";
+   }
+}
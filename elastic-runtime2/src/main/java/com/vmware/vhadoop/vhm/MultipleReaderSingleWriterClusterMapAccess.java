@@ -23,6 +23,8 @@ import java.util.logging.Logger;
 
 import com.vmware.vhadoop.api.vhm.ClusterMap;
 import com.vmware.vhadoop.api.vhm.ClusterMapReader.ClusterMapAccess;
+import com.vmware.vhadoop.util.metrics.Histogram;
+import com.vmware.vhadoop.util.metrics.MetricsRegistry;
 
 public class MultipleReaderSingleWriterClusterMapAccess implements ClusterMapAccess {
    private final Set<Thread> _readerThreads = Collections.synchronizedSet(new HashSet<Thread>());
@@ -31,6 +33,9 @@ public class MultipleReaderSingleWriterClusterMapAccess implements ClusterMapAcc
    private static MultipleReaderSingleWriterClusterMapAccess _singleton;
 
    private static final Logger _log = Logger.getLogger(MultipleReaderSingleWriterClusterMapAccess.class.getName());
+
+   private static final Histogram _writeLockWaitMicros = MetricsRegistry.get().histogram("clusterMap.writeLockWait.micros");
+   private static final Histogram _writeLockHoldMicros = MetricsRegistry.get().histogram("clusterMap.writeLockHold.micros");
 
    /* THREADING: Only accessed by single thread, so no need for synchronization */
    static MultipleReaderSingleWriterClusterMapAccess getClusterMapAccess(ClusterMap clusterMap) {
@@ -81,6 +86,7 @@ public class MultipleReaderSingleWriterClusterMapAccess implements ClusterMapAcc
    }
 
    Object runCodeInWriteLock(Callable<Object> callable) throws Exception {
+      long waitStartNanos = System.nanoTime();
       synchronized(_clusterMapWriteLock) {
          /* Wait for the readers to stop reading. New readers will block on the write lock */
          long readerTimeout = 1000;
@@ -98,7 +104,13 @@ public class MultipleReaderSingleWriterClusterMapAccess implements ClusterMapAcc
                _log.warning("VHM: unexpected interruption to sleep in writeLock");
             }
          }
-         return callable.call();
+         long holdStartNanos = System.nanoTime();
+         _writeLockWaitMicros.record((holdStartNanos - waitStartNanos) / 1000);
+         try {
+            return callable.call();
+         } finally {
+            _writeLockHoldMicros.recordSince(holdStartNanos);
+         }
       }
    }
 }
@@ -4,6 +4,7 @@ import java.util.Map;
 import java.util.Set;
 
 import com.vmware.vhadoop.api.vhm.ClusterMap;
+import com.vmware.vhadoop.api.vhm.ClusterSummary;
 import com.vmware.vhadoop.api.vhm.HadoopActions.HadoopClusterInfo;
 import com.vmware.vhadoop.api.vhm.events.ClusterScaleCompletionEvent;
 
@@ -34,6 +35,11 @@ public class NullClusterMap implements ClusterMap
       return null;
    }
 
+   @Override
+   public ClusterSummary getClusterSummary(String clusterId) {
+      return null;
+   }
+
    @Override
    public String getClusterIdForName(String clusterFolderName) {
       return null;
@@ -139,4 +145,12 @@ public class NullClusterMap implements ClusterMap
       return null;
    }
 
+   @Override
+   public void addVMFieldWatcher(Set<String> vmIds, VMFieldWatcher watcher) {
+   }
+
+   @Override
+   public void removeVMFieldWatcher(Set<String> vmIds, VMFieldWatcher watcher) {
+   }
+
 }
@@ -0,0 +1,251 @@
+/***************************************************************************
+* Copyright (c) 2013 VMware, Inc. All Rights Reserved.
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+***************************************************************************/
+
+package com.vmware.vhadoop.vhm;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.vmware.vhadoop.api.vhm.ClusterMap;
+import com.vmware.vhadoop.api.vhm.ClusterSummary;
+import com.vmware.vhadoop.api.vhm.PerformanceStats;
+import com.vmware.vhadoop.api.vhm.PerformanceStats.Metric;
+import com.vmware.vhadoop.api.vhm.VCActions;
+import com.vmware.vhadoop.api.vhm.VCActions.HostStats;
+import com.vmware.vhadoop.api.vhm.VCActions.VMStats;
+import com.vmware.vhadoop.api.vhm.events.EventConsumer;
+import com.vmware.vhadoop.api.vhm.events.EventProducer;
+import com.vmware.vhadoop.util.ExternalizedParameters;
+import com.vmware.vhadoop.vhm.events.VMUtilizationEvent;
+import com.vmware.vhadoop.vhm.strategy.AutoScaleStrategy;
+
+/**
+ * Periodically samples the real-time performance counters of the hosts and powered on compute VMs of all known clusters
+ *   and adds them to a PerformanceStatsStore, from which choosers and scale strategies can read windowed aggregates
+ * The sampling uses the dedicated stats client of VCActions, so it doesn't contend with power operations or waitForUpdates
+ * After each sample, a VMUtilizationEvent is produced for each cluster that is scaled automatically
+ * The powered on compute VMs of each cluster are only listed again when the version of its ClusterSummary has changed
+ */
+public class PerformanceStatsSampler extends AbstractClusterMapReader implements EventProducer {
+   private static final Logger _log = Logger.getLogger(PerformanceStatsSampler.class.getName());
+
+   private static final long SAMPLE_INTERVAL_MILLIS = ExternalizedParameters.get().getLong("PERF_STATS_SAMPLE_INTERVAL_MILLIS");
+   private static final int WINDOW_SAMPLES = ExternalizedParameters.get().getInt("PERF_STATS_WINDOW_SAMPLES");
+   private static final long STALE_AFTER_MILLIS = ExternalizedParameters.get().getLong("PERF_STATS_STALE_AFTER_MILLIS");
+
+   private final VCActions _vcActions;
+   private final PerformanceStatsStore _store;
+   private EventConsumer _eventConsumer;
+   private volatile boolean _started;
+   private Thread _mainThread;
+
+   /* Only accessed by the sampling thread */
+   private final Map<String, PoweredOnVMs> _poweredOnVmsByCluster = new HashMap<String, PoweredOnVMs>();
+
+   private static class PoweredOnVMs {
+      final long _version;
+      final Set<String> _vmIds;
+
+      PoweredOnVMs(long version, Set<String> vmIds) {
+         _version = version;
+         _vmIds = vmIds;
+      }
+   }
+
+   public PerformanceStatsSampler(VCActions vcActions) {
+      this(vcActions, new PerformanceStatsStore(WINDOW_SAMPLES, STALE_AFTER_MILLIS));
+   }
+
+   PerformanceStatsSampler(VCActions vcActions, PerformanceStatsStore store) {
+      _vcActions = vcActions;
+      _store = store;
+   }
+
+   public PerformanceStats getPerformanceStats() {
+      return _store;
+   }
+
+   @Override
+   public void registerEventConsumer(EventConsumer consumer) {
+      _eventConsumer = consumer;
+   }
+
+   @Override
+   public void start(final EventProducerStartStopCallback startStopCallback) {
+      _started = true;
+      _mainThread = new Thread(new Runnable() {
+         @Override
+         public void run() {
+            try {
+               _log.info("PerformanceStatsSampler starting...");
+               startStopCallback.notifyStarted(PerformanceStatsSampler.this);
+               long nextSampleTime = System.currentTimeMillis();
+               while (_started) {
+                  long sleepMillis = nextSampleTime - System.currentTimeMillis();
+                  if (sleepMillis > 0) {
+                     try {
+                        Thread.sleep(sleepMillis);
+                     } catch (InterruptedException e) {
+                        /* Almost certainly means that stop has been called */
+                        continue;
+                     }
+                  }
+                  sample();
+                  /* Fixed rate, but if a sample overruns the interval, skip to the next interval rather than sampling back to back */
+                  nextSampleTime += SAMPLE_INTERVAL_MILLIS;
+                  long now = System.currentTimeMillis();
+                  if (nextSampleTime < now) {
+                     nextSampleTime = now + SAMPLE_INTERVAL_MILLIS - ((now - nextSampleTime) % SAMPLE_INTERVAL_MILLIS);
+                  }
+               }
+            } catch (Throwable t) {
+               _log.log(Level.SEVERE, "VHM: unexpected exception sampling performance stats - " + t.getMessage());
+               _log.log(Level.INFO, "VHM: unexpected exception in PerformanceStatsSampler", t);
+               startStopCallback.notifyFailed(PerformanceStatsSampler.this);
+            }
+            _log.info("PerformanceStatsSampler stopping...");
+            startStopCallback.notifyStopped(PerformanceStatsSampler.this);
+         }}, "PerfStats_Poll_Thread");
+      _mainThread.start();
+   }
+
+   /* Returns the powered on compute VMs of the cluster, listing them only if the cluster has changed since the last sample. The cluster map is read locked. */
+   private Set<String> getPoweredOnVmIds(ClusterMap clusterMap, String clusterId, ClusterSummary summary) {
+      PoweredOnVMs cached = _poweredOnVmsByCluster.get(clusterId);
+      if ((cached == null) || (cached._version != summary.getVersion())) {
+         Set<String> vmIds = clusterMap.listComputeVMsForClusterAndPowerState(clusterId, true);
+         cached = new PoweredOnVMs(summary.getVersion(), (vmIds == null) ? Collections.<String>emptySet() : vmIds);
+         _poweredOnVmsByCluster.put(clusterId, cached);
+      }
+      return cached._vmIds;
+   }
+
+   /* Takes one sample of all of the hosts and powered on compute VMs. Package-private for testing. */
+   void sample() {
+      Set<String> hostIds = new HashSet<String>();
+      Set<String> vmIds = new HashSet<String>();
+      Map<String, Set<String>> autoScaledClusterVmIds = new HashMap<String, Set<String>>();
+      ClusterMap clusterMap = null;
+      try {
+         clusterMap = getAndReadLockClusterMap();
+         Set<String> autoScaledClusterIds = AutoScaleStrategy.getAutoScaledClusterIds(clusterMap);
+         Set<String> clusterIds = clusterMap.getAllKnownClusterIds();
+         Set<String> sampledClusterIds = new HashSet<String>();
+         if (clusterIds != null) {
+            for (String clusterId : clusterIds) {
+               ClusterSummary summary = clusterMap.getClusterSummary(clusterId);
+               if (summary == null) {
+                  continue;
+               }
+               sampledClusterIds.add(clusterId);
+               hostIds.addAll(summary.getComputeVMCountsByHostForPowerState(true).keySet());
+               hostIds.addAll(summary.getComputeVMCountsByHostForPowerState(false).keySet());
+               Set<String> clusterVmIds = getPoweredOnVmIds(clusterMap, clusterId, summary);
+               vmIds.addAll(clusterVmIds);
+               if ((autoScaledClusterIds != null) && autoScaledClusterIds.contains(clusterId)) {
+                  autoScaledClusterVmIds.put(clusterId, clusterVmIds);
+               }
+            }
+         }
+         _poweredOnVmsByCluster.keySet().retainAll(sampledClusterIds);
+      } finally {
+         unlockClusterMap(clusterMap);
+      }
+
+      long now = System.currentTimeMillis();
+      Set<String> sampledIds = new HashSet<String>();
+      if (!hostIds.isEmpty()) {
+         Map<String, HostStats> hostStats = _vcActions.getHostStats(hostIds);
+         if (hostStats != null) {
+            for (Map.Entry<String, HostStats> entry : hostStats.entrySet()) {
+               HostStats stats = entry.getValue();
+               _store.addSample(entry.getKey(), Metric.HOST_CPU_READY_PERCENT, now, stats._cpuReadyPercent);
+               _store.addSample(entry.getKey(), Metric.HOST_MEM_USAGE_PERCENT, now, stats._memUsagePercent);
+               _store.addSample(entry.getKey(), Metric.HOST_DISK_LATENCY_MILLIS, now,
+                     (stats._diskLatencyMillis == null) ? null : stats._diskLatencyMillis.doubleValue());
+            }
+            sampledIds.addAll(hostStats.keySet());
+         }
+      }
+      if (!vmIds.isEmpty()) {
+         Map<String, VMStats> vmStats = _vcActions.getVMStats(vmIds);
+         if (vmStats != null) {
+            for (Map.Entry<String, VMStats> entry : vmStats.entrySet()) {
+               VMStats stats = entry.getValue();
+               _store.addSample(entry.getKey(), Metric.VM_CPU_USAGE_PERCENT, now, stats._cpuUsagePercent);
+               _store.addSample(entry.getKey(), Metric.VM_CPU_READY_PERCENT, now, stats._cpuReadyPercent);
+               _store.addSample(entry.getKey(), Metric.VM_MEM_USAGE_PERCENT, now, stats._memUsagePercent);
+            }
+            sampledIds.addAll(vmStats.keySet());
+         }
+      }
+
+      /* Keep the history of anything still being managed, even if VC missed a sample, but drop hosts and VMs that have gone */
+      Set<String> managedIds = new HashSet<String>(hostIds);
+      managedIds.addAll(vmIds);
+      _store.retainEntities(managedIds);
+      _log.fine("Sampled performance stats for "+sampledIds.size()+" of "+managedIds.size()+" hosts and VMs in "+(System.currentTimeMillis() - now)+"ms");
+
+      if ((_eventConsumer != null) && !autoScaledClusterVmIds.isEmpty()) {
+         List<VMUtilizationEvent> events = getVMUtilizationEvents(autoScaledClusterVmIds, now);
+         if (!events.isEmpty()) {
+            _eventConsumer.placeEventCollectionOnQueue(events);
+         }
+      }
+   }
+
+   /* Clusters with no samples for any of their powered on compute VMs get no event, as there is nothing to judge their load by */
+   List<VMUtilizationEvent> getVMUtilizationEvents(Map<String, Set<String>> clusterVmIds, long sampleTimeMillis) {
+      List<VMUtilizationEvent> result = new ArrayList<VMUtilizationEvent>();
+      for (Map.Entry<String, Set<String>> entry : clusterVmIds.entrySet()) {
+         double totalCpuUsagePercent = 0;
+         int numVMsSampled = 0;
+         for (String vmId : entry.getValue()) {
+            Double cpuUsagePercent = _store.getMean(vmId, Metric.VM_CPU_USAGE_PERCENT);
+            if (cpuUsagePercent != null) {
+               totalCpuUsagePercent += cpuUsagePercent;
+               numVMsSampled++;
+            }
+         }
+         if (numVMsSampled > 0) {
+            result.add(new VMUtilizationEvent(entry.getKey(), sampleTimeMillis, totalCpuUsagePercent / numVMsSampled, numVMsSampled));
+         }
+      }
+      return result;
+   }
+
+   @Override
+   public void stop() {
+      _started = false;
+      if (_mainThread != null) {
+         _mainThread.interrupt();
+      }
+   }
+
+   @Override
+   public boolean isStopped() {
+      if ((_mainThread == null) || (!_mainThread.isAlive())) {
+         return true;
+      }
+      return false;
+   }
+}
@@ -0,0 +1,179 @@
+/***************************************************************************
+* Copyright (c) 2013 VMware, Inc. All Rights Reserved.
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+***************************************************************************/
+
+package com.vmware.vhadoop.vhm;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import com.vmware.vhadoop.api.vhm.PerformanceStats;
+
+/**
+ * In-memory time-series of performance samples, keeping a fixed window of the most recent samples per entity and metric
+ * Each series is a ring of primitive values with a running sum and a monotonic queue of candidate maxima, so that both adding
+ *   a sample and reading any of the aggregates is constant time and the store allocates nothing once an entity has been seen
+ * THREADING: All methods are synchronized. The expectation is a single writer sampling periodically and many readers.
+ */
+public class PerformanceStatsStore implements PerformanceStats {
+   private static final int NUM_METRICS = Metric.values().length;
+
+   private final int _windowSamples;
+   private final long _staleAfterMillis;
+   private final Map<String, Series[]> _seriesByEntity = new HashMap<String, Series[]>();
+
+   static class Series {
+      private final double[] _values;
+      /* Sequence numbers of samples in the window that are larger than every later sample, oldest first. Stored as a ring. */
+      private final long[] _maxCandidates;
+      private int _maxHead;
+      private int _maxSize;
+      private long _nextSeq;
+      private double _sum;
+      private long _latestTimestampMillis;
+
+      Series(int windowSamples) {
+         _values = new double[windowSamples];
+         _maxCandidates = new long[windowSamples];
+      }
+
+      private double valueOf(long seq) {
+         return _values[(int)(seq % _values.length)];
+      }
+
+      void add(long timestampMillis, double value) {
+         int capacity = _values.length;
+         long expiredSeq = _nextSeq - capacity;
+         if ((_maxSize > 0) && (_maxCandidates[_maxHead] <= expiredSeq)) {
+            _maxHead = (_maxHead + 1) % capacity;
+            _maxSize--;
+         }
+         while ((_maxSize > 0) && (valueOf(_maxCandidates[(_maxHead + _maxSize - 1) % capacity]) <= value)) {
+            _maxSize--;
+         }
+         _maxCandidates[(_maxHead + _maxSize) % capacity] = _nextSeq;
+         _maxSize++;
+
+         int slot = (int)(_nextSeq % capacity);
+         if (expiredSeq >= 0) {
+            _sum -= _values[slot];
+         }
+         _values[slot] = value;
+         _sum += value;
+         _nextSeq++;
+         _latestTimestampMillis = timestampMillis;
+
+         /* Recompute the sum once per window so that floating point error from the running sum can't accumulate */
+         if (slot == (capacity - 1)) {
+            double sum = 0;
+            for (double v : _values) {
+               sum += v;
+            }
+            _sum = sum;
+         }
+      }
+
+      int getCount() {
+         return (int)Math.min(_nextSeq, _values.length);
+      }
+
+      double getLatest() {
+         return valueOf(_nextSeq - 1);
+      }
+
+      double getMean() {
+         return _sum / getCount();
+      }
+
+      double getMax() {
+         return valueOf(_maxCandidates[_maxHead]);
+      }
+
+      long getLatestTimestampMillis() {
+         return _latestTimestampMillis;
+      }
+   }
+
+   /**
+    * @param windowSamples The number of most recent samples over which aggregates are computed
+    * @param staleAfterMillis Once the most recent sample of a series is older than this, the series is treated as having no samples. 0 means never.
+    */
+   public PerformanceStatsStore(int windowSamples, long staleAfterMillis) {
+      _windowSamples = Math.max(1, windowSamples);
+      _staleAfterMillis = staleAfterMillis;
+   }
+
+   public synchronized void addSample(String entityId, Metric metric, long timestampMillis, Double value) {
+      if ((entityId == null) || (value == null) || value.isNaN()) {
+         return;
+      }
+      Series[] series = _seriesByEntity.get(entityId);
+      if (series == null) {
+         series = new Series[NUM_METRICS];
+         _seriesByEntity.put(entityId, series);
+      }
+      int index = metric.ordinal();
+      if (series[index] == null) {
+         series[index] = new Series(_windowSamples);
+      }
+      series[index].add(timestampMillis, value);
+   }
+
+   /* Discards the samples of any entity that is not in the given set, such as VMs that have been removed */
+   public synchronized void retainEntities(Set<String> entityIds) {
+      for (Iterator<String> itr = _seriesByEntity.keySet().iterator(); itr.hasNext(); ) {
+         if (!entityIds.contains(itr.next())) {
+            itr.remove();
+         }
+      }
+   }
+
+   private Series getCurrentSeries(String entityId, Metric metric) {
+      Series[] series = _seriesByEntity.get(entityId);
+      if ((series == null) || (series[metric.ordinal()] == null)) {
+         return null;
+      }
+      Series result = series[metric.ordinal()];
+      if ((_staleAfterMillis > 0) && ((System.currentTimeMillis() - result.getLatestTimestampMillis()) > _staleAfterMillis)) {
+         return null;
+      }
+      return result;
+   }
+
+   @Override
+   public synchronized Double getLatest(String entityId, Metric metric) {
+      Series series = getCurrentSeries(entityId, metric);
+      return (series == null) ? null : series.getLatest();
+   }
+
+   @Override
+   public synchronized Double getMean(String entityId, Metric metric) {
+      Series series = getCurrentSeries(entityId, metric);
+      return (series == null) ? null : series.getMean();
+   }
+
+   @Override
+   public synchronized Double getMax(String entityId, Metric metric) {
+      Series series = getCurrentSeries(entityId, metric);
+      return (series == null) ? null : series.getMax();
+   }
+
+   @Override
+   public synchronized int getSampleCount(String entityId, Metric metric) {
+      Series series = getCurrentSeries(entityId, metric);
+      return (series == null) ? 0 : series.getCount();
+   }
+}
@@ -0,0 +1,370 @@
+/***************************************************************************
+* Copyright (c) 2013 VMware, Inc. All Rights Reserved.
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+***************************************************************************/
+
+
+package com.vmware.vhadoop.vhm;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.gson.stream.JsonWriter;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.vmware.vhadoop.api.vhm.ClusterMap;
+import com.vmware.vhadoop.api.vhm.ClusterMap.ClusterInfo;
+import com.vmware.vhadoop.api.vhm.ClusterMap.VMInfo;
+import com.vmware.vhadoop.api.vhm.ClusterSummary;
+import com.vmware.vhadoop.api.vhm.StoppableCollaborator;
+import com.vmware.vhadoop.util.metrics.Counter;
+import com.vmware.vhadoop.util.metrics.Gauge;
+import com.vmware.vhadoop.util.metrics.Histogram;
+import com.vmware.vhadoop.util.metrics.MetricsRegistry;
+
+/**
+ * Embedded HTTP server with read-only JSON views of the state of VHM, for operators and support
+ *   /status      - event queue depth and the number of clusters, VMs and scale operations in progress
+ *   /clusters    - each cluster with its scale strategy and the number of compute VMs powered on and off
+ *   /vms         - each VM, optionally only those of one cluster with ?cluster=<clusterId>
+ *   /operations  - the scale operations in progress and how long they have been running
+ *   /metrics     - the contents of the MetricsRegistry
+ * Responses are streamed with chunked encoding. The VMs are read from ClusterMap in pages in id order, each page starting after the last
+ *   VM of the previous one and releasing the read lock between pages, so neither a large ClusterMap nor a slow client holds up VHM.
+ *   The flip side is that /vms is not a consistent snapshot if ClusterMap changes during the request.
+ * Requests are handled one at a time on a single daemon thread. Once registered as a collaborator, the server is stopped when VHM stops.
+ */
+public class StatusHttpServer extends AbstractClusterMapReader implements StoppableCollaborator {
+   private static final Logger _log = Logger.getLogger(StatusHttpServer.class.getName());
+
+   static final int VM_PAGE_SIZE = 256;
+
+   private final VHM _vhm;
+   private HttpServer _server;
+   private ExecutorService _executor;
+
+   /* Copy of the fields of a VMInfo, so that it can be written after the read lock is released */
+   private static class VMRow {
+      final String _vmId;
+      final String _name;
+      final String _clusterId;
+      final String _vmType;
+      final Boolean _powerState;
+      final String _hostId;
+      final String _dnsName;
+      final Integer _vCPUs;
+      final long _powerOnTime;
+
+      VMRow(VMInfo vmInfo) {
+         _vmId = vmInfo.getMoRef();
+         _name = vmInfo.getMyName();
+         _clusterId = vmInfo.getClusterId();
+         _vmType = (vmInfo.getVmType() == null) ? null : vmInfo.getVmType().name();
+         _powerState = vmInfo.getPowerState();
+         _hostId = vmInfo.getHostMoRef();
+         _dnsName = vmInfo.getDnsName();
+         _vCPUs = vmInfo.getvCPUs();
+         _powerOnTime = vmInfo.getPowerOnTime();
+      }
+   }
+
+   private static class ClusterRow {
+      final String _clusterId;
+      final String _name;
+      final String _scaleStrategyKey;
+      final Integer _jobTrackerPort;
+      final String _masterVmId;
+      final int _computeVMsOn;
+      final int _computeVMsOff;
+
+      ClusterRow(ClusterInfo clusterInfo, ClusterMap clusterMap) {
+         _clusterId = clusterInfo.getClusterId();
+         _name = clusterInfo.getClusterName();
+         _scaleStrategyKey = clusterInfo.getScaleStrategyKey();
+         _jobTrackerPort = clusterInfo.getJobTrackerPort();
+         _masterVmId = clusterInfo.getMasterMoRef();
+         ClusterSummary summary = clusterMap.getClusterSummary(_clusterId);
+         _computeVMsOn = (summary == null) ? 0 : summary.getNumComputeVMsForPowerState(true);
+         _computeVMsOff = (summary == null) ? 0 : summary.getNumComputeVMsForPowerState(false);
+      }
+   }
+
+   private abstract class JsonHandler implements HttpHandler {
+      abstract void writeJson(Map<String, String> params, JsonWriter writer) throws IOException;
+
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+         try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+               exchange.sendResponseHeaders(405, -1);
+               return;
+            }
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+            /* A response length of 0 means chunked encoding, so nothing needs to know the size of the response up front */
+            exchange.sendResponseHeaders(200, 0);
+            JsonWriter writer = new JsonWriter(new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), "UTF-8")));
+            try {
+               writeJson(parseQuery(exchange.getRequestURI().getRawQuery()), writer);
+            } finally {
+               writer.close();
+            }
+         } catch (IOException e) {
+            /* Most likely the client has gone away */
+            _log.fine("Status request for "+exchange.getRequestURI()+" failed - "+e.getMessage());
+         } catch (RuntimeException e) {
+            _log.log(Level.INFO, "VHM: unexpected exception handling status request for "+exchange.getRequestURI(), e);
+         } finally {
+            exchange.close();
+         }
+      }
+   }
+
+   /* If vhm is null, only the views of ClusterMap and the metrics have content */
+   public StatusHttpServer(VHM vhm) {
+      _vhm = vhm;
+   }
+
+   static Map<String, String> parseQuery(String rawQuery) throws IOException {
+      Map<String, String> result = new HashMap<String, String>();
+      if (rawQuery != null) {
+         for (String param : rawQuery.split("&")) {
+            int equals = param.indexOf('=');
+            if (equals > 0) {
+               result.put(URLDecoder.decode(param.substring(0, equals), "UTF-8"), URLDecoder.decode(param.substring(equals + 1), "UTF-8"));
+            }
+         }
+      }
+      return result;
+   }
+
+   /**
+    * Starts serving. The server must already have been registered with VHM as a collaborator so that it can read ClusterMap.
+    * @param bindAddress The address to listen on. Use a loopback address to keep the server local to the VHM host.
+    * @param port The port to listen on, or 0 for any free port
+    */
+   public synchronized void start(String bindAddress, int port) throws IOException {
+      _server = HttpServer.create(new InetSocketAddress(InetAddress.getByName(bindAddress), port), 0);
+      _server.createContext("/status", new JsonHandler() {
+         @Override
+         void writeJson(Map<String, String> params, JsonWriter writer) throws IOException {
+            writeStatus(writer);
+         }
+      });
+      _server.createContext("/clusters", new JsonHandler() {
+         @Override
+         void writeJson(Map<String, String> params, JsonWriter writer) throws IOException {
+            writeClusters(writer);
+         }
+      });
+      _server.createContext("/vms", new JsonHandler() {
+         @Override
+         void writeJson(Map<String, String> params, JsonWriter writer) throws IOException {
+            writeVMs(params.get("cluster"), writer);
+         }
+      });
+      _server.createContext("/operations", new JsonHandler() {
+         @Override
+         void writeJson(Map<String, String> params, JsonWriter writer) throws IOException {
+            writeOperations(writer);
+         }
+      });
+      _server.createContext("/metrics", new JsonHandler() {
+         @Override
+         void writeJson(Map<String, String> params, JsonWriter writer) throws IOException {
+            writeMetrics(writer);
+         }
+      });
+      _executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+         @Override
+         public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "Status_Http_Thread");
+            t.setDaemon(true);
+            return t;
+         }
+      });
+      _server.setExecutor(_executor);
+      _server.start();
+      _log.info("VHM: status server listening on "+_server.getAddress());
+   }
+
+   public synchronized int getPort() {
+      return _server.getAddress().getPort();
+   }
+
+   @Override
+   public synchronized void stop() {
+      if (_server != null) {
+         _server.stop(0);
+         _executor.shutdownNow();
+         _server = null;
+         _log.info("VHM: status server stopped");
+      }
+   }
+
+   private Map<String, Long> getOperationsInProgress() {
+      return (_vhm == null) ? Collections.<String, Long>emptyMap() : _vhm.getClusterScaleOperationsInProgress();
+   }
+
+   void writeStatus(JsonWriter writer) throws IOException {
+      int numClusters = 0;
+      int numVMs = 0;
+      ClusterMap clusterMap = null;
+      try {
+         clusterMap = getAndReadLockClusterMap();
+         if (clusterMap instanceof AbstractClusterMap) {
+            numClusters = ((AbstractClusterMap)clusterMap).getNumClusters();
+            numVMs = ((AbstractClusterMap)clusterMap).getNumVMs();
+         }
+      } finally {
+         unlockClusterMap(clusterMap);
+      }
+      writer.beginObject();
+      if (_vhm != null) {
+         writer.name("eventQueueDepth").value(_vhm.getEventQueueDepth());
+      }
+      writer.name("clusters").value(numClusters);
+      writer.name("vms").value(numVMs);
+      writer.name("operationsInProgress").value(getOperationsInProgress().size());
+      writer.endObject();
+   }
+
+   void writeClusters(JsonWriter writer) throws IOException {
+      List<ClusterRow> rows = new ArrayList<ClusterRow>();
+      ClusterMap clusterMap = null;
+      try {
+         clusterMap = getAndReadLockClusterMap();
+         if (clusterMap instanceof AbstractClusterMap) {
+            for (ClusterInfo clusterInfo : ((AbstractClusterMap)clusterMap).getClusterInfos()) {
+               rows.add(new ClusterRow(clusterInfo, clusterMap));
+            }
+         }
+      } finally {
+         unlockClusterMap(clusterMap);
+      }
+      Map<String, Long> operationsInProgress = getOperationsInProgress();
+      writer.beginArray();
+      for (ClusterRow row : rows) {
+         writer.beginObject();
+         writer.name("clusterId").value(row._clusterId);
+         writer.name("name").value(row._name);
+         writer.name("scaleStrategy").value(row._scaleStrategyKey);
+         writer.name("jobTrackerPort").value(row._jobTrackerPort);
+         writer.name("masterVmId").value(row._masterVmId);
+         writer.name("computeVMsOn").value(row._computeVMsOn);
+         writer.name("computeVMsOff").value(row._computeVMsOff);
+         writer.name("scaleInProgress").value(operationsInProgress.containsKey(row._clusterId));
+         writer.endObject();
+      }
+      writer.endArray();
+   }
+
+   void writeVMs(String clusterIdFilter, JsonWriter writer) throws IOException {
+      writer.beginArray();
+      List<VMRow> rows = new ArrayList<VMRow>(VM_PAGE_SIZE);
+      String lastVmId = null;
+      do {
+         rows.clear();
+         ClusterMap clusterMap = null;
+         try {
+            clusterMap = getAndReadLockClusterMap();
+            if (clusterMap instanceof AbstractClusterMap) {
+               /* The cluster is filtered while paging, so that the pages of one cluster only visit the VMs of that cluster */
+               for (VMInfo vmInfo : ((AbstractClusterMap)clusterMap).getVMInfoPage(lastVmId, clusterIdFilter, VM_PAGE_SIZE)) {
+                  rows.add(new VMRow(vmInfo));
+               }
+            }
+         } finally {
+            unlockClusterMap(clusterMap);
+         }
+         for (VMRow row : rows) {
+            lastVmId = row._vmId;
+            writer.beginObject();
+            writer.name("vmId").value(row._vmId);
+            writer.name("name").value(row._name);
+            writer.name("clusterId").value(row._clusterId);
+            writer.name("type").value(row._vmType);
+            writer.name("powerState");
+            if (row._powerState == null) {
+               writer.nullValue();
+            } else {
+               writer.value(row._powerState.booleanValue());
+            }
+            writer.name("hostId").value(row._hostId);
+            writer.name("dnsName").value(row._dnsName);
+            writer.name("vCPUs").value(row._vCPUs);
+            if (row._powerOnTime > 0) {
+               writer.name("powerOnTime").value(row._powerOnTime);
+            }
+            writer.endObject();
+         }
+         writer.flush();
+      } while (rows.size() == VM_PAGE_SIZE);
+      writer.endArray();
+   }
+
+   void writeOperations(JsonWriter writer) throws IOException {
+      long now = System.currentTimeMillis();
+      writer.beginArray();
+      for (Map.Entry<String, Long> entry : getOperationsInProgress().entrySet()) {
+         writer.beginObject();
+         writer.name("clusterId").value(entry.getKey());
+         writer.name("runningMillis").value(now - entry.getValue());
+         writer.endObject();
+      }
+      writer.endArray();
+   }
+
+   void writeMetrics(JsonWriter writer) throws IOException {
+      writer.beginObject();
+      for (Map.Entry<String, Object> entry : MetricsRegistry.get().getMetrics().entrySet()) {
+         Object metric = entry.getValue();
+         writer.name(entry.getKey());
+         writer.beginObject();
+         if (metric instanceof Counter) {
+            writer.name("type").value("counter");
+            writer.name("count").value(((Counter)metric).getCount());
+         } else if (metric instanceof Gauge) {
+            writer.name("type").value("gauge");
+            writer.name("value").value(((Gauge)metric).getValue());
+         } else if (metric instanceof Histogram) {
+            Histogram h = (Histogram)metric;
+            writer.name("type").value("histogram");
+            writer.name("count").value(h.getCount());
+            writer.name("mean").value(h.getMean());
+            writer.name("min").value(h.getMin());
+            writer.name("p50").value(h.get50thPercentile());
+            writer.name("p90").value(h.get90thPercentile());
+            writer.name("p99").value(h.get99thPercentile());
+            writer.name("p999").value(h.get999thPercentile());
+            writer.name("max").value(h.getMax());
+         }
+         writer.endObject();
+      }
+      writer.endObject();
+   }
+}
@@ -20,11 +20,13 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -35,6 +37,10 @@ import com.vmware.vhadoop.api.vhm.events.EventConsumer;
 import com.vmware.vhadoop.api.vhm.events.EventProducer;
 import com.vmware.vhadoop.api.vhm.strategy.ScaleStrategy;
 import com.vmware.vhadoop.api.vhm.strategy.ScaleStrategyContext;
+import com.vmware.vhadoop.util.metrics.Counter;
+import com.vmware.vhadoop.util.metrics.Gauge;
+import com.vmware.vhadoop.util.metrics.Histogram;
+import com.vmware.vhadoop.util.metrics.MetricsRegistry;
 
 public class ThreadPoolExecutionStrategy implements ExecutionStrategy, EventProducer {
 
@@ -42,6 +48,30 @@ public class ThreadPoolExecutionStrategy implements ExecutionStrategy, EventProd
       ScaleStrategy _scaleStrategy;
       Future<ClusterScaleCompletionEvent> _completionEventPending;
       ScaleStrategyContext _scaleStrategyContext;
+      long _submittedTimeMillis;
+   }
+
+   /* Keeps the counts of queued and active operations. Queued means submitted to the pool but not yet running on a pool thread. */
+   private class MeteredOperation implements Callable<ClusterScaleCompletionEvent> {
+      private final Callable<ClusterScaleCompletionEvent> _operation;
+
+      MeteredOperation(Callable<ClusterScaleCompletionEvent> operation) {
+         _operation = operation;
+         _queuedOperations.incrementAndGet();
+      }
+
+      @Override
+      public ClusterScaleCompletionEvent call() throws Exception {
+         _queuedOperations.decrementAndGet();
+         _activeOperations.incrementAndGet();
+         long startNanos = System.nanoTime();
+         try {
+            return _operation.call();
+         } finally {
+            _activeOperations.decrementAndGet();
+            _operationMicros.recordSince(startNanos);
+         }
+      }
    }
 
    private final ExecutorService _threadPool;
@@ -50,6 +80,11 @@ public class ThreadPoolExecutionStrategy implements ExecutionStrategy, EventProd
    private EventConsumer _consumer;
    private Thread _mainThread;
    private volatile boolean _started;
+   private final AtomicInteger _queuedOperations = new AtomicInteger();
+   private final AtomicInteger _activeOperations = new AtomicInteger();
+
+   private static final Histogram _operationMicros = MetricsRegistry.get().histogram("executionStrategy.operation.micros");
+   private static final Counter _deferredOperations = MetricsRegistry.get().counter("executionStrategy.deferred.count");
 
    long _startTime = System.currentTimeMillis();
    boolean _deliberateFailureTriggered = false;
@@ -72,6 +107,18 @@ public class ThreadPoolExecutionStrategy implements ExecutionStrategy, EventProd
          }
       });
       _clusterTaskContexts = new HashMap<String, ClusterTaskContext>();
+      MetricsRegistry.get().gauge("executionStrategy.queued.count", new Gauge() {
+         @Override
+         public long getValue() {
+            return _queuedOperations.get();
+         }
+      });
+      MetricsRegistry.get().gauge("executionStrategy.active.count", new Gauge() {
+         @Override
+         public long getValue() {
+            return _activeOperations.get();
+         }
+      });
    }
 
    private void setScaleStrategyAndContext(ScaleStrategy scaleStrategy, ClusterTaskContext toSet) throws Exception {
@@ -109,9 +156,11 @@ public class ThreadPoolExecutionStrategy implements ExecutionStrategy, EventProd
             ctc = getClusterTaskContext(clusterId, scaleStrategy);
             if (ctc._completionEventPending != null) {
                _log.fine("Cluster scale events already being handled for cluster <%C"+clusterId);
+               _deferredOperations.increment();
             } else {
                ctc._completionEventPending =
-                     _threadPool.submit(scaleStrategy.getClusterScaleOperation(clusterId, events, ctc._scaleStrategyContext));
+                     _threadPool.submit(new MeteredOperation(scaleStrategy.getClusterScaleOperation(clusterId, events, ctc._scaleStrategyContext)));
+               ctc._submittedTimeMillis = System.currentTimeMillis();
                result = true;
             }
          } catch (Exception e) {
@@ -197,6 +246,19 @@ public class ThreadPoolExecutionStrategy implements ExecutionStrategy, EventProd
       _mainThread.interrupt();
    }
 
+   /* The clusters with a scale operation in progress, mapped to the time at which the operation was submitted */
+   public Map<String, Long> getClusterScaleOperationsInProgress() {
+      Map<String, Long> result = new HashMap<String, Long>();
+      synchronized(_clusterTaskContexts) {
+         for (Map.Entry<String, ClusterTaskContext> entry : _clusterTaskContexts.entrySet()) {
+            if (entry.getValue()._completionEventPending != null) {
+               result.put(entry.getKey(), entry.getValue()._submittedTimeMillis);
+            }
+         }
+      }
+      return result;
+   }
+
    @Override
    public boolean isClusterScaleInProgress(String clusterId) {
       synchronized(_clusterTaskContexts) {
@@ -35,6 +35,7 @@ import com.vmware.vhadoop.api.vhm.ClusterMapReader;
 import com.vmware.vhadoop.api.vhm.ExecutionStrategy;
 import com.vmware.vhadoop.api.vhm.HealthMonitor;
 import com.vmware.vhadoop.api.vhm.QueueClient.CannotConnectException;
+import com.vmware.vhadoop.api.vhm.StoppableCollaborator;
 import com.vmware.vhadoop.api.vhm.VCActions;
 import com.vmware.vhadoop.api.vhm.VHMCollaborator;
 import com.vmware.vhadoop.api.vhm.events.ClusterHealthEvent;
@@ -43,6 +44,7 @@ import com.vmware.vhadoop.api.vhm.events.ClusterScaleEvent;
 import com.vmware.vhadoop.api.vhm.events.ClusterStateChangeEvent;
 import com.vmware.vhadoop.api.vhm.events.EventConsumer;
 import com.vmware.vhadoop.api.vhm.events.EventInjector;
+import com.vmware.vhadoop.api.vhm.events.EventObserver;
 import com.vmware.vhadoop.api.vhm.events.EventProducer;
 import com.vmware.vhadoop.api.vhm.events.NotificationEvent;
 import com.vmware.vhadoop.api.vhm.strategy.ScaleStrategy;
@@ -51,6 +53,9 @@ import com.vmware.vhadoop.api.vhm.strategy.VMChooser;
 import com.vmware.vhadoop.util.ExternalizedParameters;
 import com.vmware.vhadoop.util.ThreadLocalCompoundStatus;
 import com.vmware.vhadoop.util.VhmLevel;
+import com.vmware.vhadoop.util.metrics.Gauge;
+import com.vmware.vhadoop.util.metrics.Histogram;
+import com.vmware.vhadoop.util.metrics.MetricsRegistry;
 import com.vmware.vhadoop.vhm.events.AbstractClusterScaleEvent;
 import com.vmware.vhadoop.vhm.events.AbstractNotificationEvent;
 import com.vmware.vhadoop.vhm.events.ClusterScaleDecision;
@@ -72,7 +77,9 @@ public class VHM implements EventConsumer {
    private final MultipleReaderSingleWriterClusterMapAccess _clusterMapAccess;
    private final ClusterMapReader _parentClusterMapReader;
    private final Set<VMChooser> _vmChoosers;
-   private final Set<EventInjector> _eventInjectors;
+   private final Set<EventObserver> _eventObservers;
+   private final Set<StoppableCollaborator> _stoppableCollaborators;
+   private final EventInjectorRunner _eventInjectorRunner;
    private HealthMonitor _healthMonitor;
    private volatile boolean _running = false;
    private volatile boolean _stopped = true;
@@ -83,12 +90,24 @@ public class VHM implements EventConsumer {
    private static long EVENT_PRODUCER_START_GRACE_TIME_MILLIS = ExternalizedParameters.get().getLong("EVENT_PRODUCER_START_GRACE_TIME_MILLIS");
    private static long EVENT_PRODUCER_STOP_GRACE_TIME_MILLIS = ExternalizedParameters.get().getLong("EVENT_PRODUCER_STOP_GRACE_TIME_MILLIS");
 
+   private static final Histogram _eventBatchSize = MetricsRegistry.get().histogram("vhm.eventBatch.size");
+   private static final Histogram _handleEventsMicros = MetricsRegistry.get().histogram("vhm.handleEvents.micros");
+
    VHM(VCActions vcActions, ScaleStrategy[] scaleStrategies,
          ExtraInfoToClusterMapper strategyMapper, ThreadLocalCompoundStatus threadLocalStatus) {
+      this(vcActions, scaleStrategies, strategyMapper, threadLocalStatus, null);
+   }
+
+   /* If recordStore is not null, the state of the VMs is kept in it rather than on the heap and ClusterMap is restored from it */
+   VHM(VCActions vcActions, ScaleStrategy[] scaleStrategies, ExtraInfoToClusterMapper strategyMapper,
+         ThreadLocalCompoundStatus threadLocalStatus, ClusterMapRecordStore recordStore) {
       _eventProducers = new EventProducerActions();
       _eventQueue = new LinkedList<NotificationEvent>();
       _initialized = true;
       _clusterMap = new CachingClusterMapImpl(strategyMapper);
+      if (recordStore != null) {
+         _clusterMap.attachRecordStore(recordStore);
+      }
       _vcActions = vcActions;
       _clusterMapAccess = MultipleReaderSingleWriterClusterMapAccess.getClusterMapAccess(_clusterMap);
       _parentClusterMapReader = new AbstractClusterMapReader(_clusterMapAccess, threadLocalStatus) {};
@@ -98,7 +117,15 @@ public class VHM implements EventConsumer {
          throw new RuntimeException("Fatal error registering ThreadPoolExecutionStrategy as an event producer");
       }
       _vmChoosers = new HashSet<VMChooser>();
-      _eventInjectors = new HashSet<EventInjector>();
+      _eventObservers = new LinkedHashSet<EventObserver>();
+      _stoppableCollaborators = new LinkedHashSet<StoppableCollaborator>();
+      _eventInjectorRunner = new EventInjectorRunner(this);
+      MetricsRegistry.get().gauge("vhm.eventQueue.depth", new Gauge() {
+         @Override
+         public long getValue() {
+            return getEventQueueDepth();
+         }
+      });
    }
 
    public void registerHealthMonitor(HealthMonitor healthMonitor) {
@@ -109,8 +136,14 @@ public class VHM implements EventConsumer {
       if (collaborator instanceof VMChooser) {
          _vmChoosers.add((VMChooser)collaborator);
       }
+      if (collaborator instanceof EventObserver) {
+         _eventObservers.add((EventObserver)collaborator);
+      }
       if (collaborator instanceof EventInjector) {
-         _eventInjectors.add((EventInjector)collaborator);
+         _eventInjectorRunner.registerEventInjector((EventInjector)collaborator);
+      }
+      if (collaborator instanceof StoppableCollaborator) {
+         _stoppableCollaborators.add((StoppableCollaborator)collaborator);
       }
       if (collaborator instanceof ClusterMapReader) {
          ((ClusterMapReader)collaborator).initialize(_parentClusterMapReader);
@@ -356,6 +389,7 @@ public class VHM implements EventConsumer {
             results.add(_eventQueue.poll());
          }
       }
+      _eventBatchSize.record(results.size());
       return results;
    }
 
@@ -476,6 +510,31 @@ public class VHM implements EventConsumer {
       return results;
    }
 
+   private void stopCollaborators() {
+      for (StoppableCollaborator collaborator : _stoppableCollaborators) {
+         try {
+            collaborator.stop();
+         } catch (Throwable t) {
+            _log.log(Level.WARNING, "VHM: unexpected exception stopping "+collaborator.getClass().getName()+" - "+t.getMessage());
+            _log.log(Level.INFO, "VHM: unexpected exception stopping "+collaborator.getClass().getName(), t);
+         }
+      }
+   }
+
+   private void notifyEventObservers(Set<NotificationEvent> events) {
+      for (EventObserver observer : _eventObservers) {
+         for (NotificationEvent event : events) {
+            try {
+               observer.eventObserved(event);
+            } catch (Throwable t) {
+               /* An observer must never be able to stop events from being processed */
+               _log.log(Level.WARNING, "VHM: unexpected exception in event observer "+observer.getName()+" - "+t.getMessage());
+               _log.log(Level.INFO, "VHM: unexpected exception in event observer "+observer.getName(), t);
+            }
+         }
+      }
+   }
+
    private void doRemove(Set<ClusterScaleEvent> scaleEventsForCluster, Set<ClusterScaleEvent> toRemove, String method) {
       if (toRemove != null) {
          int beforeSize = scaleEventsForCluster.size();
@@ -633,20 +692,12 @@ public class VHM implements EventConsumer {
          }
       }
 
-      /* Event injection happens immediately after ClusterMap has been updated and allows collaborators to inject derived events to be processed */
-      Set<NotificationEvent> allInjectedEvents = new LinkedHashSet<NotificationEvent>();
-      for (NotificationEvent event : newRequeuedAndInjectedEvents) {
-         for (EventInjector eventInjector : _eventInjectors) {
-            Set<? extends NotificationEvent> newEvents = eventInjector.processEvent(event);
-            if (newEvents != null) {
-               for (NotificationEvent injectedEvent : newEvents) {
-                  _log.info(eventInjector.getName()+" injecting new event "+injectedEvent+" in response to event "+event);
-               }
-               allInjectedEvents.addAll(newEvents);
-            }
-         }
-      }
-      newRequeuedAndInjectedEvents.addAll(allInjectedEvents);
+      /* Observers are told about the events once ClusterMap has been updated, but before any events are injected */
+      notifyEventObservers(newRequeuedAndInjectedEvents);
+
+      /* Event injection happens immediately after ClusterMap has been updated and allows collaborators to inject derived events to be processed
+       * The injectors run in parallel, and the events of any that are asynchronous or overrun their time budget are queued for a later batch */
+      newRequeuedAndInjectedEvents.addAll(_eventInjectorRunner.runInjectors(newRequeuedAndInjectedEvents));
 
       /* events that indicate a change in health status for a cluster */
       Set<ClusterHealthEvent> healthEvents = getClusterHealthEvents(newRequeuedAndInjectedEvents);
@@ -739,7 +790,9 @@ public class VHM implements EventConsumer {
                         break;
                      }
                   }
+                  long handleStartNanos = System.nanoTime();
                   handleEvents(events);
+                  _handleEventsMicros.recordSince(handleStartNanos);
                   Thread.sleep(500);
                }
             } catch (Throwable e) {
@@ -747,6 +800,7 @@ public class VHM implements EventConsumer {
                _log.log(Level.INFO, "VHM: stopping due to exception in VHM main loop", e);
             }
             _log.info("VHM stopping...");
+            stopCollaborators();
             _stopped = true;
          }}, "VHM_Main_Thread");
       t.start();
@@ -769,6 +823,20 @@ public class VHM implements EventConsumer {
       return _vcActions;
    }
 
+   int getEventQueueDepth() {
+      synchronized(_eventQueue) {
+         return _eventQueue.size();
+      }
+   }
+
+   /* The clusters with a scale operation in progress, mapped to the time at which the operation was submitted */
+   Map<String, Long> getClusterScaleOperationsInProgress() {
+      if (_executionStrategy instanceof ThreadPoolExecutionStrategy) {
+         return ((ThreadPoolExecutionStrategy)_executionStrategy).getClusterScaleOperationsInProgress();
+      }
+      return Collections.emptyMap();
+   }
+
    /**
     * Hack to specifically dump the cluster map instead of a more generic state of the world
     *
@@ -0,0 +1,104 @@
+/***************************************************************************
+* Copyright (c) 2013 VMware, Inc. All Rights Reserved.
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+***************************************************************************/
+
+package com.vmware.vhadoop.vhm.events;
+
+import com.vmware.vhadoop.api.vhm.HadoopActions.JobTrackerMetrics;
+import com.vmware.vhadoop.api.vhm.events.ClusterHealthEvent;
+
+/* Reports the slot occupancy and pending work of the JobTracker of a cluster, as collected by the JobTrackerMetricsCollector
+ * It is also a ClusterHealthEvent, so that a HealthMonitor can see blacklisted task trackers without contacting the JobTracker itself */
+public class JobTrackerMetricsEvent extends AbstractClusterScaleEvent implements ClusterHealthEvent {
+   private static final String reason = "job tracker metrics sample";
+
+   private final long _sampleTimeMillis;
+   private final JobTrackerMetrics _metrics;
+
+   public JobTrackerMetricsEvent(String clusterId, long sampleTimeMillis, JobTrackerMetrics metrics) {
+      super(reason);
+      setClusterId(clusterId);
+      _sampleTimeMillis = sampleTimeMillis;
+      _metrics = metrics;
+   }
+
+   public long getSampleTimeMillis() {
+      return _sampleTimeMillis;
+   }
+
+   public int getOccupiedMapSlots() {
+      return _metrics._occupiedMapSlots;
+   }
+
+   public int getTotalMapSlots() {
+      return _metrics._mapSlots;
+   }
+
+   public int getOccupiedReduceSlots() {
+      return _metrics._occupiedReduceSlots;
+   }
+
+   public int getTotalReduceSlots() {
+      return _metrics._reduceSlots;
+   }
+
+   public int getPendingMaps() {
+      return _metrics._waitingMaps;
+   }
+
+   public int getPendingReduces() {
+      return _metrics._waitingReduces;
+   }
+
+   public int getTrackers() {
+      return _metrics._trackers;
+   }
+
+   public int getBlacklistedTrackers() {
+      return _metrics._blacklistedTrackers;
+   }
+
+   public int getOccupiedSlots() {
+      return _metrics._occupiedMapSlots + _metrics._occupiedReduceSlots;
+   }
+
+   public int getTotalSlots() {
+      return _metrics._mapSlots + _metrics._reduceSlots;
+   }
+
+   public int getPendingTasks() {
+      return _metrics._waitingMaps + _metrics._waitingReduces;
+   }
+
+   @Override
+   public boolean isExclusive() {
+      return true;         /* Only the latest sample is of interest */
+   }
+
+   /* See VMUtilizationEvent */
+   @Override
+   public int hashCode() {
+      return 31 * super.hashCode() + (int)(getTimestamp() ^ (getTimestamp() >>> 32));
+   }
+
+   @Override
+   public boolean equals(Object obj) {
+      return super.equals(obj) && (getTimestamp() == ((AbstractClusterScaleEvent)obj).getTimestamp());
+   }
+
+   @Override
+   public String toString() {
+      return super.toString()+" "+_metrics;
+   }
+}
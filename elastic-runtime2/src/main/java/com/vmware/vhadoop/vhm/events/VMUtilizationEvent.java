@@ -0,0 +1,66 @@
+/***************************************************************************
+* Copyright (c) 2013 VMware, Inc. All Rights Reserved.
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+***************************************************************************/
+
+package com.vmware.vhadoop.vhm.events;
+
+/* Reports the windowed mean CPU usage of the powered on compute VMs of a cluster, as sampled by the PerformanceStatsSampler */
+public class VMUtilizationEvent extends AbstractClusterScaleEvent {
+   private static final String reason = "compute VM utilization sample";
+
+   private final long _sampleTimeMillis;
+   private final double _meanCpuUsagePercent;
+   private final int _numVMsSampled;
+
+   public VMUtilizationEvent(String clusterId, long sampleTimeMillis, double meanCpuUsagePercent, int numVMsSampled) {
+      super(reason);
+      setClusterId(clusterId);
+      _sampleTimeMillis = sampleTimeMillis;
+      _meanCpuUsagePercent = meanCpuUsagePercent;
+      _numVMsSampled = numVMsSampled;
+   }
+
+   public long getSampleTimeMillis() {
+      return _sampleTimeMillis;
+   }
+
+   public double getMeanCpuUsagePercent() {
+      return _meanCpuUsagePercent;
+   }
+
+   public int getNumVMsSampled() {
+      return _numVMsSampled;
+   }
+
+   @Override
+   public boolean isExclusive() {
+      return true;         /* Only the latest sample is of interest */
+   }
+
+   /* Successive samples for a cluster must not be equal, otherwise the older one would be kept when they're collected into a set */
+   @Override
+   public int hashCode() {
+      return 31 * super.hashCode() + (int)(getTimestamp() ^ (getTimestamp() >>> 32));
+   }
+
+   @Override
+   public boolean equals(Object obj) {
+      return super.equals(obj) && (getTimestamp() == ((AbstractClusterScaleEvent)obj).getTimestamp());
+   }
+
+   @Override
+   public String toString() {
+      return super.toString()+" meanCpuUsagePercent="+_meanCpuUsagePercent+", numVMsSampled="+_numVMsSampled;
+   }
+}
@@ -24,22 +24,34 @@ import static com.vmware.vhadoop.vhm.hadoop.HadoopErrorCodes.UNKNOWN_ERROR;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import org.apache.commons.io.IOUtils;
-
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
 import com.vmware.vhadoop.api.vhm.HadoopActions;
 import com.vmware.vhadoop.util.CompoundStatus;
 import com.vmware.vhadoop.util.CompoundStatus.TaskStatus;
 import com.vmware.vhadoop.util.ExternalizedParameters;
 import com.vmware.vhadoop.util.ThreadLocalCompoundStatus;
+import com.vmware.vhadoop.util.metrics.Counter;
+import com.vmware.vhadoop.util.metrics.MetricsRegistry;
 import com.vmware.vhadoop.vhm.hadoop.HadoopConnection.HadoopConnectionProperties;
 import com.vmware.vhadoop.vhm.hadoop.HadoopErrorCodes.ParamTypes;
 import com.vmware.vhadoop.vhm.hadoop.SshUtilities.Credentials;
@@ -55,6 +67,9 @@ public class HadoopAdaptor implements HadoopActions {
    private static final Logger _log = Logger.getLogger(HadoopAdaptor.class.getName());
 
    private final Map<String, HadoopConnection> _connections;
+   private final Map<String, JobTrackerAgent> _agents;
+   /* WATCH can run for minutes, so it has its own agent rather than holding up de/recommission on the other */
+   private final Map<String, JobTrackerAgent> _watchAgents;
    private final HadoopErrorCodes _errorCodes;
    private final Credentials _credentials;
    private final JTConfigInfo _jtConfig;
@@ -62,6 +77,7 @@ public class HadoopAdaptor implements HadoopActions {
    private final Map<String, Map<ParamTypes, String>> _errorParamValues;  /* TODO: Will need one per connection/cluster */
    private final ThreadLocalCompoundStatus _threadLocalStatus;
    private final SshUtilities _sshUtils;
+   private final ScriptDeploymentCache _scriptCache;
 
    private final int JOB_TRACKER_DEFAULT_SSH_PORT = ExternalizedParameters.get().getInt("JOB_TRACKER_DEFAULT_SSH_PORT");
    private final String JOB_TRACKER_SCP_READ_PERMS = ExternalizedParameters.get().getString("JOB_TRACKER_SCP_READ_PERMS");
@@ -78,6 +94,20 @@ public class HadoopAdaptor implements HadoopActions {
    private final String DEFAULT_SCRIPT_SRC_PATH = ExternalizedParameters.get().getString("DEFAULT_SCRIPT_SRC_PATH");
    private final String JOB_TRACKER_DEFAULT_SCRIPT_DEST_PATH = ExternalizedParameters.get().getString("JOB_TRACKER_DEFAULT_SCRIPT_DEST_PATH");
 
+   private final boolean JOB_TRACKER_USE_PERSISTENT_AGENT = ExternalizedParameters.get().getBoolean("JOB_TRACKER_USE_PERSISTENT_AGENT");
+   private final String JOB_TRACKER_AGENT_SCRIPT_FILE_NAME = ExternalizedParameters.get().getString("JOB_TRACKER_AGENT_SCRIPT_FILE_NAME");
+   private final long JOB_TRACKER_AGENT_RESPONSE_TIMEOUT_MILLIS = ExternalizedParameters.get().getLong("JOB_TRACKER_AGENT_RESPONSE_TIMEOUT_MILLIS");
+   private final long JOB_TRACKER_AGENT_WATCH_TIMEOUT_MILLIS = ExternalizedParameters.get().getLong("JOB_TRACKER_AGENT_WATCH_TIMEOUT_MILLIS");
+   private final long JOB_TRACKER_AGENT_WATCH_POLL_MILLIS = ExternalizedParameters.get().getLong("JOB_TRACKER_AGENT_WATCH_POLL_MILLIS");
+
+   private final int JOB_TRACKER_HTTP_PORT = ExternalizedParameters.get().getInt("JOB_TRACKER_HTTP_PORT");
+   private final String JOB_TRACKER_METRICS_BEAN_NAME = ExternalizedParameters.get().getString("JOB_TRACKER_METRICS_BEAN_NAME");
+   private final int JOB_TRACKER_METRICS_HTTP_TIMEOUT_MILLIS = ExternalizedParameters.get().getInt("JOB_TRACKER_METRICS_HTTP_TIMEOUT_MILLIS");
+
+   private static final MetricsRegistry _metrics = MetricsRegistry.get();
+   private static final Counter _scriptRedeployRetries = _metrics.counter("hadoopAdaptor.scriptRedeployRetry.count");
+   private static final Counter _checkScriptRetries = _metrics.counter("hadoopAdaptor.checkScriptRetry.count");
+
    private final int ACTIVE_TASK_TRACKERS_CHECK_RETRY_ITERATIONS = ExternalizedParameters.get().getInt("ACTIVE_TASK_TRACKERS_CHECK_RETRY_ITERATIONS");;
 
    static final String STATUS_INTERPRET_ERROR_CODE = "interpretErrorCode";
@@ -90,8 +120,11 @@ public class HadoopAdaptor implements HadoopActions {
       _errorCodes = new HadoopErrorCodes();
       _errorParamValues = new HashMap<String, Map<ParamTypes, String>>();
       _connections = new HashMap<String, HadoopConnection>();
+      _agents = new HashMap<String, JobTrackerAgent>();
+      _watchAgents = new HashMap<String, JobTrackerAgent>();
       _threadLocalStatus = tlcs;
       _sshUtils = new SshConnectionCache(JOB_TRACKER_SSH_CONNECTION_CACHE_SIZE);
+      _scriptCache = new ScriptDeploymentCache();
    }
 
    private CompoundStatus getCompoundStatus() {
@@ -131,22 +164,37 @@ public class HadoopAdaptor implements HadoopActions {
       };
    }
 
+   /* Connections are also requested by prepareJobTracker on a separate thread to the cluster threads */
    private HadoopConnection getConnectionForCluster(HadoopClusterInfo cluster) {
       if ((cluster == null) || (cluster.getJobTrackerDnsName() == null)) {
          return null;
       }
-      HadoopConnection result = _connections.get(cluster.getClusterId());
-      if (result == null || result.isStale(cluster)) {
-         /* TODO: SshUtils could be a single shared thread-safe object or non threadsafe object per connection */
-         result = getHadoopConnection(cluster, _connectionProperties);
-         result.setHadoopCredentials(_credentials);
-         result.setHadoopExcludeTTPath(_jtConfig.getExcludeTTPath());
-         result.setHadoopHomePath(_jtConfig.getHadoopHomePath());
-         _connections.put(cluster.getClusterId(), result);
+      HadoopConnection result;
+      JobTrackerAgent staleAgent = null;
+      JobTrackerAgent staleWatchAgent = null;
+      synchronized(_connections) {
+         result = _connections.get(cluster.getClusterId());
+         if (result == null || result.isStale(cluster)) {
+            /* TODO: SshUtils could be a single shared thread-safe object or non threadsafe object per connection */
+            /* An agent started through the stale connection may be running on a different job tracker */
+            staleAgent = _agents.remove(cluster.getClusterId());
+            staleWatchAgent = _watchAgents.remove(cluster.getClusterId());
+            result = getHadoopConnection(cluster, _connectionProperties);
+            result.setHadoopCredentials(_credentials);
+            result.setHadoopExcludeTTPath(_jtConfig.getExcludeTTPath());
+            result.setHadoopHomePath(_jtConfig.getHadoopHomePath());
+            _connections.put(cluster.getClusterId(), result);
+         }
+         setErrorParamValue(cluster, ParamTypes.HADOOP_HOME, result.getHadoopHome());
+         setErrorParamValue(cluster, ParamTypes.JOBTRACKER, result.getJobTrackerAddr());
+         setErrorParamValue(cluster, ParamTypes.EXCLUDE_FILE, result.getExcludeFilePath());
+      }
+      if (staleAgent != null) {
+         staleAgent.stop();
+      }
+      if (staleWatchAgent != null) {
+         staleWatchAgent.stop();
       }
-      setErrorParamValue(cluster, ParamTypes.HADOOP_HOME, result.getHadoopHome());
-      setErrorParamValue(cluster, ParamTypes.JOBTRACKER, result.getJobTrackerAddr());
-      setErrorParamValue(cluster, ParamTypes.EXCLUDE_FILE, result.getExcludeFilePath());
       return result;
    }
 
@@ -184,31 +232,6 @@ public class HadoopAdaptor implements HadoopActions {
       setErrorParamValue(cluster, ParamTypes.DRLIST, drList);
    }
 
-   private byte[] loadLocalScript(String fileName) {
-      ClassLoader cl = HadoopAdaptor.class.getClassLoader();
-	   InputStream is = ((cl != null) && (fileName != null)) ? cl.getResourceAsStream(fileName) : null;
-	   if (is == null) {
-		   _log.log(Level.SEVERE, "VHM: class loader resource "+ fileName + " is unavailable");
-		   return null;
-	   }
-
-	   byte[] result = null;
-	   try {
-		   result = IOUtils.toByteArray(is);
-	   } catch (IOException e) {
-		   _log.log(Level.SEVERE, "VHM: exception converting class loader resource "+ fileName + " to byte array - "+ e.getMessage());
-         _log.log(Level.INFO, "VHM: exception converting class loader resource "+ fileName + " to byte array", e);
-	   }
-
-      try {
-         is.close();
-      } catch (IOException e) {
-         _log.fine("VHM: exception closing stream for class loader resource " + fileName);
-      }
-
-	   return result;
-   }
-
    /*
    private byte[] loadLocalScript(String fullLocalPath) {
       File file = new File(fullLocalPath);
@@ -233,19 +256,20 @@ public class HadoopAdaptor implements HadoopActions {
 
    private int executeScriptWithCopyRetryOnFailure(HadoopConnection connection, String scriptFileName, String[] scriptArgs, ByteArrayOutputStream out) {
       int rc = -1;
+      /* Normally the script has already been deployed by prepareJobTracker, in which case this doesn't touch the job tracker */
+      _scriptCache.deployScript(connection, scriptFileName, JOB_TRACKER_DEFAULT_SCRIPT_DEST_PATH, false);
       for (int i = 0; i < 2; i++) {
          /* ensure that we're operating with a clean output buffer */
          out.reset();
 
+         long startNanos = System.nanoTime();
          rc = connection.executeScript(scriptFileName, JOB_TRACKER_DEFAULT_SCRIPT_DEST_PATH, scriptArgs, out);
+         _metrics.histogram("hadoopAdaptor.script."+scriptFileName+".micros").recordSince(startNanos);
          if (i == 0 && (rc == ERROR_COMMAND_NOT_FOUND || rc == ERROR_CATCHALL)) {
-            _log.log(Level.INFO, scriptFileName + " not found...");
-            // Changed this to accommodate using jar file...
-            // String fullLocalPath = HadoopAdaptor.class.getClassLoader().getResource(scriptFileName).getPath();
-            // byte[] scriptData = loadLocalScript(DEFAULT_SCRIPT_SRC_PATH + scriptFileName);
-            // byte[] scriptData = loadLocalScript(fullLocalPath);
-            byte[] scriptData = loadLocalScript(scriptFileName);
-            if ((scriptData != null) && (connection.copyDataToJobTracker(scriptData, JOB_TRACKER_DEFAULT_SCRIPT_DEST_PATH, scriptFileName, true) == 0)) {
+            /* The manifest may be out of date, eg. if /tmp on the job tracker has been cleaned, so check the remote copy */
+            _log.log(Level.INFO, scriptFileName + " failed, verifying deployed script...");
+            if (_scriptCache.deployScript(connection, scriptFileName, JOB_TRACKER_DEFAULT_SCRIPT_DEST_PATH, true)) {
+               _scriptRedeployRetries.increment();
                continue;
             }
          }
@@ -254,7 +278,53 @@ public class HadoopAdaptor implements HadoopActions {
       return rc;
    }
 
-   private CompoundStatus decomRecomTTs(String opDesc, Set<String> ttDnsNames, HadoopClusterInfo cluster, String scriptFileName, String listFileName) {
+   private int startAgentWithCopyRetryOnFailure(HadoopConnection connection, JobTrackerAgent agent) {
+      int rc = -1;
+      _scriptCache.deployScript(connection, JOB_TRACKER_AGENT_SCRIPT_FILE_NAME, JOB_TRACKER_DEFAULT_SCRIPT_DEST_PATH, false);
+      for (int i = 0; i < 2; i++) {
+         rc = agent.start();
+         if (i == 0 && (rc == ERROR_COMMAND_NOT_FOUND || rc == ERROR_CATCHALL)) {
+            _log.log(Level.INFO, JOB_TRACKER_AGENT_SCRIPT_FILE_NAME + " failed, verifying deployed script...");
+            if (_scriptCache.deployScript(connection, JOB_TRACKER_AGENT_SCRIPT_FILE_NAME, JOB_TRACKER_DEFAULT_SCRIPT_DEST_PATH, true)) {
+               continue;
+            }
+         }
+         break;
+      }
+      return rc;
+   }
+
+   /* Returns a running agent for the job tracker of the cluster, or null if the agent is disabled or can't be started,
+    * in which case the caller should fall back to executing the scripts */
+   private JobTrackerAgent getAgentForCluster(HadoopClusterInfo cluster, HadoopConnection connection, boolean forWatch) {
+      if (!JOB_TRACKER_USE_PERSISTENT_AGENT) {
+         return null;
+      }
+      Map<String, JobTrackerAgent> agents = forWatch ? _watchAgents : _agents;
+      JobTrackerAgent agent;
+      synchronized(_connections) {
+         agent = agents.get(cluster.getClusterId());
+         if (agent == null) {
+            agent = new JobTrackerAgent(connection, JOB_TRACKER_AGENT_SCRIPT_FILE_NAME, JOB_TRACKER_DEFAULT_SCRIPT_DEST_PATH,
+                  JOB_TRACKER_HTTP_PORT, forWatch ? "watch" : "command", JOB_TRACKER_AGENT_RESPONSE_TIMEOUT_MILLIS);
+            agents.put(cluster.getClusterId(), agent);
+         }
+      }
+      if (agent.hasStartFailed()) {
+         return null;
+      }
+      if (!agent.isAlive()) {
+         int rc = startAgentWithCopyRetryOnFailure(connection, agent);
+         if (rc != SUCCESS) {
+            _log.log(Level.INFO, "VHM: "+connection.getJobTrackerAddr()+" - unable to start job tracker agent (rc="+rc+"), using scripts instead");
+            agent.setStartFailed();
+            return null;
+         }
+      }
+      return agent;
+   }
+
+   private CompoundStatus decomRecomTTs(String opDesc, Set<String> ttDnsNames, HadoopClusterInfo cluster, String scriptFileName, String listFileName, String agentCommand) {
       CompoundStatus status = new CompoundStatus("decomRecomTTs");
 
       if (!isValidTTList(ttDnsNames)) {
@@ -269,13 +339,23 @@ public class HadoopAdaptor implements HadoopActions {
 
       HadoopConnection connection = getConnectionForCluster(cluster);
       if (connection != null) {
-         setErrorParamsForCommand(cluster, opDesc.toLowerCase(), scriptRemoteFilePath, listRemoteFilePath);
+         ByteArrayOutputStream out = new ByteArrayOutputStream();
+         int rc = UNKNOWN_ERROR;
+         JobTrackerAgent agent = getAgentForCluster(cluster, connection, false);
+         if (agent != null) {
+            setErrorParamsForCommand(cluster, opDesc.toLowerCase(), JOB_TRACKER_DEFAULT_SCRIPT_DEST_PATH + JOB_TRACKER_AGENT_SCRIPT_FILE_NAME, null);
+            rc = agent.execute(agentCommand, ttDnsNames, out);
+         }
+
+         /* UNKNOWN_ERROR from the agent means that it couldn't be contacted, so the operation is retried using the scripts */
+         if (rc == UNKNOWN_ERROR) {
+            setErrorParamsForCommand(cluster, opDesc.toLowerCase(), scriptRemoteFilePath, listRemoteFilePath);
 
-         ByteArrayOutputStream out = new ByteArrayOutputStream();
-         String operationList = createVMList(ttDnsNames);
-         int rc = connection.copyDataToJobTracker(operationList.getBytes(), JOB_TRACKER_DEFAULT_SCRIPT_DEST_PATH, listFileName, false);
-         if (rc == 0) {
-            rc = executeScriptWithCopyRetryOnFailure(connection, scriptFileName, new String[]{listRemoteFilePath, connection.getExcludeFilePath(), connection.getHadoopHome()}, out);
+            String operationList = createVMList(ttDnsNames);
+            rc = connection.copyDataToJobTracker(operationList.getBytes(), JOB_TRACKER_DEFAULT_SCRIPT_DEST_PATH, listFileName, false);
+            if (rc == 0) {
+               rc = executeScriptWithCopyRetryOnFailure(connection, scriptFileName, new String[]{listRemoteFilePath, connection.getExcludeFilePath(), connection.getHadoopHome()}, out);
+            }
          }
          status.addStatus(_errorCodes.interpretErrorCode(_log, rc, getErrorParamValues(cluster)));
       } else {
@@ -286,12 +366,12 @@ public class HadoopAdaptor implements HadoopActions {
 
    @Override
    public void decommissionTTs(Set<String> ttDnsNames, HadoopClusterInfo cluster) {
-      getCompoundStatus().addStatus(decomRecomTTs("Decommission", ttDnsNames, cluster, JOB_TRACKER_DECOM_SCRIPT_FILE_NAME, JOB_TRACKER_DECOM_LIST_FILE_NAME));
+      getCompoundStatus().addStatus(decomRecomTTs("Decommission", ttDnsNames, cluster, JOB_TRACKER_DECOM_SCRIPT_FILE_NAME, JOB_TRACKER_DECOM_LIST_FILE_NAME, JobTrackerAgent.COMMAND_DECOMMISSION));
    }
 
    @Override
    public void recommissionTTs(Set<String> ttDnsNames, HadoopClusterInfo cluster) {
-      getCompoundStatus().addStatus(decomRecomTTs("Recommission", ttDnsNames, cluster, JOB_TRACKER_RECOM_SCRIPT_FILE_NAME, JOB_TRACKER_RECOM_LIST_FILE_NAME));
+      getCompoundStatus().addStatus(decomRecomTTs("Recommission", ttDnsNames, cluster, JOB_TRACKER_RECOM_SCRIPT_FILE_NAME, JOB_TRACKER_RECOM_LIST_FILE_NAME, JobTrackerAgent.COMMAND_RECOMMISSION));
    }
 
    @Override
@@ -306,7 +386,15 @@ public class HadoopAdaptor implements HadoopActions {
          return null;
       }
       ByteArrayOutputStream out = new ByteArrayOutputStream();
-      int rc = executeScriptWithCopyRetryOnFailure(connection, JOB_TRACKER_CHECK_SCRIPT_FILE_NAME, new String[]{""+totalTargetEnabled, connection.getExcludeFilePath(), connection.getHadoopHome()}, out);
+      int rc = UNKNOWN_ERROR;
+      JobTrackerAgent agent = getAgentForCluster(cluster, connection, false);
+      if (agent != null) {
+         rc = agent.execute(JobTrackerAgent.COMMAND_CHECK, Collections.singleton(""+totalTargetEnabled), out);
+      }
+      if (rc == UNKNOWN_ERROR) {
+         out.reset();
+         rc = executeScriptWithCopyRetryOnFailure(connection, JOB_TRACKER_CHECK_SCRIPT_FILE_NAME, new String[]{""+totalTargetEnabled, connection.getExcludeFilePath(), connection.getHadoopHome()}, out);
+      }
 
       _log.info("Error code from executing script " + rc);
 
@@ -328,9 +416,86 @@ public class HadoopAdaptor implements HadoopActions {
       return formattedList;
    }
 
+   /**
+    * Uses the agent to watch the job tracker until the TTs have been de/recommissioned. The agent pushes the active TTs each time they change,
+    *   so this returns as soon as the target is reached rather than after a fixed retry interval.
+    * @return the set of active TTs or null if the agent could not be contacted, in which case the caller should fall back to the check script
+    */
+   private Set<String> watchTargetTTsWithAgent(JobTrackerAgent agent, String opType, Set<String> ttDnsNames, HadoopClusterInfo cluster, ActiveTTsListener listener) {
+      WatchResponseParser parser = new WatchResponseParser(listener);
+
+      List<String> args = new ArrayList<String>();
+      args.add(opType);
+      args.add(""+(JOB_TRACKER_AGENT_WATCH_TIMEOUT_MILLIS / 1000));
+      args.add(""+JOB_TRACKER_AGENT_WATCH_POLL_MILLIS);
+      args.addAll(ttDnsNames);
+
+      setErrorParamsForCommand(cluster, "checkTargetTTsSuccess", JOB_TRACKER_DEFAULT_SCRIPT_DEST_PATH + JOB_TRACKER_AGENT_SCRIPT_FILE_NAME, null);
+
+      /* Allow the agent time to report its own timeout before giving up on it */
+      int rc = agent.execute(JobTrackerAgent.COMMAND_WATCH, args, parser, JOB_TRACKER_AGENT_WATCH_TIMEOUT_MILLIS + JOB_TRACKER_AGENT_RESPONSE_TIMEOUT_MILLIS);
+
+      if (rc == UNKNOWN_ERROR) {
+         return null;
+      }
+
+      if (rc == SUCCESS) {
+         _log.log(Level.INFO, "All selected TTs correctly %sed", opType.toLowerCase());
+      }
+      getCompoundStatus().addStatus(_errorCodes.interpretErrorCode(_log, rc, getErrorParamValues(cluster)));
+      if (rc != SUCCESS) {
+         CompoundStatus getActiveStatus = new CompoundStatus(ACTIVE_TTS_STATUS_KEY);
+         getActiveStatus.registerTaskFailed(false, "Check Test Failed");
+         getCompoundStatus().addStatus(getActiveStatus);
+      }
+      return parser.getLatestActiveTTs();
+   }
+
+   /**
+    * Collects the "TT: <name>" lines streamed by WATCH into snapshots, each of which is terminated by SNAPSHOT_TERMINATOR
+    * Lines after the last terminator are an incomplete snapshot, so they are ignored. Package-private for testing.
+    */
+   static class WatchResponseParser implements JobTrackerAgent.ResponseListener {
+      private final ActiveTTsListener _listener;
+      private final Set<String> _latestActiveTTs = new HashSet<String>();
+      private final Set<String> _snapshot = new HashSet<String>();
+
+      WatchResponseParser(ActiveTTsListener listener) {
+         _listener = listener;
+      }
+
+      @Override
+      public void lineReceived(String line) {
+         if (line.startsWith("TT:")) {
+            String[] fields = line.split("\\s+");
+            if (fields.length > 1) {
+               _snapshot.add(fields[1]);
+            }
+         } else if (line.equals(JobTrackerAgent.SNAPSHOT_TERMINATOR)) {
+            _latestActiveTTs.clear();
+            _latestActiveTTs.addAll(_snapshot);
+            _snapshot.clear();
+            _log.info("Active TTs so far: " + Arrays.toString(_latestActiveTTs.toArray()));
+            if (_listener != null) {
+               _listener.activeTTsChanged(new HashSet<String>(_latestActiveTTs));
+            }
+         }
+      }
+
+      Set<String> getLatestActiveTTs() {
+         return _latestActiveTTs;
+      }
+   }
+
    @Override
    /* Returns the set of active dnsNames based on input Set */
    public Set<String> checkTargetTTsSuccess(String opType, Set<String> ttDnsNames, int totalTargetEnabled, HadoopClusterInfo cluster) {
+      return checkTargetTTsSuccess(opType, ttDnsNames, totalTargetEnabled, cluster, null);
+   }
+
+   @Override
+   /* Returns the set of active dnsNames based on input Set. The listener is given each set of active TTs read while checking */
+   public Set<String> checkTargetTTsSuccess(String opType, Set<String> ttDnsNames, int totalTargetEnabled, HadoopClusterInfo cluster, ActiveTTsListener listener) {
       String scriptRemoteFilePath = JOB_TRACKER_DEFAULT_SCRIPT_DEST_PATH + JOB_TRACKER_CHECK_SCRIPT_FILE_NAME;
       String listRemoteFilePath = null;
       String opDesc = "checkTargetTTsSuccess";
@@ -350,6 +515,15 @@ public class HadoopAdaptor implements HadoopActions {
 
 	   _log.log(Level.INFO, "Affected TTs: "+ttDnsNames);
 
+      HadoopConnection connection = getConnectionForCluster(cluster);
+      JobTrackerAgent agent = (connection != null) ? getAgentForCluster(cluster, connection, true) : null;
+      if (agent != null) {
+         Set<String> activeTTs = watchTargetTTsWithAgent(agent, opType, ttDnsNames, cluster, listener);
+         if (activeTTs != null) {
+            return activeTTs;
+         }
+      }
+
       setErrorParamsForCommand(cluster, opDesc, scriptRemoteFilePath, listRemoteFilePath);
 
       int iterations = 0;
@@ -369,6 +543,7 @@ public class HadoopAdaptor implements HadoopActions {
                } catch (InterruptedException e) {}
        	   }
             _log.log(Level.INFO, "Target TTs not yet achieved...checking again - " + iterations);
+            _checkScriptRetries.increment();
             _log.log(Level.INFO, "Affected TTs: "+ttDnsNames);
          }
 
@@ -376,6 +551,13 @@ public class HadoopAdaptor implements HadoopActions {
 
          lastCheckAttemptTime = System.currentTimeMillis();
          allActiveTTs = getActiveTTs(cluster, totalTargetEnabled, getActiveStatus);
+
+         /* Only pass on the active TTs if the check script could actually read them from the job tracker */
+         TaskStatus checkStatus = getActiveStatus.getFirstFailure(STATUS_INTERPRET_ERROR_CODE);
+         if ((listener != null) && (allActiveTTs != null) && ((checkStatus == null) ||
+               (checkStatus.getErrorCode() == ERROR_FEWER_TTS) || (checkStatus.getErrorCode() == ERROR_EXCESS_TTS))) {
+            listener.activeTTsChanged(new HashSet<String>(allActiveTTs));
+         }
 
     	   //Declare success as long as the we manage to de/recommission only the TTs we set out to handle (rather than checking correctness for all TTs)
     	   if ((allActiveTTs != null) &&
@@ -442,6 +624,124 @@ public class HadoopAdaptor implements HadoopActions {
       return new HadoopConnection(cluster, properties, _sshUtils);
    }
 
+   private List<String> getScriptFileNames() {
+      List<String> result = new ArrayList<String>();
+      result.add(JOB_TRACKER_DECOM_SCRIPT_FILE_NAME);
+      result.add(JOB_TRACKER_RECOM_SCRIPT_FILE_NAME);
+      result.add(JOB_TRACKER_CHECK_SCRIPT_FILE_NAME);
+      if (JOB_TRACKER_USE_PERSISTENT_AGENT) {
+         result.add(JOB_TRACKER_AGENT_SCRIPT_FILE_NAME);
+      }
+      return result;
+   }
+
+   @Override
+   /* Connects to the job tracker and deploys the scripts so that the first scale operation doesn't have to. The session is then kept alive in the cache. */
+   public void prepareJobTracker(HadoopClusterInfo cluster) {
+      HadoopConnection connection = getConnectionForCluster(cluster);
+      if (connection == null) {
+         return;
+      }
+      String jobTracker = connection.getJobTrackerAddr();
+      long sessionId = connection.connect();
+      if (sessionId == SshUtilities.NO_SESSION) {
+         _log.log(Level.INFO, "VHM: "+jobTracker+" - unable to pre-establish ssh session, it will be established when first needed");
+         return;
+      }
+      if (_scriptCache.isVerified(jobTracker, sessionId)) {
+         _log.log(Level.FINE, "VHM: "+jobTracker+" - scripts already verified on the current ssh session");
+         return;
+      }
+      /* The job tracker may have been restarted since the manifest was recorded, so check what's actually there */
+      boolean allDeployed = true;
+      for (String scriptFileName : getScriptFileNames()) {
+         if (!_scriptCache.deployScript(connection, scriptFileName, JOB_TRACKER_DEFAULT_SCRIPT_DEST_PATH, true)) {
+            _log.log(Level.INFO, "VHM: "+jobTracker+" - unable to deploy "+scriptFileName+", it will be deployed when first needed");
+            allDeployed = false;
+         }
+      }
+      if (allDeployed) {
+         _scriptCache.setVerified(jobTracker, sessionId);
+      }
+   }
+
+   /* The metrics are read from the JMX servlet of the job tracker web UI rather than over SSH, so that they can be polled without
+    * waiting for commands being run by the agent or scripts, which may take minutes during a scale operation */
+   @Override
+   public JobTrackerMetrics getJobTrackerMetrics(HadoopClusterInfo cluster) {
+      if ((cluster == null) || (cluster.getJobTrackerDnsName() == null)) {
+         return null;
+      }
+      HttpURLConnection connection = null;
+      try {
+         URL url = new URL("http", cluster.getJobTrackerDnsName(), JOB_TRACKER_HTTP_PORT, "/jmx?qry="+URLEncoder.encode(JOB_TRACKER_METRICS_BEAN_NAME, "UTF-8"));
+         connection = (HttpURLConnection)url.openConnection();
+         connection.setConnectTimeout(JOB_TRACKER_METRICS_HTTP_TIMEOUT_MILLIS);
+         connection.setReadTimeout(JOB_TRACKER_METRICS_HTTP_TIMEOUT_MILLIS);
+         int responseCode = connection.getResponseCode();
+         if (responseCode != HttpURLConnection.HTTP_OK) {
+            _log.fine("<%C"+cluster.getClusterId()+"%C>: job tracker metrics request to "+url+" returned "+responseCode);
+            return null;
+         }
+         Reader reader = new InputStreamReader(connection.getInputStream(), "UTF-8");
+         try {
+            return parseJobTrackerMetrics(reader);
+         } finally {
+            reader.close();
+         }
+      } catch (IOException e) {
+         _log.fine("<%C"+cluster.getClusterId()+"%C>: unable to read job tracker metrics - "+e.getMessage());
+         return null;
+      } finally {
+         if (connection != null) {
+            connection.disconnect();
+         }
+      }
+   }
+
+   private static int getIntAttribute(JsonObject bean, String name) {
+      JsonElement value = bean.get(name);
+      return ((value == null) || !value.isJsonPrimitive()) ? 0 : value.getAsInt();
+   }
+
+   /* Parses the output of the JMX servlet. Returns null if the MBean isn't there, such as for a distribution with different metrics. */
+   static JobTrackerMetrics parseJobTrackerMetrics(Reader json) {
+      try {
+         JsonElement root = new JsonParser().parse(json);
+         if (!root.isJsonObject()) {
+            return null;
+         }
+         JsonElement beansElement = root.getAsJsonObject().get("beans");
+         if ((beansElement == null) || !beansElement.isJsonArray()) {
+            return null;
+         }
+         JsonArray beans = beansElement.getAsJsonArray();
+         if ((beans.size() == 0) || !beans.get(0).isJsonObject()) {
+            return null;
+         }
+         JsonObject bean = beans.get(0).getAsJsonObject();
+         if (bean.get("map_slots") == null) {
+            return null;
+         }
+         JobTrackerMetrics result = new JobTrackerMetrics();
+         result._mapSlots = getIntAttribute(bean, "map_slots");
+         result._occupiedMapSlots = getIntAttribute(bean, "occupied_map_slots");
+         result._reduceSlots = getIntAttribute(bean, "reduce_slots");
+         result._occupiedReduceSlots = getIntAttribute(bean, "occupied_reduce_slots");
+         result._waitingMaps = getIntAttribute(bean, "waiting_maps");
+         result._waitingReduces = getIntAttribute(bean, "waiting_reduces");
+         result._trackers = getIntAttribute(bean, "trackers");
+         result._blacklistedTrackers = getIntAttribute(bean, "trackers_blacklisted");
+         return result;
+      } catch (JsonParseException e) {
+         _log.fine("Unable to parse job tracker metrics - "+e.getMessage());
+         return null;
+      } catch (NumberFormatException e) {
+         _log.fine("Unexpected value in job tracker metrics - "+e.getMessage());
+         return null;
+      }
+   }
+
    @Override
    public boolean validateTtHostNames(Set<String> dnsNames) {
       return true;
@@ -32,6 +32,7 @@ package com.vmware.vhadoop.vhm.hadoop;
 
 import static com.vmware.vhadoop.vhm.hadoop.HadoopErrorCodes.UNKNOWN_ERROR;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.logging.Level;
@@ -102,6 +103,14 @@ public class HadoopConnection {
       return exitStatus;
    }
 
+   private String buildScriptCommand(String scriptFileName, String destinationPath, String[] scriptArgs) {
+      StringBuilder command = new StringBuilder("sudo "+destinationPath + scriptFileName).append(" ");
+      for (String scriptArg : scriptArgs) {
+         command.append(scriptArg).append(" ");
+      }
+      return command.toString().trim();
+   }
+
    public int executeScript(String scriptFileName, String destinationPath, String[] scriptArgs, OutputStream out) {
       int exitStatus = UNKNOWN_ERROR;
 
@@ -112,12 +121,8 @@ public class HadoopConnection {
       }
 
       try {
-         StringBuilder command = new StringBuilder("sudo "+destinationPath + scriptFileName).append(" ");
-         for (String scriptArg : scriptArgs) {
-            command.append(scriptArg).append(" ");
-         }
-
-         exitStatus = _sshUtils.execute(_hadoopCluster.getJobTrackerDnsName(), _connectionProperties.getSshPort(), _credentials, command.toString().trim(), out);
+         String command = buildScriptCommand(scriptFileName, destinationPath, scriptArgs);
+         exitStatus = _sshUtils.execute(_hadoopCluster.getJobTrackerDnsName(), _connectionProperties.getSshPort(), _credentials, command, out);
       } catch (IOException e) {
          _log.info("VHM: "+_hadoopCluster.getJobTrackerDnsName()+" - failed to execute command on target");
       }
@@ -127,6 +132,60 @@ public class HadoopConnection {
       return exitStatus;
    }
 
+   /**
+    * Starts a remote script without waiting for it to complete. The caller communicates with the script using the streams of
+    *   the returned process and is responsible for destroying it.
+    * @return the remote process or null if the script could not be started
+    */
+   public Process invokeScript(String scriptFileName, String destinationPath, String[] scriptArgs) {
+      _log.log(Level.INFO, "Invoking remote script: " + destinationPath + scriptFileName + " on jobtracker " + _hadoopCluster.getJobTrackerDnsName());
+
+      if (_hadoopCluster.getJobTrackerDnsName() == null) {
+         return null;
+      }
+
+      try {
+         String command = buildScriptCommand(scriptFileName, destinationPath, scriptArgs);
+         return _sshUtils.invoke(_hadoopCluster.getJobTrackerDnsName(), _connectionProperties.getSshPort(), _credentials, command, null);
+      } catch (IOException e) {
+         _log.info("VHM: "+_hadoopCluster.getJobTrackerDnsName()+" - failed to invoke command on target");
+      }
+      return null;
+   }
+
+   /* Ensures that there is a connected session to the job tracker, so that subsequent operations don't wait for one to be established
+    * Returns the id of the session, or SshUtilities.NO_SESSION if there isn't one */
+   public long connect() {
+      if (_hadoopCluster.getJobTrackerDnsName() == null) {
+         return SshUtilities.NO_SESSION;
+      }
+      return _sshUtils.connect(_hadoopCluster.getJobTrackerDnsName(), _connectionProperties.getSshPort(), _credentials);
+   }
+
+   /**
+    * Computes the md5 digest of a file on the job tracker
+    * @return the digest as a hex string or null if the file doesn't exist or the digest can't be computed
+    */
+   public String getRemoteFileDigest(String remotePath, String remoteFileName) {
+      if (_hadoopCluster.getJobTrackerDnsName() == null) {
+         return null;
+      }
+
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      try {
+         int exitStatus = _sshUtils.execute(_hadoopCluster.getJobTrackerDnsName(), _connectionProperties.getSshPort(), _credentials, "md5sum "+remotePath+remoteFileName, out);
+         if (exitStatus == 0) {
+            String[] fields = out.toString().trim().split("\\s+");
+            if (fields[0].length() > 0) {
+               return fields[0];
+            }
+         }
+      } catch (IOException e) {
+         _log.info("VHM: "+_hadoopCluster.getJobTrackerDnsName()+" - failed to get digest of "+remotePath+remoteFileName);
+      }
+      return null;
+   }
+
    public String getHadoopHome() {
       return _hadoopHomePath;
    }
@@ -0,0 +1,259 @@
+/***************************************************************************
+* Copyright (c) 2013 VMware, Inc. All Rights Reserved.
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+***************************************************************************/
+
+package com.vmware.vhadoop.vhm.hadoop;
+
+import static com.vmware.vhadoop.vhm.hadoop.HadoopErrorCodes.SUCCESS;
+import static com.vmware.vhadoop.vhm.hadoop.HadoopErrorCodes.UNKNOWN_ERROR;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Represents a long-lived agent script running on a job tracker
+ * The agent is started once over the cached SSH session for the job tracker and is then sent one command per line on its stdin.
+ * Each response is zero or more lines of output followed by a line containing RESPONSE_TERMINATOR and the return code of the command.
+ * The return codes are the same as those of the equivalent de/recommission and check scripts.
+ * The output of the agent is read by a dedicated thread, so that waiting for a response is a blocking read with a timeout.
+ * An agent runs one command at a time, so WATCH is expected to be sent to a separate agent from the de/recommission commands.
+ *
+ */
+public class JobTrackerAgent {
+   private static final Logger _log = Logger.getLogger(JobTrackerAgent.class.getName());
+
+   static final String RESPONSE_TERMINATOR = "@@RC";
+   public static final String SNAPSHOT_TERMINATOR = "@@SNAPSHOT";
+
+   public static final String COMMAND_DECOMMISSION = "DECOMMISSION";
+   public static final String COMMAND_RECOMMISSION = "RECOMMISSION";
+   public static final String COMMAND_CHECK = "CHECK";
+   public static final String COMMAND_WATCH = "WATCH";
+   public static final String COMMAND_PING = "PING";
+   public static final String COMMAND_QUIT = "QUIT";
+
+   /* Placed on the line queue by the reader thread once the agent's output has ended */
+   private static final String END_OF_OUTPUT = new String("@@EOF");
+
+   private final HadoopConnection _connection;
+   private final String _scriptFileName;
+   private final String _destinationPath;
+   private final int _jobTrackerHttpPort;
+   private final String _role;
+   private final long _responseTimeoutMillis;
+
+   private Process _process;
+   private BlockingQueue<String> _lines;
+   private boolean _startFailed;
+
+   /* Receives the output lines of a response as they arrive, rather than when the command completes */
+   public interface ResponseListener {
+      void lineReceived(String line);
+   }
+
+   /**
+    * @param jobTrackerHttpPort - the port of the job tracker web UI, from which the agent reads the active task trackers
+    * @param role - distinguishes the log files of the agents running on the same job tracker
+    */
+   public JobTrackerAgent(HadoopConnection connection, String scriptFileName, String destinationPath, int jobTrackerHttpPort, String role, long responseTimeoutMillis) {
+      _connection = connection;
+      _scriptFileName = scriptFileName;
+      _destinationPath = destinationPath;
+      _jobTrackerHttpPort = jobTrackerHttpPort;
+      _role = role;
+      _responseTimeoutMillis = responseTimeoutMillis;
+   }
+
+   /**
+    * Starts the agent on the job tracker and waits for it to indicate that it's ready
+    * @return SUCCESS if the agent is running, otherwise the exit status of the remote script or UNKNOWN_ERROR
+    */
+   public synchronized int start() {
+      if (isAlive()) {
+         return SUCCESS;
+      }
+      _process = _connection.invokeScript(_scriptFileName, _destinationPath,
+            new String[]{_connection.getExcludeFilePath(), _connection.getHadoopHome(), ""+_jobTrackerHttpPort, _role});
+      if (_process == null) {
+         return UNKNOWN_ERROR;
+      }
+      startReader(_process);
+      int rc = readResponse(null, _responseTimeoutMillis);
+      if (rc == SUCCESS) {
+         _log.info("VHM: "+_connection.getJobTrackerAddr()+" - job tracker agent started");
+         return SUCCESS;
+      }
+      /* If the script exited, return its exit status so that the caller can decide whether to deploy it */
+      int exitStatus = _process.exitValue();
+      stop();
+      return (exitStatus != UNKNOWN_ERROR) ? exitStatus : rc;
+   }
+
+   /* Once the agent has failed to start, the caller should fall back to the scripts for the lifetime of the connection */
+   public synchronized void setStartFailed() {
+      _startFailed = true;
+   }
+
+   public synchronized boolean hasStartFailed() {
+      return _startFailed;
+   }
+
+   /* The RemoteProcess returned by SshConnectionCache reports UNKNOWN_ERROR (-1) as the exit value while it is still running */
+   public synchronized boolean isAlive() {
+      return (_process != null) && (_process.exitValue() == UNKNOWN_ERROR);
+   }
+
+   /**
+    * Sends a command to the agent and waits for the response
+    * @param command - one of the COMMAND_ constants
+    * @param args - arguments to the command, which must not contain whitespace
+    * @param out - receives the output lines of the response
+    * @return the return code of the command or UNKNOWN_ERROR if the agent could not be contacted, in which case the agent is stopped
+    */
+   public int execute(String command, Collection<String> args, final OutputStream out) {
+      return execute(command, args, new ResponseListener() {
+         @Override
+         public void lineReceived(String line) {
+            try {
+               out.write(line.getBytes());
+               out.write('\n');
+            } catch (IOException e) {
+               /* squash - ByteArrayOutputStream is expected */
+            }
+         }
+      }, _responseTimeoutMillis);
+   }
+
+   /**
+    * Sends a command to the agent and passes each line of output to the listener as it arrives
+    * @param timeoutMillis - the maximum time to wait for the command to complete
+    * @return the return code of the command or UNKNOWN_ERROR if the agent could not be contacted, in which case the agent is stopped
+    */
+   public synchronized int execute(String command, Collection<String> args, ResponseListener listener, long timeoutMillis) {
+      if (!isAlive()) {
+         return UNKNOWN_ERROR;
+      }
+      StringBuilder request = new StringBuilder(command);
+      if (args != null) {
+         for (String arg : args) {
+            request.append(" ").append(arg);
+         }
+      }
+      request.append("\n");
+
+      _log.fine("Sending command to job tracker agent on "+_connection.getJobTrackerAddr()+": "+request.toString().trim());
+      try {
+         OutputStream stdin = _process.getOutputStream();
+         stdin.write(request.toString().getBytes());
+         stdin.flush();
+      } catch (IOException e) {
+         _log.info("VHM: "+_connection.getJobTrackerAddr()+" - failed to send command to job tracker agent - "+e.getMessage());
+         stop();
+         return UNKNOWN_ERROR;
+      }
+
+      int rc = readResponse(listener, timeoutMillis);
+      if (rc == UNKNOWN_ERROR) {
+         stop();
+      }
+      return rc;
+   }
+
+   public synchronized void stop() {
+      if (_process == null) {
+         return;
+      }
+      try {
+         OutputStream stdin = _process.getOutputStream();
+         if (stdin != null) {
+            stdin.write((COMMAND_QUIT+"\n").getBytes());
+            stdin.flush();
+         }
+      } catch (IOException e) {
+         /* squash - the agent is being destroyed anyway */
+      }
+      _process.destroy();
+      _process = null;
+      _lines = null;
+   }
+
+   /* Each agent process has its own reader thread and queue, so a reader left blocked on a destroyed process can't affect its successor */
+   private void startReader(final Process process) {
+      final BlockingQueue<String> lines = new LinkedBlockingQueue<String>();
+      _lines = lines;
+      Thread reader = new Thread(new Runnable() {
+         @Override
+         public void run() {
+            try {
+               BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream()));
+               String line;
+               while ((line = in.readLine()) != null) {
+                  /* The agent runs on a pty, so trailing \r is trimmed */
+                  lines.add(line.trim());
+               }
+            } catch (IOException e) {
+               _log.fine("Job tracker agent output ended - "+e.getMessage());
+            } finally {
+               lines.add(END_OF_OUTPUT);
+            }
+         }
+      }, "JobTrackerAgent_Reader_"+_connection.getJobTrackerAddr());
+      reader.setDaemon(true);
+      reader.start();
+   }
+
+   private int readResponse(ResponseListener listener, long timeoutMillis) {
+      long deadline = System.currentTimeMillis() + timeoutMillis;
+      try {
+         String line;
+         while ((line = readLine(deadline)) != null) {
+            if (line.startsWith(RESPONSE_TERMINATOR)) {
+               return Integer.parseInt(line.substring(RESPONSE_TERMINATOR.length()).trim());
+            }
+            if (listener != null) {
+               listener.lineReceived(line);
+            }
+         }
+         _log.info("VHM: "+_connection.getJobTrackerAddr()+" - job tracker agent exited unexpectedly");
+      } catch (IOException e) {
+         _log.info("VHM: "+_connection.getJobTrackerAddr()+" - failed to read response from job tracker agent - "+e.getMessage());
+      } catch (NumberFormatException e) {
+         _log.log(Level.WARNING, "VHM: "+_connection.getJobTrackerAddr()+" - malformed response from job tracker agent - "+e.getMessage());
+      }
+      return UNKNOWN_ERROR;
+   }
+
+   /* Reads a line of output from the agent, returning null if the agent's output has ended */
+   private String readLine(long deadline) throws IOException {
+      long remaining = deadline - System.currentTimeMillis();
+      String line;
+      try {
+         line = (remaining > 0) ? _lines.poll(remaining, TimeUnit.MILLISECONDS) : _lines.poll();
+      } catch (InterruptedException e) {
+         throw new IOException("interrupted waiting for response");
+      }
+      if (line == null) {
+         throw new IOException("timed out waiting for response");
+      }
+      return (line == END_OF_OUTPUT) ? null : line;
+   }
+}
@@ -0,0 +1,180 @@
+/***************************************************************************
+* Copyright (c) 2013 VMware, Inc. All Rights Reserved.
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+***************************************************************************/
+
+package com.vmware.vhadoop.vhm.hadoop;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Holds the scripts that are deployed to job trackers in memory, along with an md5 digest of each one
+ * A manifest of the script digests known to be deployed is kept for each job tracker, so that a script is only copied
+ *   when the job tracker doesn't have the current version of it. The manifest is checked against the job tracker using md5sum.
+ *
+ */
+public class ScriptDeploymentCache {
+   private static final Logger _log = Logger.getLogger(ScriptDeploymentCache.class.getName());
+
+   private final Map<String, byte[]> _scriptData;
+   private final Map<String, String> _scriptDigests;
+   /* Job tracker address -> script file name -> digest of the script deployed there */
+   private final Map<String, Map<String, String>> _manifests;
+   /* Job tracker address -> id of the ssh session on which the manifest was last checked against the job tracker */
+   private final Map<String, Long> _verifiedSessions;
+
+   public ScriptDeploymentCache() {
+      _scriptData = new HashMap<String, byte[]>();
+      _scriptDigests = new HashMap<String, String>();
+      _manifests = new HashMap<String, Map<String, String>>();
+      _verifiedSessions = new HashMap<String, Long>();
+   }
+
+   /* Returns the contents of the script, which is only read from the class loader the first time */
+   public synchronized byte[] getScriptData(String fileName) {
+      byte[] result = _scriptData.get(fileName);
+      if (result == null) {
+         result = loadLocalScript(fileName);
+         if (result != null) {
+            _scriptData.put(fileName, result);
+            _scriptDigests.put(fileName, getDigest(result));
+         }
+      }
+      return result;
+   }
+
+   public synchronized String getScriptDigest(String fileName) {
+      return (getScriptData(fileName) != null) ? _scriptDigests.get(fileName) : null;
+   }
+
+   /* True if the manifest for the job tracker has the current version of the script */
+   public synchronized boolean isDeployed(String jobTracker, String fileName) {
+      Map<String, String> manifest = _manifests.get(jobTracker);
+      String digest = getScriptDigest(fileName);
+      return (manifest != null) && (digest != null) && digest.equals(manifest.get(fileName));
+   }
+
+   private synchronized void setDeployed(String jobTracker, String fileName, String digest) {
+      Map<String, String> manifest = _manifests.get(jobTracker);
+      if (manifest == null) {
+         manifest = new HashMap<String, String>();
+         _manifests.put(jobTracker, manifest);
+      }
+      manifest.put(fileName, digest);
+   }
+
+   public synchronized void invalidate(String jobTracker, String fileName) {
+      Map<String, String> manifest = _manifests.get(jobTracker);
+      if (manifest != null) {
+         manifest.remove(fileName);
+      }
+      _verifiedSessions.remove(jobTracker);
+   }
+
+   /* True if the manifest has already been checked against the job tracker using the given ssh session. The job tracker can't
+    * have been restarted without dropping the session, so the check only needs to be made once per session */
+   public synchronized boolean isVerified(String jobTracker, long sessionId) {
+      Long verifiedSession = _verifiedSessions.get(jobTracker);
+      return (verifiedSession != null) && (verifiedSession == sessionId);
+   }
+
+   public synchronized void setVerified(String jobTracker, long sessionId) {
+      _verifiedSessions.put(jobTracker, sessionId);
+   }
+
+   /**
+    * Ensures that the job tracker has the current version of the script, copying it only if necessary
+    * @param verifyRemote - if true, the manifest is not trusted and the digest of the remote script is always checked
+    * @return true if the current version of the script is known to be on the job tracker
+    */
+   public boolean deployScript(HadoopConnection connection, String fileName, String destinationPath, boolean verifyRemote) {
+      String jobTracker = connection.getJobTrackerAddr();
+      if (jobTracker == null) {
+         return false;
+      }
+      byte[] scriptData = getScriptData(fileName);
+      String digest = getScriptDigest(fileName);
+      if ((scriptData == null) || (digest == null)) {
+         return false;
+      }
+      if (!verifyRemote && isDeployed(jobTracker, fileName)) {
+         return true;
+      }
+
+      String remoteDigest = connection.getRemoteFileDigest(destinationPath, fileName);
+      if (!digest.equals(remoteDigest)) {
+         _log.log(Level.INFO, "VHM: "+jobTracker+" - deploying "+fileName+" (md5 "+digest+")");
+         if (connection.copyDataToJobTracker(scriptData, destinationPath, fileName, true) != 0) {
+            invalidate(jobTracker, fileName);
+            return false;
+         }
+         /* If md5sum can't be run on the job tracker, trust the copy rather than copying on every operation */
+         remoteDigest = connection.getRemoteFileDigest(destinationPath, fileName);
+         if ((remoteDigest != null) && !digest.equals(remoteDigest)) {
+            _log.log(Level.WARNING, "VHM: "+jobTracker+" - checksum of deployed "+fileName+" does not match - expected "+digest+", found "+remoteDigest);
+            invalidate(jobTracker, fileName);
+            return false;
+         }
+      }
+      setDeployed(jobTracker, fileName, digest);
+      return true;
+   }
+
+   private String getDigest(byte[] data) {
+      try {
+         byte[] digest = MessageDigest.getInstance("MD5").digest(data);
+         StringBuilder result = new StringBuilder();
+         for (byte b : digest) {
+            result.append(String.format("%02x", b));
+         }
+         return result.toString();
+      } catch (NoSuchAlgorithmException e) {
+         _log.log(Level.WARNING, "VHM: unable to compute script digest - "+e.getMessage());
+      }
+      return null;
+   }
+
+   private byte[] loadLocalScript(String fileName) {
+      ClassLoader cl = ScriptDeploymentCache.class.getClassLoader();
+      InputStream is = ((cl != null) && (fileName != null)) ? cl.getResourceAsStream(fileName) : null;
+      if (is == null) {
+         _log.log(Level.SEVERE, "VHM: class loader resource "+ fileName + " is unavailable");
+         return null;
+      }
+
+      byte[] result = null;
+      try {
+         result = IOUtils.toByteArray(is);
+      } catch (IOException e) {
+         _log.log(Level.SEVERE, "VHM: exception converting class loader resource "+ fileName + " to byte array - "+ e.getMessage());
+         _log.log(Level.INFO, "VHM: exception converting class loader resource "+ fileName + " to byte array", e);
+      }
+
+      try {
+         is.close();
+      } catch (IOException e) {
+         _log.fine("VHM: exception closing stream for class loader resource " + fileName);
+      }
+
+      return result;
+   }
+}
@@ -3,12 +3,18 @@ package com.vmware.vhadoop.vhm.hadoop;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -18,6 +24,9 @@ import com.jcraft.jsch.JSch;
 import com.jcraft.jsch.JSchException;
 import com.jcraft.jsch.Session;
 import com.vmware.vhadoop.util.ExternalizedParameters;
+import com.vmware.vhadoop.util.metrics.Gauge;
+import com.vmware.vhadoop.util.metrics.Histogram;
+import com.vmware.vhadoop.util.metrics.MetricsRegistry;
 
 public class SshConnectionCache implements SshUtilities
 {
@@ -30,15 +39,27 @@ public class SshConnectionCache implements SshUtilities
    private final int NUM_KEEP_ALIVE = ExternalizedParameters.get().getInt("SSH_DROPPED_KEEP_ALIVE_GRACE");
    private final int REMOTE_PROC_WAIT_FOR_DELAY = ExternalizedParameters.get().getInt("SSH_REMOTE_PROC_WAIT_FOR_DELAY");
    private final String STRICT_HOST_KEY_CHECKING = ExternalizedParameters.get().getString("SSH_STRICT_HOST_KEY_CHECKING").trim();
+   private final int MAX_CHANNELS_PER_SESSION = ExternalizedParameters.get().getInt("SSH_MAX_CHANNELS_PER_SESSION");
 
    private static final String SCP_COMMAND = "scp  -t  ";
 
-   private Map<Connection,Session> cache;
-   private Map<Session,Set<Channel>> channelMap = new HashMap<Session,Set<Channel>>();
+   /* Access ordered, so the eldest entry is the least recently used. The map is only locked briefly to find, add or remove an entry;
+    * each entry is the lock for its own session, so operations on different hosts don't contend with each other.
+    * An entry may be locked first and the map second, so an entry must never be locked while holding the lock on the map. */
+   private final LinkedHashMap<Connection,CachedSession> cache = new LinkedHashMap<Connection,CachedSession>(16, 0.75f, true);
 
    private final JSch _jsch = new JSch();
    protected final int capacity;
-   private float loadFactor = 0.75f;
+
+   private final AtomicLong hits = new AtomicLong();
+   private final AtomicLong misses = new AtomicLong();
+   private final AtomicLong evictions = new AtomicLong();
+   private final AtomicLong sessionSetups = new AtomicLong();
+   private final AtomicLong lastSessionId = new AtomicLong(NO_SESSION);
+   private final AtomicLong totalSessionSetupMillis = new AtomicLong();
+   private final AtomicLong maxSessionSetupMillis = new AtomicLong();
+
+   private static final Histogram _sessionSetupMillis = MetricsRegistry.get().histogram("sshConnectionCache.sessionSetup.millis");
 
    static class Connection {
 
@@ -84,11 +105,30 @@ public class SshConnectionCache implements SshUtilities
       }
    }
 
+   /**
+    * A cached session and the channels that are currently open on it.
+    * All fields are guarded by the CachedSession instance.
+    */
+   static class CachedSession {
+      volatile Session session;
+      final Set<Channel> channels = new HashSet<Channel>();
+      final Semaphore channelPermits;
+      /* once evicted, the session is disconnected when the last of its channels completes */
+      boolean evicted;
+      /* changes each time the session has to be established */
+      long sessionId = NO_SESSION;
+
+      CachedSession(int maxChannels) {
+         this.channelPermits = new Semaphore(maxChannels, true);
+      }
+   }
+
    class RemoteProcess extends Process {
       public final static int UNDEFINED_EXIT_STATUS = -1;
 
       Session session;
       ChannelExec channel;
+      CachedSession cachedSession;
       InputStream stdout;
       InputStream stderr;
       OutputStream stdin;
@@ -207,16 +247,8 @@ public class SshConnectionCache implements SshUtilities
          }
 
          channel.disconnect();
-         synchronized (cache) {
-            Set<Channel> channels = channelMap.get(session);
-            if (channels != null) {
-               channels.remove(channel);
-               if (channels.isEmpty() && !cache.containsValue(session)) {
-                  channelMap.remove(session);
-                  _log.fine("Disconnecting session during RemoteProcess cleanup for "+session.getUserName()+"@"+session.getHost());
-                  session.disconnect();
-               }
-            }
+         if (cachedSession != null) {
+            releaseChannel(cachedSession, channel, session);
          }
 
          channel = null;
@@ -249,49 +281,45 @@ public class SshConnectionCache implements SshUtilities
     * this cache has served.
     */
    protected void clearCache() {
+      List<CachedSession> entries;
       synchronized (cache) {
-         for (Set<Channel> channelSet : channelMap.values()) {
-            for (Channel channel : channelSet) {
+         entries = new ArrayList<CachedSession>(cache.values());
+         cache.clear();
+      }
+
+      for (CachedSession entry : entries) {
+         synchronized (entry) {
+            for (Channel channel : entry.channels) {
                channel.disconnect();
             }
-         }
+            entry.channels.clear();
 
-         for (Session session : cache.values()) {
-            if (session.isConnected()) {
-               session.disconnect();
+            if ((entry.session != null) && entry.session.isConnected()) {
+               entry.session.disconnect();
             }
+            entry.evicted = true;
          }
-
-         cache.clear();
       }
    }
 
    public SshConnectionCache(int capacity) {
       this.capacity = capacity;
-      int baseSize = (int)Math.ceil(capacity / loadFactor) + 2;
-      cache = Collections.synchronizedMap(new LinkedHashMap<Connection,Session>(baseSize, loadFactor, true) {
-         private static final long serialVersionUID = 1328753943644428132L;
-
+      MetricsRegistry.get().gauge("sshConnectionCache.hit.count", new Gauge() {
          @Override
-         protected boolean removeEldestEntry (Map.Entry<Connection,Session> eldest) {
-
-            boolean remove = size() > SshConnectionCache.this.capacity;
-            /* if we're removing this session it has to be disconnected to avoid leaking sockets */
-            if (remove) {
-               Session session = eldest.getValue();
-
-               if (session != null) {
-                  _log.fine("Disconnecting session during cache eviction for "+session.getUserName()+"@"+session.getHost());
-                  Set<Channel> channels = channelMap.get(session);
-                  /* if there are no incomplete channels associated with this session then evict it */
-                  if (channels == null || channels.isEmpty()) {
-                     channelMap.remove(session);
-                     session.disconnect();
-                  }
-               }
-            }
-
-            return remove;
+         public long getValue() {
+            return hits.get();
+         }
+      });
+      MetricsRegistry.get().gauge("sshConnectionCache.miss.count", new Gauge() {
+         @Override
+         public long getValue() {
+            return misses.get();
+         }
+      });
+      MetricsRegistry.get().gauge("sshConnectionCache.eviction.count", new Gauge() {
+         @Override
+         public long getValue() {
+            return evictions.get();
          }
       });
    }
@@ -299,10 +327,56 @@ public class SshConnectionCache implements SshUtilities
    /**
     * Extension point method for child classes. The cache is unmodifiable but the elements in it are not.
     * Care should be taken when changing state of the contained objects.
-    * @return an unmodifiable view of the cache
+    * @return an unmodifiable snapshot of the cache
     */
    protected Map<Connection,Session> getCache() {
-      return Collections.unmodifiableMap(cache);
+      Map<Connection,Session> result = new HashMap<Connection,Session>();
+      synchronized (cache) {
+         for (Map.Entry<Connection,CachedSession> entry : cache.entrySet()) {
+            Session session = entry.getValue().session;
+            if (session != null) {
+               result.put(entry.getKey(), session);
+            }
+         }
+      }
+      return Collections.unmodifiableMap(result);
+   }
+
+   /* The number of times a connected session was found in the cache */
+   public long getHitCount() {
+      return hits.get();
+   }
+
+   /* The number of times a session had to be established */
+   public long getMissCount() {
+      return misses.get();
+   }
+
+   public long getEvictionCount() {
+      return evictions.get();
+   }
+
+   public long getSessionSetupCount() {
+      return sessionSetups.get();
+   }
+
+   public long getAverageSessionSetupMillis() {
+      long setups = sessionSetups.get();
+      return (setups == 0) ? 0 : totalSessionSetupMillis.get() / setups;
+   }
+
+   public long getMaxSessionSetupMillis() {
+      return maxSessionSetupMillis.get();
+   }
+
+   private void recordSessionSetup(long millis) {
+      sessionSetups.incrementAndGet();
+      totalSessionSetupMillis.addAndGet(millis);
+      _sessionSetupMillis.record(millis);
+      long max;
+      do {
+         max = maxSessionSetupMillis.get();
+      } while ((millis > max) && !maxSessionSetupMillis.compareAndSet(max, millis));
    }
 
    /**
@@ -318,7 +392,9 @@ public class SshConnectionCache implements SshUtilities
          config.put("StrictHostKeyChecking", STRICT_HOST_KEY_CHECKING);
          session.setConfig(config);
 
-         session.setTimeout(SESSION_READ_TIMEOUT);
+         /* keep idle sessions alive so that they're still usable when the next operation on the job tracker comes along.
+          * JSch sends a keep alive each time a read on the session times out, so the read timeout sets the keep alive cadence. */
+         session.setServerAliveInterval(SESSION_READ_TIMEOUT);
          session.setServerAliveCountMax(NUM_KEEP_ALIVE);
 
          return session;
@@ -390,36 +466,144 @@ public class SshConnectionCache implements SshUtilities
     * @return
     */
    protected Session getSession(Connection connection) {
-      synchronized (cache) {
-         Session session = cache.get(connection);
-
-         /* we try this twice because if the cached connection's dropped then we'll need to discard it and
-          * try again with a new one. */
-         for (int i = 0; i < 2; i++) {
-            if (session == null) {
-               session = createSession(connection);
-               if (session == null) {
-                  return null;
-               }
-               cache.put(connection, session);
-               channelMap.put(session, new HashSet<Channel>());
+      CachedSession entry = getCachedSession(connection);
+      return (entry != null) ? entry.session : null;
+   }
+
+   /**
+    * Gets the cache entry for a connection, ensuring that its session is connected. Only callers for the same connection wait
+    *   while a session is being established.
+    * @param connection
+    * @return the entry or null if a session could not be established
+    */
+   private CachedSession getCachedSession(Connection connection) {
+      CachedSession result = null;
+
+      /* we try this twice in case the entry is evicted by another thread between looking it up and locking it */
+      for (int i = 0; (result == null) && (i < 2); i++) {
+         CachedSession entry;
+         synchronized (cache) {
+            /* the lookup makes this the most recently used entry */
+            entry = cache.get(connection);
+            if (entry == null) {
+               entry = new CachedSession(MAX_CHANNELS_PER_SESSION);
+               cache.put(connection, entry);
             }
+         }
 
-            if (!connectSession(session, connection.credentials)) {
-               cache.remove(connection);
-               channelMap.remove(session);
-               if (session != null) {
-                  /* ensure that even if it's something odd causing connectSession to fail we clean up */
-                  session.disconnect();
-               }
-               session = null;
-            } else {
-               /* the session is valid and connected */
-               break;
+         synchronized (entry) {
+            if (entry.evicted) {
+               continue;
+            }
+            if (!connectCachedSession(connection, entry)) {
+               entry.evicted = true;
+               removeEntry(connection, entry);
+               return null;
             }
+            result = entry;
          }
+      }
 
-         return session;
+      evictIfOverCapacity();
+      return result;
+   }
+
+   /* Must be called holding the lock on the entry */
+   private boolean connectCachedSession(Connection connection, CachedSession entry) {
+      if ((entry.session != null) && entry.session.isConnected()) {
+         _log.finer("VHM: "+connection.hostname+" - using cached connection");
+         hits.incrementAndGet();
+         return true;
+      }
+      misses.incrementAndGet();
+
+      /* we try this twice because if the cached connection's dropped then we'll need to discard it and
+       * try again with a new one. */
+      for (int i = 0; i < 2; i++) {
+         if (entry.session == null) {
+            entry.session = createSession(connection);
+            if (entry.session == null) {
+               return false;
+            }
+         }
+
+         long startTime = System.currentTimeMillis();
+         if (connectSession(entry.session, connection.credentials)) {
+            /* the session is valid and connected */
+            recordSessionSetup(System.currentTimeMillis() - startTime);
+            entry.sessionId = lastSessionId.incrementAndGet();
+            return true;
+         }
+
+         /* ensure that even if it's something odd causing connectSession to fail we clean up */
+         entry.session.disconnect();
+         entry.session = null;
+      }
+
+      return false;
+   }
+
+   private void removeEntry(Connection connection, CachedSession entry) {
+      synchronized (cache) {
+         /* the entry may already have been replaced by a new one for the same connection */
+         if (cache.get(connection) == entry) {
+            cache.remove(connection);
+         }
+      }
+   }
+
+   /* Evicts the least recently used entries until the cache is within capacity */
+   private void evictIfOverCapacity() {
+      while (true) {
+         CachedSession eldest;
+         synchronized (cache) {
+            if (cache.size() <= capacity) {
+               return;
+            }
+            Iterator<CachedSession> iterator = cache.values().iterator();
+            eldest = iterator.next();
+            iterator.remove();
+         }
+         evict(eldest);
+      }
+   }
+
+   private void evict(CachedSession entry) {
+      evictions.incrementAndGet();
+      synchronized (entry) {
+         entry.evicted = true;
+         Session session = entry.session;
+         /* if we're removing this session it has to be disconnected to avoid leaking sockets, unless it still has incomplete channels */
+         if ((session != null) && entry.channels.isEmpty()) {
+            _log.fine("Disconnecting session during cache eviction for "+session.getUserName()+"@"+session.getHost());
+            session.disconnect();
+         }
+      }
+      _log.fine("SSH session cache: hits="+hits.get()+", misses="+misses.get()+", evictions="+evictions.get()+
+            ", average session setup="+getAverageSessionSetupMillis()+"ms, max session setup="+maxSessionSetupMillis.get()+"ms");
+   }
+
+   /* Blocks until the session has capacity for another channel */
+   private void acquireChannelPermit(Connection connection, CachedSession entry) throws IOException {
+      try {
+         if (!entry.channelPermits.tryAcquire(INPUTSTREAM_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+            throw new IOException("timed out waiting for a free channel on session to remote host "+connection.hostname);
+         }
+      } catch (InterruptedException e) {
+         throw new IOException("interrupted waiting for a free channel on session to remote host "+connection.hostname);
+      }
+   }
+
+   private void releaseChannel(CachedSession entry, Channel channel, Session session) {
+      synchronized (entry) {
+         if (!entry.channels.remove(channel)) {
+            return;
+         }
+         entry.channelPermits.release();
+         if (entry.channels.isEmpty() && entry.evicted && (session != null) && session.isConnected()) {
+            _log.fine("Disconnecting session during RemoteProcess cleanup for "+session.getUserName()+"@"+session.getHost());
+            session.disconnect();
+         }
       }
    }
 
@@ -562,28 +746,43 @@ public class SshConnectionCache implements SshUtilities
 
    public RemoteProcess invoke(Connection connection, String command, OutputStream stdout, InputStream stdin) throws IOException {
       /* get the cached session for the remote user/host or create a new one */
-      ChannelExec channel;
-
-      /* we synchronize on cache so that we don't have the potential to evict and disconnect a session in between confirming that
-       * it's functional and recording an opening in the channel map */
-      synchronized (cache) {
-         Session session = getSession(connection);
-         if (session == null) {
+      ChannelExec channel = null;
+      CachedSession entry = null;
+
+      /* we check the session under the entry lock so that we don't have the potential to evict and disconnect a session in
+       * between confirming that it's functional and recording an opening in the channel set. If it's evicted or dropped while
+       * we wait for a free channel, we try again with a new session. */
+      for (int i = 0; (channel == null) && (i < 2); i++) {
+         entry = getCachedSession(connection);
+         if (entry == null) {
             throw new IOException("unable to establish session to remote host "+connection.hostname);
          }
+         acquireChannelPermit(connection, entry);
 
-         /* open a new exec channel - this is tightly coupled to the execution of the command and will be closed on command completion */
-         try {
-            channel = (ChannelExec) session.openChannel("exec");
-            Set<Channel> channels = channelMap.get(session);
-            channels.add(channel);
-         } catch (JSchException e) {
-            String msg = "VHM: "+connection.hostname+" - exception opening SSH execution channel to host";
-            _log.log(Level.INFO, msg, e);
-            throw new IOException(msg);
+         synchronized (entry) {
+            Session session = entry.session;
+            if (entry.evicted || (session == null) || !session.isConnected()) {
+               entry.channelPermits.release();
+               continue;
+            }
+
+            /* open a new exec channel - this is tightly coupled to the execution of the command and will be closed on command completion */
+            try {
+               channel = (ChannelExec) session.openChannel("exec");
+               entry.channels.add(channel);
+            } catch (JSchException e) {
+               entry.channelPermits.release();
+               String msg = "VHM: "+connection.hostname+" - exception opening SSH execution channel to host";
+               _log.log(Level.INFO, msg, e);
+               throw new IOException(msg);
+            }
          }
       }
 
+      if (channel == null) {
+         throw new IOException("unable to open channel to remote host "+connection.hostname);
+      }
+
       /* execute the remote command and set up our remote process wrapper */
       RemoteProcess proc = null;
       try {
@@ -597,6 +796,7 @@ public class SshConnectionCache implements SshUtilities
 
          /* this calls getOutput/Error/InputStream which seems to overwrite anything set by setOutputStream, so needs to be done first */
          proc = new RemoteProcess(channel);
+         proc.cachedSession = entry;
 
          /* if we have sink and source already, set the channels up */
          if (stdout != null) {
@@ -628,12 +828,26 @@ public class SshConnectionCache implements SshUtilities
 
          if (proc != null) {
             proc.cleanup();
+         } else {
+            releaseChannel(entry, channel, null);
          }
 
          throw new IOException(msg);
       }
    }
 
+   @Override
+   public long connect(String remote, int port, Credentials credentials) {
+      Connection connection = new Connection(remote, port, credentials);
+      CachedSession entry = getCachedSession(connection);
+      if (entry == null) {
+         return NO_SESSION;
+      }
+      synchronized (entry) {
+         return entry.sessionId;
+      }
+   }
+
    @Override
    public RemoteProcess invoke(String remote, int port, Credentials credentials, String command, OutputStream stdout) throws IOException {
       Connection connection = new Connection(remote, port, credentials);
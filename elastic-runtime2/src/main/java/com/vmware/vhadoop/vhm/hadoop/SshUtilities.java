@@ -6,6 +6,7 @@ import java.io.OutputStream;
 public interface SshUtilities
 {
    public static final int DEFAULT_SSH_PORT = 22;
+   public static final long NO_SESSION = 0;
 
    class Credentials {
       String username;
@@ -47,4 +48,7 @@ public interface SshUtilities
    int copy(String remote, int port, Credentials credentials, byte data[], String remoteDirectory, String remoteName, String permissions) throws IOException;
    int execute(String remote, int port, Credentials credentials, String command, OutputStream stdout) throws IOException;
    Process invoke(String remote, int port, Credentials credentials, String command, OutputStream stdout) throws IOException;
+   /* Establishes a session to the remote host ahead of it being needed. Returns an id for the connected session, which changes
+    * whenever a new session has to be established, or NO_SESSION if a session can't be established. */
+   long connect(String remote, int port, Credentials credentials);
 }
@@ -0,0 +1,427 @@
+/***************************************************************************
+* Copyright (c) 2013 VMware, Inc. All Rights Reserved.
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+***************************************************************************/
+
+package com.vmware.vhadoop.vhm.strategy;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import com.vmware.vhadoop.api.vhm.ClusterMap;
+import com.vmware.vhadoop.api.vhm.ClusterSummary;
+import com.vmware.vhadoop.api.vhm.ClusterMapReader;
+import com.vmware.vhadoop.api.vhm.VCActions;
+import com.vmware.vhadoop.api.vhm.events.ClusterScaleCompletionEvent;
+import com.vmware.vhadoop.api.vhm.events.ClusterScaleEvent;
+import com.vmware.vhadoop.api.vhm.strategy.EDPolicy;
+import com.vmware.vhadoop.api.vhm.strategy.ScaleStrategy;
+import com.vmware.vhadoop.api.vhm.strategy.ScaleStrategyContext;
+import com.vmware.vhadoop.api.vhm.strategy.VMChooser;
+import com.vmware.vhadoop.api.vhm.strategy.VMChooser.RankedVM;
+import com.vmware.vhadoop.util.CompoundStatus;
+import com.vmware.vhadoop.util.ExternalizedParameters;
+import com.vmware.vhadoop.util.ScaleTrace;
+import com.vmware.vhadoop.util.ScaleTrace.Phase;
+import com.vmware.vhadoop.util.VhmLevel;
+import com.vmware.vhadoop.vhm.AbstractClusterMapReader;
+import com.vmware.vhadoop.vhm.events.ClusterScaleDecision;
+import com.vmware.vhadoop.vhm.events.JobTrackerMetricsEvent;
+import com.vmware.vhadoop.vhm.events.SerengetiLimitInstruction;
+import com.vmware.vhadoop.vhm.events.VMUtilizationEvent;
+
+/**
+ * Scales a cluster according to its load, for clusters that have elasticity automation enabled in Serengeti
+ * The load is judged from the JobTracker slot occupancy and pending tasks reported in JobTrackerMetricsEvents and from the mean CPU usage
+ *   of the powered on compute VMs reported in VMUtilizationEvents. If only one of them is available, it is used alone.
+ * To avoid flapping, the thresholds for high and low load are separated, the load has to be sustained for a while before acting on it,
+ *   and there are cooldowns after each decision. The number of enabled TaskTrackers is always kept between the minimum and maximum
+ *   configured for the cluster, which are passed in through the cluster extraInfo.
+ * Limit instructions from Serengeti are still honored while a cluster is automatic, and are carried out as by the ManualScaleStrategy.
+ *   The blocking switch to manual is handled by VHM itself, which needs the instruction to get through the event filtering.
+ */
+public class AutoScaleStrategy extends AbstractClusterMapReader implements ScaleStrategy {
+   private static final Logger _log = Logger.getLogger(AutoScaleStrategy.class.getName());
+   private final EDPolicy _enableDisablePolicy;
+   private final ManualScaleStrategy _limitInstructionStrategy;
+   private VMChooserCallback _vmChooserCallback;
+
+   public static final String AUTO_SCALE_STRATEGY_KEY = "auto";
+
+   /* ExtraInfo keys for the bounds on the number of enabled compute nodes. A missing or non-positive maximum means no limit. */
+   public static final String MIN_INSTANCES_EXTRA_INFO_KEY = "auto.minInstances";
+   public static final String MAX_INSTANCES_EXTRA_INFO_KEY = "auto.maxInstances";
+
+   private static final long METRICS_MAX_AGE_MILLIS = ExternalizedParameters.get().getLong("AUTO_SCALE_METRICS_MAX_AGE_MILLIS");
+   private static final double SCALE_OUT_SLOT_OCCUPANCY_PERCENT = ExternalizedParameters.get().getDouble("AUTO_SCALE_OUT_SLOT_OCCUPANCY_PERCENT");
+   private static final double SCALE_IN_SLOT_OCCUPANCY_PERCENT = ExternalizedParameters.get().getDouble("AUTO_SCALE_IN_SLOT_OCCUPANCY_PERCENT");
+   private static final double SCALE_OUT_CPU_USAGE_PERCENT = ExternalizedParameters.get().getDouble("AUTO_SCALE_OUT_CPU_USAGE_PERCENT");
+   private static final double SCALE_IN_CPU_USAGE_PERCENT = ExternalizedParameters.get().getDouble("AUTO_SCALE_IN_CPU_USAGE_PERCENT");
+   private static final long SCALE_OUT_SUSTAIN_MILLIS = ExternalizedParameters.get().getLong("AUTO_SCALE_OUT_SUSTAIN_MILLIS");
+   private static final long SCALE_IN_SUSTAIN_MILLIS = ExternalizedParameters.get().getLong("AUTO_SCALE_IN_SUSTAIN_MILLIS");
+   private static final long SCALE_OUT_COOLDOWN_MILLIS = ExternalizedParameters.get().getLong("AUTO_SCALE_OUT_COOLDOWN_MILLIS");
+   private static final long SCALE_IN_COOLDOWN_MILLIS = ExternalizedParameters.get().getLong("AUTO_SCALE_IN_COOLDOWN_MILLIS");
+   private static final int SCALE_OUT_STEP_PERCENT = ExternalizedParameters.get().getInt("AUTO_SCALE_OUT_STEP_PERCENT");
+   private static final int SCALE_OUT_MAX_STEP = ExternalizedParameters.get().getInt("AUTO_SCALE_OUT_MAX_STEP");
+   private static final int SCALE_IN_STEP_PERCENT = ExternalizedParameters.get().getInt("AUTO_SCALE_IN_STEP_PERCENT");
+
+   public enum Load {HIGH, LOW, STEADY, UNKNOWN}
+
+   /**
+    * The load history of a cluster, from which the scaling decisions are made
+    * If it's not static, it can't be created reflectively. It is only accessed by the one scale operation running for the cluster at a time.
+    */
+   public static class AutoScaleContext implements ScaleStrategyContext {
+      private JobTrackerMetricsEvent _latestJobTrackerMetrics;
+      private VMUtilizationEvent _latestVMUtilization;
+      private Load _load = Load.UNKNOWN;
+      private long _loadSinceMillis;
+      private long _lastScaleOutMillis;
+      private long _lastScaleMillis;
+
+      public void updateMetrics(Set<ClusterScaleEvent> events) {
+         for (ClusterScaleEvent event : events) {
+            if (event instanceof JobTrackerMetricsEvent) {
+               JobTrackerMetricsEvent jtMetrics = (JobTrackerMetricsEvent)event;
+               if ((_latestJobTrackerMetrics == null) || (_latestJobTrackerMetrics.getSampleTimeMillis() <= jtMetrics.getSampleTimeMillis())) {
+                  _latestJobTrackerMetrics = jtMetrics;
+               }
+            } else if (event instanceof VMUtilizationEvent) {
+               VMUtilizationEvent vmUtilization = (VMUtilizationEvent)event;
+               if ((_latestVMUtilization == null) || (_latestVMUtilization.getSampleTimeMillis() <= vmUtilization.getSampleTimeMillis())) {
+                  _latestVMUtilization = vmUtilization;
+               }
+            }
+         }
+      }
+
+      public Load getLoad() {
+         return _load;
+      }
+
+      protected JobTrackerMetricsEvent getFreshJobTrackerMetrics(long now) {
+         if ((_latestJobTrackerMetrics != null) && ((now - _latestJobTrackerMetrics.getSampleTimeMillis()) <= METRICS_MAX_AGE_MILLIS)) {
+            return _latestJobTrackerMetrics;
+         }
+         return null;
+      }
+
+      private Double getFreshCpuUsagePercent(long now) {
+         if ((_latestVMUtilization != null) && ((now - _latestVMUtilization.getSampleTimeMillis()) <= METRICS_MAX_AGE_MILLIS)) {
+            return _latestVMUtilization.getMeanCpuUsagePercent();
+         }
+         return null;
+      }
+
+      public Load classifyLoad(long now) {
+         JobTrackerMetricsEvent jtMetrics = getFreshJobTrackerMetrics(now);
+         Double cpuUsagePercent = getFreshCpuUsagePercent(now);
+
+         if (jtMetrics != null) {
+            /* With no slots at all there are no TaskTrackers, so any pending task is reason to scale out */
+            double slotOccupancyPercent = (jtMetrics.getTotalSlots() > 0) ? (100.0 * jtMetrics.getOccupiedSlots()) / jtMetrics.getTotalSlots() : 100.0;
+            if (jtMetrics.getPendingTasks() > 0) {
+               /* Pending tasks with free slots are most likely just waiting to be scheduled, so they only count if the slots are busy or the VMs are hot */
+               if ((slotOccupancyPercent >= SCALE_OUT_SLOT_OCCUPANCY_PERCENT) ||
+                     ((cpuUsagePercent != null) && (cpuUsagePercent >= SCALE_OUT_CPU_USAGE_PERCENT))) {
+                  return Load.HIGH;
+               }
+               return Load.STEADY;
+            }
+            if ((slotOccupancyPercent <= SCALE_IN_SLOT_OCCUPANCY_PERCENT) &&
+                  ((cpuUsagePercent == null) || (cpuUsagePercent <= SCALE_IN_CPU_USAGE_PERCENT))) {
+               return Load.LOW;
+            }
+            return Load.STEADY;
+         }
+
+         if (cpuUsagePercent != null) {
+            if (cpuUsagePercent >= SCALE_OUT_CPU_USAGE_PERCENT) {
+               return Load.HIGH;
+            }
+            if (cpuUsagePercent <= SCALE_IN_CPU_USAGE_PERCENT) {
+               return Load.LOW;
+            }
+            return Load.STEADY;
+         }
+         return Load.UNKNOWN;
+      }
+
+      private int getScaleOutStep(int numPoweredOn, long now) {
+         int step = percentageStep(numPoweredOn, SCALE_OUT_STEP_PERCENT);
+         JobTrackerMetricsEvent jtMetrics = getFreshJobTrackerMetrics(now);
+         if ((jtMetrics != null) && (numPoweredOn > 0) && (jtMetrics.getTotalSlots() > 0)) {
+            /* Enough TaskTrackers to run all of the pending tasks at once, if that's more than the usual step */
+            double slotsPerTaskTracker = (double)jtMetrics.getTotalSlots() / numPoweredOn;
+            step = Math.max(step, (int)Math.ceil(jtMetrics.getPendingTasks() / slotsPerTaskTracker));
+         }
+         return Math.min(step, SCALE_OUT_MAX_STEP);
+      }
+
+      /**
+       * Decides how many TaskTrackers to enable (positive) or disable (negative), updating the load history
+       * The cooldowns start as soon as a decision is made, so that a scale operation which fails is not immediately retried
+       *
+       * @param maxInstances The most TaskTrackers that may be enabled, or 0 or less for no limit
+       */
+      public int decideDelta(int numPoweredOn, int numPoweredOff, int minInstances, int maxInstances, long now) {
+         Load load = classifyLoad(now);
+         if (load != _load) {
+            _load = load;
+            _loadSinceMillis = now;
+         }
+
+         int available = numPoweredOn + numPoweredOff;
+         int max = (maxInstances > 0) ? Math.min(maxInstances, available) : available;
+         int min = Math.min(Math.max(0, minInstances), max);
+         boolean scaleOutCooledDown = (now - _lastScaleOutMillis) >= SCALE_OUT_COOLDOWN_MILLIS;
+         boolean scaleInCooledDown = (now - _lastScaleMillis) >= SCALE_IN_COOLDOWN_MILLIS;
+         long sustainedMillis = now - _loadSinceMillis;
+
+         int delta = 0;
+         if (numPoweredOn > max) {
+            delta = max - numPoweredOn;
+         } else if (numPoweredOn < min) {
+            if (scaleOutCooledDown) {
+               delta = min - numPoweredOn;
+            }
+         } else if ((load == Load.HIGH) && (sustainedMillis >= SCALE_OUT_SUSTAIN_MILLIS) && scaleOutCooledDown) {
+            delta = Math.min(getScaleOutStep(numPoweredOn, now), max - numPoweredOn);
+         } else if ((load == Load.LOW) && (sustainedMillis >= SCALE_IN_SUSTAIN_MILLIS) && scaleInCooledDown) {
+            delta = -Math.min(percentageStep(numPoweredOn, SCALE_IN_STEP_PERCENT), numPoweredOn - min);
+         }
+
+         if (delta > 0) {
+            _lastScaleOutMillis = now;
+         }
+         if (delta != 0) {
+            _lastScaleMillis = now;
+            /* The load has to be sustained again from here before the next decision, so that the effect of this one is seen first */
+            _loadSinceMillis = now;
+         }
+         return delta;
+      }
+
+      /* Describes why the last decision was made, for the user log */
+      public String describeDecision() {
+         return "cluster load is "+_load.toString().toLowerCase();
+      }
+   }
+
+   private static int percentageStep(int numPoweredOn, int percentage) {
+      return Math.max(1, (numPoweredOn * percentage + 99) / 100);
+   }
+
+   /* Returns the ids of the clusters scaled by this strategy or by the PredictiveScaleStrategy, or null if there are none */
+   public static Set<String> getAutoScaledClusterIds(ClusterMap clusterMap) {
+      Set<String> result = null;
+      for (String key : new String[]{AUTO_SCALE_STRATEGY_KEY, PredictiveScaleStrategy.PREDICTIVE_SCALE_STRATEGY_KEY}) {
+         Set<String> clusterIds = clusterMap.getAllClusterIdsForScaleStrategyKey(key);
+         if (clusterIds != null) {
+            if (result == null) {
+               result = new HashSet<String>();
+            }
+            result.addAll(clusterIds);
+         }
+      }
+      return result;
+   }
+
+   public AutoScaleStrategy(EDPolicy edPolicy) {
+      _enableDisablePolicy = edPolicy;
+      _limitInstructionStrategy = new ManualScaleStrategy(edPolicy);
+   }
+
+   @Override
+   public void initialize(ClusterMapReader parent) {
+      super.initialize(parent);
+      _enableDisablePolicy.initialize(parent);
+      _limitInstructionStrategy.initialize(parent);
+   }
+
+   @Override
+   public void setVMChooserCallback(final VMChooserCallback callback) {
+      _vmChooserCallback = callback;
+      _limitInstructionStrategy.setVMChooserCallback(callback);
+   }
+
+   @Override
+   public String getKey() {
+      return AUTO_SCALE_STRATEGY_KEY;
+   }
+
+   private Set<String> chooseVMsForTargetPowerState(String clusterId, int delta, Set<String> candidateVmIds, boolean targetPowerState) {
+      long spanStart = ScaleTrace.startSpan();
+      RankedVM.Accumulator combination = new RankedVM.Accumulator();
+      for (VMChooser vmChooser : _vmChooserCallback.getVMChoosers()) {
+
+         Set<RankedVM> rankedVMs = targetPowerState ?
+               vmChooser.rankVMsToEnable(clusterId, candidateVmIds) :
+               vmChooser.rankVMsToDisable(clusterId, candidateVmIds);
+
+         combination.add(rankedVMs);
+      }
+      Set<String> result = combination.selectLowestRankedIds(Math.abs(delta));
+      ScaleTrace.endSpan(Phase.CHOOSE_VMS, spanStart, clusterId, result, (result != null));
+      return result;
+   }
+
+   /* Returns the integer value of an extraInfo entry, or the default if it is missing or invalid */
+   protected static int getIntExtraInfo(ClusterMap clusterMap, String clusterId, String key, int defaultValue) {
+      String value = clusterMap.getExtraInfo(clusterId, key);
+      if (value != null) {
+         try {
+            return Integer.parseInt(value.trim());
+         } catch (NumberFormatException e) {
+            _log.warning("<%C"+clusterId+"%C>: ignoring invalid value for "+key+": "+value);
+         }
+      }
+      return defaultValue;
+   }
+
+   /* Reads any further per-cluster settings from the extraInfo into the context before each decision. The cluster map is read locked. */
+   protected void readExtraInfo(ClusterMap clusterMap, String clusterId, AutoScaleContext context) {
+   }
+
+   protected AutoScaleContext createContext() {
+      return new AutoScaleContext();
+   }
+
+   class CallableStrategy extends ClusterScaleOperation {
+      final String _clusterId;
+      final Set<ClusterScaleEvent> _events;
+      final AutoScaleContext _context;
+
+      public CallableStrategy(String clusterId, Set<ClusterScaleEvent> events, AutoScaleContext context) {
+         _clusterId = clusterId;
+         _events = events;
+         _context = context;
+         initialize(AutoScaleStrategy.this);
+      }
+
+      @Override
+      public ClusterScaleCompletionEvent localCall() throws Exception {
+         CompoundStatus tlStatus = getCompoundStatus();
+         _context.updateMetrics(_events);
+
+         int numPoweredOff = 0;
+         int numPoweredOn = 0;
+         int minInstances = 0;
+         int maxInstances = 0;
+         int delta = 0;
+         Set<String> candidateVmIds = null;
+         ClusterMap clusterMap = null;
+         /* The delta is decided and the candidates listed under the same read lock, so that there are as many candidates as the
+          *   counts that the delta was decided on say there are */
+         try {
+            clusterMap = getAndReadLockClusterMap();
+            ClusterSummary summary = clusterMap.getClusterSummary(_clusterId);
+            if (summary != null) {
+               numPoweredOff = summary.getNumComputeVMsForPowerState(false);
+               numPoweredOn = summary.getNumComputeVMsForPowerState(true);
+            }
+            minInstances = getIntExtraInfo(clusterMap, _clusterId, MIN_INSTANCES_EXTRA_INFO_KEY, 0);
+            maxInstances = getIntExtraInfo(clusterMap, _clusterId, MAX_INSTANCES_EXTRA_INFO_KEY, 0);
+            readExtraInfo(clusterMap, _clusterId, _context);
+            delta = _context.decideDelta(numPoweredOn, numPoweredOff, minInstances, maxInstances, System.currentTimeMillis());
+            /* The VMs are only listed once there is something to do, and then only those in the power state being changed */
+            if (delta != 0) {
+               candidateVmIds = clusterMap.listComputeVMsForClusterAndPowerState(_clusterId, (delta < 0));
+            }
+         } finally {
+            unlockClusterMap(clusterMap);
+         }
+         _log.fine("<%C"+_clusterId+"%C>: load="+_context.getLoad()+", poweredOn="+numPoweredOn+", poweredOff="+numPoweredOff+
+               ", min="+minInstances+", max="+maxInstances+", delta="+delta);
+         if (delta == 0) {
+            return null;
+         }
+
+         int targetSize = numPoweredOn + delta;
+         _log.log(VhmLevel.USER, "<%C"+_clusterId+"%C>: automatically "+((delta > 0) ? "enabling " : "disabling ")+Math.abs(delta)+
+               " compute nodes to have "+targetSize+" enabled; "+_context.describeDecision());
+         ClusterScaleDecision returnEvent = new ClusterScaleDecision(_clusterId);
+         ScaleTrace.beginOperation(_clusterId, (delta < 0));
+         if (delta > 0) {
+            Set<String> vmsToED = chooseVMsForTargetPowerState(_clusterId, delta, candidateVmIds, true);
+            if ((vmsToED != null) && !vmsToED.isEmpty()) {
+               Set<String> enabledTTs = _enableDisablePolicy.enableTTs(vmsToED, targetSize, _clusterId);
+               if (enabledTTs != null) {
+                  _log.fine("Enabled TTs: "+enabledTTs);
+                  returnEvent.addDecision(enabledTTs, ClusterScaleCompletionEvent.ENABLE);
+                  if (tlStatus.screenStatusesForSpecificFailures(new String[]{VCActions.VC_POWER_ON_STATUS_KEY})) {
+                     blockOnPowerStateChange(enabledTTs, true, 120000);
+                  }
+               } else {
+                  tlStatus.registerTaskFailed(false, "no task trackers were enabled successfully");
+               }
+            }
+         } else {
+            Set<String> vmsToED = chooseVMsForTargetPowerState(_clusterId, delta, candidateVmIds, false);
+            if ((vmsToED != null) && !vmsToED.isEmpty()) {
+               Set<String> disabledTTs = _enableDisablePolicy.disableTTs(vmsToED, targetSize, _clusterId);
+               if (disabledTTs != null) {
+                  _log.fine("Disabled TTs: "+disabledTTs);
+                  returnEvent.addDecision(disabledTTs, ClusterScaleCompletionEvent.DISABLE);
+                  if (tlStatus.screenStatusesForSpecificFailures(new String[]{VCActions.VC_POWER_OFF_STATUS_KEY})) {
+                     blockOnPowerStateChange(disabledTTs, false, 120000);
+                  }
+               } else {
+                  tlStatus.registerTaskFailed(false, "no task trackers were disabled successfully");
+               }
+            }
+         }
+         return returnEvent;
+      }
+   }
+
+   /* SerengetiLimitInstructions are exclusive, so there is at most one after VHM has consolidated the events */
+   private static SerengetiLimitInstruction getLimitInstruction(Set<ClusterScaleEvent> events) {
+      for (ClusterScaleEvent event : events) {
+         if (event instanceof SerengetiLimitInstruction) {
+            return (SerengetiLimitInstruction)event;
+         }
+      }
+      return null;
+   }
+
+   @Override
+   public ClusterScaleOperation getClusterScaleOperation(String clusterId, Set<ClusterScaleEvent> events, ScaleStrategyContext context) {
+      /* An explicit instruction from Serengeti takes precedence over the metrics, which will be refreshed by the time the next ones arrive */
+      SerengetiLimitInstruction limitInstruction = getLimitInstruction(events);
+      if (limitInstruction != null) {
+         Set<ClusterScaleEvent> limitEvents = new HashSet<ClusterScaleEvent>();
+         limitEvents.add(limitInstruction);
+         return _limitInstructionStrategy.getClusterScaleOperation(clusterId, limitEvents, null);
+      }
+      AutoScaleContext autoScaleContext = getStrategyContextType().isInstance(context) ? (AutoScaleContext)context : createContext();
+      return new CallableStrategy(clusterId, events, autoScaleContext);
+   }
+
+   @Override
+   public Class<? extends ScaleStrategyContext> getStrategyContextType() {
+      return AutoScaleContext.class;
+   }
+
+   @SuppressWarnings("unchecked")
+   @Override
+   public Class<? extends ClusterScaleEvent>[] getScaleEventTypesHandled() {
+      return new Class[]{JobTrackerMetricsEvent.class, VMUtilizationEvent.class, SerengetiLimitInstruction.class};
+   }
+
+   @Override
+   public String toString() {
+      return getKey();
+   }
+}
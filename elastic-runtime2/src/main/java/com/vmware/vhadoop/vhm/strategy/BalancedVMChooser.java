@@ -25,15 +25,17 @@ import java.util.Map.Entry;
 import java.util.PriorityQueue;
 import java.util.Queue;
 import java.util.Set;
-import java.util.logging.Logger;
+import java.util.logging.Level;
 
 import com.vmware.vhadoop.api.vhm.ClusterMap;
 import com.vmware.vhadoop.api.vhm.ClusterMapReader;
+import com.vmware.vhadoop.api.vhm.ClusterSummary;
 import com.vmware.vhadoop.api.vhm.strategy.VMChooser;
+import com.vmware.vhadoop.util.VhmLogger;
 import com.vmware.vhadoop.vhm.AbstractClusterMapReader;
 
 public class BalancedVMChooser extends AbstractClusterMapReader implements VMChooser, ClusterMapReader {
-   private static final Logger _log = Logger.getLogger(BalancedVMChooser.class.getName());
+   private static final VhmLogger _log = VhmLogger.getLogger(BalancedVMChooser.class.getName());
 
    private class HostInfo {
       public HostInfo(String hostId) {
@@ -78,32 +80,44 @@ public class BalancedVMChooser extends AbstractClusterMapReader implements VMCho
       ClusterMap clusterMap = null;
       try {
          clusterMap = getAndReadLockClusterMap();
+         /* A bulk query and the maintained summary rather than a lookup per candidate and a scan of the cluster per host */
+         Map<String, String> hostIdsForVMs = clusterMap.getHostIdsForVMs(candidateVmIds);
+         if (hostIdsForVMs == null) {
+            return null;
+         }
+         ClusterSummary summary = clusterMap.getClusterSummary(clusterId);
+         Map<String, Integer> poweredOnCountsByHost = (summary == null) ? null : summary.getComputeVMCountsByHostForPowerState(true);
          for (String vmId : candidateVmIds) {
-            String hostId = clusterMap.getHostIdForVm(vmId);
+            String hostId = hostIdsForVMs.get(vmId);
             if (hostId != null) {
                HostInfo hostInfo = hostMap.get(hostId);
                if (hostInfo == null) {
                   hostInfo = new HostInfo(hostId);
+                  if (poweredOnCountsByHost != null) {
+                     Integer poweredOn = poweredOnCountsByHost.get(hostId);
+                     if (poweredOn != null) {
+                        hostInfo._on = poweredOn;
+                     }
+                  }
                   hostMap.put(hostId, hostInfo);
                }
                hostInfo._candidates.add(vmId);
             }
          }
+      } finally {
+         unlockClusterMap(clusterMap);
+      }
+
+      _log.log(Level.FINE, "found %s candidate VMs across %s hosts for <%%C%s%%C>", candidateVmIds.size(), hostMap.size(), clusterId);
+      if (_log.isLoggable(Level.FINEST)) {
          for (Entry<String, HostInfo> entry : hostMap.entrySet()) {
-            Set<String> allVmsOnHostInPowerState = clusterMap.listComputeVMsForClusterHostAndPowerState(clusterId, entry.getKey(), true);
-            if (allVmsOnHostInPowerState != null) {
-               entry.getValue()._on = allVmsOnHostInPowerState.size();
-            }
-            Set<String> candidateVMs = entry.getValue()._candidates;
-            _log.info("found "+candidateVMs.size()+" candidate VMs on host "+entry.getKey());
-            for (String id : candidateVMs) {
-               _log.info("candidate VM on "+entry.getKey()+": <%V"+id);
+            _log.log(Level.FINEST, "found %s candidate VMs on host %s with %s powered on", entry.getValue()._candidates.size(), entry.getKey(), entry.getValue()._on);
+            for (String id : entry.getValue()._candidates) {
+               _log.finest("candidate VM on %s: <%%V%s%%V>", entry.getKey(), id);
             }
          }
-      } finally {
-         unlockClusterMap(clusterMap);
       }
-      
+
       return hostMap;
    }
    
@@ -125,7 +139,8 @@ public class BalancedVMChooser extends AbstractClusterMapReader implements VMCho
          if (organizedHosts != null) {
             Queue<HostInfo> orderedHosts = orderHosts(organizedHosts, targetPowerState);
             Set<RankedVM> result = rankVMs(orderedHosts, targetPowerState);
-            _log.info("BalancedVMChooser done ranking VMs for "+(targetPowerState ? "enabling" : "disabling")+": "+result);
+            _log.log(Level.INFO, "BalancedVMChooser ranked %s VMs across %s hosts for %s", result.size(), organizedHosts.size(), (targetPowerState ? "enabling" : "disabling"));
+            _log.fine("BalancedVMChooser done ranking VMs for %s: %s", (targetPowerState ? "enabling" : "disabling"), result);
             return result;
          }
       }
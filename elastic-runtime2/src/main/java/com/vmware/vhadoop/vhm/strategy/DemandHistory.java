@@ -0,0 +1,174 @@
+/***************************************************************************
+* Copyright (c) 2013 VMware, Inc. All Rights Reserved.
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+***************************************************************************/
+
+package com.vmware.vhadoop.vhm.strategy;
+
+import java.util.TimeZone;
+
+/**
+ * Learns the daily and weekly pattern of demand for compute nodes of a cluster, so that it can be predicted ahead of time
+ * The day is split into periods of a fixed length. The peak demand seen in each period is folded into an exponentially weighted
+ *   mean and variance for that period of the day and for that period of the week. The weekly curve is used once it has enough history
+ *   for a period, since it also captures the difference between weekdays and weekends. Until then the daily curve is used.
+ * Periods are in local time, so that the curves follow the working day.
+ * THREADING: Not thread-safe. It is expected to be owned by the scale strategy context of a cluster.
+ */
+public class DemandHistory {
+   private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+   private static final int DAYS_PER_WEEK = 7;
+
+   private final long _periodMillis;
+   private final double _weight;
+   private final int _minSamples;
+   private final TimeZone _timeZone;
+   private final Curve _daily;
+   private final Curve _weekly;
+
+   /* The period currently being observed and the highest demand seen in it so far */
+   private long _currentPeriod = -1;
+   private int _currentPeak;
+
+   public static class Forecast {
+      private final long _timeMillis;
+      private final double _demand;
+      private final double _confidence;
+
+      Forecast(long timeMillis, double demand, double confidence) {
+         _timeMillis = timeMillis;
+         _demand = demand;
+         _confidence = confidence;
+      }
+
+      /* The start of the period that the forecast is for, or the requested time if that is later */
+      public long getTimeMillis() {
+         return _timeMillis;
+      }
+
+      /* The expected peak number of compute nodes needed */
+      public double getDemand() {
+         return _demand;
+      }
+
+      /* Between 0 and 1. Grows with the history of the period and shrinks with its variability. */
+      public double getConfidence() {
+         return _confidence;
+      }
+
+      @Override
+      public String toString() {
+         return "Forecast{demand="+_demand+", confidence="+_confidence+"}";
+      }
+   }
+
+   private static class Curve {
+      final double[] _mean;
+      final double[] _variance;
+      final int[] _samples;
+
+      Curve(int periods) {
+         _mean = new double[periods];
+         _variance = new double[periods];
+         _samples = new int[periods];
+      }
+
+      void add(int period, int demand, double weight) {
+         if (_samples[period] == 0) {
+            _mean[period] = demand;
+            _variance[period] = 0;
+         } else {
+            double diff = demand - _mean[period];
+            _mean[period] += weight * diff;
+            _variance[period] = (1 - weight) * (_variance[period] + (weight * diff * diff));
+         }
+         if (_samples[period] < Integer.MAX_VALUE) {
+            _samples[period]++;
+         }
+      }
+   }
+
+   /**
+    * @param periodMillis The length of the periods of the day for which the demand is learned. Should divide the day.
+    * @param weight The weight given to the latest sample of a period, between 0 and 1. Higher values adapt faster but are noisier.
+    * @param minSamples The number of samples a period needs before it is forecast
+    */
+   public DemandHistory(long periodMillis, double weight, int minSamples, TimeZone timeZone) {
+      _periodMillis = Math.max(1, Math.min(periodMillis, DAY_MILLIS));
+      _weight = Math.max(0.0, Math.min(1.0, weight));
+      _minSamples = Math.max(1, minSamples);
+      _timeZone = timeZone;
+      int periodsPerDay = (int)(DAY_MILLIS / _periodMillis);
+      _daily = new Curve(periodsPerDay);
+      _weekly = new Curve(periodsPerDay * DAYS_PER_WEEK);
+   }
+
+   private long getPeriod(long timeMillis) {
+      return (timeMillis + _timeZone.getOffset(timeMillis)) / _periodMillis;
+   }
+
+   /* Records an observed demand. A period is learned once the observations move on to a later period. */
+   public void record(long timeMillis, int demand) {
+      long period = getPeriod(timeMillis);
+      if (period == _currentPeriod) {
+         _currentPeak = Math.max(_currentPeak, demand);
+         return;
+      }
+      if (period < _currentPeriod) {
+         /* Clock went backwards - just carry on with the current period */
+         return;
+      }
+      if (_currentPeriod >= 0) {
+         _daily.add((int)(_currentPeriod % _daily._samples.length), _currentPeak, _weight);
+         _weekly.add((int)(_currentPeriod % _weekly._samples.length), _currentPeak, _weight);
+      }
+      _currentPeriod = period;
+      _currentPeak = demand;
+   }
+
+   private Forecast forecast(Curve curve, long period, long timeMillis) {
+      int index = (int)(period % curve._samples.length);
+      int samples = curve._samples[index];
+      if (samples < _minSamples) {
+         return null;
+      }
+      double mean = curve._mean[index];
+      double stdDev = Math.sqrt(curve._variance[index]);
+      double consistency = ((mean + stdDev) > 0) ? mean / (mean + stdDev) : 1.0;
+      double confidence = ((double)samples / (samples + 1)) * consistency;
+      return new Forecast(timeMillis, mean, confidence);
+   }
+
+   /* Returns the forecast for the period containing the given time, or null if there isn't enough history for it */
+   public Forecast forecast(long timeMillis) {
+      long period = getPeriod(timeMillis);
+      Forecast result = forecast(_weekly, period, timeMillis);
+      if (result == null) {
+         result = forecast(_daily, period, timeMillis);
+      }
+      return result;
+   }
+
+   /* Returns the forecast with the highest demand of those between the two times with at least the given confidence, or null if there are none */
+   public Forecast forecastPeak(long fromMillis, long toMillis, double minConfidence) {
+      Forecast result = null;
+      for (long time = fromMillis; time <= toMillis; time = ((getPeriod(time) + 1) * _periodMillis) - _timeZone.getOffset(time)) {
+         Forecast forecast = forecast(time);
+         if ((forecast != null) && (forecast.getConfidence() >= minConfidence) &&
+               ((result == null) || (forecast.getDemand() > result.getDemand()))) {
+            result = forecast;
+         }
+      }
+      return result;
+   }
+}
@@ -44,6 +44,15 @@ public class DumbEDPolicy extends AbstractClusterMapReader implements EDPolicy {
    }
 
 
+   @Override
+   public Set<String> enableTTs(Set<String> toEnable, int totalTargetEnabled, String clusterId, EDProgressListener progressListener) throws Exception {
+      Set<String> result = enableTTs(toEnable, totalTargetEnabled, clusterId);
+      if ((progressListener != null) && (result != null)) {
+         progressListener.ttsCompleted(result, result.size(), toEnable.size());
+      }
+      return result;
+   }
+
    @Override
    public Set<String> disableTTs(Set<String> toDisable, int totalTargetEnabled, String clusterId) throws Exception {
       int disable = toDisable.size();
@@ -54,6 +63,15 @@ public class DumbEDPolicy extends AbstractClusterMapReader implements EDPolicy {
       return toDisable;    /* Clue is in the title: Dumby assume it worked */
    }
 
+   @Override
+   public Set<String> disableTTs(Set<String> toDisable, int totalTargetEnabled, String clusterId, EDProgressListener progressListener) throws Exception {
+      Set<String> result = disableTTs(toDisable, totalTargetEnabled, clusterId);
+      if ((progressListener != null) && (result != null)) {
+         progressListener.ttsCompleted(result, result.size(), toDisable.size());
+      }
+      return result;
+   }
+
    @Override
    public Set<String> getActiveTTs(String clusterId) throws Exception {
       return null;
@@ -0,0 +1,218 @@
+/***************************************************************************
+* Copyright (c) 2013 VMware, Inc. All Rights Reserved.
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+***************************************************************************/
+
+package com.vmware.vhadoop.vhm.strategy;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.vmware.vhadoop.api.vhm.ClusterMap;
+import com.vmware.vhadoop.api.vhm.ClusterMapReader;
+import com.vmware.vhadoop.api.vhm.ClusterSummary;
+import com.vmware.vhadoop.api.vhm.PerformanceStats;
+import com.vmware.vhadoop.api.vhm.PerformanceStats.Metric;
+import com.vmware.vhadoop.api.vhm.strategy.VMChooser;
+import com.vmware.vhadoop.util.ExternalizedParameters;
+import com.vmware.vhadoop.vhm.AbstractClusterMapReader;
+
+/**
+ * Ranks VMs by the contention on their hosts, as sampled from the VC performance manager by the PerformanceStatsSampler
+ * Each host is given a load, which is the sum of its mean CPU ready, memory usage and disk latency over the sample window, each relative
+ *   to a configured limit. VMs to enable are ranked on the least loaded hosts first and VMs to disable on the most loaded hosts first. Each TaskTracker is assumed
+ *   to contribute the average load of the compute VMs already powered on on its host, so that the ranking spreads across hosts as
+ *   the projected load of the favored host changes.
+ * If no stats are available, the ranking methods return null so that the choice is left to the other VMChoosers
+ */
+public class HostStatsVMChooser extends AbstractClusterMapReader implements VMChooser, ClusterMapReader {
+   private static final Logger _log = Logger.getLogger(HostStatsVMChooser.class.getName());
+
+   private static final double CPU_READY_PERCENT_LIMIT = ExternalizedParameters.get().getDouble("HOST_STATS_CPU_READY_PERCENT_LIMIT");
+   private static final double MEM_USAGE_PERCENT_LIMIT = ExternalizedParameters.get().getDouble("HOST_STATS_MEM_USAGE_PERCENT_LIMIT");
+   private static final double DISK_LATENCY_MILLIS_LIMIT = ExternalizedParameters.get().getDouble("HOST_STATS_DISK_LATENCY_MILLIS_LIMIT");
+
+   /* The smallest load a single VM is assumed to add, so that idle hosts are still spread across */
+   static final double MIN_LOAD_PER_VM = 0.01;
+
+   private final PerformanceStats _performanceStats;
+
+   private class HostLoad {
+      public HostLoad(String hostId) {
+         _hostId = hostId;
+      }
+      String _hostId;
+      Set<String> _candidates = new LinkedHashSet<String>();
+      int _on;
+      double _projectedLoad;
+      double _loadPerVm;
+   }
+
+   public HostStatsVMChooser(PerformanceStats performanceStats) {
+      _performanceStats = performanceStats;
+   }
+
+   /* Returns the load of a host, where 1.0 means that one of the stats is at its limit, or null if there are no usable stats */
+   private Double getLoad(String hostId) {
+      Double cpuReadyPercent = _performanceStats.getMean(hostId, Metric.HOST_CPU_READY_PERCENT);
+      Double memUsagePercent = _performanceStats.getMean(hostId, Metric.HOST_MEM_USAGE_PERCENT);
+      Double diskLatencyMillis = _performanceStats.getMean(hostId, Metric.HOST_DISK_LATENCY_MILLIS);
+      if ((cpuReadyPercent == null) && (memUsagePercent == null) && (diskLatencyMillis == null)) {
+         return null;
+      }
+      double load = 0;
+      if (cpuReadyPercent != null) {
+         load += cpuReadyPercent / CPU_READY_PERCENT_LIMIT;
+      }
+      if (memUsagePercent != null) {
+         load += memUsagePercent / MEM_USAGE_PERCENT_LIMIT;
+      }
+      if (diskLatencyMillis != null) {
+         load += diskLatencyMillis / DISK_LATENCY_MILLIS_LIMIT;
+      }
+      return load;
+   }
+
+   private Map<String, HostLoad> organizeVMsByHost(String clusterId, Set<String> candidateVmIds) {
+      Map<String, HostLoad> hostMap = new HashMap<String, HostLoad>();
+
+      ClusterMap clusterMap = null;
+      try {
+         clusterMap = getAndReadLockClusterMap();
+         Map<String, String> hostIdsForVMs = clusterMap.getHostIdsForVMs(candidateVmIds);
+         if (hostIdsForVMs == null) {
+            return null;
+         }
+         ClusterSummary summary = clusterMap.getClusterSummary(clusterId);
+         Map<String, Integer> poweredOnCountsByHost = (summary == null) ? null : summary.getComputeVMCountsByHostForPowerState(true);
+         for (String vmId : candidateVmIds) {
+            String hostId = hostIdsForVMs.get(vmId);
+            if (hostId != null) {
+               HostLoad hostLoad = hostMap.get(hostId);
+               if (hostLoad == null) {
+                  hostLoad = new HostLoad(hostId);
+                  if ((poweredOnCountsByHost != null) && (poweredOnCountsByHost.get(hostId) != null)) {
+                     hostLoad._on = poweredOnCountsByHost.get(hostId);
+                  }
+                  hostMap.put(hostId, hostLoad);
+               }
+               hostLoad._candidates.add(vmId);
+            }
+         }
+      } finally {
+         unlockClusterMap(clusterMap);
+      }
+      return hostMap.isEmpty() ? null : hostMap;
+   }
+
+   /* Returns false if there are no stats for any of the hosts */
+   private boolean computeLoads(Map<String, HostLoad> hostMap) {
+      double totalLoad = 0;
+      int hostsWithLoad = 0;
+      Map<String, Double> loads = new HashMap<String, Double>();
+      for (String hostId : hostMap.keySet()) {
+         Double load = getLoad(hostId);
+         if (load != null) {
+            loads.put(hostId, load);
+            totalLoad += load;
+            hostsWithLoad++;
+         }
+      }
+      if (hostsWithLoad == 0) {
+         return false;
+      }
+
+      /* Hosts without stats are assumed to be averagely loaded, so that they are neither favored nor avoided */
+      double averageLoad = totalLoad / hostsWithLoad;
+      for (HostLoad hostLoad : hostMap.values()) {
+         Double load = loads.get(hostLoad._hostId);
+         hostLoad._projectedLoad = (load != null) ? load : averageLoad;
+         hostLoad._loadPerVm = Math.max(MIN_LOAD_PER_VM, hostLoad._projectedLoad / Math.max(1, hostLoad._on));
+         if (_log.isLoggable(Level.FINE)) {
+            _log.fine("Host "+hostLoad._hostId+" has load "+hostLoad._projectedLoad+((load == null) ? " (no stats)" : "")+" with "+hostLoad._on+" compute VMs powered on");
+         }
+      }
+      return true;
+   }
+
+   private Set<RankedVM> rankVMs(Map<String, HostLoad> hostMap, final boolean targetPowerState) {
+      Comparator<HostLoad> comparator = new Comparator<HostLoad>() {
+         @Override
+         public int compare(HostLoad a, HostLoad b) {
+            return Double.compare(a._projectedLoad, b._projectedLoad);
+         }
+      };
+      PriorityQueue<HostLoad> orderedHosts = new PriorityQueue<HostLoad>(hostMap.size(),
+            targetPowerState ? comparator : Collections.reverseOrder(comparator));
+      orderedHosts.addAll(hostMap.values());
+
+      Set<RankedVM> result = new HashSet<RankedVM>();
+      int rank = 0;
+      HostLoad current;
+      while ((current = orderedHosts.poll()) != null) {
+         Iterator<String> itr = current._candidates.iterator();
+         if (itr.hasNext()) {
+            result.add(new RankedVM(itr.next(), rank++));
+            itr.remove();
+            current._projectedLoad += targetPowerState ? current._loadPerVm : -current._loadPerVm;
+         }
+         if (itr.hasNext()) {
+            orderedHosts.add(current);
+         }
+      }
+      return result;
+   }
+
+   private Set<RankedVM> rankVMsForTargetPowerState(String clusterId, Set<String> candidateVmIds, boolean targetPowerState) {
+      if ((candidateVmIds == null) || candidateVmIds.isEmpty()) {
+         return null;
+      }
+      Map<String, HostLoad> hostMap = organizeVMsByHost(clusterId, candidateVmIds);
+      if ((hostMap == null) || !computeLoads(hostMap)) {
+         _log.fine("HostStatsVMChooser has no host stats to rank VMs for <%C"+clusterId);
+         return null;
+      }
+      Set<RankedVM> result = rankVMs(hostMap, targetPowerState);
+      _log.info("HostStatsVMChooser ranked "+result.size()+" VMs across "+hostMap.size()+" hosts for "+(targetPowerState ? "enabling" : "disabling"));
+      return result;
+   }
+
+   @Override
+   public Set<RankedVM> rankVMsToEnable(String clusterId, Set<String> candidateVmIds) {
+      return rankVMsForTargetPowerState(clusterId, candidateVmIds, true);
+   }
+
+   @Override
+   public Set<RankedVM> rankVMsToDisable(String clusterId, Set<String> candidateVmIds) {
+      return rankVMsForTargetPowerState(clusterId, candidateVmIds, false);
+   }
+
+   @Override
+   public Set<String> chooseVMsToEnable(String clusterId, Set<String> candidateVmIds) {
+      return null;
+   }
+
+   @Override
+   public Set<String> chooseVMsToDisable(String clusterId, Set<String> candidateVmIds) {
+      return null;
+   }
+}
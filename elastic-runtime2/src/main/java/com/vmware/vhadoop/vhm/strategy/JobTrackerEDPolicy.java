@@ -15,19 +15,24 @@
 
 package com.vmware.vhadoop.vhm.strategy;
 
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 import java.util.logging.Logger;
 
 import com.vmware.vhadoop.api.vhm.ClusterMap;
+import com.vmware.vhadoop.api.vhm.ClusterMap.VMFieldWatcher;
 import com.vmware.vhadoop.api.vhm.HadoopActions;
+import com.vmware.vhadoop.api.vhm.HadoopActions.ActiveTTsListener;
 import com.vmware.vhadoop.api.vhm.HadoopActions.HadoopClusterInfo;
 import com.vmware.vhadoop.api.vhm.VCActions;
 import com.vmware.vhadoop.api.vhm.strategy.EDPolicy;
 import com.vmware.vhadoop.util.CompoundStatus;
 import com.vmware.vhadoop.util.ExternalizedParameters;
 import com.vmware.vhadoop.util.LogFormatter;
+import com.vmware.vhadoop.util.ScaleTrace;
+import com.vmware.vhadoop.util.ScaleTrace.Phase;
 import com.vmware.vhadoop.util.VhmLevel;
 import com.vmware.vhadoop.vhm.AbstractClusterMapReader;
 
@@ -39,10 +44,28 @@ public class JobTrackerEDPolicy extends AbstractClusterMapReader implements EDPo
 
    private static final long MAX_DNS_WAIT_TIME_MILLIS = ExternalizedParameters.get().getLong("MAX_DNS_WAIT_TIME_MILLIS");
    private static final long MAX_DNS_WAIT_SLEEP_TIME_MILLIS = ExternalizedParameters.get().getLong("MAX_DNS_WAIT_SLEEP_TIME_MILLIS");
+   private static final long MAX_TT_VERIFICATION_TIME_MILLIS = ExternalizedParameters.get().getLong("MAX_TT_VERIFICATION_TIME_MILLIS");
+   private static final boolean PIPELINED_ENABLE_TTS = ExternalizedParameters.get().getBoolean("PIPELINED_ENABLE_TTS");
+   private static final boolean PIPELINED_DISABLE_TTS = ExternalizedParameters.get().getBoolean("PIPELINED_DISABLE_TTS");
+
+   private final boolean _pipelinedEnableTTs;
+   private final boolean _pipelinedDisableTTs;
+   private final long _maxDnsWaitMillis;
+   private final long _maxVerificationMillis;
 
    public JobTrackerEDPolicy(HadoopActions hadoopActions, VCActions vcActions) {
+      this(hadoopActions, vcActions, PIPELINED_ENABLE_TTS, PIPELINED_DISABLE_TTS, MAX_DNS_WAIT_TIME_MILLIS, MAX_TT_VERIFICATION_TIME_MILLIS);
+   }
+
+   /* Allows the pipelining and timeouts to be chosen independently of the externalized parameters, eg. for testing */
+   JobTrackerEDPolicy(HadoopActions hadoopActions, VCActions vcActions, boolean pipelinedEnableTTs, boolean pipelinedDisableTTs,
+         long maxDnsWaitMillis, long maxVerificationMillis) {
       _hadoopActions = hadoopActions;
       _vcActions = vcActions;
+      _pipelinedEnableTTs = pipelinedEnableTTs;
+      _pipelinedDisableTTs = pipelinedDisableTTs;
+      _maxDnsWaitMillis = maxDnsWaitMillis;
+      _maxVerificationMillis = maxVerificationMillis;
    }
 
    /* This method blocks until it has made all reasonable efforts to determine that the TTs have been successfully registered with the JT
@@ -55,6 +78,11 @@ public class JobTrackerEDPolicy extends AbstractClusterMapReader implements EDPo
     */
    @Override
    public Set<String> enableTTs(Set<String> ttVmIds, int totalTargetEnabled, String clusterId) throws Exception {
+      return enableTTs(ttVmIds, totalTargetEnabled, clusterId, null);
+   }
+
+   @Override
+   public Set<String> enableTTs(Set<String> ttVmIds, int totalTargetEnabled, String clusterId, EDProgressListener progressListener) throws Exception {
       HadoopClusterInfo hadoopCluster = null;
       Set<String> successfulIds = null;
 
@@ -73,22 +101,37 @@ public class JobTrackerEDPolicy extends AbstractClusterMapReader implements EDPo
          _log.log(VhmLevel.USER, "<%C"+clusterId+"%C>: "+constructUserLogMessage(ttVmIds, null, false));
 
          /* pass ttVMids in here for now - this is currently bogus but harmless - all this does currently is delete any exclude list */
+         long spanStart = ScaleTrace.startSpan();
          _hadoopActions.recommissionTTs(ttVmIds, hadoopCluster);
+         ScaleTrace.endSpan(Phase.RECOMMISSION, spanStart, clusterId, ttVmIds, true);
 
-         if (_vcActions.changeVMPowerState(ttVmIds, true) == null) {
+         spanStart = ScaleTrace.startSpan();
+         boolean poweredOn = (_vcActions.changeVMPowerState(ttVmIds, true) != null);
+         ScaleTrace.endSpan(Phase.POWER_ON, spanStart, clusterId, ttVmIds, poweredOn);
+         if (!poweredOn) {
             status.registerTaskFailed(false, "failed to change VM power state in vCenter");
             _log.log(VhmLevel.USER, "<%C"+clusterId+"%C>: failed to power on task trackers");
          } else {
             if (status.screenStatusesForSpecificFailures(new String[]{VCActions.VC_POWER_ON_STATUS_KEY})) {
-               Set<String> newDnsNames = blockAndGetDnsNamesForVmIdsWithoutCachedDns(ttVmIds, MAX_DNS_WAIT_TIME_MILLIS);
+               if (_pipelinedEnableTTs) {
+                  return enableTTsPipelined(ttVmIds, totalTargetEnabled, hadoopCluster, progressListener);
+               }
+               spanStart = ScaleTrace.startSpan();
+               Set<String> newDnsNames = blockAndGetDnsNamesForVmIdsWithoutCachedDns(ttVmIds, _maxDnsWaitMillis);
+               ScaleTrace.endSpan(Phase.DNS_WAIT, spanStart, clusterId, ttVmIds, (newDnsNames != null));
                if (newDnsNames != null) {
                   /* Returns only successfully enabled VMs from the input set */
                   long checkTime = System.currentTimeMillis();
+                  spanStart = ScaleTrace.startSpan();
                   Set<String> activeDnsNames = _hadoopActions.checkTargetTTsSuccess("Recommission", newDnsNames, totalTargetEnabled, hadoopCluster);
                   Set<String> activeVmIds = getActiveVmIds(activeDnsNames);
+                  ScaleTrace.endSpan(Phase.TT_VERIFICATION, spanStart, clusterId, ttVmIds, (activeVmIds != null) && activeVmIds.containsAll(ttVmIds));
                   if (activeVmIds != null) {
                      successfulIds = new HashSet<String>(ttVmIds);
                      successfulIds.retainAll(activeVmIds);
+                     if (progressListener != null) {
+                        progressListener.ttsCompleted(successfulIds, successfulIds.size(), ttVmIds.size());
+                     }
                   }
                   _log.info("TIMING: Power on to DNS resolution in "+(checkTime-initTime)+"ms; TT verification in "+(System.currentTimeMillis()-checkTime)+"ms");
                } else {
@@ -100,6 +143,123 @@ public class JobTrackerEDPolicy extends AbstractClusterMapReader implements EDPo
          }
       }
       return successfulIds;
+   }
+
+   /* Each VM progresses independently from power-on to having a DNS name to being recommissioned and verified, so that a slow-booting
+    * VM only holds back itself. Whichever VMs have a DNS name each time around the loop are recommissioned and verified together, so
+    * VMs that come up while a batch is being verified are picked up in the next batch. The VMs must already have been powered on.
+    * The wait for hostnames and the verification of the batches have separate time limits, so a slow job tracker doesn't use up the
+    * time allowed for the VMs to boot, and VMs which have a hostname are not verified indefinitely.
+    *
+    * Method returns a set of enabled VM IDs from the input set of VMs
+    */
+   private Set<String> enableTTsPipelined(Set<String> ttVmIds, int totalTargetEnabled, HadoopClusterInfo hadoopCluster, EDProgressListener progressListener) {
+      CompoundStatus status = getCompoundStatus();
+      String clusterId = hadoopCluster.getClusterId();
+      long initTime = System.currentTimeMillis();
+      /* The time spent verifying batches is added back on to the DNS wait deadline, as the VMs carry on booting meanwhile */
+      long endTime = initTime + _maxDnsWaitMillis;
+      long verificationMillis = 0;
+      /* Each VM gets its own DNS wait span, measured from the power on of the whole set */
+      long dnsWaitStart = ScaleTrace.startSpan();
+      Set<String> watchedVmIds = new HashSet<String>(ttVmIds);
+      Set<String> pendingVmIds = new HashSet<String>(ttVmIds);
+      Set<String> successfulIds = new HashSet<String>();
+      boolean foundDnsNames = false;
+      int batchNumber = 0;
+
+      DnsNameWatcher watcher = new DnsNameWatcher();
+      boolean watcherAdded = false;
+      try {
+         while (!pendingVmIds.isEmpty() && (System.currentTimeMillis() <= endTime)) {
+            if (verificationMillis >= _maxVerificationMillis) {
+               _log.info("Task tracker verification took longer than "+_maxVerificationMillis+"ms; not verifying "+LogFormatter.constructListOfLoggableVms(pendingVmIds));
+               break;
+            }
+            Map<String, String> readyDnsNames = new HashMap<String, String>();
+            ClusterMap clusterMap = null;
+            try {
+               clusterMap = getAndReadLockClusterMap();
+               /* Adding the watcher under the same read lock as the first check ensures that no update can be missed */
+               if (!watcherAdded) {
+                  clusterMap.addVMFieldWatcher(watchedVmIds, watcher);
+                  watcherAdded = true;
+               }
+               Map<String, String> dnsNameMap = clusterMap.getDnsNamesForVMs(pendingVmIds);
+               if (dnsNameMap == null) {
+                  break;            /* This would mean that our vmIds themselves have become invalid, which would only occur if vms are deleted */
+               }
+               for (Map.Entry<String, String> entry : dnsNameMap.entrySet()) {
+                  if ((entry.getValue() != null) && (entry.getValue().trim().length() > 0)) {
+                     readyDnsNames.put(entry.getKey(), entry.getValue());
+                  }
+               }
+            } finally {
+               unlockClusterMap(clusterMap);
+            }
+
+            if (readyDnsNames.isEmpty() || !validateDnsNames(new HashSet<String>(readyDnsNames.values()))) {
+               _log.info("Looking for valid hostname reported by "+LogFormatter.constructListOfLoggableVms(pendingVmIds));
+               watcher.waitForChange(Math.min(endTime - System.currentTimeMillis(), MAX_DNS_WAIT_SLEEP_TIME_MILLIS));
+               continue;
+            }
+
+            foundDnsNames = true;
+            pendingVmIds.removeAll(readyDnsNames.keySet());
+            for (String vmId : readyDnsNames.keySet()) {
+               ScaleTrace.endSpan(Phase.DNS_WAIT, dnsWaitStart, clusterId, vmId, 1, true);
+            }
+            long batchTime = System.currentTimeMillis();
+            Set<String> batchDnsNames = new HashSet<String>(readyDnsNames.values());
+            _log.info("Recommissioning batch "+(++batchNumber)+" of "+batchDnsNames.size()+" task trackers; "+pendingVmIds.size()+" still waiting for a hostname");
+            long spanStart = ScaleTrace.startSpan();
+            _hadoopActions.recommissionTTs(new HashSet<String>(batchDnsNames), hadoopCluster);
+            ScaleTrace.endSpan(Phase.RECOMMISSION, spanStart, clusterId, readyDnsNames.keySet(), true);
+
+            /* The VMs still waiting for a hostname can't be active yet, so they are not part of the target for this batch */
+            spanStart = ScaleTrace.startSpan();
+            Set<String> activeDnsNames = _hadoopActions.checkTargetTTsSuccess("Recommission", batchDnsNames, totalTargetEnabled - pendingVmIds.size(), hadoopCluster);
+            Set<String> activeVmIds = getActiveVmIds(activeDnsNames);
+            Set<String> batchSuccessfulIds = new HashSet<String>(readyDnsNames.keySet());
+            if (activeVmIds != null) {
+               batchSuccessfulIds.retainAll(activeVmIds);
+            } else {
+               batchSuccessfulIds.clear();
+            }
+            successfulIds.addAll(batchSuccessfulIds);
+            ScaleTrace.endSpan(Phase.TT_VERIFICATION, spanStart, clusterId, readyDnsNames.keySet(), (batchSuccessfulIds.size() == readyDnsNames.size()));
+            long batchMillis = System.currentTimeMillis() - batchTime;
+            verificationMillis += batchMillis;
+            endTime += batchMillis;
+            _log.info("TIMING: Batch "+batchNumber+" power on to DNS resolution in "+(batchTime-initTime)+"ms; TT verification in "+batchMillis+"ms");
+
+            if ((progressListener != null) && !batchSuccessfulIds.isEmpty()) {
+               progressListener.ttsCompleted(batchSuccessfulIds, successfulIds.size(), ttVmIds.size());
+            }
+         }
+      } finally {
+         if (watcherAdded) {
+            ClusterMap clusterMap = null;
+            try {
+               clusterMap = getAndReadLockClusterMap();
+               clusterMap.removeVMFieldWatcher(watchedVmIds, watcher);
+            } finally {
+               unlockClusterMap(clusterMap);
+            }
+         }
+      }
+
+      if (!foundDnsNames) {
+         status.registerTaskFailed(false, "hostnames published by task trackers could not be obtained");
+         return null;
+      }
+      if (!pendingVmIds.isEmpty()) {
+         _log.info("No valid hostname reported by "+LogFormatter.constructListOfLoggableVms(pendingVmIds));
+         for (String vmId : pendingVmIds) {
+            ScaleTrace.endSpan(Phase.DNS_WAIT, dnsWaitStart, clusterId, vmId, 1, false);
+         }
+      }
+      return successfulIds;
    }
 
    /* This method blocks until it has made all reasonable efforts to determine that the TTs have been successfully unregistered with the JT
@@ -112,6 +272,11 @@ public class JobTrackerEDPolicy extends AbstractClusterMapReader implements EDPo
     */
    @Override
    public Set<String> disableTTs(Set<String> ttVmIds, int totalTargetEnabled, String clusterId) throws Exception {
+      return disableTTs(ttVmIds, totalTargetEnabled, clusterId, null);
+   }
+
+   @Override
+   public Set<String> disableTTs(Set<String> ttVmIds, int totalTargetEnabled, String clusterId, EDProgressListener progressListener) throws Exception {
       Map<String, String> dnsNameMap = null;
       HadoopClusterInfo hadoopCluster = null;
       Set<String> successfulIds = null;
@@ -136,18 +301,26 @@ public class JobTrackerEDPolicy extends AbstractClusterMapReader implements EDPo
 
          _log.log(VhmLevel.USER, "<%C"+clusterId+"%C>: "+constructUserLogMessage(vmIdsWithInvalidDns, validDnsNames, true));
 
+         if (_pipelinedDisableTTs) {
+            return disableTTsStreaming(ttVmIds, dnsNameMap, vmIdsWithInvalidDns, validDnsNames, newTargetEnabled, hadoopCluster, progressListener);
+         }
+
          /* Only send TTs with valid dnsNames to be properly decommissioned - the rest will just be powered off */
          if (validDnsNames != null) {
+            long spanStart = ScaleTrace.startSpan();
             _hadoopActions.decommissionTTs(validDnsNames, hadoopCluster);
+            ScaleTrace.endSpan(Phase.DECOMMISSION, spanStart, clusterId, null, validDnsNames.size(), true);
          }
 
          if (status.screenStatusesForSpecificFailures(new String[]{"decomRecomTTs"})) {
             long checkTime = System.currentTimeMillis();
+            long spanStart = ScaleTrace.startSpan();
             /* Returns enabled TTs in this cluster */
             Set<String> activeDnsNames = _hadoopActions.checkTargetTTsSuccess("Decommission", validDnsNames, newTargetEnabled, hadoopCluster);
             /* This is the list of what we successfully de-commissioned */
             successfulIds = getVmIdSubset(ttVmIds, getActiveVmIds(activeDnsNames));
             Set<String> unsuccessfulIds = getVmIdSubset(ttVmIds, successfulIds);
+            ScaleTrace.endSpan(Phase.TT_VERIFICATION, spanStart, clusterId, ttVmIds, unsuccessfulIds.isEmpty());
             if (!unsuccessfulIds.isEmpty()) {
                _log.log(VhmLevel.USER, "<%C"+clusterId+"%C>: the following task trackers failed to decommission cleanly: "+LogFormatter.constructListOfLoggableVms(unsuccessfulIds));
             } else {
@@ -155,12 +328,101 @@ public class JobTrackerEDPolicy extends AbstractClusterMapReader implements EDPo
             }
          }
          /* Power off all the VMs, decommissioned or not - note this does not block */
-         if (_vcActions.changeVMPowerState(ttVmIds, false) == null) {
-            status.registerTaskFailed(false, "Failed to change VM power state in vCenter");
-            _log.log(VhmLevel.USER, "<%C"+clusterId+"%C>: unexpected vCenter error powering off task trackers");
+         powerOffTTs(ttVmIds, clusterId);
+         if (progressListener != null) {
+            progressListener.ttsCompleted(ttVmIds, ttVmIds.size(), ttVmIds.size());
          }
       }
       return successfulIds;
+   }
+
+   /* Powers off each TT as soon as the job tracker no longer lists it as active, rather than waiting for all of them to be decommissioned.
+    * The VMs which have no valid DNS name can't be decommissioned, so they are powered off straight away. As with the non-streaming
+    * disable, anything which is still active once the check completes is powered off regardless.
+    *
+    * Method returns set of VMs successfully decommissioned
+    */
+   private Set<String> disableTTsStreaming(final Set<String> ttVmIds, Map<String, String> dnsNameMap, Set<String> vmIdsWithInvalidDns, Set<String> validDnsNames,
+         int newTargetEnabled, HadoopClusterInfo hadoopCluster, final EDProgressListener progressListener) {
+      CompoundStatus status = getCompoundStatus();
+      final String clusterId = hadoopCluster.getClusterId();
+      final Set<String> poweredOffVmIds = new HashSet<String>();
+      Set<String> successfulIds = null;
+      long initTime = System.currentTimeMillis();
+
+      if (vmIdsWithInvalidDns != null) {
+         powerOffTTsAndReportProgress(vmIdsWithInvalidDns, poweredOffVmIds, ttVmIds.size(), clusterId, progressListener);
+      }
+
+      /* Only send TTs with valid dnsNames to be properly decommissioned */
+      if (validDnsNames != null) {
+         long spanStart = ScaleTrace.startSpan();
+         _hadoopActions.decommissionTTs(validDnsNames, hadoopCluster);
+         ScaleTrace.endSpan(Phase.DECOMMISSION, spanStart, clusterId, null, validDnsNames.size(), true);
+      }
+
+      if (status.screenStatusesForSpecificFailures(new String[]{"decomRecomTTs"})) {
+         final Map<String, String> vmIdsForDnsNames = new HashMap<String, String>();
+         for (Map.Entry<String, String> entry : dnsNameMap.entrySet()) {
+            if ((validDnsNames != null) && validDnsNames.contains(entry.getValue())) {
+               vmIdsForDnsNames.put(entry.getValue(), entry.getKey());
+            }
+         }
+
+         long checkTime = System.currentTimeMillis();
+         long spanStart = ScaleTrace.startSpan();
+         Set<String> toCheck = (validDnsNames == null) ? null : new HashSet<String>(validDnsNames);
+         Set<String> activeDnsNames = _hadoopActions.checkTargetTTsSuccess("Decommission", toCheck, newTargetEnabled, hadoopCluster, new ActiveTTsListener() {
+            @Override
+            public void activeTTsChanged(Set<String> activeTTDnsNames) {
+               Set<String> decommissionedVmIds = new HashSet<String>();
+               for (Map.Entry<String, String> entry : vmIdsForDnsNames.entrySet()) {
+                  if (!activeTTDnsNames.contains(entry.getKey()) && !poweredOffVmIds.contains(entry.getValue())) {
+                     decommissionedVmIds.add(entry.getValue());
+                  }
+               }
+               if (!decommissionedVmIds.isEmpty()) {
+                  _log.info("Powering off decommissioned task trackers "+LogFormatter.constructListOfLoggableVms(decommissionedVmIds));
+                  powerOffTTsAndReportProgress(decommissionedVmIds, poweredOffVmIds, ttVmIds.size(), clusterId, progressListener);
+               }
+            }
+         });
+         /* This is the list of what we successfully de-commissioned */
+         successfulIds = getVmIdSubset(ttVmIds, getActiveVmIds(activeDnsNames));
+         Set<String> unsuccessfulIds = getVmIdSubset(ttVmIds, successfulIds);
+         ScaleTrace.endSpan(Phase.TT_VERIFICATION, spanStart, clusterId, ttVmIds, unsuccessfulIds.isEmpty());
+         if (!unsuccessfulIds.isEmpty()) {
+            _log.log(VhmLevel.USER, "<%C"+clusterId+"%C>: the following task trackers failed to decommission cleanly: "+LogFormatter.constructListOfLoggableVms(unsuccessfulIds));
+         } else {
+            _log.info("TIMING: Decommission in "+(checkTime-initTime)+"ms; TT verification and power off in "+(System.currentTimeMillis()-checkTime)+"ms");
+         }
+      }
+
+      /* Power off the rest of the VMs, decommissioned or not */
+      Set<String> remainingVmIds = getVmIdSubset(ttVmIds, poweredOffVmIds);
+      if (!remainingVmIds.isEmpty()) {
+         powerOffTTsAndReportProgress(remainingVmIds, poweredOffVmIds, ttVmIds.size(), clusterId, progressListener);
+      }
+      return successfulIds;
+   }
+
+   private void powerOffTTsAndReportProgress(Set<String> vmIds, Set<String> poweredOffVmIds, int totalRequested, String clusterId, EDProgressListener progressListener) {
+      powerOffTTs(vmIds, clusterId);
+      poweredOffVmIds.addAll(vmIds);
+      if (progressListener != null) {
+         progressListener.ttsCompleted(vmIds, poweredOffVmIds.size(), totalRequested);
+      }
+   }
+
+   /* Note this does not block */
+   private void powerOffTTs(Set<String> vmIds, String clusterId) {
+      long spanStart = ScaleTrace.startSpan();
+      boolean poweredOff = (_vcActions.changeVMPowerState(vmIds, false) != null);
+      ScaleTrace.endSpan(Phase.POWER_OFF, spanStart, clusterId, vmIds, poweredOff);
+      if (!poweredOff) {
+         getCompoundStatus().registerTaskFailed(false, "Failed to change VM power state in vCenter");
+         _log.log(VhmLevel.USER, "<%C"+clusterId+"%C>: unexpected vCenter error powering off task trackers");
+      }
    }
 
    private Set<String> getVmIdsWithInvalidDnsNames(Map<String, String> dnsNameMap) {
@@ -181,34 +443,74 @@ public class JobTrackerEDPolicy extends AbstractClusterMapReader implements EDPo
       return _hadoopActions.validateTtHostNames(dnsNames);
    }
 
+   /* Wakes up a thread waiting for DNS names as soon as ClusterMap is updated with one */
+   private static class DnsNameWatcher implements VMFieldWatcher {
+      private boolean _changed;
+
+      @Override
+      public synchronized void vmFieldChanged(String vmId, String fieldName, Object newValue) {
+         if (ClusterMap.VM_FIELD_DNS_NAME.equals(fieldName)) {
+            _changed = true;
+            notifyAll();
+         }
+      }
+
+      /* Returns immediately if there has been a change since the last call */
+      synchronized void waitForChange(long timeoutMillis) {
+         if (!_changed && (timeoutMillis > 0)) {
+            try {
+               wait(timeoutMillis);
+            } catch (InterruptedException e) {}
+         }
+         _changed = false;
+      }
+   }
+
+   /* Waits for ClusterMap to be updated with DNS names for the VMs. The wait is woken by a VMFieldWatcher as soon as a DNS name arrives,
+    * but validateDnsNames may depend on more than ClusterMap, so it is rechecked every MAX_DNS_WAIT_SLEEP_TIME_MILLIS regardless */
    private Set<String> blockAndGetDnsNamesForVmIdsWithoutCachedDns(Set<String> vmIdsWithInvalidDns, long timeoutMillis) {
       long endTime = System.currentTimeMillis() + timeoutMillis;
       Set<String> result = null;
-      int retryTimes = 0;
       if (vmIdsWithInvalidDns != null) {
-         do {
-            ClusterMap clusterMap = null;
-            Map<String, String> newDnsNameMap = null;
-            try {
-               clusterMap = getAndReadLockClusterMap();
-               newDnsNameMap = clusterMap.getDnsNamesForVMs(vmIdsWithInvalidDns);
-               if (newDnsNameMap == null) {
-                  return null;         /* This would mean that our vmIds themselves have become invalid, which would only occur if vms are deleted */
+         DnsNameWatcher watcher = new DnsNameWatcher();
+         boolean watcherAdded = false;
+         try {
+            do {
+               ClusterMap clusterMap = null;
+               Map<String, String> newDnsNameMap = null;
+               try {
+                  clusterMap = getAndReadLockClusterMap();
+                  /* Adding the watcher under the same read lock as the first check ensures that no update can be missed */
+                  if (!watcherAdded) {
+                     clusterMap.addVMFieldWatcher(vmIdsWithInvalidDns, watcher);
+                     watcherAdded = true;
+                  }
+                  newDnsNameMap = clusterMap.getDnsNamesForVMs(vmIdsWithInvalidDns);
+                  if (newDnsNameMap == null) {
+                     return null;         /* This would mean that our vmIds themselves have become invalid, which would only occur if vms are deleted */
+                  }
+                  result = new HashSet<String>(newDnsNameMap.values());
+                  if (!result.contains(null) && !result.contains("") && validateDnsNames(result)) {
+                     _log.info("Found valid hostnames for all VMs");
+                     return result;
+                  }
+               } finally {
+                  unlockClusterMap(clusterMap);
                }
-               result = new HashSet<String>(newDnsNameMap.values());
-               if (!result.contains(null) && !result.contains("") && validateDnsNames(result)) {
-                  _log.info("Found valid hostnames for all VMs");
-                  return result;
+               _log.info("Looking for valid hostname reported by "+LogFormatter.constructListOfLoggableVms(getVmIdsWithInvalidDnsNames(newDnsNameMap)));
+               watcher.waitForChange(Math.min(endTime - System.currentTimeMillis(), MAX_DNS_WAIT_SLEEP_TIME_MILLIS));
+            } while (System.currentTimeMillis() <= endTime);
+         } finally {
+            if (watcherAdded) {
+               ClusterMap clusterMap = null;
+               try {
+                  clusterMap = getAndReadLockClusterMap();
+                  clusterMap.removeVMFieldWatcher(vmIdsWithInvalidDns, watcher);
+               } finally {
+                  unlockClusterMap(clusterMap);
                }
-            } finally {
-               unlockClusterMap(clusterMap);
             }
-            _log.info("Looking for valid hostname reported by "+LogFormatter.constructListOfLoggableVms(getVmIdsWithInvalidDnsNames(newDnsNameMap)));
-            try {
-               /* Try faster initially */
-               Thread.sleep(Math.min((1000 * ++retryTimes), MAX_DNS_WAIT_SLEEP_TIME_MILLIS));
-            } catch (InterruptedException e) {}
-         } while (System.currentTimeMillis() <= endTime);
+         }
          /* If we fell out of the loop, it's likely we didn't find everything we were looking for */
          if (result != null) {
             result.remove(null);
@@ -15,22 +15,30 @@
 
 package com.vmware.vhadoop.vhm.strategy;
 
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.logging.Logger;
 
 import com.vmware.vhadoop.api.vhm.ClusterMap;
+import com.vmware.vhadoop.api.vhm.ClusterSummary;
 import com.vmware.vhadoop.api.vhm.ClusterMapReader;
+import com.vmware.vhadoop.api.vhm.QueueClient.CannotConnectException;
 import com.vmware.vhadoop.api.vhm.VCActions;
 import com.vmware.vhadoop.api.vhm.events.ClusterScaleCompletionEvent;
 import com.vmware.vhadoop.api.vhm.events.ClusterScaleEvent;
 import com.vmware.vhadoop.api.vhm.strategy.EDPolicy;
+import com.vmware.vhadoop.api.vhm.strategy.EDPolicy.EDProgressListener;
 import com.vmware.vhadoop.api.vhm.strategy.ScaleStrategy;
 import com.vmware.vhadoop.api.vhm.strategy.ScaleStrategyContext;
 import com.vmware.vhadoop.api.vhm.strategy.VMChooser;
 import com.vmware.vhadoop.api.vhm.strategy.VMChooser.RankedVM;
 import com.vmware.vhadoop.util.CompoundStatus;
 import com.vmware.vhadoop.util.CompoundStatus.TaskStatus;
+import com.vmware.vhadoop.util.ExternalizedParameters;
+import com.vmware.vhadoop.util.ScaleTrace;
+import com.vmware.vhadoop.util.ScaleTrace.Phase;
 import com.vmware.vhadoop.util.VhmLevel;
 import com.vmware.vhadoop.vhm.AbstractClusterMapReader;
 import com.vmware.vhadoop.vhm.events.ClusterScaleDecision;
@@ -44,6 +52,14 @@ public class ManualScaleStrategy extends AbstractClusterMapReader implements Sca
 
    public static final String MANUAL_SCALE_STRATEGY_KEY = "manual";
 
+   private static final int SCALE_OUT_INITIAL_WAVE_SIZE = ExternalizedParameters.get().getInt("SCALE_OUT_INITIAL_WAVE_SIZE");
+   private static final int SCALE_OUT_MIN_WAVE_SIZE = ExternalizedParameters.get().getInt("SCALE_OUT_MIN_WAVE_SIZE");
+   private static final int SCALE_OUT_MAX_WAVE_SIZE = ExternalizedParameters.get().getInt("SCALE_OUT_MAX_WAVE_SIZE");
+   private static final long SCALE_OUT_MIN_WAVE_INTERVAL_MILLIS = ExternalizedParameters.get().getLong("SCALE_OUT_MIN_WAVE_INTERVAL_MILLIS");
+
+   /* The remaining waves are abandoned once this many waves in a row have failed to enable any VMs, as something is likely to be badly wrong */
+   private static final int SCALE_OUT_MAX_CONSECUTIVE_FAILED_WAVES = 2;
+
    public ManualScaleStrategy(EDPolicy edPolicy) {
       _enableDisablePolicy = edPolicy;
    }
@@ -65,18 +81,112 @@ public class ManualScaleStrategy extends AbstractClusterMapReader implements Sca
    }
 
    private Set<String> chooseVMsForTargetPowerState(String clusterId, int delta, Set<String> candidateVmIds, boolean targetPowerState) {
-      Set<RankedVM> combination = null;
+      long spanStart = ScaleTrace.startSpan();
+      RankedVM.Accumulator combination = new RankedVM.Accumulator();
       for (VMChooser vmChooser : _vmChooserCallback.getVMChoosers()) {
 
          Set<RankedVM> rankedVMs = targetPowerState ?
                vmChooser.rankVMsToEnable(clusterId, candidateVmIds) :
                vmChooser.rankVMsToDisable(clusterId, candidateVmIds);
 
-         if (rankedVMs != null) {
-            combination = RankedVM.combine(combination, rankedVMs);
+         combination.add(rankedVMs);
+      }
+      Set<String> result = combination.selectLowestRankedIds(Math.abs(delta));
+      ScaleTrace.endSpan(Phase.CHOOSE_VMS, spanStart, clusterId, result, (result != null));
+      return result;
+   }
+
+   /* Reports partial completion back to Serengeti as task trackers are enabled or disabled, between the progress reported before and after */
+   private static class LimitInstructionProgressListener implements EDProgressListener {
+      private static final int START_PERCENTAGE = 10;
+      private static final int END_PERCENTAGE = 30;
+      private final SerengetiLimitInstruction _limitEvent;
+      private final String _action;
+      private final int _totalRequested;
+      private int _completedInEarlierWaves;
+
+      LimitInstructionProgressListener(SerengetiLimitInstruction limitEvent, boolean targetPowerState, int totalRequested) {
+         _limitEvent = limitEvent;
+         _action = targetPowerState ? "enabled" : "disabled";
+         _totalRequested = totalRequested;
+      }
+
+      /* When the VMs are enabled in waves, progress is reported against the whole operation rather than the current wave */
+      void startWave(int completedSoFar) {
+         _completedInEarlierWaves = completedSoFar;
+      }
+
+      @Override
+      public void ttsCompleted(Set<String> completedVmIds, int totalCompleted, int totalRequested) {
+         int completed = _completedInEarlierWaves + totalCompleted;
+         if (_totalRequested > 0) {
+            int percentage = START_PERCENTAGE + (((END_PERCENTAGE - START_PERCENTAGE) * completed) / _totalRequested);
+            try {
+               _limitEvent.reportProgress(percentage, _action+" "+completed+" of "+_totalRequested+" compute nodes");
+            } catch (CannotConnectException e) {
+               _log.warning("Failed to report progress back on rabbit queue: "+e.getMessage());
+            }
+         }
+      }
+   }
+
+   /* A large scale out is done in waves so that hosts, datastores and the job tracker are not overwhelmed by every VM booting and
+    * registering at once. The size of each wave and the pause between them is adapted to how quickly the previous waves came online.
+    * A wave which enables none of its VMs doesn't stop the scale out, but repeated failures do, in which case the scale out is reported as incomplete.
+    * Returns the VMs successfully enabled, or null if none of the VMs could be enabled */
+   private Set<String> enableTTsInWaves(Set<String> vmsToEnable, int numPoweredOn, int targetSize, String clusterId, LimitInstructionProgressListener progressListener) throws Exception {
+      if ((SCALE_OUT_INITIAL_WAVE_SIZE <= 0) || (vmsToEnable.size() <= SCALE_OUT_INITIAL_WAVE_SIZE)) {
+         return _enableDisablePolicy.enableTTs(vmsToEnable, targetSize, clusterId, progressListener);
+      }
+
+      ScaleOutWavePacer pacer = new ScaleOutWavePacer(SCALE_OUT_INITIAL_WAVE_SIZE, SCALE_OUT_MIN_WAVE_SIZE, SCALE_OUT_MAX_WAVE_SIZE, SCALE_OUT_MIN_WAVE_INTERVAL_MILLIS);
+      List<String> remaining = new ArrayList<String>(vmsToEnable);
+      Set<String> enabledTTs = null;
+      int numEnabled = 0;
+      int waveNumber = 0;
+      int consecutiveFailedWaves = 0;
+      while (!remaining.isEmpty()) {
+         List<String> waveList = remaining.subList(0, pacer.getNextWaveSize(remaining.size()));
+         Set<String> wave = new HashSet<String>(waveList);
+         waveList.clear();
+         waveNumber++;
+
+         _log.log(VhmLevel.USER, "<%C"+clusterId+"%C>: enabling wave "+waveNumber+" of "+wave.size()+" compute nodes; "+remaining.size()+" remaining");
+         progressListener.startWave(numEnabled);
+         long waveStartTime = System.currentTimeMillis();
+         /* The target for the wave doesn't include the VMs in later waves, as they are not expected to be enabled yet */
+         Set<String> enabledInWave = _enableDisablePolicy.enableTTs(wave, numPoweredOn + numEnabled + wave.size(), clusterId, progressListener);
+         int numEnabledInWave = (enabledInWave == null) ? 0 : enabledInWave.size();
+         pacer.waveCompleted(wave.size(), numEnabledInWave, System.currentTimeMillis() - waveStartTime);
+         if (numEnabledInWave == 0) {
+            consecutiveFailedWaves++;
+            _log.log(VhmLevel.USER, "<%C"+clusterId+"%C>: no compute nodes enabled in wave "+waveNumber);
+            if ((consecutiveFailedWaves >= SCALE_OUT_MAX_CONSECUTIVE_FAILED_WAVES) && !remaining.isEmpty()) {
+               _log.log(VhmLevel.USER, "<%C"+clusterId+"%C>: "+consecutiveFailedWaves+" waves in a row failed; abandoning the remaining "+remaining.size()+" compute nodes");
+               getCompoundStatus().registerTaskFailed(false, "enabled "+numEnabled+" of "+vmsToEnable.size()+" compute nodes before abandoning the remaining waves");
+               break;
+            }
+         } else {
+            consecutiveFailedWaves = 0;
+            if (enabledTTs == null) {
+               enabledTTs = new HashSet<String>();
+            }
+            enabledTTs.addAll(enabledInWave);
+            numEnabled = enabledTTs.size();
+         }
+
+         long pauseMillis = pacer.getPauseMillis();
+         if (!remaining.isEmpty() && (pauseMillis > 0)) {
+            try {
+               Thread.sleep(pauseMillis);
+            } catch (InterruptedException e) {
+               _log.info("Interrupted pausing between waves; abandoning the remaining "+remaining.size());
+               getCompoundStatus().registerTaskFailed(false, "enabled "+numEnabled+" of "+vmsToEnable.size()+" compute nodes before being interrupted");
+               break;
+            }
          }
       }
-      return RankedVM.selectLowestRankedIds(combination, Math.abs(delta));
+      return enabledTTs;
    }
 
    class CallableStrategy extends ClusterScaleOperation {
@@ -111,16 +221,23 @@ public class ManualScaleStrategy extends AbstractClusterMapReader implements Sca
                String clusterName = limitEvent.getClusterName();
                clusterId = clusterMap.getClusterIdForName(clusterName);
                if (clusterId != null) {
-                  poweredOffVmIds = clusterMap.listComputeVMsForClusterAndPowerState(clusterId, false);
-                  numPoweredOff = (poweredOffVmIds == null) ? 0 : poweredOffVmIds.size();
-                  poweredOnVmIds = clusterMap.listComputeVMsForClusterAndPowerState(clusterId, true);
-                  numPoweredOn = (poweredOnVmIds == null) ? 0 : poweredOnVmIds.size();
+                  ClusterSummary summary = clusterMap.getClusterSummary(clusterId);
+                  if (summary != null) {
+                     numPoweredOff = summary.getNumComputeVMsForPowerState(false);
+                     numPoweredOn = summary.getNumComputeVMsForPowerState(true);
+                  }
                   if (limitEvent.getAction().equals(SerengetiLimitAction.actionUnlimit)) {
                      targetSize = numPoweredOn + numPoweredOff;
                      delta = numPoweredOff;
                   } else {
                      targetSize = limitEvent.getToSize();
                      delta = targetSize - numPoweredOn;
+                  }
+                  /* Only the candidates for the direction of the scale are needed */
+                  if (delta > 0) {
+                     poweredOffVmIds = clusterMap.listComputeVMsForClusterAndPowerState(clusterId, false);
+                  } else if (delta < 0) {
+                     poweredOnVmIds = clusterMap.listComputeVMsForClusterAndPowerState(clusterId, true);
                   }
                   _log.log(VhmLevel.USER, "<%C"+clusterId+"%C>: handling manual elasticity command from Serengeti to set number of enabled compute nodes to " + targetSize);
                   returnEvent = new ClusterScaleDecision(clusterId);
@@ -131,13 +248,16 @@ public class ManualScaleStrategy extends AbstractClusterMapReader implements Sca
             } finally {
                unlockClusterMap(clusterMap);
             }
+            if (delta != 0) {
+               ScaleTrace.beginOperation(clusterId, (delta < 0));
+            }
             Set<String> unresponsiveVmIds = null;
             if (delta > 0) {
                vmsToED = chooseVMsForTargetPowerState(clusterId, delta, poweredOffVmIds, true);
                limitEvent.reportProgress(10, null);
                if ((vmsToED != null) && !vmsToED.isEmpty()) {
                   /* Note that this returns successfully enabled VM IDs from the input set of VMs*/
-                  Set<String> enabledTTs = _enableDisablePolicy.enableTTs(vmsToED, targetSize, clusterId);
+                  Set<String> enabledTTs = enableTTsInWaves(vmsToED, numPoweredOn, targetSize, clusterId, new LimitInstructionProgressListener(limitEvent, true, vmsToED.size()));
                   if (enabledTTs != null) {
                      _log.fine("Enabled TTs: "+enabledTTs);
                      unresponsiveVmIds = diffIds(vmsToED, enabledTTs);
@@ -157,7 +277,7 @@ public class ManualScaleStrategy extends AbstractClusterMapReader implements Sca
                limitEvent.reportProgress(10, null);
                if ((vmsToED != null) && !vmsToED.isEmpty()) {
                   /* Note that this returns disabled VM IDs for the cluster */
-                  Set<String> disabledTTs = _enableDisablePolicy.disableTTs(vmsToED, targetSize, clusterId);
+                  Set<String> disabledTTs = _enableDisablePolicy.disableTTs(vmsToED, targetSize, clusterId, new LimitInstructionProgressListener(limitEvent, false, vmsToED.size()));
                   if (disabledTTs != null) {
                      _log.fine("Disabled TTs: "+disabledTTs);
                      unresponsiveVmIds = diffIds(vmsToED, disabledTTs);
@@ -0,0 +1,158 @@
+/***************************************************************************
+* Copyright (c) 2013 VMware, Inc. All Rights Reserved.
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+***************************************************************************/
+
+package com.vmware.vhadoop.vhm.strategy;
+
+import java.util.TimeZone;
+import java.util.logging.Logger;
+
+import com.vmware.vhadoop.api.vhm.ClusterMap;
+import com.vmware.vhadoop.api.vhm.strategy.EDPolicy;
+import com.vmware.vhadoop.api.vhm.strategy.ScaleStrategyContext;
+import com.vmware.vhadoop.util.ExternalizedParameters;
+import com.vmware.vhadoop.vhm.events.JobTrackerMetricsEvent;
+import com.vmware.vhadoop.vhm.strategy.DemandHistory.Forecast;
+
+/**
+ * Scales a cluster according to its load in the same way as the AutoScaleStrategy, but also powers on compute nodes ahead of the
+ *   demand predicted from the history of the cluster, since powering on a VM and registering its TaskTracker takes too long to catch up with a peak
+ * The demand is the number of TaskTrackers needed to run all of the running and pending tasks reported by the JobTracker. If there are no
+ *   JobTracker metrics, the cluster size decided on by the reactive scaling is taken as the demand instead.
+ * The peak demand forecast within the lead time is used as the minimum cluster size, as long as the forecast is confident enough. Once the
+ *   predicted peak has passed, the minimum drops back and the reactive scaling powers the nodes down again as the load falls.
+ * The lead time and confidence are configured per cluster through the cluster extraInfo. Without a lead time, this behaves as the AutoScaleStrategy.
+ */
+public class PredictiveScaleStrategy extends AutoScaleStrategy {
+   private static final Logger _log = Logger.getLogger(PredictiveScaleStrategy.class.getName());
+
+   public static final String PREDICTIVE_SCALE_STRATEGY_KEY = "predictive";
+
+   public static final String LEAD_TIME_MINUTES_EXTRA_INFO_KEY = "predictive.leadTimeMinutes";
+   public static final String CONFIDENCE_EXTRA_INFO_KEY = "predictive.confidence";
+
+   private static final long PERIOD_MILLIS = ExternalizedParameters.get().getLong("PREDICTIVE_SCALE_PERIOD_MINUTES") * 60 * 1000;
+   private static final double HISTORY_WEIGHT = ExternalizedParameters.get().getDouble("PREDICTIVE_SCALE_HISTORY_WEIGHT");
+   private static final int MIN_SAMPLES = ExternalizedParameters.get().getInt("PREDICTIVE_SCALE_MIN_SAMPLES");
+   private static final double DEFAULT_CONFIDENCE = ExternalizedParameters.get().getDouble("PREDICTIVE_SCALE_DEFAULT_CONFIDENCE");
+
+   /**
+    * The demand history of a cluster as well as its load
+    * If it's not static, it can't be created reflectively. It is only accessed by the one scale operation running for the cluster at a time.
+    */
+   public static class PredictiveContext extends AutoScaleContext {
+      private final DemandHistory _history;
+      private long _leadTimeMillis;
+      private double _minConfidence = DEFAULT_CONFIDENCE;
+      private Forecast _forecast;
+      private boolean _prewarming;
+      private long _decisionMillis;
+
+      public PredictiveContext() {
+         this(new DemandHistory(PERIOD_MILLIS, HISTORY_WEIGHT, MIN_SAMPLES, TimeZone.getDefault()));
+      }
+
+      public PredictiveContext(DemandHistory history) {
+         _history = history;
+      }
+
+      public void setForecastSettings(long leadTimeMillis, double minConfidence) {
+         _leadTimeMillis = leadTimeMillis;
+         _minConfidence = minConfidence;
+      }
+
+      /* The forecast that the last decision was based on, or null if there was none */
+      public Forecast getForecast() {
+         return _forecast;
+      }
+
+      /* The number of TaskTrackers needed to run everything the JobTracker is running and has pending, or null if it's not known */
+      private Integer getMeasuredDemand(long now) {
+         JobTrackerMetricsEvent jtMetrics = getFreshJobTrackerMetrics(now);
+         if ((jtMetrics == null) || (jtMetrics.getTrackers() <= 0) || (jtMetrics.getTotalSlots() <= 0)) {
+            return null;
+         }
+         double slotsPerTaskTracker = (double)jtMetrics.getTotalSlots() / jtMetrics.getTrackers();
+         return (int)Math.ceil((jtMetrics.getOccupiedSlots() + jtMetrics.getPendingTasks()) / slotsPerTaskTracker);
+      }
+
+      @Override
+      public int decideDelta(int numPoweredOn, int numPoweredOff, int minInstances, int maxInstances, long now) {
+         _decisionMillis = now;
+         Integer measuredDemand = getMeasuredDemand(now);
+         if (measuredDemand != null) {
+            _history.record(now, measuredDemand);
+         }
+
+         int forecastMin = 0;
+         _forecast = (_leadTimeMillis > 0) ? _history.forecastPeak(now, now + _leadTimeMillis, _minConfidence) : null;
+         if (_forecast != null) {
+            forecastMin = (int)Math.ceil(_forecast.getDemand());
+         }
+         int delta = super.decideDelta(numPoweredOn, numPoweredOff, Math.max(minInstances, forecastMin), maxInstances, now);
+         _prewarming = (delta > 0) && (forecastMin > minInstances) && (numPoweredOn < forecastMin);
+
+         /* Without JobTracker metrics, learn from the cluster size decided on, unless it is only that size because of the forecast */
+         int targetSize = numPoweredOn + delta;
+         if ((measuredDemand == null) && ((forecastMin <= minInstances) || (targetSize > forecastMin))) {
+            _history.record(now, targetSize);
+         }
+         return delta;
+      }
+
+      @Override
+      public String describeDecision() {
+         if (_prewarming) {
+            long minutesAhead = Math.max(0, (_forecast.getTimeMillis() - _decisionMillis) / 60000);
+            return "demand of "+(int)Math.ceil(_forecast.getDemand())+" compute nodes predicted in "+minutesAhead+" minutes with "+
+                  Math.round(_forecast.getConfidence() * 100)+"% confidence";
+         }
+         return super.describeDecision();
+      }
+   }
+
+   public PredictiveScaleStrategy(EDPolicy edPolicy) {
+      super(edPolicy);
+   }
+
+   @Override
+   public String getKey() {
+      return PREDICTIVE_SCALE_STRATEGY_KEY;
+   }
+
+   @Override
+   protected void readExtraInfo(ClusterMap clusterMap, String clusterId, AutoScaleContext context) {
+      int leadTimeMinutes = getIntExtraInfo(clusterMap, clusterId, LEAD_TIME_MINUTES_EXTRA_INFO_KEY, 0);
+      double confidence = DEFAULT_CONFIDENCE;
+      String value = clusterMap.getExtraInfo(clusterId, CONFIDENCE_EXTRA_INFO_KEY);
+      if (value != null) {
+         try {
+            confidence = Double.parseDouble(value.trim());
+         } catch (NumberFormatException e) {
+            _log.warning("<%C"+clusterId+"%C>: ignoring invalid value for "+CONFIDENCE_EXTRA_INFO_KEY+": "+value);
+         }
+      }
+      ((PredictiveContext)context).setForecastSettings(Math.max(0, leadTimeMinutes) * 60L * 1000, confidence);
+   }
+
+   @Override
+   protected AutoScaleContext createContext() {
+      return new PredictiveContext();
+   }
+
+   @Override
+   public Class<? extends ScaleStrategyContext> getStrategyContextType() {
+      return PredictiveContext.class;
+   }
+}
@@ -0,0 +1,88 @@
+/***************************************************************************
+* Copyright (c) 2013 VMware, Inc. All Rights Reserved.
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+***************************************************************************/
+
+package com.vmware.vhadoop.vhm.strategy;
+
+import java.util.logging.Logger;
+
+/**
+ * Decides how many VMs to enable in each wave of a large scale out and how long to pause between waves
+ * The aim is to maximize the number of nodes brought online per minute. While the rate achieved by a wave keeps up with the best rate
+ *   seen so far, the next wave is made bigger. Once a bigger wave makes the rate drop, the hosts, datastores or job tracker are assumed
+ *   to be saturated and the wave size is backed off. If most of a wave fails to come online, the next wave is both smaller and delayed,
+ *   in proportion to how long the failed wave took, to give the infrastructure time to recover.
+ * Not thread-safe - a pacer is expected to be used for a single scale operation
+ */
+class ScaleOutWavePacer {
+   private static final Logger _log = Logger.getLogger(ScaleOutWavePacer.class.getName());
+
+   /* A wave whose rate is within this fraction of the best rate is considered to be keeping up */
+   static final double RATE_TOLERANCE = 0.1;
+
+   private final int _minWaveSize;
+   private final int _maxWaveSize;
+   private final long _minIntervalMillis;
+
+   private int _waveSize;
+   private double _bestVmsPerMinute;
+   private long _pauseMillis;
+
+   ScaleOutWavePacer(int initialWaveSize, int minWaveSize, int maxWaveSize, long minIntervalMillis) {
+      _minWaveSize = Math.max(1, minWaveSize);
+      _maxWaveSize = Math.max(_minWaveSize, maxWaveSize);
+      _waveSize = Math.min(_maxWaveSize, Math.max(_minWaveSize, initialWaveSize));
+      _minIntervalMillis = Math.max(0, minIntervalMillis);
+      _pauseMillis = 0;
+   }
+
+   /* Returns the number of VMs to enable in the next wave */
+   int getNextWaveSize(int remaining) {
+      return Math.min(_waveSize, remaining);
+   }
+
+   /* Returns the time to wait between the completion of the last wave and the start of the next one */
+   long getPauseMillis() {
+      return _pauseMillis;
+   }
+
+   /**
+    * Records the outcome of a wave, adjusting the size of and the pause before the next one
+    * @param requested The number of VMs the wave tried to enable
+    * @param enabled The number of VMs that were enabled successfully
+    * @param durationMillis The time from the start of the wave until the VMs were verified
+    */
+   void waveCompleted(int requested, int enabled, long durationMillis) {
+      long duration = Math.max(1, durationMillis);
+      if ((requested == 0) || (enabled * 2 < requested)) {
+         _waveSize = Math.max(_minWaveSize, _waveSize / 2);
+         _pauseMillis = Math.max(_minIntervalMillis, duration / 2);
+         _log.info("Only "+enabled+" of "+requested+" VMs enabled in "+duration+"ms; reducing wave size to "+_waveSize+" and pausing for "+_pauseMillis+"ms");
+         return;
+      }
+
+      _pauseMillis = _minIntervalMillis;
+      double vmsPerMinute = (enabled * 60000.0) / duration;
+      if (vmsPerMinute >= (_bestVmsPerMinute * (1 - RATE_TOLERANCE))) {
+         _bestVmsPerMinute = Math.max(_bestVmsPerMinute, vmsPerMinute);
+         /* Only grow if the wave was full sized, otherwise it says nothing about whether a bigger wave would keep up */
+         if (requested >= _waveSize) {
+            _waveSize = Math.min(_maxWaveSize, _waveSize * 2);
+         }
+      } else {
+         _waveSize = Math.max(_minWaveSize, (_waveSize * 3) / 4);
+      }
+      _log.fine("Enabled "+enabled+" VMs at "+(int)vmsPerMinute+" per minute (best "+(int)_bestVmsPerMinute+"); next wave size is "+_waveSize);
+   }
+}
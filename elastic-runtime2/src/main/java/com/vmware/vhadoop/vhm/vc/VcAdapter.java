@@ -182,6 +182,26 @@ public class VcAdapter implements VCActions {
 
    /* THREADING: Can be called by multiple threads */
    @Override
+   public Map<String, HostStats> getHostStats(Set<String> hostMoRefs) {
+      Client client = _clientFactory.getAndValidateClient(VcClientKey.STATS_POLL_CLIENT);
+      if (client == null) {
+         return null;
+      }
+      return _vcVlsi.getHostStats(client, hostMoRefs);
+   }
+
+   /* THREADING: Can be called by multiple threads */
+   @Override
+   public Map<String, VMStats> getVMStats(Set<String> vmMoRefs) {
+      Client client = _clientFactory.getAndValidateClient(VcClientKey.STATS_POLL_CLIENT);
+      if (client == null) {
+         return null;
+      }
+      return _vcVlsi.getVMStats(client, vmMoRefs);
+   }
+
+   /* THREADING: Can be called by multiple threads */
+   @Override
    public List<String> listVMsInFolder(String folderName) {
       Client client = _clientFactory.getAndValidateClient(VcClientKey.CONTROL_CLIENT);
       if (client == null) {
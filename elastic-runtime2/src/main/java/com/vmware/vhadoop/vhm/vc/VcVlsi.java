@@ -40,16 +40,28 @@ import java.util.logging.Logger;
 import javax.net.ssl.SSLException;
 
 import com.vmware.vhadoop.api.vhm.VCActions;
+import com.vmware.vhadoop.api.vhm.VCActions.HostStats;
+import com.vmware.vhadoop.api.vhm.VCActions.VMStats;
 import com.vmware.vhadoop.api.vhm.VCActions.VMEventData;
 import com.vmware.vhadoop.util.CompoundStatus;
 import com.vmware.vhadoop.util.ExternalizedParameters;
 import com.vmware.vhadoop.util.LogFormatter;
 import com.vmware.vhadoop.util.ThreadLocalCompoundStatus;
 import com.vmware.vhadoop.util.VhmLevel;
+import com.vmware.vhadoop.util.metrics.Histogram;
+import com.vmware.vhadoop.util.metrics.MetricsRegistry;
 import com.vmware.vim.binding.impl.vim.event.EventExImpl;
 import com.vmware.vim.binding.impl.vmodl.TypeNameImpl;
 import com.vmware.vim.binding.vim.Folder;
 import com.vmware.vim.binding.vim.PerformanceManager;
+import com.vmware.vim.binding.vim.PerformanceManager.CounterInfo;
+import com.vmware.vim.binding.vim.PerformanceManager.EntityMetric;
+import com.vmware.vim.binding.vim.PerformanceManager.EntityMetricBase;
+import com.vmware.vim.binding.vim.PerformanceManager.IntSeries;
+import com.vmware.vim.binding.vim.PerformanceManager.MetricId;
+import com.vmware.vim.binding.vim.PerformanceManager.MetricSeries;
+import com.vmware.vim.binding.vim.PerformanceManager.QuerySpec;
+import com.vmware.vim.binding.vim.PerformanceManager.SampleInfo;
 import com.vmware.vim.binding.vim.ServiceInstance;
 import com.vmware.vim.binding.vim.ServiceInstanceContent;
 import com.vmware.vim.binding.vim.SessionManager;
@@ -109,6 +121,14 @@ public class VcVlsi {
 
    private static final Logger _log = Logger.getLogger(VcVlsi.class.getName());
 
+   /* Latency of each type of call to VC. waitForUpdates is a long poll, so its latency includes the time waiting for a change. */
+   private static final Histogram _waitForUpdatesMicros = MetricsRegistry.get().histogram("vcVlsi.waitForUpdates.micros");
+   private static final Histogram _updateBatchSize = MetricsRegistry.get().histogram("vcVlsi.updateBatch.size");
+   private static final Histogram _waitForTaskMicros = MetricsRegistry.get().histogram("vcVlsi.waitForTask.micros");
+   private static final Histogram _powerOnMicros = MetricsRegistry.get().histogram("vcVlsi.powerOn.micros");
+   private static final Histogram _powerOffMicros = MetricsRegistry.get().histogram("vcVlsi.powerOff.micros");
+   private static final Histogram _queryStatsMicros = MetricsRegistry.get().histogram("vcVlsi.queryStats.micros");
+
    static final String VC_PROP_VM_NAME = "name";
    static final String VC_PROP_VM_EXTRA_CONFIG = "config.extraConfig";
    static final String VC_PROP_VM_UUID = "config.uuid";
@@ -122,6 +142,7 @@ public class VcVlsi {
    static final String VC_MOREF_TYPE_VM = "VirtualMachine";
    static final String VC_MOREF_TYPE_FOLDER = "Folder";
    static final String VC_MOREF_TYPE_CONTAINER_VIEW = "ContainerView";
+   static final String VC_MOREF_TYPE_HOST = "HostSystem";
    private static final TypeNameImpl typeTask = new TypeNameImpl(VC_MOREF_TYPE_TASK);
    private static final TypeNameImpl typeVM = new TypeNameImpl(VC_MOREF_TYPE_VM);
    private static final TypeNameImpl typeFolder = new TypeNameImpl(VC_MOREF_TYPE_FOLDER);
@@ -139,9 +160,19 @@ public class VcVlsi {
    static final String VHM_EXTRA_CONFIG_AUTOMATION_MIN_INSTANCES = "vhmInfo.min.computeNodeNum";
    static final String VHM_EXTRA_CONFIG_AUTOMATION_INSTANCE_RANGE = "vhmInfo.instanceRange.computeNodeNum";
    static final String VHM_EXTRA_CONFIG_JOB_TRACKER_PORT = "vhmInfo.jobtracker.port";
+   static final String VHM_EXTRA_CONFIG_PREWARM_LEAD_TIME_MINUTES = "vhmInfo.vhm.prewarm.leadTimeMinutes";
+   static final String VHM_EXTRA_CONFIG_PREWARM_CONFIDENCE = "vhmInfo.vhm.prewarm.confidence";
 
    private static final String TASK_INFO_STATE = "info.state";
 
+   /* Counters used for HostStats and VMStats, named as group.name.rollup */
+   static final String VC_PERF_COUNTER_CPU_USAGE = "cpu.usage.average";
+   static final String VC_PERF_COUNTER_CPU_READY = "cpu.ready.summation";
+   static final String VC_PERF_COUNTER_MEM_USAGE = "mem.usage.average";
+   static final String VC_PERF_COUNTER_DISK_LATENCY = "disk.maxTotalLatency.latest";
+   /* The interval of real-time stats on ESX hosts. Seconds. */
+   static final int VC_PERF_REALTIME_INTERVAL_SECS = 20;
+
    static final String WAIT_FOR_UPDATES_CANCELED_STATUS = "VC_WAIT_FOR_UPDATES_CANCELED";
    static final String WAIT_FOR_UPDATES_INVALID_COLLECTOR_VERSION_STATUS = "VC_WAIT_FOR_UPDATES_INVALID_COLLECTOR_VERSION";
    static final String WAIT_FOR_UPDATES_INVALID_PROPERTY_STATUS = "VC_WAIT_FOR_UPDATES_INVALID_PROPERTY";
@@ -154,6 +185,8 @@ public class VcVlsi {
    private Object _propertyCollectorLock = new Object();
    private Alarm _alarmSingleton;
    private Object _alarmLock = new Object();
+   private Map<String, Integer> _perfCounterIdsSingleton;        /* Counter ids are constant for the lifetime of a VC, so only looked up once */
+   private Object _perfCounterLock = new Object();
 
    static {
       VmodlContext.initContext(new String[] { "com.vmware.vim.binding.vim" });
@@ -510,9 +543,11 @@ public class VcVlsi {
       synchronized(_propertyCollectorLock) {
          _blockedPropertyCollectorSingleton = propCollector;
       }
+      long startNanos = System.nanoTime();
       try {
          updateSet = propCollector.waitForUpdatesEx(version, waitOptions);
       } finally {
+         _waitForUpdatesMicros.recordSince(startNanos);
          synchronized(_propertyCollectorLock) {
             _blockedPropertyCollectorSingleton = null;
          }
@@ -653,6 +688,7 @@ public class VcVlsi {
 
          //_log.log(Level.INFO, "WFU new version= " + version + " fs= " + updates);
          if (updates != null) {
+            int batchSize = 0;
             for (FilterUpdate pfu : updates) {
                ObjectUpdate[] objectSet = pfu.getObjectSet();
 
@@ -660,9 +696,11 @@ public class VcVlsi {
                   VMEventData vmData = parseObjUpdate(_log, obj);
                   if (vmData != null) {
                      vmDataList.add(vmData);
+                     batchSize++;
                   }
                }
             }
+            _updateBatchSize.record(batchSize);
          }
       }
       return version;
@@ -670,6 +708,7 @@ public class VcVlsi {
 
    boolean waitForTask(Client client, Task task) {
       CompoundStatus status = new CompoundStatus("waitForTask");
+      long startNanos = System.nanoTime();
       boolean result = false;
       PropertyFilter propFilter = new PropertyFilter(client, task);
       try {
@@ -722,6 +761,7 @@ public class VcVlsi {
          reportException("Unexpected exception waiting for task completion", e, status);
       } finally {
          propFilter.cleanup();
+         _waitForTaskMicros.recordSince(startNanos);
       }
       getCompoundStatus().addStatus(status);
       return result;
@@ -812,8 +852,10 @@ public class VcVlsi {
          ManagedObjectReference ref = new ManagedObjectReference();
          ref.setValue(moRef);
          VirtualMachine vm = client.createStub(VirtualMachine.class, ref);
+         long startNanos = System.nanoTime();
          try {
             ManagedObjectReference taskRef = vm.powerOn(null);
+            _powerOnMicros.recordSince(startNanos);
             Task task = client.createStub(Task.class, taskRef);
             result.put(moRef, task);
             status.registerTaskSucceeded();
@@ -832,8 +874,10 @@ public class VcVlsi {
          ManagedObjectReference ref = new ManagedObjectReference();
          ref.setValue(moRef);
          VirtualMachine vm = client.createStub(VirtualMachine.class, ref);
+         long startNanos = System.nanoTime();
          try {
             ManagedObjectReference taskRef = vm.powerOff();
+            _powerOffMicros.recordSince(startNanos);
             Task task = client.createStub(Task.class, taskRef);
             result.put(moRef, task);
             status.registerTaskSucceeded();
@@ -863,6 +907,160 @@ public class VcVlsi {
       }
    }
 
+   private Map<String, Integer> getPerfCounterIds(PerformanceManager perfManager) {
+      synchronized(_perfCounterLock) {
+         if (_perfCounterIdsSingleton == null) {
+            Map<String, Integer> counterIds = new HashMap<String, Integer>();
+            CounterInfo[] counters = perfManager.getPerfCounter();
+            if (counters != null) {
+               for (CounterInfo counter : counters) {
+                  String name = counter.getGroupInfo().getKey()+"."+counter.getNameInfo().getKey()+"."+counter.getRollupType();
+                  counterIds.put(name, counter.getKey());
+               }
+            }
+            _perfCounterIdsSingleton = counterIds;
+         }
+         return _perfCounterIdsSingleton;
+      }
+   }
+
+   /* The latest sample of a set of counters for an entity, keyed by counter name. Counters with no available sample are omitted */
+   private class LatestSamples {
+      Long _timestampMillis;
+      Map<String, Long> _values = new HashMap<String, Long>();
+   }
+
+   /* Queries the most recent real-time sample of the named counters for all of the entities in a single call, returning null on failure */
+   private Map<String, LatestSamples> getLatestSamples(Client client, Set<String> moRefs, String moRefType, String[] counterNames) {
+      PerformanceManager perfManager = getPerformanceManager(client);
+      if ((perfManager == null) || (moRefs == null)) {
+         return null;
+      }
+
+      try {
+         Map<String, Integer> counterIds = getPerfCounterIds(perfManager);
+         Map<Integer, String> requestedCounters = new HashMap<Integer, String>();
+         List<MetricId> metricIds = new ArrayList<MetricId>();
+         for (String counterName : counterNames) {
+            Integer counterId = counterIds.get(counterName);
+            if (counterId != null) {
+               MetricId metricId = new MetricId();
+               metricId.setCounterId(counterId);
+               metricId.setInstance("");              /* The aggregate for the entity, rather than per core or per device */
+               metricIds.add(metricId);
+               requestedCounters.put(counterId, counterName);
+            }
+         }
+         if (metricIds.isEmpty()) {
+            _log.info("VC does not provide any of the "+moRefType+" performance counters used by VHM");
+            return null;
+         }
+
+         List<QuerySpec> querySpecs = new ArrayList<QuerySpec>();
+         for (String moRef : moRefs) {
+            ManagedObjectReference ref = new ManagedObjectReference();
+            ref.setValue(moRef);
+            ref.setType(moRefType);
+            QuerySpec querySpec = new QuerySpec();
+            querySpec.setEntity(ref);
+            querySpec.setMetricId(metricIds.toArray(new MetricId[metricIds.size()]));
+            querySpec.setIntervalId(VC_PERF_REALTIME_INTERVAL_SECS);
+            querySpec.setMaxSample(1);
+            querySpec.setFormat("normal");
+            querySpecs.add(querySpec);
+         }
+
+         Map<String, LatestSamples> result = new HashMap<String, LatestSamples>();
+         long startNanos = System.nanoTime();
+         EntityMetricBase[] entityMetrics = perfManager.queryStats(querySpecs.toArray(new QuerySpec[querySpecs.size()]));
+         _queryStatsMicros.recordSince(startNanos);
+         if (entityMetrics == null) {
+            return result;
+         }
+         for (EntityMetricBase entityMetricBase : entityMetrics) {
+            if (!(entityMetricBase instanceof EntityMetric)) {
+               continue;
+            }
+            EntityMetric entityMetric = (EntityMetric)entityMetricBase;
+            MetricSeries[] seriesArray = entityMetric.getValue();
+            if ((seriesArray == null) || (seriesArray.length == 0)) {
+               continue;
+            }
+            LatestSamples samples = new LatestSamples();
+            SampleInfo[] sampleInfo = entityMetric.getSampleInfo();
+            if ((sampleInfo != null) && (sampleInfo.length > 0)) {
+               samples._timestampMillis = sampleInfo[sampleInfo.length-1].getTimestamp().getTimeInMillis();
+            }
+            for (MetricSeries series : seriesArray) {
+               if (!(series instanceof IntSeries)) {
+                  continue;
+               }
+               long[] values = ((IntSeries)series).getValue();
+               if ((values == null) || (values.length == 0) || (values[values.length-1] < 0)) {
+                  continue;                         /* VC reports -1 for samples that are not available */
+               }
+               String counterName = requestedCounters.get(series.getId().getCounterId());
+               if (counterName != null) {
+                  samples._values.put(counterName, values[values.length-1]);
+               }
+            }
+            result.put(entityMetric.getEntity().getValue(), samples);
+         }
+         return result;
+      } catch (Exception e) {
+         _log.info("Unable to retrieve "+moRefType+" performance stats: "+e.getMessage());
+         return null;
+      }
+   }
+
+   /* Converts a cpu.ready summation over the real-time interval into a percentage of the interval */
+   private Double toCpuReadyPercent(Long readyMillis) {
+      return (readyMillis == null) ? null : (readyMillis * 100.0) / (VC_PERF_REALTIME_INTERVAL_SECS * 1000);
+   }
+
+   /* Converts a counter reported in hundredths of a percent */
+   private Double toPercent(Long hundredthsOfPercent) {
+      return (hundredthsOfPercent == null) ? null : hundredthsOfPercent / 100.0;
+   }
+
+   public Map<String, HostStats> getHostStats(Client client, Set<String> hostMoRefs) {
+      Map<String, LatestSamples> latestSamples = getLatestSamples(client, hostMoRefs, VC_MOREF_TYPE_HOST,
+            new String[] {VC_PERF_COUNTER_CPU_READY, VC_PERF_COUNTER_MEM_USAGE, VC_PERF_COUNTER_DISK_LATENCY});
+      if (latestSamples == null) {
+         return null;
+      }
+      Map<String, HostStats> result = new HashMap<String, HostStats>();
+      for (Map.Entry<String, LatestSamples> entry : latestSamples.entrySet()) {
+         LatestSamples samples = entry.getValue();
+         HostStats stats = new HostStats();
+         stats._timestampMillis = samples._timestampMillis;
+         stats._cpuReadyPercent = toCpuReadyPercent(samples._values.get(VC_PERF_COUNTER_CPU_READY));
+         stats._memUsagePercent = toPercent(samples._values.get(VC_PERF_COUNTER_MEM_USAGE));
+         stats._diskLatencyMillis = samples._values.get(VC_PERF_COUNTER_DISK_LATENCY);
+         result.put(entry.getKey(), stats);
+      }
+      return result;
+   }
+
+   public Map<String, VMStats> getVMStats(Client client, Set<String> vmMoRefs) {
+      Map<String, LatestSamples> latestSamples = getLatestSamples(client, vmMoRefs, VC_MOREF_TYPE_VM,
+            new String[] {VC_PERF_COUNTER_CPU_USAGE, VC_PERF_COUNTER_CPU_READY, VC_PERF_COUNTER_MEM_USAGE});
+      if (latestSamples == null) {
+         return null;
+      }
+      Map<String, VMStats> result = new HashMap<String, VMStats>();
+      for (Map.Entry<String, LatestSamples> entry : latestSamples.entrySet()) {
+         LatestSamples samples = entry.getValue();
+         VMStats stats = new VMStats();
+         stats._timestampMillis = samples._timestampMillis;
+         stats._cpuUsagePercent = toPercent(samples._values.get(VC_PERF_COUNTER_CPU_USAGE));
+         stats._cpuReadyPercent = toCpuReadyPercent(samples._values.get(VC_PERF_COUNTER_CPU_READY));
+         stats._memUsagePercent = toPercent(samples._values.get(VC_PERF_COUNTER_MEM_USAGE));
+         result.put(entry.getKey(), stats);
+      }
+      return result;
+   }
+
    private EventManager getEventManager(Client client) {
       try {
          ServiceInstanceContent sic = getServiceInstanceContent(client);
@@ -24,8 +24,12 @@ import static com.vmware.vhadoop.vhm.vc.VcVlsi.VHM_EXTRA_CONFIG_MASTER_MOREF;
 import static com.vmware.vhadoop.vhm.vc.VcVlsi.VHM_EXTRA_CONFIG_MASTER_UUID;
 import static com.vmware.vhadoop.vhm.vc.VcVlsi.VHM_EXTRA_CONFIG_MASTER_CLUSTERNAME;
 import static com.vmware.vhadoop.vhm.vc.VcVlsi.VHM_EXTRA_CONFIG_PREFIX;
+import static com.vmware.vhadoop.vhm.vc.VcVlsi.VHM_EXTRA_CONFIG_PREWARM_CONFIDENCE;
+import static com.vmware.vhadoop.vhm.vc.VcVlsi.VHM_EXTRA_CONFIG_PREWARM_LEAD_TIME_MINUTES;
 import static com.vmware.vhadoop.vhm.vc.VcVlsi.VHM_EXTRA_CONFIG_UUID;
 
+import java.util.logging.Logger;
+
 import com.vmware.vhadoop.api.vhm.VCActions.MasterVmEventData;
 import com.vmware.vhadoop.api.vhm.VCActions.VMEventData;
 
@@ -33,6 +37,8 @@ import com.vmware.vhadoop.api.vhm.VCActions.VMEventData;
  * Splits out those portions that the model requires so that it doesn't have a vmodl dependency
  */
 public class VcVlsiHelper {
+   private static final Logger _log = Logger.getLogger(VcVlsiHelper.class.getName());
+
    static private MasterVmEventData getMasterVmData(VMEventData vmData) {
       if (vmData._masterVmData == null) {
          vmData._masterVmData = new MasterVmEventData();
@@ -40,6 +46,29 @@ public class VcVlsiHelper {
       return vmData._masterVmData;
    }
 
+   /* The prewarm settings are optional tuning, so an invalid value is ignored rather than failing the parsing of the whole update */
+   static private Integer parseOptionalInteger(String key, String value) {
+      if (value != null) {
+         try {
+            return Integer.valueOf(value.trim());
+         } catch (NumberFormatException e) {
+            _log.warning("VHM: ignoring invalid value for VC key "+key+" - "+value);
+         }
+      }
+      return null;
+   }
+
+   static private Double parseOptionalDouble(String key, String value) {
+      if (value != null) {
+         try {
+            return Double.valueOf(value.trim());
+         } catch (NumberFormatException e) {
+            _log.warning("VHM: ignoring invalid value for VC key "+key+" - "+value);
+         }
+      }
+      return null;
+   }
+
    static void parseExtraConfig(VMEventData vmData, String key, String value) throws NumberFormatException {
       if (key.startsWith(VHM_EXTRA_CONFIG_PREFIX)) {
          //_log.log(Level.INFO, "PEC key:val = " + key + " : " + value);
@@ -70,6 +99,10 @@ public class VcVlsiHelper {
             getMasterVmData(vmData)._jobTrackerPort = Integer.valueOf(value);
          } else if (key.equals(VHM_EXTRA_CONFIG_MASTER_CLUSTERNAME)) {
             getMasterVmData(vmData)._clusterName = value;
+         } else if (key.equals(VHM_EXTRA_CONFIG_PREWARM_LEAD_TIME_MINUTES)) {
+            getMasterVmData(vmData)._prewarmLeadTimeMinutes = parseOptionalInteger(key, value);
+         } else if (key.equals(VHM_EXTRA_CONFIG_PREWARM_CONFIDENCE)) {
+            getMasterVmData(vmData)._prewarmConfidence = parseOptionalDouble(key, value);
          }
       }
    }
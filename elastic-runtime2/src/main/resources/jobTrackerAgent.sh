@@ -0,0 +1,564 @@
+###########################################################################
+# Copyright (c) 2013 VMware, Inc. All Rights Reserved.
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+###########################################################################
+
+#!/bin/bash
+
+# This script is a long-lived agent that de/recommissions tasktrackers and reports the
+# active tasktrackers on behalf of VHM. It is started once per jobtracker and then reads
+# commands from stdin, one per line, so that VHM does not have to copy a list file and
+# start a new script for every operation. The active tasktrackers are read from the
+# jobtracker's /jmx servlet, so listing them doesn't start a hadoop JVM. The hadoop CLI
+# is only used if the servlet can't be read and to refresh the nodes, for which the
+# jobtracker has no HTTP interface.
+# Prerequisites:
+# * This script is deployed on the jobtracker VM
+# * The jobtracker is running
+# * The excludes file (e.g., excludesTT) is specified in the conf/mapred-site.xml
+#   before starting the jobtracker
+#
+# USAGE: $ME <ExcludesFile> <HadoopHome> [<JobTrackerHttpPort> [<Role>]]
+#
+# VHM runs one agent for WATCH and another for the other commands, so <Role> keeps
+# their log files apart.
+#
+# Commands:
+#   DECOMMISSION <tt> [<tt> ...]
+#   RECOMMISSION <tt> [<tt> ...]
+#   CHECK <targetActiveTTs>
+#   WATCH <Recommission|Decommission> <timeoutSeconds> <pollMillis> <tt> [<tt> ...]
+#   PING
+#   QUIT
+#
+# Every command is answered on stdout with zero or more "TT: <ttName>" lines followed by
+# a single "@@RC <returnCode>" line. Return codes are the same as the exit codes of the
+# decommission, recommission and check scripts. "@@RC 0" is also sent once at startup to
+# indicate that the agent is ready to accept commands.
+# WATCH streams the complete list of active tasktrackers, terminated by "@@SNAPSHOT", each
+# time it changes and returns as soon as all of the given tasktrackers have been
+# de/recommissioned, or with ERROR_FEWER_TTS/ERROR_EXCESS_TTS if the timeout expires first.
+# WATCH polls every <pollMillis> while the tasktrackers are changing and backs off to
+# WATCH_MAX_POLL_FACTOR times that while they are not.
+
+# Constants
+MIN_ARGS=2
+MAX_ARGS=4
+ME=`basename $0`
+ROLE=${4:-agent}
+LOGFILE="$HOME/.$ME.$ROLE.log"
+JTERRFILE="$HOME/.$ME.$ROLE.jt.stderr"
+JMX_QUERY="Hadoop:service=JobTracker,name=JobTrackerInfo"
+JMX_TIMEOUT_SECS=5
+LOCKFILE="/var/lock/.derecommission.exclusiveLock" # Note: same LOCKFILE as the de/recommission scripts
+JTENV="/etc/default/hadoop-0.20-mapreduce"
+RESPONSE_TERMINATOR="@@RC"
+SNAPSHOT_TERMINATOR="@@SNAPSHOT"
+WATCH_MAX_POLL_FACTOR=8
+
+# Errors/Warnings
+ERROR_BAD_ARGS=100
+ERROR_EXCLUDES_FILE_NOT_FOUND=101
+ERROR_BAD_HADOOP_HOME=103
+ERROR_JT_CONNECTION=104
+ERROR_JT_UNKNOWN=105
+ERROR_FAIL_DECOMMISSION=106
+ERROR_FEWER_TTS=107
+ERROR_EXCESS_TTS=108
+ERROR_BAD_TARGET_TTS=109
+ERROR_EXCLUDES_FILE_UPDATE=110
+ERROR_LOCK_FILE_WRITE=111
+WARN_TT_EXCLUDESFILE=200
+WARN_TT_ACTIVE=201
+WARN_IGNORE=202
+
+# Check script arguments
+
+checkArguments()
+{
+    if [[ $# -lt $MIN_ARGS || $# -gt $MAX_ARGS ]]; then
+	echo "USAGE: $ME <ExcludesFile> <HadoopHome> [<JobTrackerHttpPort> [<Role>]]"
+	exit $ERROR_BAD_ARGS
+    fi
+
+    local loc_excludesFile=$1
+    local loc_hadoopHome=$2
+
+    if [ ! -f $loc_excludesFile ]; then
+	echo "ERROR: Excludes file \"$loc_excludesFile\" not found"
+	exit $ERROR_EXCLUDES_FILE_NOT_FOUND
+    fi
+
+    if [ ! -f $loc_hadoopHome/bin/hadoop ]; then
+	echo "ERROR: \"$loc_hadoopHome\" is not HADOOP_HOME"
+	exit $ERROR_BAD_HADOOP_HOME
+    fi
+}
+
+# Parse the error file generated for JobTracker
+# Handling known issues/non-issues in different distributions
+
+parseJTErrFile()
+{
+    file="$1"
+
+    firstWord=`head -1 $file | awk '{print $1}'`
+    numLines=`wc -l $file | awk '{print $1}'`
+
+# If first line says DEPRECATED use of "old" bin/hadoop and that is
+# the only warning, ignore it for now...(seen in Cloudera's distro)
+    if [[ "$firstWord" = "DEPRECATED:" && $numLines -eq 3 ]]; then
+	echo "WARNING: Using a DEPRECATED command (e.g., bin/hadoop instead of bin/mapred)"
+	return $WARN_IGNORE
+    fi
+
+    thirdWord=`head -1 $file | awk '{print $3}'`
+
+# If first line says INFO and this is the only line, its just some harmless logging
+# (seen in MapR 2.1.3)
+    if [[ "$thirdWord" = "INFO" && $numLines -eq 1 ]]; then
+	echo "Just some harmless logging in JTERR file"
+	return $WARN_IGNORE
+    fi
+
+# If connection error is detected report it differently from an unknown error
+    connLine=`sed -n '11p' < $file`
+    echo "$connLine"
+    arr=( $connLine )
+    lidx=${#arr[@]}
+    if [[ $lidx -gt 0 && "${arr[$((lidx-1))]}" = "refused" && "${arr[$((lidx-1))]}" = "Connection" ]]; then
+	echo "ERROR: Unable to connect to jobtracker"
+	return $ERROR_JT_CONNECTION
+    else
+	echo "Unknown error related to jobtracker"
+	return $ERROR_JT_UNKNOWN
+    fi
+}
+
+# Populate arrActiveTTs from the AliveNodesInfoJson attribute of the jobtracker's JobTrackerInfo bean
+# The attribute is a JSON string within the JSON response, so its quotes are escaped. Each entry is
+# given the "tracker_<host>:" form of the hadoop CLI output, so that isActive works for both.
+
+listActiveTTsFromJmx()
+{
+    if [[ -z "$jtHttpPort" ]]; then
+	return 1
+    fi
+
+    local loc_response=`curl -s -f --max-time $JMX_TIMEOUT_SECS "http://localhost:$jtHttpPort/jmx?qry=$JMX_QUERY" 2> /dev/null`
+    if [[ $? -ne 0 ]] || ! echo "$loc_response" | grep -q '"AliveNodesInfoJson"'; then
+	return 1
+    fi
+
+    arrActiveTTs=( $(echo "$loc_response" | grep '"AliveNodesInfoJson"' | grep -o 'hostname\\":\\"[^\\"]*' | sed 's/.*"//; s/^/tracker_/; s/$/:jmx/') )
+    return 0
+}
+
+# Populate arrActiveTTs with the tasktrackers currently known to the jobtracker
+
+listActiveTTs()
+{
+    if listActiveTTsFromJmx; then
+	return 0
+    fi
+
+    activeTTs=`$hadoopHome/bin/hadoop job -list-active-trackers 2> $JTERRFILE`
+
+    if [ -s $JTERRFILE ]; then
+	parseJTErrFile $JTERRFILE
+	returnVal=$?
+	if [ $returnVal -ne $WARN_IGNORE ]; then
+	    return $returnVal
+	fi
+    fi
+
+    arrActiveTTs=( $activeTTs )
+    return 0
+}
+
+# Ask the jobtracker to re-read the excludes file
+
+refreshNodes()
+{
+    $hadoopHome/bin/hadoop mradmin -refreshNodes 2> $JTERRFILE
+
+    if [ -s $JTERRFILE ]; then
+	parseJTErrFile $JTERRFILE
+	returnVal=$?
+	if [ $returnVal -ne $WARN_IGNORE ]; then
+	    return $returnVal
+	fi
+    fi
+    return 0
+}
+
+# Determine if the TT is active (running ok)
+
+isActive()
+{
+    ttList=("${!1}")
+    tt=tracker_"$2"
+
+    for ttData in ${ttList[@]}; do
+	activeTT=`echo $ttData | cut -d: -f1`
+# Depending on network configuration, we may get a trailing period for TT dnsname
+	if [[ "$activeTT" = "$tt" || "$activeTT" = "$tt." ]]; then
+	    return 1
+	fi
+    done
+
+    return 0
+}
+
+# Determine if the TT is already in the excludes file
+
+isExcluded()
+{
+    for tt in ${excludesList[@]}; do
+	if [ "$tt" = "$1" ]; then
+	    return 1
+	fi
+    done
+
+    return 0
+}
+
+# List the names of Active TTs
+
+listActiveTTNames()
+{
+    ttList=("${!1}")
+
+    for tt in ${ttList[@]}; do
+# Depending on network configuration, we may get a trailing period for TT dnsname
+	ttName=`echo "$tt" | cut -d: -f1 | cut -d_ -f1 --complement | sed s/[.]$//`
+	echo "TT: $ttName"
+    done
+}
+
+# Print Active TTs (to be sent back to remote caller)
+
+printActiveTTs()
+{
+    listActiveTTNames $1 >&6
+}
+
+decommission()
+{
+    local loc_dupl=0
+    local loc_inactiveTT=0
+    local loc_numToDecommission=0
+    local loc_numFailDecommission=0
+    local loc_ctr=0
+
+    listActiveTTs || return $?
+    local loc_numActiveTTs=${#arrActiveTTs[@]}
+
+    excludesList=( `cat $excludesFile` )
+
+    for ttDecommission in "$@"; do
+	isExcluded $ttDecommission
+	if [ $? -eq 1 ]; then
+	    echo "WARNING: $ttDecommission already exists!"
+	    loc_dupl=$((loc_dupl+1))
+	    continue
+	fi
+
+# Depending on network configuration, we may get a trailing period for TT dnsname
+# Currently passing both (with and without trailing period) to excludes list
+	echo "INFO: Adding $ttDecommission(.) to excludes file"
+	(echo $ttDecommission && echo $ttDecommission.) >> $excludesFile
+	if [ $? -ne 0 ]; then
+	    echo "ERROR: Error while trying to update excludes file"
+	    return $ERROR_EXCLUDES_FILE_UPDATE
+	fi
+
+	isActive arrActiveTTs[@] $ttDecommission
+	if [ $? -eq 1 ]; then
+	    loc_numToDecommission=$((loc_numToDecommission+1))
+	else
+	    echo "WARNING: $ttDecommission is currently not active!"
+	    loc_inactiveTT=$((loc_inactiveTT+1))
+	fi
+    done
+
+    refreshNodes || return $?
+
+# Determine if all the TTs to be decommissioned are actually decommissioned
+    while true; do
+	listActiveTTs || return $?
+	numDecommissioned=$((loc_numActiveTTs-${#arrActiveTTs[@]}))
+
+	if [[ $numDecommissioned -ne $loc_numToDecommission ]]; then
+	    loc_ctr=$((loc_ctr+1))
+	    if [[ $loc_ctr -eq 10 ]]; then
+		loc_numFailDecommission=$((loc_numToDecommission-numDecommissioned))
+		break
+	    fi
+	    echo "Waiting # $loc_ctr"
+	    sleep 1
+	else
+	    break
+	fi
+    done
+
+    if [[ $loc_numFailDecommission -ge 1 ]]; then
+	echo "ERROR: Failed to decommission $loc_numFailDecommission out of $loc_numToDecommission TTs"
+	return $ERROR_FAIL_DECOMMISSION
+    fi
+
+    if [[ $loc_dupl -ge 1 ]]; then
+	echo "WARNING: $loc_dupl TTs were already in the excludes list"
+	return $WARN_TT_EXCLUDESFILE
+    fi
+
+    if [[ $loc_inactiveTT -ge 1 ]]; then
+	echo "WARNING: Tried to decommission $loc_inactiveTT inactive TTs"
+	return $WARN_TT_ACTIVE
+    fi
+
+    echo "INFO: Successfully decommissioned all $loc_numToDecommission TTs"
+    return 0
+}
+
+recommission()
+{
+    local loc_numActiveTT=0
+    local loc_numToRecommission=0
+
+    listActiveTTs || return $?
+
+    for ttRecommission in "$@"; do
+	isActive arrActiveTTs[@] $ttRecommission
+	if [ $? -eq 0 ]; then
+	    loc_numToRecommission=$((loc_numToRecommission+1))
+	else
+	    echo "WARNING: $ttRecommission is currently active!"
+	    loc_numActiveTT=$((loc_numActiveTT+1))
+	fi
+    done
+
+# As with the recommission script, the excludes file is cleared each time
+    echo "INFO: Clearing excludes file..."
+    > $excludesFile
+
+    refreshNodes || return $?
+
+    if [[ $loc_numActiveTT -ge 1 ]]; then
+	echo "WARNING: Tried to recommission $loc_numActiveTT active TTs"
+	return $WARN_TT_ACTIVE
+    fi
+
+    echo "INFO: Successfully recommissioned all $loc_numToRecommission TTs"
+    return 0
+}
+
+check()
+{
+    local loc_numTargetTTs=$1
+    local loc_mismatchTTs=0
+    local loc_ctr=0
+
+    if [[ -z "$loc_numTargetTTs" || $loc_numTargetTTs -lt 0 ]]; then
+	echo "ERROR: Bad number of targetTTs - $loc_numTargetTTs"
+	return $ERROR_BAD_TARGET_TTS
+    fi
+
+    while true; do
+	listActiveTTs || return $?
+	numNewActiveTTs=${#arrActiveTTs[@]}
+
+	if [[ $numNewActiveTTs -ne $loc_numTargetTTs ]]; then
+	    loc_ctr=$((loc_ctr+1))
+	    if [[ $loc_ctr -eq 10 ]]; then
+		loc_mismatchTTs=$((numNewActiveTTs - loc_numTargetTTs))
+		break
+	    fi
+	    echo "Waiting # $loc_ctr"
+	    sleep 1
+	else
+	    break
+	fi
+    done
+
+    printActiveTTs arrActiveTTs[@]
+
+    if [[ $loc_mismatchTTs -eq 0 ]]; then
+	return 0
+    elif [[ $loc_mismatchTTs -lt 0 ]]; then
+	return $ERROR_FEWER_TTS
+    else
+	return $ERROR_EXCESS_TTS
+    fi
+}
+
+# Stream changes to the active TTs until the given TTs are all de/recommissioned
+
+watch()
+{
+    local loc_opType=$1
+    local loc_timeoutSecs=$2
+    local loc_pollMillis=$3
+    local loc_lastSnapshot=""
+
+    if [[ $# -lt 4 || -z "$loc_timeoutSecs" || -z "$loc_pollMillis" ]]; then
+	echo "ERROR: Bad arguments to watch - $*"
+	return $ERROR_BAD_ARGS
+    fi
+    shift 3
+
+    local loc_maxPollMillis=$((loc_pollMillis * WATCH_MAX_POLL_FACTOR))
+    local loc_currentPollMillis=$loc_pollMillis
+    local loc_deadline=$((`date +%s` + loc_timeoutSecs))
+
+    while true; do
+	listActiveTTs || return $?
+
+	snapshot=`listActiveTTNames arrActiveTTs[@] | sort`
+	if [ "$snapshot" != "$loc_lastSnapshot" ]; then
+	    if [ -n "$snapshot" ]; then
+		echo "$snapshot" >&6
+	    fi
+	    echo "$SNAPSHOT_TERMINATOR" >&6
+	    loc_lastSnapshot=$snapshot
+	    loc_currentPollMillis=$loc_pollMillis
+	else
+	    loc_currentPollMillis=$((loc_currentPollMillis * 2))
+	    if [[ $loc_currentPollMillis -gt $loc_maxPollMillis ]]; then
+		loc_currentPollMillis=$loc_maxPollMillis
+	    fi
+	fi
+
+	numPending=0
+	for tt in "$@"; do
+	    isActive arrActiveTTs[@] $tt
+	    active=$?
+	    if [[ "$loc_opType" = "Recommission" && $active -eq 0 ]] || [[ "$loc_opType" = "Decommission" && $active -eq 1 ]]; then
+		numPending=$((numPending+1))
+	    fi
+	done
+
+	if [[ $numPending -eq 0 ]]; then
+	    echo "INFO: All TTs ${loc_opType}ed"
+	    return 0
+	fi
+
+	if [[ `date +%s` -ge $loc_deadline ]]; then
+	    echo "ERROR: $numPending TTs not ${loc_opType}ed before timeout"
+	    if [ "$loc_opType" = "Recommission" ]; then
+		return $ERROR_FEWER_TTS
+	    else
+		return $ERROR_EXCESS_TTS
+	    fi
+	fi
+
+# Don't sleep past the deadline, so that the timeout is still reported on time
+	local loc_remainingMillis=$(((loc_deadline - `date +%s`) * 1000))
+	local loc_sleepMillis=$loc_currentPollMillis
+	if [[ $loc_sleepMillis -gt $loc_remainingMillis ]]; then
+	    loc_sleepMillis=$loc_remainingMillis
+	fi
+	if [[ $loc_sleepMillis -gt 0 ]]; then
+	    sleep `awk "BEGIN {print $loc_sleepMillis/1000}"`
+	fi
+    done
+}
+
+# Run a command while holding the lock shared with the de/recommission scripts
+
+runLocked()
+{
+    retVal=$ERROR_LOCK_FILE_WRITE
+    {
+# Wait for lock on $LOCKFILE (fd 200) for 10 seconds
+	flock -x -w 10 200
+	"$@"
+	retVal=$?
+    } 200>$LOCKFILE
+
+    if [[ $retVal -eq $ERROR_LOCK_FILE_WRITE ]]; then
+	echo "ERROR: Failed to write to lock file $LOCKFILE (permissions problem?)"
+    fi
+    return $retVal
+}
+
+main()
+{
+# Remove logfile if present
+    rm -f $LOGFILE
+
+# Keep the original stdout on fd 6 for responses and redirect everything else to a log file
+    exec 6>&1
+    exec > $LOGFILE 2>&1
+
+# Arguments check/set
+    checkArguments $*
+
+    excludesFile=$1
+    hadoopHome=$2
+    jtHttpPort=$3
+
+    echo "INFO: Arguments:: ExcludesFile: $excludesFile; hadoopHome: $hadoopHome; jtHttpPort: $jtHttpPort; role: $ROLE"
+
+# Set different environment, if specified
+    if [ -f $JTENV ]; then
+	. $JTENV # source this environment
+    fi
+
+# sudo runs us on a pty, so stop commands from being echoed back into the responses
+    if [ -t 0 ]; then
+	stty -echo
+    fi
+
+    echo "$RESPONSE_TERMINATOR 0" >&6
+
+    while read -r command args; do
+	echo "INFO: Received command: $command $args"
+	case "$command" in
+	    DECOMMISSION)
+		runLocked decommission $args
+		rc=$?
+		;;
+	    RECOMMISSION)
+		runLocked recommission $args
+		rc=$?
+		;;
+	    CHECK)
+		runLocked check $args
+		rc=$?
+		;;
+	    WATCH)
+# Watching only reads jobtracker state, so it does not hold the lock
+		watch $args
+		rc=$?
+		;;
+	    PING)
+		rc=0
+		;;
+	    QUIT)
+		break
+		;;
+	    *)
+		echo "ERROR: Unknown command \"$command\""
+		rc=$ERROR_BAD_ARGS
+		;;
+	esac
+	echo "$RESPONSE_TERMINATOR $rc" >&6
+    done
+
+    echo "INFO: Agent exiting"
+    exec 1>&6 6>&-
+    exit 0
+}
+
+main $*
@@ -0,0 +1,128 @@
+/***************************************************************************
+* Copyright (c) 2013 VMware, Inc. All Rights Reserved.
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+***************************************************************************/
+
+package com.vmware.vhadoop.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+import org.junit.Test;
+
+public class AsyncLogHandlerTest {
+
+   /* Formats each record as it is published, so that the thread decoration can be checked */
+   private static class CapturingHandler extends Handler {
+      final List<String> _formatted = Collections.synchronizedList(new ArrayList<String>());
+      volatile CountDownLatch _blockUntil;
+      volatile boolean _closed;
+
+      CapturingHandler() {
+         setFormatter(new DecoratedLogFormatter());
+      }
+
+      @Override
+      public void publish(LogRecord record) {
+         try {
+            if (_blockUntil != null) {
+               _blockUntil.await();
+            }
+         } catch (InterruptedException e) {
+         }
+         _formatted.add(getFormatter().format(record));
+      }
+
+      @Override
+      public void flush() {
+      }
+
+      @Override
+      public void close() {
+         _closed = true;
+      }
+   }
+
+   private LogRecord newRecord(Level level, String message) {
+      LogRecord record = new LogRecord(level, message);
+      record.setLoggerName("com.vmware.vhadoop.vhm.VHM");
+      return record;
+   }
+
+   @Test
+   public void recordsArePublishedInOrderOnClose() {
+      CapturingHandler target = new CapturingHandler();
+      AsyncLogHandler handler = new AsyncLogHandler(target, 100);
+      for (int i = 0; i < 50; i++) {
+         handler.publish(newRecord(Level.INFO, "message "+i));
+      }
+      handler.close();
+
+      assertTrue(target._closed);
+      assertEquals(50, target._formatted.size());
+      for (int i = 0; i < 50; i++) {
+         String formatted = target._formatted.get(i);
+         assertTrue(formatted, formatted.contains("message "+i+LogFormatter.NEWLINE));
+         /* Decorated with the publishing thread, not the writer thread */
+         assertTrue(formatted, formatted.contains("["+Thread.currentThread().getName()+"-VHM]"));
+      }
+      assertEquals(0, handler.getDroppedCount());
+
+      /* Anything after close is dropped */
+      handler.publish(newRecord(Level.INFO, "late"));
+      assertEquals(50, target._formatted.size());
+   }
+
+   @Test
+   public void recordsAreDroppedRatherThanBlocking() throws InterruptedException {
+      CapturingHandler target = new CapturingHandler();
+      target._blockUntil = new CountDownLatch(1);
+      AsyncLogHandler handler = new AsyncLogHandler(target, 10);
+
+      /* The writer takes a batch and blocks on its first record, so further records fill the ring and the rest are dropped */
+      int published = 0;
+      long deadline = System.currentTimeMillis() + 5000;
+      while ((handler.getDroppedCount() == 0) && (System.currentTimeMillis() < deadline)) {
+         handler.publish(newRecord(Level.INFO, "message "+published++));
+      }
+      long dropped = handler.getDroppedCount();
+      assertTrue(dropped > 0);
+
+      target._blockUntil.countDown();
+      handler.close();
+      String last = target._formatted.get(target._formatted.size() - 1);
+      assertTrue(last, last.contains("** ") && last.contains("Dropped "+dropped+" log records"));
+      assertEquals(published - dropped + 1, target._formatted.size());
+      assertTrue(target._formatted.get(0).contains("message 0"));
+   }
+
+   @Test
+   public void levelsOfTargetAreRespected() {
+      CapturingHandler target = new CapturingHandler();
+      target.setLevel(Level.WARNING);
+      AsyncLogHandler handler = new AsyncLogHandler(target);
+      handler.publish(newRecord(Level.INFO, "info"));
+      handler.publish(newRecord(Level.SEVERE, "severe"));
+      handler.close();
+      assertEquals(1, target._formatted.size());
+      assertTrue(target._formatted.get(0).contains("severe"));
+   }
+}
@@ -19,6 +19,8 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
 import org.junit.Before;
 import org.junit.Test;
 import static org.junit.Assert.*;
@@ -159,6 +161,51 @@ public class LogFormatterTest {
       }
    }
    
+   @Test
+   public void substitutionOfIds() {
+      for (String key : testData.keySet()) {
+         String expected = testData.get(key);
+         StringBuilder actual = new StringBuilder("prefix ");
+         LogFormatter.appendSwappingIdsForNames(actual, key);
+         assertEquals(key, "prefix "+expected, actual.toString());
+      }
+   }
+
+   @Test
+   public void formatting() {
+      LogFormatter formatter = new DecoratedLogFormatter();
+      LogRecord record = new LogRecord(Level.WARNING, "scaling <%C"+clusterId1+"%C> with <%V"+vmId1);
+      record.setLoggerName("com.vmware.vhadoop.vhm.VHM");
+      String result = formatter.format(record);
+      assertTrue(result, result.endsWith(" ** ["+Thread.currentThread().getName()+"-VHM] scaling "+clusterName1+" with "+vmName1+LogFormatter.NEWLINE));
+      assertTrue(result, result.matches("\\d{4} \\w{3} \\d{2} \\d{2}:\\d{2}:\\d{2}\\.\\d{3} .*(\\r)?\\n"));
+
+      /* Millis are padded and the cached second is reused within it */
+      record.setMillis(5);
+      String first = formatter.format(record);
+      record.setMillis(987);
+      String second = formatter.format(record);
+      assertEquals(first.substring(0, first.indexOf('.')), second.substring(0, second.indexOf('.')));
+      assertTrue(first, first.contains(".005 **"));
+      assertTrue(second, second.contains(".987 **"));
+
+      LogFormatter.setSourceThreadName("Other_Thread");
+      try {
+         assertTrue(formatter.format(record).contains("[Other_Thread-VHM]"));
+      } finally {
+         LogFormatter.setSourceThreadName(null);
+      }
+
+      record = new LogRecord(Level.INFO, "%d of %s");
+      record.setParameters(new Object[]{3, "<%V"+vmId2+"%V>"});
+      result = new LogFormatter().format(record);
+      assertTrue(result, result.endsWith("    3 of "+vmName2+LogFormatter.NEWLINE));
+
+      record.setParameters(new Object[]{"three", vmId2});
+      result = new LogFormatter().format(record);
+      assertTrue(result, result.contains("FOUND BADLY FORMATTED LOG MSG: %d of %s"));
+   }
+
    @Test
    public void collectionFormatting() {
       String result = LogFormatter.constructListOfLoggableVms(new HashSet(Arrays.asList(new String[]{vmId1, vmId2})));
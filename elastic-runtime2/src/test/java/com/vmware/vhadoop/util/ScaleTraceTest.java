@@ -0,0 +1,202 @@
+/***************************************************************************
+* Copyright (c) 2013 VMware, Inc. All Rights Reserved.
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+***************************************************************************/
+
+
+package com.vmware.vhadoop.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vmware.vhadoop.util.ScaleTrace.Phase;
+import com.vmware.vhadoop.util.ScaleTrace.Span;
+import com.vmware.vhadoop.util.ScaleTraceDump.OperationSummary;
+
+public class ScaleTraceTest {
+   private File _file;
+
+   @Before
+   public void setup() throws IOException {
+      _file = File.createTempFile("ScaleTraceTest", ".bin");
+      _file.delete();
+   }
+
+   @After
+   public void teardown() {
+      ScaleTrace.close();
+      _file.delete();
+   }
+
+   @Test
+   public void disabledUntilOpened() {
+      assertFalse(ScaleTrace.isEnabled());
+      ScaleTrace.beginOperation("cluster1", false);
+      ScaleTrace.endSpan(Phase.POWER_ON, ScaleTrace.startSpan(), "cluster1", Collections.singleton("vm-1"), true);
+      ScaleTrace.endOperation(true);
+      assertFalse(_file.exists());
+   }
+
+   @Test
+   public void spansOfAnOperation() throws IOException {
+      ScaleTrace.open(_file, 16);
+      assertTrue(ScaleTrace.isEnabled());
+
+      ScaleTrace.beginOperation("cluster1", false);
+      ScaleTrace.endSpan(Phase.CHOOSE_VMS, ScaleTrace.startSpan(), "cluster1", Arrays.asList("vm-1", "vm-2"), true);
+      ScaleTrace.endSpan(Phase.DNS_WAIT, ScaleTrace.startSpan(), null, "vm-2", 1, false);
+      ScaleTrace.endOperation(false);
+      /* Outside of any operation */
+      ScaleTrace.endSpan(Phase.POWER_OFF, ScaleTrace.startSpan(), "cluster2", Collections.singleton("vm-3"), true);
+
+      List<Span> spans = ScaleTrace.read(_file);
+      assertEquals(4, spans.size());
+      Span choose = spans.get(0);
+      assertEquals(Phase.CHOOSE_VMS, choose.getPhase());
+      assertEquals("cluster1", choose.getClusterId());
+      assertEquals(2, choose.getVmCount());
+      assertNull(choose.getVmId());
+      assertFalse(choose.isScaleIn());
+
+      Span dnsWait = spans.get(1);
+      assertEquals(choose.getOperationId(), dnsWait.getOperationId());
+      assertEquals("cluster1", dnsWait.getClusterId());
+      assertEquals("vm-2", dnsWait.getVmId());
+      assertTrue(dnsWait.isFailed());
+
+      Span operation = spans.get(2);
+      assertEquals(Phase.OPERATION, operation.getPhase());
+      assertEquals(choose.getOperationId(), operation.getOperationId());
+      assertTrue(operation.isFailed());
+      assertTrue(operation.getDurationMicros() >= dnsWait.getDurationMicros());
+
+      Span powerOff = spans.get(3);
+      assertEquals(0, powerOff.getOperationId());
+      assertEquals("vm-3", powerOff.getVmId());
+   }
+
+   @Test
+   public void ringWrapsAndCarriesOnAfterRestart() throws IOException {
+      ScaleTrace.open(_file, 4);
+      for (int i = 0; i < 6; i++) {
+         ScaleTrace.beginOperation("cluster-"+i, true);
+         ScaleTrace.endOperation(true);
+      }
+      List<Span> spans = ScaleTrace.read(_file);
+      assertEquals(4, spans.size());
+      assertEquals(3, spans.get(0).getSeq());
+      assertEquals("cluster-2", spans.get(0).getClusterId());
+      assertTrue(spans.get(0).isScaleIn());
+      long lastOperationId = spans.get(3).getOperationId();
+
+      ScaleTrace.close();
+      ScaleTrace.open(_file, 4);
+      ScaleTrace.beginOperation("cluster-6", true);
+      ScaleTrace.endOperation(true);
+      spans = ScaleTrace.read(_file);
+      assertEquals(7, spans.get(3).getSeq());
+      assertEquals(lastOperationId + 1, spans.get(3).getOperationId());
+
+      /* A different capacity starts afresh */
+      ScaleTrace.close();
+      ScaleTrace.open(_file, 8);
+      assertTrue(ScaleTrace.read(_file).isEmpty());
+   }
+
+   @Test
+   public void longIdsAreTruncated() throws IOException {
+      ScaleTrace.open(_file, 4);
+      StringBuilder longId = new StringBuilder();
+      for (int i = 0; i < 100; i++) {
+         longId.append('x');
+      }
+      ScaleTrace.endSpan(Phase.POWER_ON, ScaleTrace.startSpan(), longId.toString(), longId.toString(), 1, true);
+      Span span = ScaleTrace.read(_file).get(0);
+      assertTrue(longId.toString().startsWith(span.getClusterId()));
+      assertTrue(longId.toString().startsWith(span.getVmId()));
+      assertEquals(31, span.getVmId().length());
+   }
+
+   @Test
+   public void longIdsAreTruncatedOnCharacterBoundaries() throws IOException {
+      ScaleTrace.open(_file, 4);
+      StringBuilder longId = new StringBuilder();
+      for (int i = 0; i < 30; i++) {
+         /* Three bytes in UTF-8, so neither limit falls on a character boundary */
+         longId.append('\u96c6');
+      }
+      ScaleTrace.endSpan(Phase.POWER_ON, ScaleTrace.startSpan(), longId.toString(), longId.toString(), 1, true);
+      Span span = ScaleTrace.read(_file).get(0);
+      assertEquals(longId.substring(0, 18), span.getClusterId());
+      assertEquals(longId.substring(0, 10), span.getVmId());
+   }
+
+   private Span span(long operationId, Phase phase, long durationMillis, boolean scaleIn) {
+      Span span = new Span();
+      span._operationId = operationId;
+      span._phase = phase;
+      span._durationMicros = durationMillis * 1000;
+      span._scaleIn = scaleIn;
+      span._clusterId = "cluster1";
+      span._startMillis = 1000 + operationId;
+      return span;
+   }
+
+   @Test
+   public void dumpSummarizesPhasesAcrossOperations() {
+      List<Span> spans = new ArrayList<Span>();
+      for (int op = 1; op <= 10; op++) {
+         /* Two batches of TT verification in each operation are summed */
+         spans.add(span(op, Phase.TT_VERIFICATION, op * 10, false));
+         spans.add(span(op, Phase.TT_VERIFICATION, op * 10, false));
+         spans.add(span(op, Phase.OPERATION, op * 100, false));
+      }
+      spans.add(span(11, Phase.POWER_OFF, 5, true));
+      spans.add(span(11, Phase.OPERATION, 7, true));
+
+      List<OperationSummary> operations = ScaleTraceDump.summarize(spans, null);
+      assertEquals(11, operations.size());
+      assertEquals(20000L, (long)operations.get(0)._phaseMicros.get(Phase.TT_VERIFICATION));
+      assertTrue(ScaleTraceDump.summarize(spans, "cluster2").isEmpty());
+
+      long[] sorted = {1, 2, 3, 4, 5, 6, 7, 8, 9, 10};
+      assertEquals(5, ScaleTraceDump.percentile(sorted, 50));
+      assertEquals(9, ScaleTraceDump.percentile(sorted, 90));
+      assertEquals(10, ScaleTraceDump.percentile(sorted, 99));
+      assertEquals(0, ScaleTraceDump.percentile(new long[0], 50));
+
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      ScaleTraceDump.dump(new PrintStream(bytes), spans, null, true);
+      String output = bytes.toString();
+      assertTrue(output, output.contains("11 operations (10 scale out, 1 scale in, 0 failed)"));
+      assertTrue(output, output.contains("Scale out"));
+      assertTrue(output, output.matches("(?s).*TT_VERIFICATION +10 +110\\.0 +100\\.0 +180\\.0 +200\\.0 +200\\.0.*"));
+      assertTrue(output, output.contains("Scale in"));
+      assertTrue(output, output.matches("(?s).*POWER_OFF +1 +5\\.0.*"));
+   }
+}
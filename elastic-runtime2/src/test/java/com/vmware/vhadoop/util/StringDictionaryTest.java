@@ -0,0 +1,53 @@
+/***************************************************************************
+* Copyright (c) 2013 VMware, Inc. All Rights Reserved.
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+***************************************************************************/
+
+
+package com.vmware.vhadoop.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class StringDictionaryTest {
+
+   @Test
+   public void encodeAndDecode() {
+      StringDictionary dictionary = new StringDictionary();
+      assertEquals(StringDictionary.NULL_CODE, dictionary.encode(null));
+      assertNull(dictionary.decode(StringDictionary.NULL_CODE));
+
+      /* Enough values to grow the dictionary several times */
+      for (int i = 0; i < 100; i++) {
+         assertEquals(i, dictionary.encode("host-"+i));
+      }
+      for (int i = 0; i < 100; i++) {
+         assertEquals(i, dictionary.encode("host-"+i));
+         assertEquals("host-"+i, dictionary.decode(i));
+      }
+      assertEquals(100, dictionary.size());
+   }
+
+   @Test
+   public void canonicalizeSharesInstances() {
+      StringDictionary dictionary = new StringDictionary();
+      String first = new String("domain-c7");
+      String second = new String("domain-c7");
+      assertSame(first, dictionary.canonicalize(first));
+      assertSame(first, dictionary.canonicalize(second));
+      assertEquals(1, dictionary.size());
+   }
+}
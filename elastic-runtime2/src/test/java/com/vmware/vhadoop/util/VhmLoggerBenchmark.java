@@ -0,0 +1,107 @@
+/***************************************************************************
+* Copyright (c) 2013 VMware, Inc. All Rights Reserved.
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+***************************************************************************/
+
+
+package com.vmware.vhadoop.util;
+
+import java.lang.management.ManagementFactory;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * Compares the bytes allocated per log call by string concatenation with the VhmLogger equivalent, as done on the
+ *   ClusterStateChangeListener and ClusterMap hot paths. Not a unit test - run with java -cp ... VhmLoggerBenchmark [iterations]
+ * Allocation is measured with the HotSpot ThreadMXBean extension, so this needs a HotSpot-based JVM.
+ */
+public class VhmLoggerBenchmark {
+   private static final String VM_ID = "vm-1234";
+   private static final String CLUSTER_ID = "cluster-5678";
+
+   /* Stands in for VMConstantData and the like, whose toString is not free */
+   private static class EventData {
+      @Override
+      public String toString() {
+         return "vmType=COMPUTE, myUUID=4211c7e2-c1a9-4a3d-9d4e-8c5e1c7a3f22, isElastic=true";
+      }
+   }
+
+   private interface Case {
+      void run(EventData data, int i);
+   }
+
+   private static long allocatedBytes() {
+      com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+      return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+   }
+
+   private static void measure(String name, Case c, EventData data, int iterations) {
+      /* Warm up so that the JIT has compiled and, where it can, eliminated the allocation */
+      for (int i = 0; i < iterations; i++) {
+         c.run(data, i);
+      }
+      long startBytes = allocatedBytes();
+      long startNanos = System.nanoTime();
+      for (int i = 0; i < iterations; i++) {
+         c.run(data, i);
+      }
+      long nanos = System.nanoTime() - startNanos;
+      long bytes = allocatedBytes() - startBytes;
+      System.out.println(String.format("%-40s %10.1f bytes/event %10.1f ns/event", name, (double)bytes / iterations, (double)nanos / iterations));
+   }
+
+   public static void main(String[] args) {
+      int iterations = (args.length > 0) ? Integer.parseInt(args[0]) : 1000000;
+
+      final Logger logger = Logger.getLogger(VhmLoggerBenchmark.class.getName());
+      final VhmLogger vhmLogger = VhmLogger.getLogger(VhmLoggerBenchmark.class.getName());
+      logger.setUseParentHandlers(false);
+      logger.addHandler(new Handler() {
+         @Override
+         public void publish(LogRecord record) {
+         }
+
+         @Override
+         public void flush() {
+         }
+
+         @Override
+         public void close() {
+         }
+      });
+      EventData data = new EventData();
+
+      Case concatenated = new Case() {
+         @Override
+         public void run(EventData data, int i) {
+            logger.finer("Generating NewVmEvent for VM <%V"+VM_ID+"%V> in cluster <%C"+CLUSTER_ID+"%C>: "+data+" "+i);
+         }
+      };
+      Case parameterized = new Case() {
+         @Override
+         public void run(EventData data, int i) {
+            vhmLogger.log(Level.FINER, "Generating NewVmEvent for VM <%%V%s%%V> in cluster <%%C%s%%C>: %s %s", VM_ID, CLUSTER_ID, data, i);
+         }
+      };
+
+      for (Level level : new Level[]{Level.INFO, Level.FINER}) {
+         logger.setLevel(level);
+         System.out.println("Logger level "+level+", events logged at FINER:");
+         measure("  Logger with concatenation", concatenated, data, iterations);
+         measure("  VhmLogger with parameters", parameterized, data, iterations);
+      }
+   }
+}
@@ -0,0 +1,133 @@
+/***************************************************************************
+* Copyright (c) 2013 VMware, Inc. All Rights Reserved.
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+***************************************************************************/
+
+
+package com.vmware.vhadoop.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class VhmLoggerTest {
+   private VhmLogger _log;
+   private List<LogRecord> _records;
+
+   private static class CountingArg {
+      int _toStringCount;
+
+      @Override
+      public String toString() {
+         _toStringCount++;
+         return "counted";
+      }
+   }
+
+   @Before
+   public void setup() {
+      _log = VhmLogger.getLogger(VhmLoggerTest.class.getName());
+      _records = new ArrayList<LogRecord>();
+      Logger logger = _log.getLogger();
+      logger.setUseParentHandlers(false);
+      logger.setLevel(Level.INFO);
+      logger.addHandler(new Handler() {
+         @Override
+         public void publish(LogRecord record) {
+            _records.add(record);
+         }
+
+         @Override
+         public void flush() {
+         }
+
+         @Override
+         public void close() {
+         }
+      });
+   }
+
+   @After
+   public void teardown() {
+      Logger logger = _log.getLogger();
+      for (Handler handler : logger.getHandlers()) {
+         logger.removeHandler(handler);
+      }
+      LogFormatter._vmIdToNameMapper.remove("vm-1");
+   }
+
+   @Test
+   public void disabledLevelBuildsNothing() {
+      CountingArg arg = new CountingArg();
+      final boolean[] called = new boolean[1];
+      _log.fine("not logged %s", arg);
+      _log.log(Level.FINEST, "not logged %s %s %s %s", arg, arg, arg, arg);
+      _log.log(Level.FINE, new VhmLogger.MessageSupplier() {
+         @Override
+         public String get() {
+            called[0] = true;
+            return "not logged";
+         }
+      });
+      assertEquals(0, arg._toStringCount);
+      assertFalse(called[0]);
+      assertTrue(_records.isEmpty());
+   }
+
+   @Test
+   public void formattedAtEmission() {
+      LogFormatter._vmIdToNameMapper.put("vm-1", "compute1");
+      List<String> mutable = new ArrayList<String>();
+      mutable.add("a");
+      _log.log(Level.INFO, "VM <%%V%s%%V> has %s and %s", "vm-1", mutable, 3);
+      /* Changes after the call are not seen when the record is written, but immutable arguments are passed through as they are */
+      mutable.add("b");
+
+      assertEquals(1, _records.size());
+      LogRecord record = _records.get(0);
+      assertEquals("VM <%%V%s%%V> has %s and %s", record.getMessage());
+      assertEquals(3, record.getParameters()[2]);
+      assertTrue(new LogFormatter().format(record).contains("VM compute1 has [a] and 3"));
+   }
+
+   @Test
+   public void sourceMethodIsCaller() {
+      _log.getLogger().setLevel(Level.FINE);
+      _log.fine("a message %s", "with a parameter");
+      _log.log(Level.FINE, "a message without one");
+      _log.info("an info message %s", "with a parameter");
+
+      assertEquals(3, _records.size());
+      assertEquals(VhmLoggerTest.class.getName(), _records.get(0).getSourceClassName());
+      assertEquals("sourceMethodIsCaller", _records.get(0).getSourceMethodName());
+      assertEquals("sourceMethodIsCaller", _records.get(1).getSourceMethodName());
+      assertEquals(null, _records.get(2).getSourceMethodName());
+   }
+
+   @Test
+   public void badlyFormattedMessage() {
+      _log.info("a %d message", "not a number");
+      assertTrue(new LogFormatter().format(_records.get(0)).contains("FOUND BADLY FORMATTED LOG MSG: a %d message"));
+   }
+}
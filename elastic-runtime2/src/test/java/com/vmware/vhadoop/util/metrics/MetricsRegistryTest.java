@@ -0,0 +1,148 @@
+/***************************************************************************
+* Copyright (c) 2013 VMware, Inc. All Rights Reserved.
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+***************************************************************************/
+
+
+package com.vmware.vhadoop.util.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+public class MetricsRegistryTest {
+
+   @Test
+   public void bucketsCoverTheRangeOfALong() {
+      long[] values = {0, 1, 63, 64, 65, 127, 128, 1000, 123456789L, Long.MAX_VALUE};
+      int lastIndex = -1;
+      for (long value : values) {
+         int index = Histogram.bucketIndex(value);
+         assertTrue(index >= lastIndex);
+         assertTrue(index < Histogram.NUM_BUCKETS);
+         long upperBound = Histogram.bucketUpperBound(index);
+         assertTrue(value <= upperBound);
+         /* Relative precision of one part in 32 */
+         assertTrue((upperBound - value) <= (value / 32));
+         lastIndex = index;
+      }
+      assertEquals(Histogram.NUM_BUCKETS - 1, Histogram.bucketIndex(Long.MAX_VALUE));
+   }
+
+   @Test
+   public void percentilesMatchSortedValues() {
+      Histogram histogram = new Histogram();
+      assertEquals(0, histogram.get99thPercentile());
+
+      Random random = new Random(1);
+      int n = 10000;
+      long[] counts = new long[1000001];
+      for (int i = 0; i < n; i++) {
+         int value = random.nextInt(1000000);
+         counts[value]++;
+         histogram.record(value);
+      }
+      assertEquals(n, histogram.getCount());
+
+      double[] fractions = {0.5, 0.9, 0.99, 0.999};
+      for (double fraction : fractions) {
+         long rank = (long)Math.ceil(fraction * n);
+         long seen = 0;
+         long exact = 0;
+         for (int v = 0; v < counts.length; v++) {
+            seen += counts[v];
+            if (seen >= rank) {
+               exact = v;
+               break;
+            }
+         }
+         long reported = histogram.getValueAtPercentile(fraction);
+         assertTrue(reported >= exact);
+         assertTrue(reported <= exact + (exact / 32) + 1);
+      }
+
+      histogram.record(-5);
+      assertEquals(0, histogram.getMin());
+   }
+
+   @Test
+   public void metricsArePublishedOverJmx() throws Exception {
+      MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+      MetricsRegistry registry = new MetricsRegistry(mbeanServer);
+
+      Counter counter = registry.counter("test.jmx.count");
+      assertSame(counter, registry.counter("test.jmx.count"));
+      counter.add(3);
+      registry.histogram("test.jmx.micros").record(10);
+      registry.gauge("test.jmx.value", new Gauge() {
+         @Override
+         public long getValue() {
+            return 42;
+         }
+      });
+
+      assertEquals(3L, mbeanServer.getAttribute(MetricsRegistry.getObjectName("test.jmx.count"), "Count"));
+      assertEquals(10L, mbeanServer.getAttribute(MetricsRegistry.getObjectName("test.jmx.micros"), "99thPercentile"));
+      assertEquals(42L, mbeanServer.getAttribute(MetricsRegistry.getObjectName("test.jmx.value"), "Value"));
+
+      /* A gauge of the same name replaces the previous one */
+      registry.gauge("test.jmx.value", new Gauge() {
+         @Override
+         public long getValue() {
+            return 7;
+         }
+      });
+      assertEquals(7L, mbeanServer.getAttribute(MetricsRegistry.getObjectName("test.jmx.value"), "Value"));
+
+      for (String name : new String[] {"test.jmx.count", "test.jmx.micros", "test.jmx.value"}) {
+         ObjectName objectName = MetricsRegistry.getObjectName(name);
+         registry.remove(name);
+         assertFalse(mbeanServer.isRegistered(objectName));
+      }
+   }
+
+   @Test
+   public void snapshotIsWrittenToFile() throws Exception {
+      MetricsRegistry registry = new MetricsRegistry(null);
+      registry.counter("b.count").increment();
+      registry.histogram("a.micros").record(100);
+
+      File file = File.createTempFile("vhm-metrics", ".txt");
+      file.deleteOnExit();
+      registry.writeSnapshot(file);
+
+      BufferedReader reader = new BufferedReader(new FileReader(file));
+      try {
+         assertTrue(reader.readLine().startsWith("#"));
+         String line = reader.readLine();
+         assertTrue(line, line.startsWith("a.micros") && line.contains("count=1") && line.contains("p50=100"));
+         line = reader.readLine();
+         assertTrue(line, line.startsWith("b.count") && line.contains("count=1"));
+      } finally {
+         reader.close();
+      }
+      assertFalse(new File(file.getPath()+".tmp").exists());
+   }
+}
@@ -23,6 +23,7 @@ import java.util.Map;
 import java.util.Set;
 
 import com.vmware.vhadoop.api.vhm.ClusterMap;
+import com.vmware.vhadoop.api.vhm.ClusterSummary;
 import com.vmware.vhadoop.api.vhm.HadoopActions.HadoopClusterInfo;
 import com.vmware.vhadoop.api.vhm.events.ClusterScaleCompletionEvent;
 
@@ -56,6 +57,7 @@ public class ModelClusterMap implements ClusterMap
 	}
 
 	List<VM> vms = new LinkedList<VM>();
+	long summaryVersion;
 
 	public void populateTestData() {
       vms.add(new VM("vm1", "clusterA", "hostX", ON));
@@ -122,6 +124,39 @@ public class ModelClusterMap implements ClusterMap
 		return selected;
 	}
 
+	private Map<String, Integer> countComputeVMsByHost(final String clusterId, final boolean powerState) {
+		Map<String, Integer> selected = new HashMap<String, Integer>();
+		for (VM vm : vms) {
+			if (vm.cluster.equals(clusterId) && vm.power == powerState) {
+				Integer count = selected.get(vm.host);
+				selected.put(vm.host, (count == null) ? 1 : count + 1);
+			}
+		}
+
+		return selected;
+	}
+
+	/* Computed by scanning, with a new version on every call so that callers never skip work */
+	@Override
+	public ClusterSummary getClusterSummary(final String clusterId) {
+		int numOn = 0, numOff = 0, numWithDnsName = 0;
+		for (VM vm : vms) {
+			if (!vm.cluster.equals(clusterId)) {
+				continue;
+			}
+			if (vm.power) {
+				numOn++;
+			} else {
+				numOff++;
+			}
+		}
+		if ((numOn + numOff) == 0) {
+			return null;
+		}
+		return new ClusterSummary(clusterId, ++summaryVersion, numOn + numOff, numOn, numOff, numWithDnsName,
+				countComputeVMsByHost(clusterId, true), countComputeVMsByHost(clusterId, false));
+	}
+
 	@Override
 	public Set<String> listComputeVMsForPowerState(final boolean powerState) {
 		Set<String> selected = new HashSet<String>();
@@ -310,4 +345,12 @@ public class ModelClusterMap implements ClusterMap
       // TODO Auto-generated method stub
       return null;
    }
+
+   @Override
+   public void addVMFieldWatcher(Set<String> vmIds, VMFieldWatcher watcher) {
+   }
+
+   @Override
+   public void removeVMFieldWatcher(Set<String> vmIds, VMFieldWatcher watcher) {
+   }
 }
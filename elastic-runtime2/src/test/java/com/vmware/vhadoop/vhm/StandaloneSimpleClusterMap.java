@@ -23,6 +23,7 @@ import java.util.Map;
 import java.util.Set;
 
 import com.vmware.vhadoop.api.vhm.ClusterMap;
+import com.vmware.vhadoop.api.vhm.ClusterSummary;
 import com.vmware.vhadoop.api.vhm.HadoopActions.HadoopClusterInfo;
 import com.vmware.vhadoop.api.vhm.events.ClusterScaleCompletionEvent;
 
@@ -57,6 +58,11 @@ public class StandaloneSimpleClusterMap implements ClusterMap
 	}
 
 	List<VM> vms = new LinkedList<VM>();
+	long summaryVersion;
+	Map<String, String> scaleStrategyKeys = new HashMap<String, String>();
+	Map<String, Map<String, String>> extraInfo = new HashMap<String, Map<String, String>>();
+	Map<String, HadoopClusterInfo> hadoopInfo = new HashMap<String, HadoopClusterInfo>();
+	Map<VMFieldWatcher, Set<String>> watchers = new HashMap<VMFieldWatcher, Set<String>>();
 
 	public void populateTestData() {
       vms.add(new VM("vm1", "clusterA", "hostX", ON));
@@ -135,6 +141,42 @@ public class StandaloneSimpleClusterMap implements ClusterMap
 		return selected;
 	}
 
+	private Map<String, Integer> countComputeVMsByHost(final String clusterId, final boolean powerState) {
+		Map<String, Integer> selected = new HashMap<String, Integer>();
+		for (VM vm : vms) {
+			if (vm.cluster.equals(clusterId) && vm.power == powerState) {
+				Integer count = selected.get(vm.host);
+				selected.put(vm.host, (count == null) ? 1 : count + 1);
+			}
+		}
+
+		return selected;
+	}
+
+	/* Computed by scanning, with a new version on every call so that callers never skip work */
+	@Override
+	public ClusterSummary getClusterSummary(final String clusterId) {
+		int numOn = 0, numOff = 0, numWithDnsName = 0;
+		for (VM vm : vms) {
+			if (!vm.cluster.equals(clusterId)) {
+				continue;
+			}
+			if (vm.power) {
+				numOn++;
+				if (vm.get("DNS_NAME") != null) {
+					numWithDnsName++;
+				}
+			} else {
+				numOff++;
+			}
+		}
+		if ((numOn + numOff) == 0) {
+			return null;
+		}
+		return new ClusterSummary(clusterId, ++summaryVersion, numOn + numOff, numOn, numOff, numWithDnsName,
+				countComputeVMsByHost(clusterId, true), countComputeVMsByHost(clusterId, false));
+	}
+
 	@Override
 	public Set<String> listComputeVMsForPowerState(final boolean powerState) {
 		Set<String> selected = new HashSet<String>();
@@ -214,14 +256,22 @@ public class StandaloneSimpleClusterMap implements ClusterMap
 
 	@Override
 	public HadoopClusterInfo getHadoopInfoForCluster(final String clusterId) {
-		// TODO Auto-generated method stub
-		return null;
+		return hadoopInfo.get(clusterId);
 	}
 
+   public void setHadoopInfoForCluster(String clusterId, HadoopClusterInfo info) {
+      hadoopInfo.put(clusterId, info);
+   }
+
    @Override
    public Map<String, String> getDnsNamesForVMs(final Set<String> vms) {
-      // TODO Auto-generated method stub
-      return null;
+      Map<String, String> result = new HashMap<String, String>();
+      for (VM target : this.vms) {
+         if (vms.contains(target.id)) {
+            result.put(target.id, (String)target.get("DNS_NAME"));
+         }
+      }
+      return result.isEmpty() ? null : result;
    }
 
    @Override
@@ -273,26 +323,49 @@ public class StandaloneSimpleClusterMap implements ClusterMap
 
    @Override
    public String getScaleStrategyKey(String clusterId) {
-      // TODO Auto-generated method stub
-      return null;
+      return scaleStrategyKeys.get(clusterId);
+   }
+
+   public void setScaleStrategyKey(String clusterId, String key) {
+      scaleStrategyKeys.put(clusterId, key);
    }
 
    @Override
    public String getExtraInfo(String clusterId, String key) {
-      // TODO Auto-generated method stub
-      return null;
+      Map<String, String> clusterExtraInfo = extraInfo.get(clusterId);
+      return (clusterExtraInfo == null) ? null : clusterExtraInfo.get(key);
+   }
+
+   public void setExtraInfo(String clusterId, String key, String value) {
+      Map<String, String> clusterExtraInfo = extraInfo.get(clusterId);
+      if (clusterExtraInfo == null) {
+         clusterExtraInfo = new HashMap<String, String>();
+         extraInfo.put(clusterId, clusterExtraInfo);
+      }
+      clusterExtraInfo.put(key, value);
    }
 
    @Override
    public Set<String> getAllClusterIdsForScaleStrategyKey(String key) {
-      // TODO Auto-generated method stub
-      return null;
+      Set<String> result = new HashSet<String>();
+      for (Map.Entry<String, String> entry : scaleStrategyKeys.entrySet()) {
+         if (entry.getValue().equals(key)) {
+            result.add(entry.getKey());
+         }
+      }
+      return result.isEmpty() ? null : result;
    }
 
    @Override
    public Map<String, String> getVmIdsForDnsNames(Set<String> dnsNames) {
-      // TODO Auto-generated method stub
-      return null;
+      Map<String, String> result = new HashMap<String, String>();
+      for (VM target : vms) {
+         String dnsName = (String)target.get("DNS_NAME");
+         if ((dnsName != null) && dnsNames.contains(dnsName)) {
+            result.put(dnsName, target.id);
+         }
+      }
+      return result.isEmpty() ? null : result;
    }
 
    @Override
@@ -323,6 +396,15 @@ public class StandaloneSimpleClusterMap implements ClusterMap
             target.put("DNS_NAME", dnsName);
          }
       }
+      Map<VMFieldWatcher, Set<String>> toNotify;
+      synchronized (watchers) {
+         toNotify = new HashMap<VMFieldWatcher, Set<String>>(watchers);
+      }
+      for (Map.Entry<VMFieldWatcher, Set<String>> entry : toNotify.entrySet()) {
+         if (entry.getValue().contains(vm)) {
+            entry.getKey().vmFieldChanged(vm, VM_FIELD_DNS_NAME, dnsName);
+         }
+      }
    }
 
    @Override
@@ -375,4 +457,18 @@ public class StandaloneSimpleClusterMap implements ClusterMap
       // TODO Auto-generated method stub
       return null;
    }
+
+   @Override
+   public void addVMFieldWatcher(Set<String> vmIds, VMFieldWatcher watcher) {
+      synchronized (watchers) {
+         watchers.put(watcher, new HashSet<String>(vmIds));
+      }
+   }
+
+   @Override
+   public void removeVMFieldWatcher(Set<String> vmIds, VMFieldWatcher watcher) {
+      synchronized (watchers) {
+         watchers.remove(watcher);
+      }
+   }
 }
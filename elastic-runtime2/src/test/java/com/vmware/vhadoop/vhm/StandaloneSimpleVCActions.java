@@ -31,6 +31,8 @@ public class StandaloneSimpleVCActions implements VCActions {
    final PropertyChangeValues _propertyChangeValues = new PropertyChangeValues();
    boolean _isReady = false;
    Map<String, List<String>> _vmsInFolderMap = new HashMap<String, List<String>>();
+   Map<String, HostStats> _hostStats = new HashMap<String, HostStats>();
+   Map<String, VMStats> _vmStats = new HashMap<String, VMStats>();
 
    class PropertyChangeValues {
       VMEventData _eventToReturn;
@@ -109,6 +111,50 @@ public class StandaloneSimpleVCActions implements VCActions {
       return null;
    }
 
+   @Override
+   public Map<String, HostStats> getHostStats(Set<String> hostMoRefs) {
+      _latestArgs.put("getHostStats", new Object[]{hostMoRefs});
+      Map<String, HostStats> result = new HashMap<String, HostStats>();
+      for (String hostMoRef : hostMoRefs) {
+         HostStats stats = _hostStats.get(hostMoRef);
+         if (stats != null) {
+            result.put(hostMoRef, stats);
+         }
+      }
+      return result;
+   }
+
+   @Override
+   public Map<String, VMStats> getVMStats(Set<String> vmMoRefs) {
+      _latestArgs.put("getVMStats", new Object[]{vmMoRefs});
+      Map<String, VMStats> result = new HashMap<String, VMStats>();
+      for (String vmMoRef : vmMoRefs) {
+         VMStats stats = _vmStats.get(vmMoRef);
+         if (stats != null) {
+            result.put(vmMoRef, stats);
+         }
+      }
+      return result;
+   }
+
+   protected void setVMStats(String vmMoRef, Double cpuUsagePercent, Double cpuReadyPercent, Double memUsagePercent) {
+      VMStats stats = new VMStats();
+      stats._timestampMillis = System.currentTimeMillis();
+      stats._cpuUsagePercent = cpuUsagePercent;
+      stats._cpuReadyPercent = cpuReadyPercent;
+      stats._memUsagePercent = memUsagePercent;
+      _vmStats.put(vmMoRef, stats);
+   }
+
+   protected void setHostStats(String hostMoRef, Double cpuReadyPercent, Double memUsagePercent, Long diskLatencyMillis) {
+      HostStats stats = new HostStats();
+      stats._timestampMillis = System.currentTimeMillis();
+      stats._cpuReadyPercent = cpuReadyPercent;
+      stats._memUsagePercent = memUsagePercent;
+      stats._diskLatencyMillis = diskLatencyMillis;
+      _hostStats.put(hostMoRef, stats);
+   }
+
    @Override
    public boolean logEventForVM(EventSeverity level, String vmMoRef, String message) {
       _latestArgs.put("log", new Object[]{});
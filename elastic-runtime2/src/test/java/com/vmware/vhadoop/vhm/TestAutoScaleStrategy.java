@@ -0,0 +1,192 @@
+/***************************************************************************
+* Copyright (c) 2013 VMware, Inc. All Rights Reserved.
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+***************************************************************************/
+
+package com.vmware.vhadoop.vhm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.vmware.vhadoop.api.vhm.HadoopActions.JobTrackerMetrics;
+import com.vmware.vhadoop.api.vhm.events.ClusterScaleEvent;
+import com.vmware.vhadoop.util.ExternalizedParameters;
+import com.vmware.vhadoop.vhm.events.JobTrackerMetricsEvent;
+import com.vmware.vhadoop.vhm.events.VMUtilizationEvent;
+import com.vmware.vhadoop.vhm.strategy.AutoScaleStrategy;
+import com.vmware.vhadoop.vhm.strategy.AutoScaleStrategy.AutoScaleContext;
+import com.vmware.vhadoop.vhm.strategy.AutoScaleStrategy.Load;
+
+public class TestAutoScaleStrategy extends AbstractJUnitTest {
+   final long SCALE_OUT_SUSTAIN_MILLIS = ExternalizedParameters.get().getLong("AUTO_SCALE_OUT_SUSTAIN_MILLIS");
+   final long SCALE_IN_SUSTAIN_MILLIS = ExternalizedParameters.get().getLong("AUTO_SCALE_IN_SUSTAIN_MILLIS");
+   final long SCALE_OUT_COOLDOWN_MILLIS = ExternalizedParameters.get().getLong("AUTO_SCALE_OUT_COOLDOWN_MILLIS");
+   final long SCALE_IN_COOLDOWN_MILLIS = ExternalizedParameters.get().getLong("AUTO_SCALE_IN_COOLDOWN_MILLIS");
+   final long METRICS_MAX_AGE_MILLIS = ExternalizedParameters.get().getLong("AUTO_SCALE_METRICS_MAX_AGE_MILLIS");
+
+   final String CLUSTER_ID = "clusterA";
+
+   @After
+   public void destroy() {
+      MultipleReaderSingleWriterClusterMapAccess.destroy();
+   }
+
+   private void addCpuUsage(AutoScaleContext context, long time, double cpuUsagePercent) {
+      Set<ClusterScaleEvent> events = new HashSet<ClusterScaleEvent>();
+      events.add(new VMUtilizationEvent(CLUSTER_ID, time, cpuUsagePercent, 4));
+      context.updateMetrics(events);
+   }
+
+   private void addJobTrackerMetrics(AutoScaleContext context, long time, int occupiedSlots, int totalSlots, int pendingTasks) {
+      JobTrackerMetrics metrics = new JobTrackerMetrics();
+      metrics._occupiedMapSlots = occupiedSlots;
+      metrics._mapSlots = totalSlots;
+      metrics._waitingMaps = pendingTasks;
+      Set<ClusterScaleEvent> events = new HashSet<ClusterScaleEvent>();
+      events.add(new JobTrackerMetricsEvent(CLUSTER_ID, time, metrics));
+      context.updateMetrics(events);
+   }
+
+   @Test
+   public void testClassifyLoad() {
+      long now = 1000000;
+      AutoScaleContext context = new AutoScaleContext();
+      assertEquals(Load.UNKNOWN, context.classifyLoad(now));
+
+      addCpuUsage(context, now, 95);
+      assertEquals(Load.HIGH, context.classifyLoad(now));
+      addCpuUsage(context, now, 50);
+      assertEquals(Load.STEADY, context.classifyLoad(now));
+      addCpuUsage(context, now, 5);
+      assertEquals(Load.LOW, context.classifyLoad(now));
+
+      /* Once the JobTracker reports, pending tasks are needed for high load whatever the CPU usage */
+      addJobTrackerMetrics(context, now, 20, 20, 0);
+      addCpuUsage(context, now, 95);
+      assertEquals(Load.STEADY, context.classifyLoad(now));
+      addJobTrackerMetrics(context, now, 20, 20, 10);
+      assertEquals(Load.HIGH, context.classifyLoad(now));
+
+      /* Pending tasks with free slots are waiting to be scheduled */
+      addCpuUsage(context, now, 50);
+      addJobTrackerMetrics(context, now, 5, 20, 10);
+      assertEquals(Load.STEADY, context.classifyLoad(now));
+      addJobTrackerMetrics(context, now, 0, 0, 10);
+      assertEquals(Load.HIGH, context.classifyLoad(now));
+
+      addCpuUsage(context, now, 5);
+      addJobTrackerMetrics(context, now, 2, 20, 0);
+      assertEquals(Load.LOW, context.classifyLoad(now));
+
+      /* Older samples don't replace newer ones and stale samples are ignored */
+      addJobTrackerMetrics(context, now - 1, 20, 20, 10);
+      assertEquals(Load.LOW, context.classifyLoad(now));
+      assertEquals(Load.UNKNOWN, context.classifyLoad(now + METRICS_MAX_AGE_MILLIS + 1));
+   }
+
+   @Test
+   public void testScaleOutHysteresisAndCooldown() {
+      long now = 1000000;
+      AutoScaleContext context = new AutoScaleContext();
+      addCpuUsage(context, now, 95);
+      assertEquals(0, context.decideDelta(8, 8, 0, 0, now));
+
+      /* The load has to be sustained, and a dip resets it */
+      now += SCALE_OUT_SUSTAIN_MILLIS / 2;
+      addCpuUsage(context, now, 50);
+      assertEquals(0, context.decideDelta(8, 8, 0, 0, now));
+      now += SCALE_OUT_SUSTAIN_MILLIS / 2;
+      addCpuUsage(context, now, 95);
+      assertEquals(0, context.decideDelta(8, 8, 0, 0, now));
+      now += SCALE_OUT_SUSTAIN_MILLIS;
+      addCpuUsage(context, now, 95);
+      assertEquals(2, context.decideDelta(8, 8, 0, 0, now));
+
+      /* Still high, but in the cooldown */
+      now += SCALE_OUT_SUSTAIN_MILLIS;
+      addCpuUsage(context, now, 95);
+      assertTrue(SCALE_OUT_SUSTAIN_MILLIS < SCALE_OUT_COOLDOWN_MILLIS);
+      assertEquals(0, context.decideDelta(10, 6, 0, 0, now));
+      now += SCALE_OUT_COOLDOWN_MILLIS;
+      addCpuUsage(context, now, 95);
+      assertEquals(3, context.decideDelta(10, 6, 0, 0, now));
+   }
+
+   @Test
+   public void testScaleOutSizedForPendingTasks() {
+      long now = 1000000;
+      AutoScaleContext context = new AutoScaleContext();
+      /* 4 TaskTrackers with 4 slots each, so 40 pending tasks need 10 more */
+      addJobTrackerMetrics(context, now, 16, 16, 40);
+      assertEquals(0, context.decideDelta(4, 20, 0, 0, now));
+      now += SCALE_OUT_SUSTAIN_MILLIS;
+      addJobTrackerMetrics(context, now, 16, 16, 40);
+      assertEquals(10, context.decideDelta(4, 20, 0, 0, now));
+
+      /* Limited by the maximum */
+      context = new AutoScaleContext();
+      addJobTrackerMetrics(context, now, 16, 16, 40);
+      context.decideDelta(4, 20, 0, 6, now);
+      now += SCALE_OUT_SUSTAIN_MILLIS;
+      addJobTrackerMetrics(context, now, 16, 16, 40);
+      assertEquals(2, context.decideDelta(4, 20, 0, 6, now));
+   }
+
+   @Test
+   public void testScaleInCooldownAndMinimum() {
+      long now = 1000000;
+      AutoScaleContext context = new AutoScaleContext();
+      addJobTrackerMetrics(context, now, 0, 40, 0);
+      assertEquals(0, context.decideDelta(20, 0, 15, 0, now));
+      now += SCALE_IN_SUSTAIN_MILLIS;
+      addJobTrackerMetrics(context, now, 0, 40, 0);
+      assertEquals(-2, context.decideDelta(20, 0, 15, 0, now));
+
+      /* Low load is sustained again, but the cooldown after scaling is longer */
+      assertTrue(SCALE_IN_SUSTAIN_MILLIS < SCALE_IN_COOLDOWN_MILLIS);
+      now += SCALE_IN_SUSTAIN_MILLIS;
+      addJobTrackerMetrics(context, now, 0, 36, 0);
+      assertEquals(0, context.decideDelta(18, 2, 15, 0, now));
+      now += SCALE_IN_COOLDOWN_MILLIS;
+      addJobTrackerMetrics(context, now, 0, 36, 0);
+      assertEquals(-2, context.decideDelta(18, 2, 15, 0, now));
+
+      /* Never below the minimum */
+      now += SCALE_IN_COOLDOWN_MILLIS;
+      addJobTrackerMetrics(context, now, 0, 32, 0);
+      assertEquals(-1, context.decideDelta(16, 4, 15, 0, now));
+      now += SCALE_IN_COOLDOWN_MILLIS;
+      addJobTrackerMetrics(context, now, 0, 30, 0);
+      assertEquals(0, context.decideDelta(15, 5, 15, 0, now));
+   }
+
+   @Test
+   public void testBoundsEnforcedWithoutLoad() {
+      long now = 1000000;
+      AutoScaleContext context = new AutoScaleContext();
+      assertEquals(3, context.decideDelta(2, 10, 5, 0, now));
+      /* Not repeated while the VMs enabled for the minimum are still coming up */
+      assertEquals(0, context.decideDelta(2, 10, 5, 0, now + 1));
+      assertEquals(3, context.decideDelta(2, 10, 5, 0, now + SCALE_OUT_COOLDOWN_MILLIS));
+
+      assertEquals(-4, context.decideDelta(10, 2, 0, 6, now));
+      /* The minimum is limited by the number of compute VMs */
+      assertEquals(2, context.decideDelta(1, 2, 5, 0, now + (2 * SCALE_OUT_COOLDOWN_MILLIS)));
+   }
+}
@@ -0,0 +1,270 @@
+/***************************************************************************
+* Copyright (c) 2013 VMware, Inc. All Rights Reserved.
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+***************************************************************************/
+
+
+package com.vmware.vhadoop.vhm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vmware.vhadoop.api.vhm.ClusterMap.ClusterInfo;
+import com.vmware.vhadoop.api.vhm.ClusterMap.ExtraInfoToClusterMapper;
+import com.vmware.vhadoop.api.vhm.ClusterMap.VMInfo;
+import com.vmware.vhadoop.api.vhm.VCActions.VMEventData;
+import com.vmware.vhadoop.api.vhm.events.ClusterScaleEvent;
+import com.vmware.vhadoop.api.vhm.events.ClusterStateChangeEvent.SerengetiClusterConstantData;
+import com.vmware.vhadoop.api.vhm.events.ClusterStateChangeEvent.SerengetiClusterVariableData;
+import com.vmware.vhadoop.api.vhm.events.ClusterStateChangeEvent.VMConstantData;
+import com.vmware.vhadoop.api.vhm.events.ClusterStateChangeEvent.VMVariableData;
+import com.vmware.vhadoop.api.vhm.events.ClusterStateChangeEvent.VmType;
+import com.vmware.vhadoop.vhm.ClusterMapRecordStore.StoredCluster;
+import com.vmware.vhadoop.vhm.ClusterMapRecordStore.StoredVM;
+
+public class TestClusterMapRecordStore extends AbstractJUnitTest {
+   static final String EXTRA_INFO_KEY = "extraInfo1";
+
+   AbstractClusterMap _clusterMap;
+   ClusterStateChangeListenerImpl _cscl = new ClusterStateChangeListenerImpl(new StandaloneSimpleVCActions(), null);
+   File _storeFile;
+
+   @Before
+   public void initialize() throws IOException {
+      _storeFile = File.createTempFile("clusterMap", ".dat");
+      _storeFile.delete();
+   }
+
+   @After
+   public void cleanup() {
+      _storeFile.delete();
+   }
+
+   private AbstractClusterMap createClusterMap(ClusterMapRecordStore store) {
+      AbstractClusterMap result = new ClusterMapImpl(new ExtraInfoToClusterMapper() {
+         @Override
+         public String getStrategyKey(SerengetiClusterVariableData scvd, String clusterId) {
+            return DEFAULT_SCALE_STRATEGY_KEY;
+         }
+
+         @Override
+         public Map<String, String> parseExtraInfo(SerengetiClusterVariableData scvd, String clusterId) {
+            if ((scvd != null) && (scvd._minInstances != null)) {
+               return Collections.singletonMap(EXTRA_INFO_KEY, scvd._minInstances.toString());
+            }
+            return null;
+         }
+
+         @Override
+         public Set<ClusterScaleEvent> getImpliedScaleEventsForUpdate(SerengetiClusterVariableData scvd, String clusterId, boolean isNewCluster, boolean isClusterViable) {
+            return null;
+         }
+      });
+      result.attachRecordStore(store);
+      return result;
+   }
+
+   @Override
+   void processNewEventData(VMEventData eventData, String expectedClusterId, Set<ClusterScaleEvent> impliedScaleEvents) {
+      String clusterId = _clusterMap.handleClusterEvent(_cscl.translateVMEventData(eventData), impliedScaleEvents);
+      assertEquals(expectedClusterId, clusterId);
+   }
+
+   @Test
+   public void testRecordsAndGrowth() {
+      ClusterMapRecordStore store = ClusterMapRecordStore.allocateDirect(2);
+      VMConstantData constantData = new VMConstantData();
+      constantData._vmType = VmType.COMPUTE;
+      constantData._myUUID = "uuid";
+
+      VMVariableData variableData = new VMVariableData();
+      variableData._powerState = true;
+      variableData._vCPUs = 2;
+      variableData._hostMoRef = "host1";
+      variableData._dnsName = "vm0.example.com";
+      variableData._nicAndIpAddressMap = new HashMap<String, Set<String>>();
+      variableData._nicAndIpAddressMap.put("nic0", new HashSet<String>(Collections.singleton("10.0.0.1")));
+
+      VMInfo[] vms = new VMInfo[5];
+      for (int i = 0; i < vms.length; i++) {
+         variableData._myName = "vm"+i;
+         vms[i] = store.createVMInfo("vm"+i, constantData, variableData, "cluster1");
+      }
+      assertEquals(5, store.getVMCount());
+      assertEquals(8, store.getCapacity());
+
+      /* Records written before the store grew are still intact */
+      assertEquals("vm0", vms[0].getMyName());
+      assertEquals("vm0", vms[0].getMoRef());
+      assertEquals("cluster1", vms[0].getClusterId());
+      assertEquals(VmType.COMPUTE, vms[0].getVmType());
+      assertEquals("uuid", vms[0].getMyUUID());
+      assertEquals(Integer.valueOf(2), vms[0].getvCPUs());
+      assertEquals("host1", vms[0].getHostMoRef());
+      assertEquals(Boolean.TRUE, vms[0].getPowerState());
+      assertTrue(vms[0].getPowerOnTime() > 0);
+      assertEquals("vm0.example.com", vms[0].getDnsName());
+      assertEquals(variableData._nicAndIpAddressMap, vms[0].getNicAndIpAddressMap());
+
+      /* A value too long for its field is still kept */
+      StringBuilder longName = new StringBuilder();
+      for (int i = 0; i < 50; i++) {
+         longName.append("long name ");
+      }
+      vms[1].setMyName(longName.toString());
+      assertEquals(longName.toString(), vms[1].getMyName());
+      vms[1].setMyName("short");
+      assertEquals("short", vms[1].getMyName());
+
+      vms[2].setPowerState(null);
+      vms[2].setvCPUs(null);
+      vms[2].setDnsName(null);
+      vms[2].setNicAndIpAddressMap(null);
+      assertNull(vms[2].getPowerState());
+      assertNull(vms[2].getvCPUs());
+      assertNull(vms[2].getDnsName());
+      assertNull(vms[2].getNicAndIpAddressMap());
+
+      /* A freed slot is reused before the store grows again */
+      store.removeVM("vm3");
+      store.createVMInfo("vm5", constantData, variableData, "cluster1");
+      assertEquals(5, store.getVMCount());
+      assertEquals(8, store.getCapacity());
+   }
+
+   @Test
+   public void testWarmRestart() throws IOException {
+      ClusterMapRecordStore store = ClusterMapRecordStore.openMapped(_storeFile, 4);
+      _clusterMap = createClusterMap(store);
+      populateSimpleClusterMap(2, 4, true);
+      String clusterId = deriveClusterIdFromClusterName(CLUSTER_NAME_PREFIX+0);
+      String vmId = _clusterMap.listComputeVMsForCluster(clusterId).iterator().next();
+      Long powerOnTime = _clusterMap.getPowerOnTimeForVm(vmId);
+      String dnsName = _clusterMap.getDnsNameForVM(vmId);
+      assertNotNull(dnsName);
+      assertEquals(8, store.getVMCount());
+      assertEquals(2, store.getClusterCount());
+      store.close();
+
+      ClusterMapRecordStore restoredStore = ClusterMapRecordStore.openMapped(_storeFile);
+      assertEquals(8, restoredStore.getVMCount());
+      assertEquals(2, restoredStore.getClusterCount());
+      _clusterMap = createClusterMap(restoredStore);
+      _cscl = new ClusterStateChangeListenerImpl(new StandaloneSimpleVCActions(), null);
+      assertEquals(2, _clusterMap.getAllKnownClusterIds().size());
+      assertEquals(3, _clusterMap.listComputeVMsForCluster(clusterId).size());
+      assertEquals(DEFAULT_SCALE_STRATEGY_KEY, _clusterMap.getScaleStrategyKey(clusterId));
+      assertEquals("0", _clusterMap.getExtraInfo(clusterId, EXTRA_INFO_KEY));
+      assertEquals(dnsName, _clusterMap.getDnsNameForVM(vmId));
+      assertEquals(powerOnTime, _clusterMap.getPowerOnTimeForVm(vmId));
+      assertTrue(_clusterMap.checkPowerStateOfVm(vmId, true));
+
+      /* vCenter reports the same VMs as new on restart, which replaces the restored records rather than being rejected */
+      _clusterNames.clear();
+      populateSimpleClusterMap(1, 4, false);
+      assertEquals(8, restoredStore.getVMCount());
+      assertEquals(2, restoredStore.getClusterCount());
+      assertFalse(_clusterMap.checkPowerStateOfVm(vmId, true));
+      restoredStore.close();
+   }
+
+   private static String repeat(String value, int times) {
+      StringBuilder result = new StringBuilder();
+      for (int i = 0; i < times; i++) {
+         result.append(value);
+      }
+      return result.toString();
+   }
+
+   @Test
+   public void testOverflowedValuesSurviveRestart() throws IOException {
+      ClusterMapRecordStore store = ClusterMapRecordStore.openMapped(_storeFile, 2);
+      VMConstantData constantData = new VMConstantData();
+      constantData._vmType = VmType.COMPUTE;
+      constantData._myUUID = "uuid";
+
+      /* Both the name and the NICs are too long for their fields, and the NICs need more than one overflow record */
+      String longName = repeat("long name ", 50);
+      VMVariableData variableData = new VMVariableData();
+      variableData._powerState = true;
+      variableData._hostMoRef = "host1";
+      variableData._myName = longName;
+      variableData._nicAndIpAddressMap = new LinkedHashMap<String, Set<String>>();
+      for (int nic = 0; nic < 4; nic++) {
+         Set<String> ipAddresses = new HashSet<String>();
+         for (int ip = 0; ip < 40; ip++) {
+            ipAddresses.add("fe80::"+nic+":"+ip);
+         }
+         variableData._nicAndIpAddressMap.put("nic"+nic, ipAddresses);
+      }
+      VMInfo vm = store.createVMInfo("vm0", constantData, variableData, "cluster1");
+      assertEquals(longName, vm.getMyName());
+      assertEquals(variableData._nicAndIpAddressMap, vm.getNicAndIpAddressMap());
+      assertTrue(vm.nicAndIpAddressMapEquals(variableData._nicAndIpAddressMap));
+      assertFalse(vm.nicAndIpAddressMapEquals(Collections.singletonMap("nic0", Collections.singleton("10.0.0.1"))));
+
+      /* Replacing an overflowed value frees its overflow records, so the store only grows to hold the new one */
+      String otherLongName = repeat("other long name ", 20);
+      vm.setMyName(otherLongName);
+      int capacity = store.getCapacity();
+      vm.setMyName(longName);
+      assertEquals(capacity, store.getCapacity());
+
+      ClusterInfo clusterInfo = new ClusterInfo("cluster1", new SerengetiClusterConstantData());
+      Map<String, String> extraInfo = new HashMap<String, String>();
+      for (int i = 0; i < 50; i++) {
+         extraInfo.put("key"+i, "value"+i);
+      }
+      clusterInfo.putAllExtraInfo(extraInfo);
+      store.putCluster(clusterInfo);
+      store.close();
+
+      ClusterMapRecordStore restoredStore = ClusterMapRecordStore.openMapped(_storeFile);
+      assertEquals(1, restoredStore.getVMCount());
+      assertEquals(1, restoredStore.getClusterCount());
+      List<StoredVM> storedVMs = restoredStore.getStoredVMs();
+      assertEquals(longName, storedVMs.get(0)._variableData._myName);
+      assertEquals(variableData._nicAndIpAddressMap, storedVMs.get(0)._variableData._nicAndIpAddressMap);
+      List<StoredCluster> storedClusters = restoredStore.getStoredClusters();
+      assertEquals(extraInfo, storedClusters.get(0)._extraInfo);
+
+      /* Once the records are removed, all of the slots are free again, including those of the overflow records */
+      restoredStore.removeVM("vm0");
+      restoredStore.removeCluster("cluster1");
+      capacity = restoredStore.getCapacity();
+      variableData._myName = "short";
+      variableData._nicAndIpAddressMap = null;
+      for (int i = 0; i < capacity; i++) {
+         restoredStore.createVMInfo("vm"+i, constantData, variableData, "cluster1");
+      }
+      assertEquals(capacity, restoredStore.getCapacity());
+      restoredStore.close();
+   }
+}
@@ -0,0 +1,232 @@
+/***************************************************************************
+* Copyright (c) 2013 VMware, Inc. All Rights Reserved.
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+***************************************************************************/
+
+package com.vmware.vhadoop.vhm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.vmware.vhadoop.api.vhm.events.AsyncEventInjector;
+import com.vmware.vhadoop.api.vhm.events.EventConsumer;
+import com.vmware.vhadoop.api.vhm.events.EventInjector;
+import com.vmware.vhadoop.api.vhm.events.NotificationEvent;
+import com.vmware.vhadoop.util.metrics.MetricsRegistry;
+import com.vmware.vhadoop.vhm.events.AbstractNotificationEvent;
+
+public class TestEventInjectorRunner {
+
+   class TestEvent extends AbstractNotificationEvent {
+      final String _name;
+
+      TestEvent(String name) {
+         super(false, false);
+         _name = name;
+      }
+
+      @Override
+      public String toString() {
+         return _name;
+      }
+   }
+
+   static final int MAX_QUEUED_BATCHES = 16;
+
+   class QueueingConsumer implements EventConsumer {
+      final List<NotificationEvent> _queued = Collections.synchronizedList(new ArrayList<NotificationEvent>());
+      final CountDownLatch _latch;
+
+      QueueingConsumer() {
+         this(1);
+      }
+
+      /* The latch is released once the given number of collections have been queued */
+      QueueingConsumer(int numCollections) {
+         _latch = new CountDownLatch(numCollections);
+      }
+
+      @Override
+      public void placeEventOnQueue(NotificationEvent event) {
+         placeEventCollectionOnQueue(Arrays.asList(event));
+      }
+
+      @Override
+      public void placeEventCollectionOnQueue(List<? extends NotificationEvent> events) {
+         _queued.addAll(events);
+         _latch.countDown();
+      }
+   }
+
+   /* Injects one event for each event it sees, after an optional delay */
+   class TestInjector implements EventInjector {
+      final String _name;
+      final long _delayMillis;
+      final List<NotificationEvent> _seen = new ArrayList<NotificationEvent>();
+
+      TestInjector(String name, long delayMillis) {
+         _name = name;
+         _delayMillis = delayMillis;
+      }
+
+      @Override
+      public Set<? extends NotificationEvent> processEvent(NotificationEvent event) {
+         if (_delayMillis > 0) {
+            try {
+               Thread.sleep(_delayMillis);
+            } catch (InterruptedException e) {
+               Thread.currentThread().interrupt();
+            }
+         }
+         _seen.add(event);
+         return Collections.singleton(new TestEvent(_name+"-"+event));
+      }
+
+      @Override
+      public String getName() {
+         return _name;
+      }
+   }
+
+   class AsyncTestInjector extends TestInjector implements AsyncEventInjector {
+      AsyncTestInjector(String name) {
+         super(name, 0);
+      }
+   }
+
+   /* Doesn't process any events until it is released */
+   class BlockingTestInjector extends TestInjector {
+      final CountDownLatch _release = new CountDownLatch(1);
+
+      BlockingTestInjector(String name) {
+         super(name, 0);
+      }
+
+      @Override
+      public Set<? extends NotificationEvent> processEvent(NotificationEvent event) {
+         try {
+            _release.await();
+         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+         }
+         return super.processEvent(event);
+      }
+   }
+
+   @Test
+   public void testInjectedWithinBudget() {
+      QueueingConsumer consumer = new QueueingConsumer();
+      EventInjectorRunner runner = new EventInjectorRunner(consumer, 5000, MAX_QUEUED_BATCHES);
+      TestInjector a = new TestInjector("a", 0);
+      TestInjector b = new TestInjector("b", 0);
+      runner.registerEventInjector(a);
+      runner.registerEventInjector(b);
+
+      List<NotificationEvent> events = Arrays.<NotificationEvent>asList(new TestEvent("e1"), new TestEvent("e2"));
+      Set<NotificationEvent> injected = runner.runInjectors(events);
+      assertEquals(4, injected.size());
+      /* Each injector sees all of the events in order */
+      assertEquals(events, a._seen);
+      assertEquals(events, b._seen);
+      assertTrue(consumer._queued.isEmpty());
+   }
+
+   @Test
+   public void testOverrunAndAsyncAreQueued() throws InterruptedException {
+      QueueingConsumer consumer = new QueueingConsumer();
+      EventInjectorRunner runner = new EventInjectorRunner(consumer, 50, MAX_QUEUED_BATCHES);
+      TestInjector slow = new TestInjector("slow", 500);
+      runner.registerEventInjector(slow);
+      Set<NotificationEvent> injected = runner.runInjectors(Arrays.<NotificationEvent>asList(new TestEvent("e1")));
+      assertTrue(injected.isEmpty());
+      assertTrue(consumer._latch.await(5, TimeUnit.SECONDS));
+      assertEquals("[slow-e1]", consumer._queued.toString());
+
+      consumer = new QueueingConsumer();
+      runner = new EventInjectorRunner(consumer, 0, MAX_QUEUED_BATCHES);
+      runner.registerEventInjector(new AsyncTestInjector("async"));
+      injected = runner.runInjectors(Arrays.<NotificationEvent>asList(new TestEvent("e1")));
+      assertTrue(injected.isEmpty());
+      assertTrue(consumer._latch.await(5, TimeUnit.SECONDS));
+      assertEquals("[async-e1]", consumer._queued.toString());
+   }
+
+   @Test
+   public void testEachInjectorHasItsOwnBudget() throws InterruptedException {
+      QueueingConsumer consumer = new QueueingConsumer();
+      EventInjectorRunner runner = new EventInjectorRunner(consumer, 50, MAX_QUEUED_BATCHES);
+      /* Both take longer than the default budget, but only one takes longer than its own */
+      runner.registerEventInjector(new TestInjector("slowWithinBudget", 200), 5000);
+      runner.registerEventInjector(new TestInjector("slowOverBudget", 400), 100);
+
+      Set<NotificationEvent> injected = runner.runInjectors(Arrays.<NotificationEvent>asList(new TestEvent("e1")));
+      assertEquals("[slowWithinBudget-e1]", injected.toString());
+      assertTrue(consumer._latch.await(5, TimeUnit.SECONDS));
+      assertEquals("[slowOverBudget-e1]", consumer._queued.toString());
+   }
+
+   @Test
+   public void testInjectorThatHasFallenBehindIsNotWaitedFor() throws InterruptedException {
+      QueueingConsumer consumer = new QueueingConsumer(2);
+      EventInjectorRunner runner = new EventInjectorRunner(consumer, 5000, MAX_QUEUED_BATCHES);
+      BlockingTestInjector blocked = new BlockingTestInjector("blocked");
+      runner.registerEventInjector(blocked, 1000);
+      TestInjector fast = new TestInjector("fast", 0);
+      runner.registerEventInjector(fast);
+
+      assertEquals("[fast-e1]", runner.runInjectors(Arrays.<NotificationEvent>asList(new TestEvent("e1"))).toString());
+
+      /* The blocked injector is still working on the first batch, so there is no point waiting for it with the second */
+      long startMillis = System.currentTimeMillis();
+      assertEquals("[fast-e2]", runner.runInjectors(Arrays.<NotificationEvent>asList(new TestEvent("e2"))).toString());
+      assertTrue((System.currentTimeMillis() - startMillis) < 500);
+
+      /* Once released, it catches up in order */
+      blocked._release.countDown();
+      assertTrue(consumer._latch.await(5, TimeUnit.SECONDS));
+      assertEquals("[blocked-e1, blocked-e2]", consumer._queued.toString());
+
+      /* And is waited for again once it has */
+      assertEquals(2, runner.runInjectors(Arrays.<NotificationEvent>asList(new TestEvent("e3"))).size());
+   }
+
+   @Test
+   public void testBatchesAreDroppedOnceTooManyAreWaiting() throws InterruptedException {
+      QueueingConsumer consumer = new QueueingConsumer(3);
+      EventInjectorRunner runner = new EventInjectorRunner(consumer, 0, 2);
+      BlockingTestInjector blocked = new BlockingTestInjector("dropping");
+      runner.registerEventInjector(blocked, 10);
+      long droppedBefore = MetricsRegistry.get().counter("eventInjector.dropping.dropped.count").getCount();
+
+      /* The first batch is being processed and the next two are waiting, so the last one is dropped */
+      for (int i = 1; i <= 4; i++) {
+         assertTrue(runner.runInjectors(Arrays.<NotificationEvent>asList(new TestEvent("e"+i))).isEmpty());
+      }
+      assertEquals(1, MetricsRegistry.get().counter("eventInjector.dropping.dropped.count").getCount() - droppedBefore);
+
+      blocked._release.countDown();
+      assertTrue(consumer._latch.await(5, TimeUnit.SECONDS));
+      assertEquals("[dropping-e1, dropping-e2, dropping-e3]", consumer._queued.toString());
+      assertEquals(3, blocked._seen.size());
+   }
+}
@@ -0,0 +1,143 @@
+/***************************************************************************
+* Copyright (c) 2013 VMware, Inc. All Rights Reserved.
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+***************************************************************************/
+
+package com.vmware.vhadoop.vhm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vmware.vhadoop.api.vhm.PerformanceStats.Metric;
+import com.vmware.vhadoop.api.vhm.strategy.VMChooser.RankedVM;
+import com.vmware.vhadoop.vhm.strategy.HostStatsVMChooser;
+
+public class TestHostStatsVMChooser extends AbstractJUnitTest {
+   HostStatsVMChooser _chooser;
+   StandaloneSimpleClusterMap _map;
+   PerformanceStatsStore _stats;
+   final String _clusterId = "clusterA";
+
+   @Before
+   public void init() {
+      _stats = new PerformanceStatsStore(4, 0);
+      _chooser = new HostStatsVMChooser(_stats);
+      _map = new StandaloneSimpleClusterMap(true);
+      _chooser.initialize(getTestClusterMapReader(_map));
+
+      /* hostX and hostY both have 4 powered on and 6 powered off */
+      _map.clearMap();
+      int vm = 0;
+      for (String hostId : new String[] {"hostX", "hostY"}) {
+         for (int i = 0; i < 10; i++, vm++) {
+            _map.addVMToMap("vm"+vm, _clusterId, hostId, i < 4);
+         }
+      }
+   }
+
+   @After
+   public void destroy() {
+      MultipleReaderSingleWriterClusterMapAccess.destroy();
+   }
+
+   private void setHostStats(String hostId, double cpuReadyPercent, double memUsagePercent, double diskLatencyMillis) {
+      long now = System.currentTimeMillis();
+      _stats.addSample(hostId, Metric.HOST_CPU_READY_PERCENT, now, cpuReadyPercent);
+      _stats.addSample(hostId, Metric.HOST_MEM_USAGE_PERCENT, now, memUsagePercent);
+      _stats.addSample(hostId, Metric.HOST_DISK_LATENCY_MILLIS, now, diskLatencyMillis);
+   }
+
+   private int countOnHost(Set<String> vmIds, String hostId) {
+      int count = 0;
+      for (String vmId : vmIds) {
+         if (hostId.equals(_map.getHostIdForVm(vmId))) {
+            count++;
+         }
+      }
+      return count;
+   }
+
+   @Test
+   public void testNoStats() {
+      Set<String> candidateVmIds = _map.listComputeVMsForClusterAndPowerState(_clusterId, false);
+      assertNull(_chooser.rankVMsToEnable(_clusterId, candidateVmIds));
+      assertNull(_chooser.rankVMsToDisable(_clusterId, candidateVmIds));
+   }
+
+   @Test
+   public void testEnableOnLeastContendedHost() {
+      setHostStats("hostX", 8.0, 50.0, 5.0);
+      setHostStats("hostY", 1.0, 50.0, 5.0);
+
+      Set<String> candidateVmIds = _map.listComputeVMsForClusterAndPowerState(_clusterId, false);
+      Set<RankedVM> rankedVMs = _chooser.rankVMsToEnable(_clusterId, candidateVmIds);
+      assertEquals(candidateVmIds.size(), rankedVMs.size());
+
+      Set<String> chosen = RankedVM.selectLowestRankedIds(rankedVMs, 3);
+      assertEquals(3, countOnHost(chosen, "hostY"));
+
+      /* Once all of hostY is projected to be as loaded as hostX, VMs on hostX get chosen too */
+      chosen = RankedVM.selectLowestRankedIds(rankedVMs, 12);
+      assertEquals(6, countOnHost(chosen, "hostY"));
+      assertEquals(6, countOnHost(chosen, "hostX"));
+   }
+
+   @Test
+   public void testDisableOnMostContendedHost() {
+      setHostStats("hostX", 1.0, 50.0, 5.0);
+      setHostStats("hostY", 1.0, 50.0, 60.0);
+
+      Set<String> candidateVmIds = _map.listComputeVMsForClusterAndPowerState(_clusterId, true);
+      Set<RankedVM> rankedVMs = _chooser.rankVMsToDisable(_clusterId, candidateVmIds);
+      assertEquals(candidateVmIds.size(), rankedVMs.size());
+
+      Set<String> chosen = RankedVM.selectLowestRankedIds(rankedVMs, 2);
+      assertEquals(2, countOnHost(chosen, "hostY"));
+   }
+
+   @Test
+   public void testLoadIsWindowedMean() {
+      /* A single spike on hostY is outweighed by the rest of the window */
+      setHostStats("hostX", 4.0, 50.0, 5.0);
+      for (int i = 0; i < 3; i++) {
+         setHostStats("hostY", 1.0, 50.0, 5.0);
+      }
+      setHostStats("hostY", 10.0, 50.0, 5.0);
+
+      Set<String> candidateVmIds = _map.listComputeVMsForClusterAndPowerState(_clusterId, false);
+      Set<RankedVM> rankedVMs = _chooser.rankVMsToEnable(_clusterId, candidateVmIds);
+      assertEquals(1, countOnHost(RankedVM.selectLowestRankedIds(rankedVMs, 1), "hostY"));
+   }
+
+   @Test
+   public void testHostWithoutStatsIsAverage() {
+      _map.addVMToMap("vm100", _clusterId, "hostZ", false);
+      setHostStats("hostX", 8.0, 50.0, 5.0);
+      setHostStats("hostY", 1.0, 50.0, 5.0);
+
+      Set<String> candidateVmIds = _map.listComputeVMsForClusterAndPowerState(_clusterId, false);
+      Set<RankedVM> rankedVMs = _chooser.rankVMsToEnable(_clusterId, candidateVmIds);
+      assertEquals(candidateVmIds.size(), rankedVMs.size());
+
+      /* hostZ has no compute VMs powered on, so its first VM is assumed to add the whole average load */
+      Set<String> chosen = RankedVM.selectLowestRankedIds(rankedVMs, 3);
+      assertEquals(2, countOnHost(chosen, "hostY"));
+      assertEquals(1, countOnHost(chosen, "hostZ"));
+   }
+}
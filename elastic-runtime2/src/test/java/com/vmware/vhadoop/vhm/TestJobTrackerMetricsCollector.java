@@ -0,0 +1,213 @@
+/***************************************************************************
+* Copyright (c) 2013 VMware, Inc. All Rights Reserved.
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+***************************************************************************/
+
+package com.vmware.vhadoop.vhm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.vmware.vhadoop.api.vhm.HadoopActions;
+import com.vmware.vhadoop.api.vhm.HadoopActions.HadoopClusterInfo;
+import com.vmware.vhadoop.api.vhm.HadoopActions.JobTrackerMetrics;
+import com.vmware.vhadoop.api.vhm.events.EventProducer;
+import com.vmware.vhadoop.api.vhm.events.EventProducer.EventProducerStartStopCallback;
+import com.vmware.vhadoop.vhm.events.JobTrackerMetricsEvent;
+import com.vmware.vhadoop.vhm.strategy.AutoScaleStrategy;
+
+public class TestJobTrackerMetricsCollector extends AbstractJUnitTest {
+
+   @After
+   public void destroy() {
+      MultipleReaderSingleWriterClusterMapAccess.destroy();
+   }
+
+   /* Returns the metrics set for a job tracker, or null to simulate a job tracker that can't be read */
+   private class MetricsOnlyHadoopActions implements HadoopActions {
+      Map<String, JobTrackerMetrics> _metrics = new HashMap<String, JobTrackerMetrics>();
+
+      @Override
+      public JobTrackerMetrics getJobTrackerMetrics(HadoopClusterInfo cluster) {
+         return _metrics.get(cluster.getJobTrackerDnsName());
+      }
+
+      @Override
+      public void decommissionTTs(Set<String> ttDnsNames, HadoopClusterInfo cluster) {}
+
+      @Override
+      public void recommissionTTs(Set<String> ttDnsNames, HadoopClusterInfo cluster) {}
+
+      @Override
+      public Set<String> checkTargetTTsSuccess(String opType, Set<String> ttDnsNames, int totalTargetEnabled, HadoopClusterInfo cluster) {
+         return null;
+      }
+
+      @Override
+      public Set<String> checkTargetTTsSuccess(String opType, Set<String> ttDnsNames, int totalTargetEnabled, HadoopClusterInfo cluster, ActiveTTsListener listener) {
+         return null;
+      }
+
+      @Override
+      public Set<String> getActiveTTs(HadoopClusterInfo cluster, int totalTargetEnabled) {
+         return null;
+      }
+
+      @Override
+      public boolean validateTtHostNames(Set<String> dnsNames) {
+         return true;
+      }
+
+      @Override
+      public void prepareJobTracker(HadoopClusterInfo cluster) {}
+   }
+
+   @Test
+   public void testJobTrackerMetricsCollector() throws InterruptedException {
+      StandaloneSimpleClusterMap map = new StandaloneSimpleClusterMap(true);
+      map.setScaleStrategyKey("clusterA", AutoScaleStrategy.AUTO_SCALE_STRATEGY_KEY);
+      map.setScaleStrategyKey("clusterB", "manual");
+      map.setScaleStrategyKey("clusterC", AutoScaleStrategy.AUTO_SCALE_STRATEGY_KEY);
+      map.setHadoopInfoForCluster("clusterA", new HadoopClusterInfo("clusterA", "jtA", 8021));
+      map.setHadoopInfoForCluster("clusterB", new HadoopClusterInfo("clusterB", "jtB", 8021));
+      map.setHadoopInfoForCluster("clusterC", new HadoopClusterInfo("clusterC", "jtC", 8021));
+
+      MetricsOnlyHadoopActions hadoopActions = new MetricsOnlyHadoopActions();
+      JobTrackerMetrics metrics = new JobTrackerMetrics();
+      metrics._mapSlots = 8;
+      metrics._occupiedMapSlots = 6;
+      metrics._reduceSlots = 4;
+      metrics._occupiedReduceSlots = 1;
+      metrics._waitingMaps = 10;
+      metrics._waitingReduces = 2;
+      metrics._trackers = 4;
+      hadoopActions._metrics.put("jtA", metrics);
+      hadoopActions._metrics.put("jtB", metrics);
+
+      JobTrackerMetricsCollector collector = new JobTrackerMetricsCollector(hadoopActions);
+      collector.initialize(getTestClusterMapReader(map));
+
+      /* clusterB is scaled manually and clusterC's job tracker can't be read, so only clusterA has an event */
+      List<JobTrackerMetricsEvent> events = collector.collect();
+      assertEquals(1, events.size());
+      JobTrackerMetricsEvent event = events.get(0);
+      assertEquals("clusterA", event.getClusterId());
+      assertEquals(7, event.getOccupiedSlots());
+      assertEquals(12, event.getTotalSlots());
+      assertEquals(12, event.getPendingTasks());
+      assertEquals(4, event.getTrackers());
+
+      hadoopActions._metrics.put("jtC", metrics);
+      assertEquals(2, collector.collect().size());
+
+      map.setScaleStrategyKey("clusterA", "manual");
+      map.setScaleStrategyKey("clusterC", "manual");
+      assertTrue(collector.collect().isEmpty());
+      assertNull(map.getAllClusterIdsForScaleStrategyKey(AutoScaleStrategy.AUTO_SCALE_STRATEGY_KEY));
+      collector.stop();
+   }
+
+   /* Simulates a job tracker that never responds, recording when a read starts and when it is interrupted */
+   private class HungHadoopActions extends MetricsOnlyHadoopActions {
+      CountDownLatch _readStarted = new CountDownLatch(1);
+      CountDownLatch _readInterrupted = new CountDownLatch(1);
+
+      @Override
+      public JobTrackerMetrics getJobTrackerMetrics(HadoopClusterInfo cluster) {
+         _readStarted.countDown();
+         try {
+            Thread.sleep(Long.MAX_VALUE);
+         } catch (InterruptedException e) {
+            _readInterrupted.countDown();
+         }
+         return null;
+      }
+   }
+
+   private class RecordingStartStopCallback implements EventProducerStartStopCallback {
+      volatile boolean _failed;
+
+      @Override
+      public void notifyFailed(EventProducer thisProducer) {
+         _failed = true;
+      }
+
+      @Override
+      public void notifyStopped(EventProducer thisProducer) {}
+
+      @Override
+      public void notifyStarted(EventProducer thisProducer) {}
+   }
+
+   private int countReaderThreads() {
+      int result = 0;
+      for (Thread thread : Thread.getAllStackTraces().keySet()) {
+         if (thread.isAlive() && thread.getName().equals("JobTracker_Metrics_Reader")) {
+            result++;
+         }
+      }
+      return result;
+   }
+
+   /* Waits for the collector and all of its reader threads to have stopped */
+   private boolean waitForStopped(JobTrackerMetricsCollector collector, long timeoutMillis) throws InterruptedException {
+      long endTime = System.currentTimeMillis() + timeoutMillis;
+      while ((!collector.isStopped() || (countReaderThreads() > 0)) && (System.currentTimeMillis() < endTime)) {
+         Thread.sleep(10);
+      }
+      return collector.isStopped() && (countReaderThreads() == 0);
+   }
+
+   @Test
+   public void testStopInterruptsReadsAndCanRestart() throws InterruptedException {
+      StandaloneSimpleClusterMap map = new StandaloneSimpleClusterMap(true);
+      map.setScaleStrategyKey("clusterA", AutoScaleStrategy.AUTO_SCALE_STRATEGY_KEY);
+      map.setHadoopInfoForCluster("clusterA", new HadoopClusterInfo("clusterA", "jtA", 8021));
+
+      HungHadoopActions hadoopActions = new HungHadoopActions();
+      JobTrackerMetricsCollector collector = new JobTrackerMetricsCollector(hadoopActions);
+      collector.initialize(getTestClusterMapReader(map));
+      RecordingStartStopCallback callback = new RecordingStartStopCallback();
+
+      collector.start(callback);
+      assertTrue(hadoopActions._readStarted.await(5, TimeUnit.SECONDS));
+      collector.stop();
+
+      /* Stopping shuts down the reader threads, so neither they nor the hung read outlive the collector, and isn't treated as a failure */
+      assertTrue(hadoopActions._readInterrupted.await(5, TimeUnit.SECONDS));
+      assertTrue(waitForStopped(collector, 5000));
+      assertFalse(callback._failed);
+
+      /* VHM restarts its event producers when resetting them, so the collector must still be able to read after a stop */
+      hadoopActions._readStarted = new CountDownLatch(1);
+      hadoopActions._readInterrupted = new CountDownLatch(1);
+      collector.start(callback);
+      assertTrue(hadoopActions._readStarted.await(5, TimeUnit.SECONDS));
+      collector.stop();
+      assertTrue(hadoopActions._readInterrupted.await(5, TimeUnit.SECONDS));
+      assertTrue(waitForStopped(collector, 5000));
+      assertFalse(callback._failed);
+   }
+}
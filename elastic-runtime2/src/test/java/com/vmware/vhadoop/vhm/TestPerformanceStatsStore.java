@@ -0,0 +1,175 @@
+/***************************************************************************
+* Copyright (c) 2013 VMware, Inc. All Rights Reserved.
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+***************************************************************************/
+
+package com.vmware.vhadoop.vhm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.vmware.vhadoop.api.vhm.PerformanceStats.Metric;
+import com.vmware.vhadoop.vhm.events.VMUtilizationEvent;
+import com.vmware.vhadoop.vhm.strategy.AutoScaleStrategy;
+
+public class TestPerformanceStatsStore extends AbstractJUnitTest {
+   final double DELTA = 0.000001;
+
+   @After
+   public void destroy() {
+      MultipleReaderSingleWriterClusterMapAccess.destroy();
+   }
+
+   @Test
+   public void testWindowedAggregates() {
+      PerformanceStatsStore store = new PerformanceStatsStore(3, 0);
+      long now = System.currentTimeMillis();
+      assertNull(store.getMean("host1", Metric.HOST_CPU_READY_PERCENT));
+      assertEquals(0, store.getSampleCount("host1", Metric.HOST_CPU_READY_PERCENT));
+
+      store.addSample("host1", Metric.HOST_CPU_READY_PERCENT, now, 5.0);
+      store.addSample("host1", Metric.HOST_CPU_READY_PERCENT, now, 1.0);
+      assertEquals(2, store.getSampleCount("host1", Metric.HOST_CPU_READY_PERCENT));
+      assertEquals(3.0, store.getMean("host1", Metric.HOST_CPU_READY_PERCENT), DELTA);
+      assertEquals(5.0, store.getMax("host1", Metric.HOST_CPU_READY_PERCENT), DELTA);
+      assertEquals(1.0, store.getLatest("host1", Metric.HOST_CPU_READY_PERCENT), DELTA);
+
+      /* The 5.0 drops out of the window */
+      store.addSample("host1", Metric.HOST_CPU_READY_PERCENT, now, 2.0);
+      store.addSample("host1", Metric.HOST_CPU_READY_PERCENT, now, 3.0);
+      assertEquals(3, store.getSampleCount("host1", Metric.HOST_CPU_READY_PERCENT));
+      assertEquals(2.0, store.getMean("host1", Metric.HOST_CPU_READY_PERCENT), DELTA);
+      assertEquals(3.0, store.getMax("host1", Metric.HOST_CPU_READY_PERCENT), DELTA);
+
+      /* Metrics and entities are independent */
+      assertNull(store.getMean("host1", Metric.HOST_MEM_USAGE_PERCENT));
+      assertNull(store.getMean("host2", Metric.HOST_CPU_READY_PERCENT));
+
+      store.addSample("host1", Metric.HOST_MEM_USAGE_PERCENT, now, null);
+      assertNull(store.getMean("host1", Metric.HOST_MEM_USAGE_PERCENT));
+   }
+
+   @Test
+   public void testMaxMatchesBruteForce() {
+      int window = 7;
+      PerformanceStatsStore store = new PerformanceStatsStore(window, 0);
+      Random random = new Random(1);
+      double[] values = new double[500];
+      long now = System.currentTimeMillis();
+      for (int i = 0; i < values.length; i++) {
+         values[i] = random.nextInt(20);
+         store.addSample("vm1", Metric.VM_CPU_USAGE_PERCENT, now, values[i]);
+
+         double max = Double.NEGATIVE_INFINITY;
+         double sum = 0;
+         int count = 0;
+         for (int j = Math.max(0, i - window + 1); j <= i; j++, count++) {
+            max = Math.max(max, values[j]);
+            sum += values[j];
+         }
+         assertEquals(max, store.getMax("vm1", Metric.VM_CPU_USAGE_PERCENT), DELTA);
+         assertEquals(sum / count, store.getMean("vm1", Metric.VM_CPU_USAGE_PERCENT), DELTA);
+      }
+   }
+
+   @Test
+   public void testStaleAndRetained() {
+      PerformanceStatsStore store = new PerformanceStatsStore(3, 1000);
+      long now = System.currentTimeMillis();
+      store.addSample("host1", Metric.HOST_CPU_READY_PERCENT, now - 5000, 5.0);
+      assertNull(store.getMean("host1", Metric.HOST_CPU_READY_PERCENT));
+      store.addSample("host1", Metric.HOST_CPU_READY_PERCENT, now, 1.0);
+      assertEquals(3.0, store.getMean("host1", Metric.HOST_CPU_READY_PERCENT), DELTA);
+
+      store.addSample("host2", Metric.HOST_CPU_READY_PERCENT, now, 1.0);
+      store.retainEntities(Collections.singleton("host2"));
+      assertNull(store.getMean("host1", Metric.HOST_CPU_READY_PERCENT));
+      assertEquals(1.0, store.getMean("host2", Metric.HOST_CPU_READY_PERCENT), DELTA);
+   }
+
+   @Test
+   public void testSampler() {
+      StandaloneSimpleClusterMap map = new StandaloneSimpleClusterMap(true);
+      map.clearMap();
+      map.addVMToMap("vm1", "clusterA", "hostX", true);
+      map.addVMToMap("vm2", "clusterA", "hostY", false);
+
+      StandaloneSimpleVCActions vcActions = new StandaloneSimpleVCActions();
+      vcActions.setHostStats("hostX", 2.0, 40.0, 10L);
+      vcActions.setHostStats("hostY", 4.0, 60.0, 20L);
+      vcActions.setVMStats("vm1", 50.0, 1.0, 30.0);
+
+      PerformanceStatsStore store = new PerformanceStatsStore(3, 0);
+      PerformanceStatsSampler sampler = new PerformanceStatsSampler(vcActions, store);
+      sampler.initialize(getTestClusterMapReader(map));
+      sampler.sample();
+
+      /* Hosts with powered off compute VMs are sampled too, since they are candidates for enabling */
+      assertEquals(2.0, store.getLatest("hostX", Metric.HOST_CPU_READY_PERCENT), DELTA);
+      assertEquals(60.0, store.getLatest("hostY", Metric.HOST_MEM_USAGE_PERCENT), DELTA);
+      assertEquals(20.0, store.getLatest("hostY", Metric.HOST_DISK_LATENCY_MILLIS), DELTA);
+      assertEquals(50.0, store.getLatest("vm1", Metric.VM_CPU_USAGE_PERCENT), DELTA);
+      assertNull(store.getLatest("vm2", Metric.VM_CPU_USAGE_PERCENT));
+
+      vcActions.setHostStats("hostX", 4.0, 40.0, 10L);
+      sampler.sample();
+      assertEquals(3.0, store.getMean("hostX", Metric.HOST_CPU_READY_PERCENT), DELTA);
+      assertEquals(2, store.getSampleCount("vm1", Metric.VM_CPU_USAGE_PERCENT));
+
+      /* Once vm1 is powered off, its history is discarded */
+      map.setPowerStateForVM("vm1", false);
+      sampler.sample();
+      assertNull(store.getLatest("vm1", Metric.VM_CPU_USAGE_PERCENT));
+   }
+
+   @Test
+   public void testVMUtilizationEvents() {
+      StandaloneSimpleClusterMap map = new StandaloneSimpleClusterMap(true);
+      map.setScaleStrategyKey("clusterA", AutoScaleStrategy.AUTO_SCALE_STRATEGY_KEY);
+      map.setScaleStrategyKey("clusterB", "manual");
+
+      StandaloneSimpleVCActions vcActions = new StandaloneSimpleVCActions();
+      vcActions.setVMStats("vm1", 20.0, 1.0, 30.0);
+      vcActions.setVMStats("vm3", 60.0, 1.0, 30.0);
+      vcActions.setVMStats("vm5", 90.0, 1.0, 30.0);
+
+      PerformanceStatsStore store = new PerformanceStatsStore(3, 0);
+      PerformanceStatsSampler sampler = new PerformanceStatsSampler(vcActions, store);
+      sampler.initialize(getTestClusterMapReader(map));
+      sampler.sample();
+
+      Map<String, Set<String>> clusterVmIds = new HashMap<String, Set<String>>();
+      clusterVmIds.put("clusterA", map.listComputeVMsForClusterAndPowerState("clusterA", true));
+      clusterVmIds.put("clusterC", Collections.singleton("vm9"));
+      List<VMUtilizationEvent> events = sampler.getVMUtilizationEvents(clusterVmIds, 1234);
+
+      /* clusterC has no samples, so no event. vm2 in clusterA has no samples, so the mean is over vm1 and vm3 */
+      assertEquals(1, events.size());
+      VMUtilizationEvent event = events.get(0);
+      assertEquals("clusterA", event.getClusterId());
+      assertEquals(1234, event.getSampleTimeMillis());
+      assertEquals(2, event.getNumVMsSampled());
+      assertEquals(40.0, event.getMeanCpuUsagePercent(), DELTA);
+      assertEquals(90.0, store.getLatest("vm5", Metric.VM_CPU_USAGE_PERCENT), DELTA);
+   }
+}
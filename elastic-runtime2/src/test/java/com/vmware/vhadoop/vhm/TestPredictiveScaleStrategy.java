@@ -0,0 +1,183 @@
+/***************************************************************************
+* Copyright (c) 2013 VMware, Inc. All Rights Reserved.
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+***************************************************************************/
+
+package com.vmware.vhadoop.vhm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TimeZone;
+
+import org.junit.Test;
+
+import com.vmware.vhadoop.api.vhm.HadoopActions.JobTrackerMetrics;
+import com.vmware.vhadoop.api.vhm.events.ClusterScaleEvent;
+import com.vmware.vhadoop.util.ExternalizedParameters;
+import com.vmware.vhadoop.vhm.events.JobTrackerMetricsEvent;
+import com.vmware.vhadoop.vhm.events.SerengetiLimitInstruction;
+import com.vmware.vhadoop.vhm.events.VMUtilizationEvent;
+import com.vmware.vhadoop.vhm.strategy.DemandHistory;
+import com.vmware.vhadoop.vhm.strategy.DumbEDPolicy;
+import com.vmware.vhadoop.vhm.strategy.PredictiveScaleStrategy;
+import com.vmware.vhadoop.vhm.strategy.DemandHistory.Forecast;
+import com.vmware.vhadoop.vhm.strategy.PredictiveScaleStrategy.PredictiveContext;
+
+public class TestPredictiveScaleStrategy extends AbstractJUnitTest {
+   final long SCALE_IN_SUSTAIN_MILLIS = ExternalizedParameters.get().getLong("AUTO_SCALE_IN_SUSTAIN_MILLIS");
+   final long SCALE_IN_COOLDOWN_MILLIS = ExternalizedParameters.get().getLong("AUTO_SCALE_IN_COOLDOWN_MILLIS");
+
+   final long MINUTE = 60 * 1000;
+   final long HOUR = 60 * MINUTE;
+   final long DAY = 24 * HOUR;
+   final double DELTA = 0.000001;
+   final String CLUSTER_ID = "clusterA";
+
+   private DemandHistory newHistory(int minSamples) {
+      return new DemandHistory(15 * MINUTE, 0.5, minSamples, TimeZone.getTimeZone("UTC"));
+   }
+
+   /* A morning peak of 12 compute nodes at 09:00 each day, with 2 needed from 08:00 to 11:00 otherwise */
+   private void recordMorningPeaks(DemandHistory history, int days) {
+      for (int day = 0; day < days; day++) {
+         long start = day * DAY;
+         history.record(start + (8 * HOUR), 2);
+         history.record(start + (9 * HOUR), 10);
+         history.record(start + (9 * HOUR) + (5 * MINUTE), 12);
+         for (long time = start + (10 * HOUR); time < start + (11 * HOUR); time += 15 * MINUTE) {
+            history.record(time, 2);
+         }
+      }
+   }
+
+   /* VHM drops the events a strategy doesn't declare, which would lose limit instructions including the switch to manual */
+   @Test
+   public void testHandlesLimitInstructions() {
+      PredictiveScaleStrategy strategy = new PredictiveScaleStrategy(new DumbEDPolicy(null));
+      assertTrue(Arrays.asList(strategy.getScaleEventTypesHandled()).contains(SerengetiLimitInstruction.class));
+      assertTrue(Arrays.asList(strategy.getScaleEventTypesHandled()).contains(JobTrackerMetricsEvent.class));
+   }
+
+   @Test
+   public void testForecast() {
+      DemandHistory history = newHistory(2);
+      recordMorningPeaks(history, 1);
+      /* Not enough history yet */
+      assertNull(history.forecast(DAY + (9 * HOUR)));
+
+      recordMorningPeaks(history, 3);
+      long today = 3 * DAY;
+      Forecast forecast = history.forecast(today + (9 * HOUR) + (10 * MINUTE));
+      assertEquals(12.0, forecast.getDemand(), DELTA);
+      /* Three identical days */
+      assertEquals(0.75, forecast.getConfidence(), DELTA);
+      assertEquals(2.0, history.forecast(today + (8 * HOUR)).getDemand(), DELTA);
+      /* No history at all for the night */
+      assertNull(history.forecast(today + (3 * HOUR)));
+
+      Forecast peak = history.forecastPeak(today + (8 * HOUR), today + (8 * HOUR) + HOUR, 0.7);
+      assertEquals(12.0, peak.getDemand(), DELTA);
+      assertEquals(today + (9 * HOUR), peak.getTimeMillis());
+      assertNull(history.forecastPeak(today + (8 * HOUR), today + (8 * HOUR) + HOUR, 0.8));
+   }
+
+   @Test
+   public void testVariableDemandIsLessConfident() {
+      DemandHistory history = newHistory(2);
+      for (int day = 0; day < 6; day++) {
+         history.record((day * DAY) + (9 * HOUR), ((day % 2) == 0) ? 4 : 12);
+         history.record((day * DAY) + (10 * HOUR), 2);
+      }
+      Forecast forecast = history.forecast((6 * DAY) + (9 * HOUR));
+      assertNotNull(forecast);
+      assertTrue(forecast.getConfidence() < 0.7);
+      assertTrue((forecast.getDemand() > 4) && (forecast.getDemand() < 12));
+   }
+
+   @Test
+   public void testPrewarmAheadOfPeakAndRelease() {
+      DemandHistory history = newHistory(2);
+      recordMorningPeaks(history, 3);
+      long today = 3 * DAY;
+
+      /* Without a lead time, there is no forecast to act on and the load is unknown */
+      PredictiveContext context = new PredictiveContext(history);
+      assertEquals(0, context.decideDelta(2, 10, 1, 0, today + (8 * HOUR) + (40 * MINUTE)));
+      assertNull(context.getForecast());
+
+      /* 20 minutes ahead of the peak, with a 30 minute lead time */
+      context = new PredictiveContext(history);
+      context.setForecastSettings(30 * MINUTE, 0.7);
+      assertEquals(10, context.decideDelta(2, 10, 1, 0, today + (8 * HOUR) + (40 * MINUTE)));
+      assertTrue(context.describeDecision().contains("predicted in 20 minutes"));
+      /* The forecast is limited by the maximum */
+      context = new PredictiveContext(history);
+      context.setForecastSettings(30 * MINUTE, 0.7);
+      assertEquals(6, context.decideDelta(2, 10, 1, 8, today + (8 * HOUR) + (40 * MINUTE)));
+
+      /* After the peak, the nodes are released as the load falls, but no lower than the forecast */
+      long now = today + (10 * HOUR);
+      addCpuUsage(context, now, 5);
+      assertEquals(0, context.decideDelta(3, 9, 1, 8, now));
+      now += SCALE_IN_SUSTAIN_MILLIS;
+      addCpuUsage(context, now, 5);
+      assertEquals(-1, context.decideDelta(3, 9, 1, 8, now));
+      now += SCALE_IN_COOLDOWN_MILLIS;
+      addCpuUsage(context, now, 5);
+      assertEquals(0, context.decideDelta(2, 10, 1, 8, now));
+      assertEquals(2.0, context.getForecast().getDemand(), DELTA);
+
+      /* Once there is no forecast, only the configured minimum holds */
+      now = today + (12 * HOUR);
+      addCpuUsage(context, now, 5);
+      assertEquals(-1, context.decideDelta(2, 10, 1, 8, now));
+      assertNull(context.getForecast());
+   }
+
+   private void addCpuUsage(PredictiveContext context, long time, double cpuUsagePercent) {
+      Set<ClusterScaleEvent> events = new HashSet<ClusterScaleEvent>();
+      events.add(new VMUtilizationEvent(CLUSTER_ID, time, cpuUsagePercent, 4));
+      context.updateMetrics(events);
+   }
+
+   @Test
+   public void testLearnsFromJobTrackerMetrics() {
+      DemandHistory history = newHistory(1);
+      PredictiveContext context = new PredictiveContext(history);
+      long now = 9 * HOUR;
+
+      /* 4 TaskTrackers with 2 slots each, all busy, and 8 more tasks waiting */
+      JobTrackerMetrics metrics = new JobTrackerMetrics();
+      metrics._mapSlots = 8;
+      metrics._occupiedMapSlots = 8;
+      metrics._waitingMaps = 8;
+      metrics._trackers = 4;
+      Set<ClusterScaleEvent> events = new HashSet<ClusterScaleEvent>();
+      events.add(new JobTrackerMetricsEvent(CLUSTER_ID, now, metrics));
+      context.updateMetrics(events);
+      context.decideDelta(4, 8, 0, 0, now);
+
+      /* Without metrics, the cluster size is learned instead */
+      context.decideDelta(4, 8, 0, 0, now + HOUR);
+      context.decideDelta(4, 8, 0, 0, now + (2 * HOUR));
+
+      assertEquals(8.0, history.forecast(DAY + (9 * HOUR)).getDemand(), DELTA);
+      assertEquals(4.0, history.forecast(DAY + (10 * HOUR)).getDemand(), DELTA);
+   }
+}
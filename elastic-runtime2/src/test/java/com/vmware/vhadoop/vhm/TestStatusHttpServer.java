@@ -0,0 +1,154 @@
+/***************************************************************************
+* Copyright (c) 2013 VMware, Inc. All Rights Reserved.
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+***************************************************************************/
+
+
+package com.vmware.vhadoop.vhm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.vmware.vhadoop.api.vhm.ClusterMap.ExtraInfoToClusterMapper;
+import com.vmware.vhadoop.api.vhm.events.ClusterScaleEvent;
+import com.vmware.vhadoop.api.vhm.events.ClusterStateChangeEvent.SerengetiClusterVariableData;
+import com.vmware.vhadoop.api.vhm.VCActions.VMEventData;
+
+public class TestStatusHttpServer extends AbstractJUnitTest {
+   static final String STRATEGY_KEY = "testStrategy";
+
+   AbstractClusterMap _clusterMap;
+   StatusHttpServer _server;
+   ClusterStateChangeListenerImpl _cscl = new ClusterStateChangeListenerImpl(new StandaloneSimpleVCActions(), null);
+
+   @Override
+   void processNewEventData(VMEventData eventData, String expectedClusterId, Set<ClusterScaleEvent> impliedScaleEvents) {
+      _clusterMap.handleClusterEvent(_cscl.translateVMEventData(eventData), impliedScaleEvents);
+   }
+
+   @Before
+   public void initialize() throws Exception {
+      _clusterMap = new ClusterMapImpl(new ExtraInfoToClusterMapper() {
+         @Override
+         public String getStrategyKey(SerengetiClusterVariableData scvd, String clusterId) {
+            return STRATEGY_KEY;
+         }
+
+         @Override
+         public Map<String, String> parseExtraInfo(SerengetiClusterVariableData scvd, String clusterId) {
+            return null;
+         }
+
+         @Override
+         public Set<ClusterScaleEvent> getImpliedScaleEventsForUpdate(SerengetiClusterVariableData scvd, String clusterId, boolean isNewCluster, boolean isClusterViable) {
+            return null;
+         }
+      });
+      _server = new StatusHttpServer(null);
+      _server.initialize(getTestClusterMapReader(_clusterMap));
+      _server.start("127.0.0.1", 0);
+   }
+
+   @After
+   public void cleanup() {
+      _server.stop();
+      MultipleReaderSingleWriterClusterMapAccess.destroy();
+   }
+
+   private JsonElement get(String path) throws Exception {
+      HttpURLConnection connection = (HttpURLConnection)new URL("http://127.0.0.1:"+_server.getPort()+path).openConnection();
+      assertEquals(200, connection.getResponseCode());
+      Reader reader = new InputStreamReader(connection.getInputStream(), "UTF-8");
+      try {
+         return new JsonParser().parse(reader);
+      } finally {
+         reader.close();
+      }
+   }
+
+   @Test
+   public void testVMsAreStreamedInPages() throws Exception {
+      /* More VMs per cluster than fit in a page, so that the views span several read locks */
+      int vmsPerCluster = StatusHttpServer.VM_PAGE_SIZE + 50;
+      populateSimpleClusterMap(2, vmsPerCluster, true);
+
+      /* The VMs of each cluster include its master VM */
+      JsonArray allVMs = get("/vms").getAsJsonArray();
+      assertEquals(2 * vmsPerCluster, allVMs.size());
+
+      /* Pages follow on from each other in id order, with no VM repeated or skipped at a page boundary */
+      String previousVmId = null;
+      for (JsonElement vm : allVMs) {
+         String vmId = vm.getAsJsonObject().get("vmId").getAsString();
+         if (previousVmId != null) {
+            assertTrue(previousVmId.compareTo(vmId) < 0);
+         }
+         previousVmId = vmId;
+      }
+
+      JsonObject status = get("/status").getAsJsonObject();
+      assertEquals(2, status.get("clusters").getAsInt());
+      assertEquals(2 * vmsPerCluster, status.get("vms").getAsInt());
+
+      String clusterId = deriveClusterIdFromClusterName(_clusterNames.iterator().next());
+      JsonArray clusterVMs = get("/vms?cluster="+clusterId).getAsJsonArray();
+      assertEquals(vmsPerCluster, clusterVMs.size());
+      for (JsonElement vm : clusterVMs) {
+         assertEquals(clusterId, vm.getAsJsonObject().get("clusterId").getAsString());
+      }
+   }
+
+   @Test
+   public void testClustersAndStatus() throws Exception {
+      populateSimpleClusterMap(3, 4, false);
+
+      JsonArray clusters = get("/clusters").getAsJsonArray();
+      assertEquals(3, clusters.size());
+      for (JsonElement element : clusters) {
+         JsonObject cluster = element.getAsJsonObject();
+         assertEquals(STRATEGY_KEY, cluster.get("scaleStrategy").getAsString());
+         assertEquals(0, cluster.get("computeVMsOn").getAsInt());
+         assertEquals(3, cluster.get("computeVMsOff").getAsInt());
+      }
+
+      JsonObject status = get("/status").getAsJsonObject();
+      assertEquals(3, status.get("clusters").getAsInt());
+      assertEquals(12, status.get("vms").getAsInt());
+      assertEquals(0, status.get("operationsInProgress").getAsInt());
+
+      assertEquals(0, get("/operations").getAsJsonArray().size());
+      assertTrue(get("/metrics").isJsonObject());
+   }
+
+   @Test
+   public void testOnlyGetIsAllowed() throws Exception {
+      HttpURLConnection connection = (HttpURLConnection)new URL("http://127.0.0.1:"+_server.getPort()+"/status").openConnection();
+      connection.setRequestMethod("DELETE");
+      assertEquals(405, connection.getResponseCode());
+   }
+}
@@ -20,7 +20,11 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -53,6 +57,7 @@ import com.vmware.vhadoop.vhm.events.SerengetiLimitInstruction;
 import com.vmware.vhadoop.vhm.events.SerengetiLimitInstruction.SerengetiLimitAction;
 import com.vmware.vhadoop.vhm.rabbit.RabbitAdaptor.RabbitConnectionCallback;
 import com.vmware.vhadoop.vhm.rabbit.VHMJsonReturnMessage;
+import com.vmware.vhadoop.vhm.strategy.AutoScaleStrategy;
 import com.vmware.vhadoop.vhm.strategy.DumbEDPolicy;
 import com.vmware.vhadoop.vhm.strategy.DumbVMChooser;
 import com.vmware.vhadoop.vhm.strategy.ManualScaleStrategy;
@@ -67,6 +72,9 @@ public class VHMIntegrationTest extends AbstractJUnitTest implements EventProduc
 
    public static final String STRATEGY_KEY = "StrategyKey";
 
+   /* The scale strategy used for clusters with automation enabled. Tests can change this before populating the clusters */
+   String _automationStrategyKey = STRATEGY_KEY;
+
    /* EventProducer fields */
    EventConsumer _eventConsumer;
 
@@ -109,7 +117,7 @@ public class VHMIntegrationTest extends AbstractJUnitTest implements EventProduc
       _strategyMapper = new ExtraInfoToClusterMapper() {
          @Override
          public String getStrategyKey(SerengetiClusterVariableData cvd, String clusterId) {
-            return cvd._enableAutomation ? STRATEGY_KEY : ManualScaleStrategy.MANUAL_SCALE_STRATEGY_KEY;
+            return cvd._enableAutomation ? _automationStrategyKey : ManualScaleStrategy.MANUAL_SCALE_STRATEGY_KEY;
          }
 
          @Override
@@ -147,7 +155,8 @@ public class VHMIntegrationTest extends AbstractJUnitTest implements EventProduc
       /* TrivialScaleStrategy is the default used as is picked if vmd._masterVmData._enableAutomation is true (see above) */
       _trivialScaleStrategy = new TrivialScaleStrategy(STRATEGY_KEY);
       ManualScaleStrategy manualScaleStrategy = new ManualScaleStrategy(new DumbEDPolicy(_vcActions));
-      _vhm = new VHM(_vcActions, new ScaleStrategy[]{_trivialScaleStrategy, manualScaleStrategy},
+      AutoScaleStrategy autoScaleStrategy = new AutoScaleStrategy(new DumbEDPolicy(_vcActions));
+      _vhm = new VHM(_vcActions, new ScaleStrategy[]{_trivialScaleStrategy, manualScaleStrategy, autoScaleStrategy},
             _strategyMapper, new ThreadLocalCompoundStatus());
       assertTrue(_vhm.registerEventProducer(_clusterStateChangeListener));
       assertTrue(_vhm.registerEventProducer(this));
@@ -766,6 +775,67 @@ public class VHMIntegrationTest extends AbstractJUnitTest implements EventProduc
       assertNotNull(latestEvent);
    }
 
+   /* Checks that a cluster using the real automatic scale strategy can be switched to manual, and that limit instructions are not dropped for it */
+   @Test
+   public void testSwitchToManualFromAuto() throws InterruptedException {
+      _automationStrategyKey = AutoScaleStrategy.AUTO_SCALE_STRATEGY_KEY;
+      int numClusters = 2;
+      populateSimpleClusterMap(numClusters, 4, false);    /* Blocks until CSCL has generated all events */
+      assertTrue(waitForTargetClusterCount(2, 1000));
+
+      Iterator<String> i = _clusterNames.iterator();
+      String clusterName1 = i.next();
+      String routeKey1 = "routeKey1";
+      String clusterId1 = deriveClusterIdFromClusterName(clusterName1);
+      String clusterName2 = i.next();
+      String routeKey2 = "routeKey2";
+      String clusterId2 = deriveClusterIdFromClusterName(clusterName2);
+
+      final ReportResult serengetiQueueResult = new ReportResult();
+      TestRabbitConnection testConnection = new TestRabbitConnection(new TestRabbitConnection.TestChannel() {
+         @Override
+         public void basicPublish(String localRouteKey, byte[] data) {
+            serengetiQueueResult._routeKey = localRouteKey;
+            serengetiQueueResult._data = data;
+         }
+      });
+
+      ClusterMap clusterMap = null;
+      try {
+         clusterMap = getAndReadLockClusterMap();
+         assertEquals(AutoScaleStrategy.AUTO_SCALE_STRATEGY_KEY, clusterMap.getScaleStrategyKey(clusterId1));
+         assertEquals(AutoScaleStrategy.AUTO_SCALE_STRATEGY_KEY, clusterMap.getScaleStrategyKey(clusterId2));
+      } finally {
+         unlockClusterMap(clusterMap);
+      }
+
+      /* The blocking switch to manual must reach VHM rather than be dropped as an event the automatic strategy can't handle */
+      _eventConsumer.placeEventOnQueue(new SerengetiLimitInstruction(clusterName1,
+            SerengetiLimitAction.actionWaitForManual, 0, new RabbitConnectionCallback(routeKey1, testConnection)));
+      Thread.sleep(2000);
+      assertNotNull(serengetiQueueResult._data);
+      assertEquals(routeKey1, serengetiQueueResult._routeKey);
+      assertEquals(0, serengetiQueueResult.getMessage().progress);
+      assertFalse(serengetiQueueResult.getMessage().finished);
+
+      /* Once extraInfo has changed to manual, the switch completes */
+      serengetiQueueResult._data = null;
+      simulateVcExtraInfoChange(clusterName1, false, null);
+      Thread.sleep(2000);
+      assertNotNull(serengetiQueueResult._data);
+      assertEquals(routeKey1, serengetiQueueResult._routeKey);
+      assertTrue(serengetiQueueResult.getMessage().finished);
+
+      /* A limit instruction for a cluster that is still automatic is carried out, here with nothing to change as no compute nodes are enabled */
+      serengetiQueueResult._data = null;
+      _eventConsumer.placeEventOnQueue(new SerengetiLimitInstruction(clusterName2,
+            SerengetiLimitAction.actionSetTarget, 0, new RabbitConnectionCallback(routeKey2, testConnection)));
+      Thread.sleep(2000);
+      assertNotNull(serengetiQueueResult._data);
+      assertEquals(routeKey2, serengetiQueueResult._routeKey);
+      assertTrue(serengetiQueueResult.getMessage().finished);
+   }
+
    private Set<ClusterScaleCompletionEvent> getCompletionEventsFromInit() {
       Set<ClusterScaleCompletionEvent> result = new HashSet<ClusterScaleCompletionEvent>();
       for (String clusterName : _clusterNames) {
@@ -836,6 +906,30 @@ public class VHMIntegrationTest extends AbstractJUnitTest implements EventProduc
       assertNull(waitForClusterScaleCompletionEvent(clusterId, 2000, foundEvents));
    }
 
+   @Test
+   public void testStatusServerStopsWithVHM() throws Exception {
+      StatusHttpServer statusServer = new StatusHttpServer(_vhm);
+      _vhm.registerCollaborator(statusServer);
+      statusServer.start("127.0.0.1", 0);
+      URL statusUrl = new URL("http://127.0.0.1:"+statusServer.getPort()+"/status");
+      assertEquals(200, ((HttpURLConnection)statusUrl.openConnection()).getResponseCode());
+
+      /* The collaborators are stopped on the VHM thread once it has processed the stop event. The standalone CSCL fails
+       *   when it is stopped, which can make VHM reset its event producers before it gets to the stop event */
+      _vhm.stop(true);
+      long timeoutTime = System.currentTimeMillis() + 30000;
+      while (System.currentTimeMillis() < timeoutTime) {
+         try {
+            ((HttpURLConnection)statusUrl.openConnection()).getResponseCode();
+         } catch (IOException e) {
+            /* Nothing is listening on the port any more */
+            return;
+         }
+         Thread.sleep(50);
+      }
+      fail("Status server should have been stopped with VHM");
+   }
+
    @Override
    public void registerEventConsumer(EventConsumer eventConsumer) {
       _eventConsumer = eventConsumer;
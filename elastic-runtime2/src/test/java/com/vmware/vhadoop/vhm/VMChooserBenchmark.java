@@ -0,0 +1,108 @@
+/***************************************************************************
+* Copyright (c) 2013 VMware, Inc. All Rights Reserved.
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+***************************************************************************/
+
+package com.vmware.vhadoop.vhm;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.Set;
+
+import com.vmware.vhadoop.api.vhm.strategy.VMChooser.RankedVM;
+
+/**
+ * Reports the cost of combining the rankings of several choosers and selecting from a large number of candidates, comparing
+ *   RankedVM.Accumulator with the nested loop combine that it replaced. Not a unit test - run with
+ *   java -cp ... VMChooserBenchmark [candidates] [iterations]
+ */
+public class VMChooserBenchmark {
+   private static final int NUM_CHOOSERS = 3;
+   private static final int NUM_TO_CHOOSE = 500;
+
+   static List<Set<RankedVM>> createRankings(int numChoosers, int numCandidates, Random random) {
+      List<Set<RankedVM>> rankings = new ArrayList<Set<RankedVM>>();
+      for (int i = 0; i < numChoosers; i++) {
+         List<Integer> ranks = new ArrayList<Integer>();
+         for (int j = 0; j < numCandidates; j++) {
+            ranks.add(j);
+         }
+         Collections.shuffle(ranks, random);
+         Set<RankedVM> ranking = new HashSet<RankedVM>();
+         for (int j = 0; j < numCandidates; j++) {
+            ranking.add(new RankedVM("vm"+j, ranks.get(j)));
+         }
+         rankings.add(ranking);
+      }
+      return rankings;
+   }
+
+   static Set<String> chooseWithAccumulator(List<Set<RankedVM>> rankings, int numToChoose) {
+      RankedVM.Accumulator accumulator = new RankedVM.Accumulator();
+      for (Set<RankedVM> ranking : rankings) {
+         accumulator.add(ranking);
+      }
+      return accumulator.selectLowestRankedIds(numToChoose);
+   }
+
+   private static Set<RankedVM> nestedLoopCombine(Set<RankedVM> input1, Set<RankedVM> input2) {
+      if (input1 == null) {
+         return input2;
+      }
+      Set<RankedVM> result = new HashSet<RankedVM>();
+      for (RankedVM fromInput1 : input1) {
+         int rank = fromInput1.getRank();
+         for (RankedVM fromInput2 : input2) {
+            if (fromInput2.getVmId().equals(fromInput1.getVmId())) {
+               rank += fromInput2.getRank();
+               break;
+            }
+         }
+         result.add(new RankedVM(fromInput1.getVmId(), rank));
+      }
+      result.addAll(input2);
+      return result;
+   }
+
+   public static void main(String[] args) {
+      int numCandidates = (args.length > 0) ? Integer.parseInt(args[0]) : 10000;
+      int iterations = (args.length > 1) ? Integer.parseInt(args[1]) : 20;
+      List<Set<RankedVM>> rankings = createRankings(NUM_CHOOSERS, numCandidates, new Random(42));
+
+      /* Warm up so that the timings are not dominated by JIT compilation */
+      for (int i = 0; i < iterations; i++) {
+         chooseWithAccumulator(rankings, NUM_TO_CHOOSE);
+      }
+      long startTime = System.nanoTime();
+      for (int i = 0; i < iterations; i++) {
+         chooseWithAccumulator(rankings, NUM_TO_CHOOSE);
+      }
+      long accumulatorMicros = (System.nanoTime() - startTime) / (1000L * iterations);
+
+      /* The nested loop combine is quadratic, so only run it once */
+      startTime = System.nanoTime();
+      Set<RankedVM> combination = null;
+      for (Set<RankedVM> ranking : rankings) {
+         combination = nestedLoopCombine(combination, ranking);
+      }
+      new PriorityQueue<RankedVM>(combination);
+      long nestedLoopMicros = (System.nanoTime() - startTime) / 1000;
+
+      System.out.println("Choosing "+NUM_TO_CHOOSE+" of "+numCandidates+" candidates ranked by "+NUM_CHOOSERS+" choosers: accumulator "+
+            accumulatorMicros+"us, nested loop combine "+nestedLoopMicros+"us");
+   }
+}
@@ -2,7 +2,9 @@ package com.vmware.vhadoop.vhm;
 
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
 import java.util.PriorityQueue;
+import java.util.Random;
 import java.util.Set;
 import static org.junit.Assert.*;
 
@@ -182,4 +184,70 @@ public class VMChooserTests {
       }
    }
    
+   @Test
+   public void testSelectLowestRankedIds() {
+      Set<RankedVM> candidates = new HashSet<RankedVM>();
+      for (int i = 0; i < 20; i++) {
+         candidates.add(new RankedVM("vm"+i, 19 - i));
+      }
+      Set<String> chosen = RankedVM.selectLowestRankedIds(candidates, 3);
+      assertEquals(new HashSet<String>(Arrays.asList(new String[]{"vm19", "vm18", "vm17"})), chosen);
+      assertEquals(20, RankedVM.selectLowestRankedIds(candidates, 25).size());
+      assertEquals(0, RankedVM.selectLowestRankedIds(candidates, 0).size());
+      assertNull(RankedVM.selectLowestRankedIds(null, 3));
+   }
+
+   @Test
+   public void testAccumulator() {
+      Set<RankedVM> ranked1 = new HashSet<RankedVM>(Arrays.asList(new RankedVM[]{new RankedVM("vm0", 0), new RankedVM("vm1", 1), new RankedVM("vm2", 2)}));
+      Set<RankedVM> ranked2 = new HashSet<RankedVM>(Arrays.asList(new RankedVM[]{new RankedVM("vm0", 5), new RankedVM("vm2", 0), new RankedVM("vm3", 1)}));
+
+      RankedVM.Accumulator accumulator = new RankedVM.Accumulator();
+      assertNull(accumulator.getResult());
+      assertNull(accumulator.selectLowestRankedIds(1));
+      accumulator.add(null);
+      assertNull(accumulator.getResult());
+
+      accumulator.add(ranked1);
+      accumulator.add(ranked2);
+      Set<RankedVM> result = accumulator.getResult();
+      assertEquals(4, result.size());
+      for (RankedVM rankedVM : result) {
+         int expected = rankedVM.getVmId().equals("vm0") ? 5 : rankedVM.getVmId().equals("vm1") ? 1 : rankedVM.getVmId().equals("vm2") ? 2 : 1;
+         assertEquals(expected, rankedVM.getRank());
+      }
+      assertEquals(new HashSet<String>(Arrays.asList(new String[]{"vm1", "vm3"})), accumulator.selectLowestRankedIds(2));
+
+      /* The inputs must not be modified by combining */
+      for (RankedVM rankedVM : ranked1) {
+         assertEquals(Integer.parseInt(rankedVM.getVmId().substring(2)), rankedVM.getRank());
+      }
+      assertEquals(RankedVM.combine(ranked1, ranked2).size(), 4);
+   }
+
+   @Test
+   public void testAccumulatorSelectionMatchesFullSort() {
+      final int numCandidates = 1000;
+      final int numToChoose = 50;
+      List<Set<RankedVM>> rankings = VMChooserBenchmark.createRankings(3, numCandidates, new Random(42));
+      Set<String> chosen = VMChooserBenchmark.chooseWithAccumulator(rankings, numToChoose);
+      assertEquals(numToChoose, chosen.size());
+
+      /* Check the selection against a full sort of the combined ranks */
+      Set<RankedVM> combined = RankedVM.combine(RankedVM.combine(rankings.get(0), rankings.get(1)), rankings.get(2));
+      PriorityQueue<RankedVM> ordered = new PriorityQueue<RankedVM>(combined);
+      int highestChosenRank = Integer.MIN_VALUE;
+      for (int i = 0; i < numToChoose; i++) {
+         highestChosenRank = ordered.poll().getRank();
+      }
+      int numBelow = 0;
+      for (RankedVM rankedVM : combined) {
+         if (rankedVM.getRank() < highestChosenRank) {
+            numBelow++;
+            assertTrue(chosen.contains(rankedVM.getVmId()));
+         }
+      }
+      assertTrue(numBelow <= numToChoose);
+   }
+
 }
@@ -1,6 +1,7 @@
 package com.vmware.vhadoop.vhm.hadoop;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
@@ -9,9 +10,15 @@ import static org.junit.Assert.fail;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.After;
 import org.junit.Before;
@@ -19,6 +26,7 @@ import org.junit.Ignore;
 import org.junit.Test;
 
 import com.jcraft.jsch.Session;
+import com.vmware.vhadoop.util.ExternalizedParameters;
 import com.vmware.vhadoop.vhm.hadoop.SshConnectionCache.Connection;
 import com.vmware.vhadoop.vhm.hadoop.SshConnectionCache.RemoteProcess;
 import com.vmware.vhadoop.vhm.hadoop.SshUtilities.Credentials;
@@ -749,4 +757,106 @@ public class SshConnectionCacheTest
          cache.assertSessionCachedAndConnected(connection[index]);
       }
    }
+
+   @Ignore
+   @Test
+   public void concurrentUsersShareOneSession() throws Exception {
+      final int users = ExternalizedParameters.get().getInt("SSH_MAX_CHANNELS_PER_SESSION");
+      cache = new TestSshConnectionCache(1);
+      final Connection connection = new Connection(aliases[0], SshUtilities.DEFAULT_SSH_PORT, credentials);
+
+      ExecutorService executor = Executors.newFixedThreadPool(users);
+      try {
+         List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+         for (int i = 0; i < users; i++) {
+            results.add(executor.submit(new Callable<Integer>() {
+               @Override
+               public Integer call() throws Exception {
+                  return cache.execute(connection, "sleep 1; date", null);
+               }
+            }));
+         }
+         for (Future<Integer> result : results) {
+            assertEquals("Expected ssh'd date command to return without error", 0, (int)result.get(60, TimeUnit.SECONDS));
+         }
+      } finally {
+         executor.shutdownNow();
+      }
+
+      /*only one session was established and all the users shared it*/
+      assertEquals(1, cache.getCacheSize());
+      assertEquals(1, cache.getMissCount());
+      assertEquals(users - 1, cache.getHitCount());
+      cache.assertSessionCachedAndConnected(connection);
+   }
+
+   @Ignore
+   @Test
+   public void channelLimitBlocksFurtherChannels() throws Exception {
+      int maxChannels = ExternalizedParameters.get().getInt("SSH_MAX_CHANNELS_PER_SESSION");
+      cache = new TestSshConnectionCache(1);
+      final Connection connection = new Connection(aliases[0], SshUtilities.DEFAULT_SSH_PORT, credentials);
+
+      /*use up all the channels of the session*/
+      List<RemoteProcess> held = new ArrayList<RemoteProcess>();
+      for (int i = 0; i < maxChannels; i++) {
+         held.add(cache.invoke(connection, "sleep 60", null, null));
+      }
+
+      ExecutorService executor = Executors.newSingleThreadExecutor();
+      try {
+         Future<Integer> blocked = executor.submit(new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+               return cache.execute(connection, "date", null);
+            }
+         });
+
+         /*the next user has to wait for a channel rather than opening one more than the limit*/
+         Thread.sleep(2000);
+         assertFalse(blocked.isDone());
+
+         /*and gets one as soon as a channel is released*/
+         held.remove(0).destroy();
+         assertEquals("Expected ssh'd date command to return without error", 0, (int)blocked.get(30, TimeUnit.SECONDS));
+      } finally {
+         executor.shutdownNow();
+         for (RemoteProcess proc : held) {
+            proc.destroy();
+         }
+      }
+
+      assertEquals(1, cache.getCacheSize());
+      assertEquals(1, cache.getMissCount());
+      cache.assertSessionCachedAndConnected(connection);
+   }
+
+   @Ignore
+   @Test
+   public void evictionWhileChannelHeld() throws IOException {
+      cache = new TestSshConnectionCache(1);
+      Connection firstConnection = new Connection(aliases[0], SshUtilities.DEFAULT_SSH_PORT, credentials);
+      Connection secondConnection = new Connection(aliases[1], SshUtilities.DEFAULT_SSH_PORT, credentials);
+
+      /*hold a channel on the first session and evict it*/
+      RemoteProcess held = cache.invoke(firstConnection, "sleep 60", null, null);
+      Session heldSession = held.session;
+      assertEquals(0, cache.execute(secondConnection, "date", null));
+      assertEquals(1, cache.getEvictionCount());
+      assertNull(cache.getCache().get(firstConnection));
+      assertTrue(heldSession.isConnected());
+
+      /*the first host gets a new session while the evicted one is still in use*/
+      assertEquals(0, cache.execute(firstConnection, "date", null));
+      cache.assertSessionCachedAndConnected(firstConnection);
+      Session newSession = cache.getCache().get(firstConnection);
+      assertTrue(newSession != heldSession);
+      assertTrue(heldSession.isConnected());
+
+      /*the evicted session is disconnected once its last channel is released, without affecting the new one*/
+      held.destroy();
+      assertFalse(heldSession.isConnected());
+      cache.assertSessionCachedAndConnected(firstConnection);
+      assertEquals(1, cache.getCacheSize());
+   }
 }
@@ -0,0 +1,239 @@
+/***************************************************************************
+* Copyright (c) 2013 VMware, Inc. All Rights Reserved.
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+***************************************************************************/
+
+package com.vmware.vhadoop.vhm.hadoop;
+
+import static com.vmware.vhadoop.vhm.hadoop.HadoopErrorCodes.SUCCESS;
+import static com.vmware.vhadoop.vhm.hadoop.HadoopErrorCodes.UNKNOWN_ERROR;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.vmware.vhadoop.api.vhm.HadoopActions.ActiveTTsListener;
+import com.vmware.vhadoop.api.vhm.HadoopActions.HadoopClusterInfo;
+
+public class TestJobTrackerAgent {
+
+   /* Stands in for the agent script: answers each command according to its name */
+   class FakeAgentProcess extends Process {
+      final PipedOutputStream _toAgent = new PipedOutputStream();
+      final PipedInputStream _fromAgent = new PipedInputStream(65536);
+      final PipedOutputStream _agentStdout = new PipedOutputStream();
+      volatile int _exitValue = UNKNOWN_ERROR;
+      final List<String> _commands = new ArrayList<String>();
+
+      FakeAgentProcess() throws IOException {
+         final PipedInputStream agentStdin = new PipedInputStream(_toAgent, 65536);
+         _fromAgent.connect(_agentStdout);
+         Thread script = new Thread(new Runnable() {
+            @Override
+            public void run() {
+               try {
+                  respond("@@RC 0");
+                  BufferedReader in = new BufferedReader(new InputStreamReader(agentStdin));
+                  String command;
+                  while ((command = in.readLine()) != null) {
+                     _commands.add(command);
+                     String[] words = command.split(" ");
+                     if (words[0].equals("CHECK")) {
+                        for (int i = 1; i < words.length; i++) {
+                           respond("TT: "+words[i]);
+                        }
+                        respond("@@RC 0");
+                     } else if (words[0].equals("FAIL")) {
+                        respond("@@RC 107");
+                     } else if (words[0].equals("GARBAGE")) {
+                        respond("@@RC not-a-number");
+                     } else if (words[0].equals("EXIT")) {
+                        break;
+                     }
+                     /* Anything else gets no response, as if the agent were hung */
+                  }
+                  _agentStdout.close();
+               } catch (IOException e) {
+                  /* the agent has been destroyed */
+               }
+            }
+         });
+         script.setDaemon(true);
+         script.start();
+      }
+
+      /* The agent runs on a pty, so its lines end with \r\n */
+      void respond(String line) throws IOException {
+         _agentStdout.write((line+"\r\n").getBytes());
+         _agentStdout.flush();
+      }
+
+      @Override
+      public OutputStream getOutputStream() {
+         return _toAgent;
+      }
+
+      @Override
+      public InputStream getInputStream() {
+         return _fromAgent;
+      }
+
+      @Override
+      public InputStream getErrorStream() {
+         return new ByteArrayInputStream(new byte[0]);
+      }
+
+      @Override
+      public int waitFor() {
+         return _exitValue;
+      }
+
+      @Override
+      public int exitValue() {
+         return _exitValue;
+      }
+
+      @Override
+      public void destroy() {
+         _exitValue = 0;
+         try {
+            _agentStdout.close();
+         } catch (IOException e) {}
+      }
+   }
+
+   class FakeConnection extends HadoopConnection {
+      FakeAgentProcess _process;
+      String[] _scriptArgs;
+
+      FakeConnection() {
+         super(new HadoopClusterInfo("cluster1", "jt1", 8021), null, null);
+      }
+
+      @Override
+      public Process invokeScript(String scriptFileName, String destinationPath, String[] scriptArgs) {
+         _scriptArgs = scriptArgs;
+         try {
+            _process = new FakeAgentProcess();
+         } catch (IOException e) {
+            return null;
+         }
+         return _process;
+      }
+   }
+
+   class RecordingListener implements JobTrackerAgent.ResponseListener {
+      final List<String> _lines = new ArrayList<String>();
+
+      @Override
+      public void lineReceived(String line) {
+         _lines.add(line);
+      }
+   }
+
+   private JobTrackerAgent startAgent(FakeConnection connection) {
+      JobTrackerAgent agent = new JobTrackerAgent(connection, "jobTrackerAgent.sh", "/tmp/", 50030, "command", 5000);
+      assertEquals(SUCCESS, agent.start());
+      assertTrue(agent.isAlive());
+      return agent;
+   }
+
+   @Test
+   public void testResponseFraming() {
+      FakeConnection connection = new FakeConnection();
+      JobTrackerAgent agent = startAgent(connection);
+      assertEquals("50030", connection._scriptArgs[2]);
+      assertEquals("command", connection._scriptArgs[3]);
+
+      RecordingListener listener = new RecordingListener();
+      assertEquals(SUCCESS, agent.execute(JobTrackerAgent.COMMAND_CHECK, Arrays.asList("tt1", "tt2"), listener, 5000));
+      assertEquals(Arrays.asList("TT: tt1", "TT: tt2"), listener._lines);
+      assertEquals("CHECK tt1 tt2", connection._process._commands.get(0));
+
+      /* The return code is passed through and the agent stays usable */
+      assertEquals(107, agent.execute("FAIL", null, new RecordingListener(), 5000));
+      listener = new RecordingListener();
+      assertEquals(SUCCESS, agent.execute(JobTrackerAgent.COMMAND_CHECK, Arrays.asList("tt3"), listener, 5000));
+      assertEquals(Arrays.asList("TT: tt3"), listener._lines);
+      agent.stop();
+      assertFalse(agent.isAlive());
+   }
+
+   @Test
+   public void testTimeoutStopsAgent() {
+      JobTrackerAgent agent = startAgent(new FakeConnection());
+      long start = System.currentTimeMillis();
+      assertEquals(UNKNOWN_ERROR, agent.execute("HANG", null, new RecordingListener(), 200));
+      long elapsed = System.currentTimeMillis() - start;
+      assertTrue("took "+elapsed+"ms", (elapsed >= 200) && (elapsed < 2000));
+      assertFalse(agent.isAlive());
+      assertEquals(UNKNOWN_ERROR, agent.execute(JobTrackerAgent.COMMAND_PING, null, new RecordingListener(), 200));
+   }
+
+   @Test
+   public void testMalformedAndExitedAgent() {
+      JobTrackerAgent agent = startAgent(new FakeConnection());
+      assertEquals(UNKNOWN_ERROR, agent.execute("GARBAGE", null, new RecordingListener(), 5000));
+      assertFalse(agent.isAlive());
+
+      /* An agent whose output ends is detected without waiting for the timeout */
+      agent = startAgent(new FakeConnection());
+      long start = System.currentTimeMillis();
+      assertEquals(UNKNOWN_ERROR, agent.execute("EXIT", null, new RecordingListener(), 5000));
+      assertTrue(System.currentTimeMillis() - start < 2000);
+      assertFalse(agent.isAlive());
+   }
+
+   @Test
+   public void testWatchSnapshotParsing() {
+      final List<Set<String>> snapshots = new ArrayList<Set<String>>();
+      HadoopAdaptor.WatchResponseParser parser = new HadoopAdaptor.WatchResponseParser(new ActiveTTsListener() {
+         @Override
+         public void activeTTsChanged(Set<String> activeTTDnsNames) {
+            snapshots.add(activeTTDnsNames);
+         }
+      });
+      for (String line : new String[]{"TT: tt1", "TT: tt2", JobTrackerAgent.SNAPSHOT_TERMINATOR,
+            "INFO: ignored", "TT: tt2", "TT: tt3", "TT:", JobTrackerAgent.SNAPSHOT_TERMINATOR,
+            JobTrackerAgent.SNAPSHOT_TERMINATOR, "TT: tt4"}) {
+         parser.lineReceived(line);
+      }
+      assertEquals(3, snapshots.size());
+      assertEquals(new HashSet<String>(Arrays.asList("tt1", "tt2")), snapshots.get(0));
+      assertEquals(new HashSet<String>(Arrays.asList("tt2", "tt3")), snapshots.get(1));
+      assertTrue(snapshots.get(2).isEmpty());
+      /* tt4 is in a snapshot that was never terminated */
+      assertTrue(parser.getLatestActiveTTs().isEmpty());
+
+      /* Works without a listener too */
+      parser = new HadoopAdaptor.WatchResponseParser(null);
+      parser.lineReceived("TT: tt5");
+      parser.lineReceived(JobTrackerAgent.SNAPSHOT_TERMINATOR);
+      assertEquals(new HashSet<String>(Arrays.asList("tt5")), parser.getLatestActiveTTs());
+   }
+}
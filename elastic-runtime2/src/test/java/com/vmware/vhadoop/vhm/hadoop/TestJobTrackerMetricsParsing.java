@@ -0,0 +1,63 @@
+/***************************************************************************
+* Copyright (c) 2013 VMware, Inc. All Rights Reserved.
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+***************************************************************************/
+
+package com.vmware.vhadoop.vhm.hadoop;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.StringReader;
+
+import org.junit.Test;
+
+import com.vmware.vhadoop.api.vhm.HadoopActions.JobTrackerMetrics;
+
+public class TestJobTrackerMetricsParsing {
+
+   @Test
+   public void testParseJobTrackerMetrics() {
+      String json = "{\"beans\" : [ {"
+            + "\"name\" : \"Hadoop:service=JobTracker,name=JobTrackerMetrics\","
+            + "\"map_slots\" : 16, \"occupied_map_slots\" : 12,"
+            + "\"reduce_slots\" : 8, \"occupied_reduce_slots\" : 3,"
+            + "\"waiting_maps\" : 40, \"waiting_reduces\" : 5,"
+            + "\"trackers\" : 4, \"trackers_blacklisted\" : 1, \"jobs_running\" : 2"
+            + "} ]}";
+      JobTrackerMetrics metrics = HadoopAdaptor.parseJobTrackerMetrics(new StringReader(json));
+      assertEquals(16, metrics._mapSlots);
+      assertEquals(12, metrics._occupiedMapSlots);
+      assertEquals(8, metrics._reduceSlots);
+      assertEquals(3, metrics._occupiedReduceSlots);
+      assertEquals(40, metrics._waitingMaps);
+      assertEquals(5, metrics._waitingReduces);
+      assertEquals(4, metrics._trackers);
+      assertEquals(1, metrics._blacklistedTrackers);
+
+      /* Attributes other than the slots default to 0 */
+      metrics = HadoopAdaptor.parseJobTrackerMetrics(new StringReader("{\"beans\" : [ { \"map_slots\" : 2 } ]}"));
+      assertEquals(2, metrics._mapSlots);
+      assertEquals(0, metrics._waitingMaps);
+   }
+
+   @Test
+   public void testParseInvalidJobTrackerMetrics() {
+      /* No such bean */
+      assertNull(HadoopAdaptor.parseJobTrackerMetrics(new StringReader("{\"beans\" : [ ]}")));
+      /* Not the JobTrackerMetrics bean */
+      assertNull(HadoopAdaptor.parseJobTrackerMetrics(new StringReader("{\"beans\" : [ { \"name\" : \"other\" } ]}")));
+      assertNull(HadoopAdaptor.parseJobTrackerMetrics(new StringReader("<html>Not found</html>")));
+      assertNull(HadoopAdaptor.parseJobTrackerMetrics(new StringReader("{\"beans\" : [ { \"map_slots\" : \"lots\" } ]}")));
+   }
+}
@@ -0,0 +1,194 @@
+/***************************************************************************
+* Copyright (c) 2013 VMware, Inc. All Rights Reserved.
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+***************************************************************************/
+
+package com.vmware.vhadoop.vhm.hadoop;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.vmware.vhadoop.api.vhm.HadoopActions.HadoopClusterInfo;
+
+public class TestScriptDeploymentCache {
+   static final String SCRIPT = "jobTrackerAgent.sh";
+   static final String DEST = "/tmp/";
+
+   /* Simulates the remote file system of a job tracker */
+   class FakeConnection extends HadoopConnection {
+      String _remoteDigest;
+      boolean _md5sumAvailable = true;
+      boolean _corruptCopy = false;
+      int _copyResult = 0;
+      int _copies = 0;
+      int _digestChecks = 0;
+
+      FakeConnection(String jobTracker) {
+         super(new HadoopClusterInfo("cluster1", jobTracker, 8021), null, null);
+      }
+
+      @Override
+      public int copyDataToJobTracker(byte[] inputData, String remotePath, String remoteFileName, boolean isExecutable) {
+         _copies++;
+         if (_copyResult == 0) {
+            _remoteDigest = _corruptCopy ? "0000" : _cache.getScriptDigest(remoteFileName);
+         }
+         return _copyResult;
+      }
+
+      @Override
+      public String getRemoteFileDigest(String remotePath, String remoteFileName) {
+         _digestChecks++;
+         return _md5sumAvailable ? _remoteDigest : null;
+      }
+   }
+
+   ScriptDeploymentCache _cache = new ScriptDeploymentCache();
+
+   @Test
+   public void testScriptDataAndDigest() {
+      byte[] data = _cache.getScriptData(SCRIPT);
+      assertNotNull(data);
+      assertTrue(data.length > 0);
+      /* The script is only read once */
+      assertTrue(data == _cache.getScriptData(SCRIPT));
+
+      String digest = _cache.getScriptDigest(SCRIPT);
+      assertNotNull(digest);
+      assertEquals(32, digest.length());
+      assertEquals(digest, _cache.getScriptDigest(SCRIPT));
+      assertEquals(digest, new ScriptDeploymentCache().getScriptDigest(SCRIPT));
+   }
+
+   @Test
+   public void testMissingScript() {
+      FakeConnection connection = new FakeConnection("jt1");
+      assertNull(_cache.getScriptData("noSuchScript.sh"));
+      assertNull(_cache.getScriptDigest("noSuchScript.sh"));
+      assertFalse(_cache.deployScript(connection, "noSuchScript.sh", DEST, false));
+      assertEquals(0, connection._copies);
+   }
+
+   @Test
+   public void testNoJobTracker() {
+      FakeConnection connection = new FakeConnection(null);
+      assertFalse(_cache.deployScript(connection, SCRIPT, DEST, false));
+      assertEquals(0, connection._copies);
+   }
+
+   @Test
+   public void testCopiedOnlyOnce() {
+      FakeConnection connection = new FakeConnection("jt1");
+      assertFalse(_cache.isDeployed("jt1", SCRIPT));
+
+      assertTrue(_cache.deployScript(connection, SCRIPT, DEST, false));
+      assertEquals(1, connection._copies);
+      assertTrue(_cache.isDeployed("jt1", SCRIPT));
+
+      /* The manifest is trusted, so the job tracker isn't even checked */
+      int digestChecks = connection._digestChecks;
+      assertTrue(_cache.deployScript(connection, SCRIPT, DEST, false));
+      assertEquals(1, connection._copies);
+      assertEquals(digestChecks, connection._digestChecks);
+
+      /* Manifests are per job tracker */
+      assertFalse(_cache.isDeployed("jt2", SCRIPT));
+   }
+
+   @Test
+   public void testAlreadyOnJobTracker() {
+      FakeConnection connection = new FakeConnection("jt1");
+      connection._remoteDigest = _cache.getScriptDigest(SCRIPT);
+      assertTrue(_cache.deployScript(connection, SCRIPT, DEST, false));
+      assertEquals(0, connection._copies);
+      assertTrue(_cache.isDeployed("jt1", SCRIPT));
+   }
+
+   @Test
+   public void testVerifyRemote() {
+      FakeConnection connection = new FakeConnection("jt1");
+      assertTrue(_cache.deployScript(connection, SCRIPT, DEST, false));
+      assertEquals(1, connection._copies);
+
+      /* Someone has changed the script on the job tracker behind our back */
+      connection._remoteDigest = "1234";
+      assertTrue(_cache.deployScript(connection, SCRIPT, DEST, false));
+      assertEquals(1, connection._copies);
+      assertTrue(_cache.deployScript(connection, SCRIPT, DEST, true));
+      assertEquals(2, connection._copies);
+      assertEquals(_cache.getScriptDigest(SCRIPT), connection._remoteDigest);
+   }
+
+   @Test
+   public void testInvalidate() {
+      FakeConnection connection = new FakeConnection("jt1");
+      assertTrue(_cache.deployScript(connection, SCRIPT, DEST, false));
+      _cache.invalidate("jt1", SCRIPT);
+      assertFalse(_cache.isDeployed("jt1", SCRIPT));
+
+      connection._remoteDigest = null;
+      assertTrue(_cache.deployScript(connection, SCRIPT, DEST, false));
+      assertEquals(2, connection._copies);
+   }
+
+   @Test
+   public void testCopyFailure() {
+      FakeConnection connection = new FakeConnection("jt1");
+      connection._copyResult = 1;
+      assertFalse(_cache.deployScript(connection, SCRIPT, DEST, false));
+      assertFalse(_cache.isDeployed("jt1", SCRIPT));
+
+      connection._copyResult = 0;
+      assertTrue(_cache.deployScript(connection, SCRIPT, DEST, false));
+      assertTrue(_cache.isDeployed("jt1", SCRIPT));
+      assertEquals(2, connection._copies);
+   }
+
+   @Test
+   public void testCorruptCopy() {
+      FakeConnection connection = new FakeConnection("jt1");
+      connection._corruptCopy = true;
+      assertFalse(_cache.deployScript(connection, SCRIPT, DEST, false));
+      assertFalse(_cache.isDeployed("jt1", SCRIPT));
+   }
+
+   @Test
+   public void testVerifiedPerSession() {
+      assertFalse(_cache.isVerified("jt1", 1));
+      _cache.setVerified("jt1", 1);
+      assertTrue(_cache.isVerified("jt1", 1));
+      /* A new session may be to a restarted job tracker */
+      assertFalse(_cache.isVerified("jt1", 2));
+      assertFalse(_cache.isVerified("jt2", 1));
+
+      /* Finding that a script is missing means that the job tracker has to be checked again */
+      _cache.invalidate("jt1", SCRIPT);
+      assertFalse(_cache.isVerified("jt1", 1));
+   }
+
+   @Test
+   public void testNoMd5sum() {
+      /* Without md5sum the copy is trusted, rather than copying on every operation */
+      FakeConnection connection = new FakeConnection("jt1");
+      connection._md5sumAvailable = false;
+      assertTrue(_cache.deployScript(connection, SCRIPT, DEST, false));
+      assertTrue(_cache.isDeployed("jt1", SCRIPT));
+      assertTrue(_cache.deployScript(connection, SCRIPT, DEST, false));
+      assertEquals(1, connection._copies);
+   }
+}
@@ -0,0 +1,333 @@
+/***************************************************************************
+* Copyright (c) 2013 VMware, Inc. All Rights Reserved.
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+***************************************************************************/
+
+package com.vmware.vhadoop.vhm.strategy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Future;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vmware.vhadoop.api.vhm.HadoopActions;
+import com.vmware.vhadoop.api.vhm.HadoopActions.HadoopClusterInfo;
+import com.vmware.vhadoop.api.vhm.strategy.EDPolicy.EDProgressListener;
+import com.vmware.vhadoop.vhm.AbstractJUnitTest;
+import com.vmware.vhadoop.vhm.StandaloneSimpleClusterMap;
+import com.vmware.vhadoop.vhm.StandaloneSimpleVCActions;
+
+public class TestJobTrackerEDPolicy extends AbstractJUnitTest {
+   static final String CLUSTER_ID = "clusterA";
+   static final long LONG_TIMEOUT_MILLIS = 60000;
+
+   StandaloneSimpleClusterMap _clusterMap;
+   FakeHadoopActions _hadoopActions;
+   RecordingVCActions _vcActions;
+   RecordingProgressListener _progressListener;
+
+   /* Treats every task tracker it is asked to check for recommission as active, optionally doing something else while the check is in progress.
+    * The check for decommission reports each of the sets of active task trackers in turn, then returns the last one */
+   class FakeHadoopActions implements HadoopActions {
+      /* Only the recommissions of DNS names - enableTTs first recommissions the VM ids to clear the exclude list */
+      List<Set<String>> _recommissioned = new ArrayList<Set<String>>();
+      Runnable _duringCheck;
+      List<Set<String>> _activeDuringDecommission = new ArrayList<Set<String>>();
+      List<Integer> _powerOffsAtEachChange = new ArrayList<Integer>();
+
+      @Override
+      public void decommissionTTs(Set<String> ttDnsNames, HadoopClusterInfo cluster) {}
+
+      @Override
+      public void recommissionTTs(Set<String> ttDnsNames, HadoopClusterInfo cluster) {
+         if (!ttDnsNames.iterator().next().startsWith("vm")) {
+            _recommissioned.add(new HashSet<String>(ttDnsNames));
+         }
+      }
+
+      @Override
+      public Set<String> checkTargetTTsSuccess(String opType, Set<String> ttDnsNames, int totalTargetEnabled, HadoopClusterInfo cluster) {
+         return checkTargetTTsSuccess(opType, ttDnsNames, totalTargetEnabled, cluster, null);
+      }
+
+      @Override
+      public Set<String> checkTargetTTsSuccess(String opType, Set<String> ttDnsNames, int totalTargetEnabled, HadoopClusterInfo cluster, ActiveTTsListener listener) {
+         if (_duringCheck != null) {
+            Runnable duringCheck = _duringCheck;
+            _duringCheck = null;
+            duringCheck.run();
+         }
+         if (opType.equals("Decommission")) {
+            Set<String> active = new HashSet<String>();
+            for (Set<String> activeTTs : _activeDuringDecommission) {
+               active = activeTTs;
+               if (listener != null) {
+                  listener.activeTTsChanged(active);
+                  _powerOffsAtEachChange.add(_vcActions._poweredOff.size());
+               }
+            }
+            return active;
+         }
+         return new HashSet<String>(ttDnsNames);
+      }
+
+      @Override
+      public Set<String> getActiveTTs(HadoopClusterInfo cluster, int totalTargetEnabled) {
+         return null;
+      }
+
+      @Override
+      public boolean validateTtHostNames(Set<String> dnsNames) {
+         return true;
+      }
+
+      @Override
+      public void prepareJobTracker(HadoopClusterInfo cluster) {}
+
+      @Override
+      public JobTrackerMetrics getJobTrackerMetrics(HadoopClusterInfo cluster) {
+         return null;
+      }
+   }
+
+   /* Records each power state change, which succeeds unless the VMs are listed as failing */
+   class RecordingVCActions extends StandaloneSimpleVCActions {
+      List<Set<String>> _poweredOn = new ArrayList<Set<String>>();
+      List<Set<String>> _poweredOff = new ArrayList<Set<String>>();
+      Set<String> _failingVmIds = new HashSet<String>();
+
+      @Override
+      public Map<String, Future<Boolean>> changeVMPowerState(Set<String> vmMoRefs, boolean powerOn) {
+         (powerOn ? _poweredOn : _poweredOff).add(new HashSet<String>(vmMoRefs));
+         for (String vmId : vmMoRefs) {
+            if (_failingVmIds.contains(vmId)) {
+               return null;
+            }
+         }
+         return new HashMap<String, Future<Boolean>>();
+      }
+   }
+
+   class RecordingProgressListener implements EDProgressListener {
+      List<Set<String>> _completed = new ArrayList<Set<String>>();
+      int _totalCompleted;
+
+      @Override
+      public void ttsCompleted(Set<String> completedVmIds, int totalCompleted, int totalRequested) {
+         _completed.add(new HashSet<String>(completedVmIds));
+         _totalCompleted = totalCompleted;
+      }
+   }
+
+   @Before
+   public void setUp() {
+      _clusterMap = new StandaloneSimpleClusterMap(false);
+      _clusterMap.setHadoopInfoForCluster(CLUSTER_ID, new HadoopClusterInfo(CLUSTER_ID, "jt", 8021));
+      for (int i = 1; i <= 3; i++) {
+         _clusterMap.addVMToMap("vm"+i, CLUSTER_ID, "host", false);
+      }
+      _hadoopActions = new FakeHadoopActions();
+      _vcActions = new RecordingVCActions();
+      _progressListener = new RecordingProgressListener();
+   }
+
+   private JobTrackerEDPolicy getPolicy(boolean pipelined, long maxDnsWaitMillis, long maxVerificationMillis) {
+      JobTrackerEDPolicy policy = new JobTrackerEDPolicy(_hadoopActions, _vcActions, pipelined, pipelined, maxDnsWaitMillis, maxVerificationMillis);
+      policy.initialize(getTestClusterMapReader(_clusterMap));
+      return policy;
+   }
+
+   private Set<String> set(String... ids) {
+      return new HashSet<String>(Arrays.asList(ids));
+   }
+
+   /* The DNS name of vm3 arrives while the batch of the other two is being verified */
+   private void setDnsNameOfVm3DuringCheck(final long checkMillis) {
+      _hadoopActions._duringCheck = new Runnable() {
+         @Override
+         public void run() {
+            _clusterMap.setDnsNameForVm("vm3", "dns3");
+            try {
+               Thread.sleep(checkMillis);
+            } catch (InterruptedException e) {}
+         }
+      };
+   }
+
+   @Test
+   public void testPipelinedEnableVerifiesInBatches() throws Exception {
+      _clusterMap.setDnsNameForVm("vm1", "dns1");
+      _clusterMap.setDnsNameForVm("vm2", "dns2");
+      setDnsNameOfVm3DuringCheck(0);
+
+      Set<String> enabled = getPolicy(true, LONG_TIMEOUT_MILLIS, LONG_TIMEOUT_MILLIS).enableTTs(set("vm1", "vm2", "vm3"), 3, CLUSTER_ID, _progressListener);
+      assertEquals(set("vm1", "vm2", "vm3"), enabled);
+      assertEquals(1, _vcActions._poweredOn.size());
+
+      /* vm3 is recommissioned and verified in a batch of its own */
+      assertEquals(2, _hadoopActions._recommissioned.size());
+      assertEquals(set("dns1", "dns2"), _hadoopActions._recommissioned.get(0));
+      assertEquals(set("dns3"), _hadoopActions._recommissioned.get(1));
+      assertEquals(2, _progressListener._completed.size());
+      assertEquals(3, _progressListener._totalCompleted);
+   }
+
+   @Test
+   public void testVerificationDoesNotUseDnsWaitTime() throws Exception {
+      _clusterMap.setDnsNameForVm("vm1", "dns1");
+      _clusterMap.setDnsNameForVm("vm2", "dns2");
+      /* The verification of the first batch takes longer than the DNS wait allows */
+      setDnsNameOfVm3DuringCheck(500);
+
+      Set<String> enabled = getPolicy(true, 200, LONG_TIMEOUT_MILLIS).enableTTs(set("vm1", "vm2", "vm3"), 3, CLUSTER_ID, _progressListener);
+      assertEquals(set("vm1", "vm2", "vm3"), enabled);
+   }
+
+   @Test
+   public void testVerificationTimeout() throws Exception {
+      _clusterMap.setDnsNameForVm("vm1", "dns1");
+      _clusterMap.setDnsNameForVm("vm2", "dns2");
+      setDnsNameOfVm3DuringCheck(500);
+
+      /* vm3 has a hostname in time, but the first batch has used up the time allowed for verification */
+      Set<String> enabled = getPolicy(true, LONG_TIMEOUT_MILLIS, 200).enableTTs(set("vm1", "vm2", "vm3"), 3, CLUSTER_ID, _progressListener);
+      assertEquals(set("vm1", "vm2"), enabled);
+      assertEquals(1, _hadoopActions._recommissioned.size());
+   }
+
+   @Test
+   public void testDnsWaitTimeout() throws Exception {
+      _clusterMap.setDnsNameForVm("vm1", "dns1");
+
+      long startTime = System.currentTimeMillis();
+      Set<String> enabled = getPolicy(true, 200, LONG_TIMEOUT_MILLIS).enableTTs(set("vm1", "vm2"), 2, CLUSTER_ID, _progressListener);
+      assertEquals(set("vm1"), enabled);
+      assertTrue(System.currentTimeMillis() - startTime < LONG_TIMEOUT_MILLIS);
+   }
+
+   @Test
+   public void testNoDnsNames() throws Exception {
+      assertNull(getPolicy(true, 200, LONG_TIMEOUT_MILLIS).enableTTs(set("vm1", "vm2"), 2, CLUSTER_ID, _progressListener));
+      assertTrue(_hadoopActions._recommissioned.isEmpty());
+   }
+
+   @Test
+   public void testNonPipelinedEnableWaitsForAllDnsNames() throws Exception {
+      _clusterMap.setDnsNameForVm("vm1", "dns1");
+      _clusterMap.setDnsNameForVm("vm2", "dns2");
+      _clusterMap.setDnsNameForVm("vm3", "dns3");
+
+      Set<String> enabled = getPolicy(false, LONG_TIMEOUT_MILLIS, LONG_TIMEOUT_MILLIS).enableTTs(set("vm1", "vm2", "vm3"), 3, CLUSTER_ID, _progressListener);
+      assertEquals(set("vm1", "vm2", "vm3"), enabled);
+      assertEquals(1, _progressListener._completed.size());
+   }
+
+   private void setDnsNames() {
+      for (int i = 1; i <= 3; i++) {
+         _clusterMap.setDnsNameForVm("vm"+i, "dns"+i);
+         _clusterMap.setPowerStateForVM("vm"+i, true);
+      }
+   }
+
+   @Test
+   public void testStreamingDisablePowersOffAsDecommissioned() throws Exception {
+      setDnsNames();
+      _hadoopActions._activeDuringDecommission.add(set("dns2", "dns3"));
+      _hadoopActions._activeDuringDecommission.add(set("dns3"));
+      _hadoopActions._activeDuringDecommission.add(set());
+
+      Set<String> disabled = getPolicy(true, LONG_TIMEOUT_MILLIS, LONG_TIMEOUT_MILLIS).disableTTs(set("vm1", "vm2", "vm3"), 0, CLUSTER_ID, _progressListener);
+      assertEquals(set("vm1", "vm2", "vm3"), disabled);
+
+      /* Each VM is powered off as soon as the job tracker confirms that it has been decommissioned */
+      assertEquals(3, _vcActions._poweredOff.size());
+      assertEquals(set("vm1"), _vcActions._poweredOff.get(0));
+      assertEquals(set("vm2"), _vcActions._poweredOff.get(1));
+      assertEquals(set("vm3"), _vcActions._poweredOff.get(2));
+      assertEquals(Arrays.asList(1, 2, 3), _hadoopActions._powerOffsAtEachChange);
+      assertEquals(3, _progressListener._completed.size());
+      assertEquals(3, _progressListener._totalCompleted);
+   }
+
+   @Test
+   public void testStreamingDisableVmWithoutDnsName() throws Exception {
+      setDnsNames();
+      _clusterMap.setDnsNameForVm("vm3", null);
+      _hadoopActions._activeDuringDecommission.add(set());
+
+      Set<String> disabled = getPolicy(true, LONG_TIMEOUT_MILLIS, LONG_TIMEOUT_MILLIS).disableTTs(set("vm1", "vm2", "vm3"), 0, CLUSTER_ID, _progressListener);
+      assertEquals(set("vm1", "vm2", "vm3"), disabled);
+
+      /* vm3 can't be decommissioned, so it's powered off before the others */
+      assertEquals(2, _vcActions._poweredOff.size());
+      assertEquals(set("vm3"), _vcActions._poweredOff.get(0));
+      assertEquals(set("vm1", "vm2"), _vcActions._poweredOff.get(1));
+      assertEquals(3, _progressListener._totalCompleted);
+   }
+
+   @Test
+   public void testStreamingDisablePartialDecommission() throws Exception {
+      setDnsNames();
+      _hadoopActions._activeDuringDecommission.add(set("dns2", "dns3"));
+      _hadoopActions._activeDuringDecommission.add(set("dns3"));
+
+      Set<String> disabled = getPolicy(true, LONG_TIMEOUT_MILLIS, LONG_TIMEOUT_MILLIS).disableTTs(set("vm1", "vm2", "vm3"), 0, CLUSTER_ID, _progressListener);
+      /* vm3 never leaves the active list, so it's not successfully decommissioned, but it's still powered off once the check completes */
+      assertEquals(set("vm1", "vm2"), disabled);
+      assertEquals(3, _vcActions._poweredOff.size());
+      assertEquals(set("vm1"), _vcActions._poweredOff.get(0));
+      assertEquals(set("vm2"), _vcActions._poweredOff.get(1));
+      assertEquals(set("vm3"), _vcActions._poweredOff.get(2));
+      assertEquals(3, _progressListener._totalCompleted);
+   }
+
+   @Test
+   public void testStreamingDisablePowerOffFailure() throws Exception {
+      setDnsNames();
+      _vcActions._failingVmIds.add("vm2");
+      _hadoopActions._activeDuringDecommission.add(set("dns2", "dns3"));
+      _hadoopActions._activeDuringDecommission.add(set("dns3"));
+      _hadoopActions._activeDuringDecommission.add(set());
+
+      Set<String> disabled = getPolicy(true, LONG_TIMEOUT_MILLIS, LONG_TIMEOUT_MILLIS).disableTTs(set("vm1", "vm2", "vm3"), 0, CLUSTER_ID, _progressListener);
+      assertEquals(set("vm1", "vm2", "vm3"), disabled);
+
+      /* A failure to power off one VM doesn't hold up the others, and the VM isn't powered off a second time at the end */
+      assertEquals(3, _vcActions._poweredOff.size());
+      assertEquals(set("vm2"), _vcActions._poweredOff.get(1));
+      assertEquals(set("vm3"), _vcActions._poweredOff.get(2));
+   }
+
+   @Test
+   public void testNonStreamingDisablePowersOffTogether() throws Exception {
+      setDnsNames();
+      _hadoopActions._activeDuringDecommission.add(set("dns3"));
+      _hadoopActions._activeDuringDecommission.add(set());
+
+      Set<String> disabled = getPolicy(false, LONG_TIMEOUT_MILLIS, LONG_TIMEOUT_MILLIS).disableTTs(set("vm1", "vm2", "vm3"), 0, CLUSTER_ID, _progressListener);
+      assertEquals(set("vm1", "vm2", "vm3"), disabled);
+      assertEquals(1, _vcActions._poweredOff.size());
+      assertEquals(set("vm1", "vm2", "vm3"), _vcActions._poweredOff.get(0));
+   }
+}
@@ -0,0 +1,77 @@
+/***************************************************************************
+* Copyright (c) 2013 VMware, Inc. All Rights Reserved.
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+***************************************************************************/
+
+package com.vmware.vhadoop.vhm.strategy;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class TestScaleOutWavePacer {
+
+   @Test
+   public void testWaveSizeBounds() {
+      ScaleOutWavePacer pacer = new ScaleOutWavePacer(500, 8, 64, 0);
+      assertEquals(64, pacer.getNextWaveSize(1000));
+      assertEquals(10, pacer.getNextWaveSize(10));
+
+      pacer = new ScaleOutWavePacer(2, 8, 64, 0);
+      assertEquals(8, pacer.getNextWaveSize(1000));
+   }
+
+   @Test
+   public void testGrowsWhileRateKeepsUp() {
+      ScaleOutWavePacer pacer = new ScaleOutWavePacer(16, 8, 64, 0);
+      pacer.waveCompleted(16, 16, 60000);
+      assertEquals(32, pacer.getNextWaveSize(1000));
+      /* Twice the VMs in the same time is a better rate */
+      pacer.waveCompleted(32, 32, 60000);
+      assertEquals(64, pacer.getNextWaveSize(1000));
+      pacer.waveCompleted(64, 64, 60000);
+      assertEquals(64, pacer.getNextWaveSize(1000));
+      assertEquals(0, pacer.getPauseMillis());
+   }
+
+   @Test
+   public void testBacksOffWhenRateDrops() {
+      ScaleOutWavePacer pacer = new ScaleOutWavePacer(16, 8, 64, 1000);
+      pacer.waveCompleted(16, 16, 60000);
+      assertEquals(32, pacer.getNextWaveSize(1000));
+      /* Twice the VMs took three times as long, so the bigger wave saturated something */
+      pacer.waveCompleted(32, 32, 180000);
+      assertEquals(24, pacer.getNextWaveSize(1000));
+      assertEquals(1000, pacer.getPauseMillis());
+   }
+
+   @Test
+   public void testPartialWaveDoesNotGrow() {
+      ScaleOutWavePacer pacer = new ScaleOutWavePacer(16, 8, 64, 0);
+      pacer.waveCompleted(4, 4, 1000);
+      assertEquals(16, pacer.getNextWaveSize(1000));
+   }
+
+   @Test
+   public void testFailedWaveShrinksAndPauses() {
+      ScaleOutWavePacer pacer = new ScaleOutWavePacer(32, 8, 64, 0);
+      pacer.waveCompleted(32, 10, 120000);
+      assertEquals(16, pacer.getNextWaveSize(1000));
+      assertEquals(60000, pacer.getPauseMillis());
+
+      /* A successful wave resets the pause */
+      pacer.waveCompleted(16, 16, 60000);
+      assertEquals(0, pacer.getPauseMillis());
+      assertEquals(32, pacer.getNextWaveSize(1000));
+   }
+}